@@ -0,0 +1,239 @@
+package adaptiveparser;
+
+import bitparser.BitParallelParser;
+import cykparser.CYKParser;
+import earleyparser.EarleyParser;
+import gfgparser.GFGParser;
+import gllparser.GLLParser;
+import glrparser.GLRParser;
+import lalrparser.LALRParser;
+import lr0parser.LR0Parser;
+import shared.*;
+import shared.analysis.GrammarAnalysis;
+import shared.analysis.WordSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public class AdaptiveParser implements Parser {
+
+    // Hands each parse to whichever engine should be fastest on it. Every
+    // engine returns the same tree, so the choice only changes how long a
+    // parse takes. The grammar is profiled once, which gives an order to
+    // try the engines in, and then the engines are timed on a few generated
+    // words of different lengths. From then on each parse goes to the
+    // engine with the lowest expected time for its length, and is timed
+    // too, so the choice follows what the engines actually do on real
+    // inputs. Every so often a parse goes to the engine that was timed
+    // longest ago instead, so an engine that only looked slow (say, before
+    // the JIT got to it) gets another chance.
+
+    public static final int[] CALIBRATION_LENGTHS = {4, 8, 16};
+    public static final int CALIBRATION_WORDS = 3;
+    // Calibration stops moving on to longer words once it has taken this
+    // long, since on very ambiguous grammars they get slow quickly
+    public static final long CALIBRATION_BUDGET_NANOS = 1000000000L;
+    // One parse out of this many goes to the engine timed longest ago
+    public static final int EXPLORATION_INTERVAL = 32;
+    // But never to one that's expected to take more than this many times
+    // as long as the best one
+    public static final double MAX_EXPLORATION_SLOWDOWN = 4;
+
+    private Grammar grammar;
+    private boolean calibrating;
+    private GrammarProfile profile;
+    // Which version of the grammar the profile and timings are for
+    private int profileModificationCount;
+    // In the order the profile says to try them
+    private ArrayList<Parser> engines;
+    private ArrayList<EngineTimings> timings;
+    private HashMap<String, Integer> servedCounts;
+    private long parseCount;
+    private String lastEngineName;
+
+    public AdaptiveParser(Grammar g) {
+        this(g, true);
+    }
+
+    // Without calibration, the first parse of each length goes to the
+    // engine the profile puts first, and the rest is learned as it goes
+    public AdaptiveParser(Grammar g, boolean calibrate) {
+        calibrating = calibrate;
+        setGrammar(g);
+    }
+
+    @Override
+    public void setGrammar(Grammar g) {
+        grammar = g;
+        LALRParser lalrParser = new LALRParser(grammar);
+        profile = new GrammarProfile(grammar, lalrParser.getTable());
+        profileModificationCount = grammar.getModificationCount();
+
+        // Deterministic grammars go to the LALR(1) parser, which never has
+        // to fall back on them. Right recursion is cheap for the parsers
+        // with a graph-structured stack, and left recursion for the chart
+        // parsers
+        Parser glrParser = new GLRParser(grammar);
+        Parser gllParser = new GLLParser(grammar);
+        engines = new ArrayList<>();
+        if(profile.isDeterministic()) {
+            engines.add(lalrParser);
+            engines.add(glrParser);
+        } else if(profile.isMostlyRightRecursive()) {
+            engines.add(gllParser);
+            engines.add(glrParser);
+        }
+        engines.add(new GFGParser(grammar));
+        engines.add(new BitParallelParser(grammar));
+        engines.add(new EarleyParser(grammar));
+        if(! profile.isExtended()) {
+            engines.add(new LR0Parser(grammar));
+        }
+        for(Parser engine : new Parser[] {lalrParser, glrParser, gllParser}) {
+            if(! engines.contains(engine)) {
+                engines.add(engine);
+            }
+        }
+        engines.add(new CYKParser(grammar));
+
+        timings = new ArrayList<>();
+        for(Parser engine : engines) {
+            timings.add(new EngineTimings(getName(engine)));
+        }
+        servedCounts = new HashMap<>();
+        parseCount = 0;
+        lastEngineName = null;
+        if(calibrating) {
+            calibrate();
+        }
+    }
+
+    public GrammarProfile getProfile() {
+        return profile;
+    }
+
+    public List<EngineTimings> getTimings() {
+        return timings;
+    }
+
+    // The engine that served the last parse, or null before the first one
+    public String getLastEngineName() {
+        return lastEngineName;
+    }
+
+    // How many parses the engine has served, not counting calibration
+    public int getServedCount(String engineName) {
+        Integer count = servedCounts.get(engineName);
+        return count == null ? 0 : count;
+    }
+
+    // The engine the next parse of this many tokens would go to, if it
+    // isn't one that explores
+    public String getChosenEngineName(int tokenCount) {
+        return getName(engines.get(chooseBest(tokenCount)));
+    }
+
+    @Override
+    public ParseTreeNode parse(List<Token> tokens) {
+        if(profileModificationCount != grammar.getModificationCount()) {
+            // The engine order comes from the profile, and the timings are
+            // for the old rules, so start over like for a new grammar
+            setGrammar(grammar);
+        }
+        parseCount++;
+        int engine = chooseBest(tokens.size());
+        if(parseCount % EXPLORATION_INTERVAL == 0) {
+            engine = chooseExploring(tokens.size(), engine);
+        }
+        ParseTreeNode result = timeParse(engine, tokens);
+        lastEngineName = timings.get(engine).getEngineName();
+        Integer count = servedCounts.get(lastEngineName);
+        servedCounts.put(lastEngineName, count == null ? 1 : count + 1);
+        return result;
+    }
+
+    private ParseTreeNode timeParse(int engine, List<Token> tokens) {
+        long startTime = System.nanoTime();
+        ParseTreeNode result = engines.get(engine).parse(tokens);
+        timings.get(engine).record(tokens.size(), System.nanoTime() - startTime, parseCount);
+        return result;
+    }
+
+    // The engine with the lowest expected time, or the first one in the
+    // profile's order if none of them have been timed
+    private int chooseBest(int tokenCount) {
+        int best = 0;
+        double bestEstimate = Double.NaN;
+        for(int engine = 0; engine < engines.size(); engine++) {
+            double estimate = timings.get(engine).estimate(tokenCount);
+            if(! Double.isNaN(estimate) && (Double.isNaN(bestEstimate) || estimate < bestEstimate)) {
+                best = engine;
+                bestEstimate = estimate;
+            }
+        }
+        return best;
+    }
+
+    // The engine timed longest ago for this length, out of the ones that
+    // aren't expected to be much slower than the best. An engine that's
+    // never been timed for this length counts as longest ago
+    private int chooseExploring(int tokenCount, int best) {
+        int bucket = EngineTimings.getBucket(tokenCount);
+        double limit = timings.get(best).estimate(tokenCount) * MAX_EXPLORATION_SLOWDOWN;
+        int chosen = best;
+        long chosenLastSampled = getLastSampled(timings.get(best), bucket);
+        for(int engine = 0; engine < engines.size(); engine++) {
+            EngineTimings engineTimings = timings.get(engine);
+            double estimate = engineTimings.estimate(tokenCount);
+            if(! Double.isNaN(estimate) && estimate > limit) {
+                continue;
+            }
+            long lastSampled = getLastSampled(engineTimings, bucket);
+            if(lastSampled < chosenLastSampled) {
+                chosen = engine;
+                chosenLastSampled = lastSampled;
+            }
+        }
+        return chosen;
+    }
+
+    private static long getLastSampled(EngineTimings engineTimings, int bucket) {
+        return engineTimings.hasSamples(bucket) ? engineTimings.getLastSampled(bucket) : -1;
+    }
+
+    // Times every engine on a few generated words of each calibration
+    // length, after parsing them once untimed so the timings aren't all
+    // class loading. The word generator can't expand EBNF operators, and
+    // needs the start nonterminal to produce something, so otherwise the
+    // timings are left to the real parses
+    private void calibrate() {
+        if(grammar.isExtended() ||
+                ! GrammarAnalysis.of(grammar).isProductive(grammar.getStartRule().getLeftHandSide())) {
+            return;
+        }
+        WordSource generator = new WordSource(grammar);
+        long startTime = System.nanoTime();
+        for(int length : CALIBRATION_LENGTHS) {
+            if(System.nanoTime() - startTime > CALIBRATION_BUDGET_NANOS) {
+                break;
+            }
+            ArrayList<List<Token>> words = new ArrayList<>();
+            for(int i = 0; i < CALIBRATION_WORDS; i++) {
+                words.add(generator.generateTokens(length));
+            }
+            for(int engine = 0; engine < engines.size(); engine++) {
+                for(List<Token> word : words) {
+                    engines.get(engine).parse(word);
+                }
+                for(List<Token> word : words) {
+                    timeParse(engine, word);
+                }
+            }
+        }
+    }
+
+    private static String getName(Parser engine) {
+        return engine.getClass().getSimpleName();
+    }
+}
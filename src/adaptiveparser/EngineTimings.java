@@ -0,0 +1,81 @@
+package adaptiveparser;
+
+import java.util.Arrays;
+
+public class EngineTimings {
+
+    // How long one engine has taken per token, kept separately for each
+    // range of input lengths, since an engine that wins on short inputs can
+    // lose on long ones. Length 1 is bucket 0, 2 and 3 are bucket 1, 4 to 7
+    // are bucket 2, and so on. Each bucket is a moving average that weighs
+    // recent parses more, so that the timings follow the JIT warming up and
+    // the inputs changing
+
+    public static final int BUCKET_COUNT = 32;
+    // How much each new timing counts towards the average
+    public static final double SMOOTHING = 0.25;
+
+    private String engineName;
+    // NaN where the engine hasn't been timed yet
+    private double[] nanosPerToken;
+    private int[] sampleCounts;
+    // When each bucket was last timed, as a count of parses
+    private long[] lastSampled;
+
+    public EngineTimings(String name) {
+        engineName = name;
+        nanosPerToken = new double[BUCKET_COUNT];
+        Arrays.fill(nanosPerToken, Double.NaN);
+        sampleCounts = new int[BUCKET_COUNT];
+        lastSampled = new long[BUCKET_COUNT];
+    }
+
+    public static int getBucket(int tokenCount) {
+        return 31 - Integer.numberOfLeadingZeros(Math.max(tokenCount, 1));
+    }
+
+    public String getEngineName() {
+        return engineName;
+    }
+
+    public void record(int tokenCount, long elapsedNanos, long parseNumber) {
+        int bucket = getBucket(tokenCount);
+        double sample = (double) elapsedNanos / Math.max(tokenCount, 1);
+        if(sampleCounts[bucket] == 0) {
+            nanosPerToken[bucket] = sample;
+        } else {
+            nanosPerToken[bucket] += SMOOTHING * (sample - nanosPerToken[bucket]);
+        }
+        sampleCounts[bucket]++;
+        lastSampled[bucket] = parseNumber;
+    }
+
+    public boolean hasSamples(int bucket) {
+        return sampleCounts[bucket] > 0;
+    }
+
+    public int getSampleCount(int bucket) {
+        return sampleCounts[bucket];
+    }
+
+    public long getLastSampled(int bucket) {
+        return lastSampled[bucket];
+    }
+
+    // The expected time for a parse of this many tokens. Buckets that
+    // haven't been timed borrow the nearest one that has, which is only a
+    // guess, since the engines aren't all linear. NaN if the engine hasn't
+    // been timed at all
+    public double estimate(int tokenCount) {
+        int bucket = getBucket(tokenCount);
+        for(int distance = 0; distance < BUCKET_COUNT; distance++) {
+            if(bucket - distance >= 0 && sampleCounts[bucket - distance] > 0) {
+                return nanosPerToken[bucket - distance] * tokenCount;
+            }
+            if(bucket + distance < BUCKET_COUNT && sampleCounts[bucket + distance] > 0) {
+                return nanosPerToken[bucket + distance] * tokenCount;
+            }
+        }
+        return Double.NaN;
+    }
+}
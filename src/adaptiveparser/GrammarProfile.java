@@ -0,0 +1,96 @@
+package adaptiveparser;
+
+import lalrparser.LALRTable;
+import shared.*;
+import shared.analysis.GrammarAnalysis;
+
+public class GrammarProfile {
+
+    // The static facts about a grammar that decide which engine to try
+    // first, before any of them have been timed on it. Most of them come
+    // from the shared grammar analysis. The LALR(1) conflict count stands
+    // in for ambiguity: a grammar without conflicts is never ambiguous, and
+    // the more conflicts it has, the more of the input the deterministic
+    // parsers have to hand over to a general one
+
+    private int nonterminalCount;
+    private int ruleCount;
+    private int leftRecursiveCount;
+    private int rightRecursiveCount;
+    private int nullableCount;
+    private boolean extended;
+    private boolean hasEmptyRule;
+    // -1 if there's no table, because the grammar uses EBNF operators
+    private int conflictCount;
+
+    public GrammarProfile(Grammar grammar, LALRTable table) {
+        GrammarAnalysis analysis = GrammarAnalysis.of(grammar);
+        nonterminalCount = grammar.getNonterminals().size();
+        for(Nonterminal nonterminal : grammar.getNonterminals()) {
+            for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+                ruleCount++;
+                if(rule.getRightHandSide().isEmpty()) {
+                    hasEmptyRule = true;
+                }
+            }
+            if(analysis.isNullable(nonterminal)) {
+                nullableCount++;
+            }
+        }
+        leftRecursiveCount = analysis.getLeftRecursiveNonterminals().size();
+        rightRecursiveCount = analysis.getRightRecursiveNonterminals().size();
+        extended = grammar.isExtended();
+        conflictCount = table == null ? -1 : table.getConflictCount();
+    }
+
+    public int getNonterminalCount() {
+        return nonterminalCount;
+    }
+
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    public int getLeftRecursiveCount() {
+        return leftRecursiveCount;
+    }
+
+    public int getRightRecursiveCount() {
+        return rightRecursiveCount;
+    }
+
+    public int getNullableCount() {
+        return nullableCount;
+    }
+
+    public boolean isExtended() {
+        return extended;
+    }
+
+    public boolean hasEmptyRule() {
+        return hasEmptyRule;
+    }
+
+    public int getConflictCount() {
+        return conflictCount;
+    }
+
+    public boolean isDeterministic() {
+        return conflictCount == 0;
+    }
+
+    // Right recursion makes the chart parsers keep a completed entry for
+    // every enclosing call, so it costs them quadratic time, while left
+    // recursion is what they're good at
+    public boolean isMostlyRightRecursive() {
+        return rightRecursiveCount > leftRecursiveCount;
+    }
+
+    @Override
+    public String toString() {
+        return nonterminalCount + " nonterminals, " + ruleCount + " rules, " +
+                leftRecursiveCount + " left recursive, " + rightRecursiveCount + " right recursive, " +
+                nullableCount + " nullable, " +
+                (conflictCount == -1 ? "no LALR(1) table" : conflictCount + " LALR(1) conflicts");
+    }
+}
@@ -0,0 +1,447 @@
+package bitparser;
+
+import gfgparser.GFGParser;
+import shared.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public class BitParallelParser implements Parser {
+
+    // Beyond this many items, a row of a sigma set is more words than it's
+    // worth, so we hand the grammar over to the GFG parser instead
+    public static final int MAX_ITEMS = 1024;
+
+    private Grammar grammar;
+    // Only set if the grammar has too many items for this parser
+    private Parser fallbackParser;
+
+    // Every dotted item (a rule plus a cursor index) gets a number, and the
+    // items of a rule are numbered consecutively in cursor order. That way
+    // moving the cursor of an item one to the right is just adding one to
+    // its number, and moving the cursors of a whole set of items is a
+    // single shift.
+    private int wordCount;
+    private ArrayList<GrammarRule> rules;
+    private int[] ruleFirstItems;
+    private Nonterminal[] nonterminals;
+    private HashMap<Nonterminal, Integer> nonterminalIds;
+    private HashMap<Symbol, Integer> symbolIds;
+    private int[][] rulesWithLeftHandSide;
+    // For completed items, the left hand side of their rule
+    private int[] itemLeftHandSides;
+    private long[] completedMask;
+    // Items whose next element is the given terminal
+    private long[][] scanMasks;
+    // Items whose next element is the given nonterminal
+    private long[][] precedingMasks;
+    // Completed items whose rule has the given nonterminal on the left
+    private long[][] completedMasks;
+    // The items predicted when the given nonterminal is called. This is
+    // already closed, so it includes everything those items predict too
+    private long[][] predictionMasks;
+    private int acceptingItem;
+    // Items are numbered across the whole grammar, so if rules have been
+    // added or removed since the masks were built, they're rebuilt
+    private int masksModificationCount;
+
+    public BitParallelParser(Grammar g) {
+        setGrammar(g);
+    }
+
+    @Override
+    public void setGrammar(Grammar g) {
+        grammar = g;
+        masksModificationCount = grammar.getModificationCount();
+
+        // Number the nonterminals, rules and items
+        nonterminals = new Nonterminal[grammar.getNonterminals().size()];
+        nonterminalIds = new HashMap<>();
+        for(Nonterminal nonterminal : grammar.getNonterminals()) {
+            nonterminalIds.put(nonterminal, nonterminalIds.size());
+            nonterminals[nonterminalIds.get(nonterminal)] = nonterminal;
+        }
+        rules = new ArrayList<>();
+        rulesWithLeftHandSide = new int[nonterminals.length][];
+        int itemCount = 0;
+        for(int nonterminalId = 0; nonterminalId < nonterminals.length; nonterminalId++) {
+            List<GrammarRule> nonterminalRules = grammar.getRulesWithLeftHandSide(nonterminals[nonterminalId]);
+            rulesWithLeftHandSide[nonterminalId] = new int[nonterminalRules.size()];
+            for(int i = 0; i < nonterminalRules.size(); i++) {
+                rulesWithLeftHandSide[nonterminalId][i] = rules.size();
+                rules.add(nonterminalRules.get(i));
+                itemCount += nonterminalRules.get(i).getRightHandSide().size() + 1;
+            }
+        }
+        // Items with EBNF operators don't move one to the right, so those
+        // grammars go to the GFG parser too
+        if(itemCount > MAX_ITEMS || grammar.isExtended()) {
+            fallbackParser = new GFGParser(grammar);
+            return;
+        }
+        fallbackParser = null;
+
+        wordCount = (itemCount + 63) / 64;
+        ruleFirstItems = new int[rules.size()];
+        itemLeftHandSides = new int[itemCount];
+        completedMask = new long[wordCount];
+        precedingMasks = new long[nonterminals.length][wordCount];
+        completedMasks = new long[nonterminals.length][wordCount];
+        symbolIds = new HashMap<>();
+        ArrayList<long[]> scanMaskList = new ArrayList<>();
+        int item = 0;
+        for(int ruleNumber = 0; ruleNumber < rules.size(); ruleNumber++) {
+            GrammarRule rule = rules.get(ruleNumber);
+            int leftHandSideId = nonterminalIds.get(rule.getLeftHandSide());
+            ruleFirstItems[ruleNumber] = item;
+            for(GrammarElement element : rule.getRightHandSide()) {
+                if(element instanceof Terminal) {
+                    Symbol symbol = ((Terminal) element).getSymbol();
+                    if(! symbolIds.containsKey(symbol)) {
+                        symbolIds.put(symbol, scanMaskList.size());
+                        scanMaskList.add(new long[wordCount]);
+                    }
+                    setBit(scanMaskList.get(symbolIds.get(symbol)), item);
+                } else {
+                    setBit(precedingMasks[nonterminalIds.get(element)], item);
+                }
+                item++;
+            }
+            // item is now the completed item
+            itemLeftHandSides[item] = leftHandSideId;
+            setBit(completedMask, item);
+            setBit(completedMasks[leftHandSideId], item);
+            item++;
+        }
+        scanMasks = scanMaskList.toArray(new long[scanMaskList.size()][]);
+
+        // Close the predictions. A nonterminal predicts the first items of
+        // its rules, and everything that any of those items predicts
+        predictionMasks = new long[nonterminals.length][];
+        for(int nonterminalId = 0; nonterminalId < nonterminals.length; nonterminalId++) {
+            long[] prediction = new long[wordCount];
+            boolean[] predicted = new boolean[nonterminals.length];
+            ArrayList<Integer> toPredict = new ArrayList<>();
+            toPredict.add(nonterminalId);
+            predicted[nonterminalId] = true;
+            while(! toPredict.isEmpty()) {
+                int predictedId = toPredict.remove(toPredict.size() - 1);
+                for(int ruleNumber : rulesWithLeftHandSide[predictedId]) {
+                    setBit(prediction, ruleFirstItems[ruleNumber]);
+                    List<GrammarElement> ruleRHS = rules.get(ruleNumber).getRightHandSide();
+                    if(! ruleRHS.isEmpty() && ruleRHS.get(0) instanceof Nonterminal) {
+                        int firstId = nonterminalIds.get(ruleRHS.get(0));
+                        if(! predicted[firstId]) {
+                            predicted[firstId] = true;
+                            toPredict.add(firstId);
+                        }
+                    }
+                }
+            }
+            predictionMasks[nonterminalId] = prediction;
+        }
+
+        GrammarRule startRule = grammar.getStartRule();
+        int startRuleNumber = rulesWithLeftHandSide[nonterminalIds.get(startRule.getLeftHandSide())][0];
+        acceptingItem = ruleFirstItems[startRuleNumber] + startRule.getRightHandSide().size();
+    }
+
+    @Override
+    public ParseTreeNode parse(List<Token> tokens) {
+        // The GFG parser keeps itself up to date
+        if(fallbackParser == null && masksModificationCount != grammar.getModificationCount()) {
+            setGrammar(grammar);
+        }
+        if(fallbackParser != null) {
+            return fallbackParser.parse(tokens);
+        }
+        List<long[][]> sigmaSets = recognize(tokens);
+        if(sigmaSets == null) {
+            return null;
+        }
+        int startId = nonterminalIds.get(grammar.getStartRule().getLeftHandSide());
+        return buildNode(startId, 0, tokens.size(), sigmaSets, tokens, new ParseTreeNodeCache());
+    }
+
+    public boolean isUsingFallback() {
+        return fallbackParser != null;
+    }
+
+    // Runs the recognizer, and returns the sigma sets if the tokens are in
+    // the language, or null if they aren't. Sigma set k is an array indexed
+    // by tag, where each element is the bitset of items with that tag (or
+    // null if there are none)
+    private List<long[][]> recognize(List<Token> tokens) {
+        ArrayList<long[][]> sigmaSets = new ArrayList<>();
+        long[][] sigmaSet0 = new long[1][];
+        int startId = nonterminalIds.get(grammar.getStartRule().getLeftHandSide());
+        sigmaSet0[0] = predictionMasks[startId].clone();
+        sigmaSets.add(sigmaSet0);
+        closeSigmaSet(sigmaSets, 0);
+
+        for(int tokenIndex = 0; tokenIndex < tokens.size(); tokenIndex++) {
+            long[][] previousSigmaSet = sigmaSets.get(tokenIndex);
+            long[][] nextSigmaSet = new long[tokenIndex + 2][];
+            sigmaSets.add(nextSigmaSet);
+            // This is the Scan step, for every tag at once
+            Integer symbolId = symbolIds.get(tokens.get(tokenIndex).getType());
+            boolean scannedAnything = false;
+            if(symbolId != null) {
+                long[] scanMask = scanMasks[symbolId];
+                for(int tag = 0; tag <= tokenIndex; tag++) {
+                    if(previousSigmaSet[tag] != null) {
+                        long[] scanned = new long[wordCount];
+                        if(advanceInto(previousSigmaSet[tag], scanMask, scanned)) {
+                            nextSigmaSet[tag] = scanned;
+                            scannedAnything = true;
+                        }
+                    }
+                }
+            }
+            if(! scannedAnything) {
+                // Nothing will ever get into the later sigma sets
+                return null;
+            }
+            closeSigmaSet(sigmaSets, tokenIndex + 1);
+        }
+
+        long[] acceptingRow = sigmaSets.get(tokens.size())[0];
+        if(acceptingRow == null || ! hasBit(acceptingRow, acceptingItem)) {
+            return null;
+        }
+        return sigmaSets;
+    }
+
+    // Does the Exit & End and Call & Start steps until nothing new gets
+    // added to the sigma set
+    private void closeSigmaSet(List<long[][]> sigmaSets, int currentSigmaSetIndex) {
+        long[][] currentSigmaSet = sigmaSets.get(currentSigmaSetIndex);
+        // Which nonterminals have already been completed for each tag.
+        // Sigma sets before this one never change, so completing the same
+        // nonterminal with the same (earlier) tag twice would do nothing
+        boolean[][] completedNonterminals = new boolean[currentSigmaSetIndex + 1][];
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            // Completing an item with tag j can only add items with tags
+            // j or lower, so going from high tags to low ones catches
+            // most chains of completions in a single pass
+            for(int tag = currentSigmaSetIndex; tag >= 0; tag--) {
+                long[] row = currentSigmaSet[tag];
+                if(row == null) {
+                    continue;
+                }
+                long[][] callingSigmaSet = sigmaSets.get(tag);
+                for(int word = 0; word < wordCount; word++) {
+                    long completedBits = row[word] & completedMask[word];
+                    while(completedBits != 0) {
+                        int item = word * 64 + Long.numberOfTrailingZeros(completedBits);
+                        completedBits &= completedBits - 1;
+                        int endingId = itemLeftHandSides[item];
+                        // Items with the current tag were just predicted
+                        // here, and the calling set is this same set,
+                        // which may still be growing
+                        if(tag < currentSigmaSetIndex) {
+                            if(completedNonterminals[tag] == null) {
+                                completedNonterminals[tag] = new boolean[nonterminals.length];
+                            }
+                            if(completedNonterminals[tag][endingId]) {
+                                continue;
+                            }
+                            completedNonterminals[tag][endingId] = true;
+                        }
+                        long[] precedingMask = precedingMasks[endingId];
+                        for(int callingTag = 0; callingTag <= tag; callingTag++) {
+                            long[] callingRow = callingSigmaSet[callingTag];
+                            if(callingRow == null) {
+                                continue;
+                            }
+                            if(currentSigmaSet[callingTag] == null) {
+                                long[] advanced = new long[wordCount];
+                                if(advanceInto(callingRow, precedingMask, advanced)) {
+                                    currentSigmaSet[callingTag] = advanced;
+                                    changed = true;
+                                }
+                            } else if(advanceInto(callingRow, precedingMask, currentSigmaSet[callingTag])) {
+                                changed = true;
+                            }
+                        }
+                    }
+                }
+            }
+
+            // This is the Call & Start step. Everything that gets predicted
+            // has the current tag, so we can merge all the rows first, and
+            // then check each nonterminal once
+            long[] allItems = new long[wordCount];
+            for(long[] row : currentSigmaSet) {
+                if(row != null) {
+                    for(int word = 0; word < wordCount; word++) {
+                        allItems[word] |= row[word];
+                    }
+                }
+            }
+            long[] predicted = new long[wordCount];
+            for(int nonterminalId = 0; nonterminalId < nonterminals.length; nonterminalId++) {
+                if(intersects(allItems, precedingMasks[nonterminalId])) {
+                    long[] prediction = predictionMasks[nonterminalId];
+                    for(int word = 0; word < wordCount; word++) {
+                        predicted[word] |= prediction[word];
+                    }
+                }
+            }
+            if(currentSigmaSet[currentSigmaSetIndex] == null) {
+                currentSigmaSet[currentSigmaSetIndex] = new long[wordCount];
+            }
+            if(orInto(predicted, currentSigmaSet[currentSigmaSetIndex])) {
+                changed = true;
+            }
+        }
+    }
+
+    private ParseTreeParent buildNode(int nonterminalId,
+                                      int start,
+                                      int end,
+                                      List<long[][]> sigmaSets,
+                                      List<Token> tokens,
+                                      ParseTreeNodeCache existingNodes) {
+        Nonterminal nonterminal = nonterminals[nonterminalId];
+        if(existingNodes.containsParent(start, end - 1, nonterminal)) {
+            return existingNodes.getParent(start, end - 1, nonterminal);
+        }
+        ParseTreeParent node = new ParseTreeParent(nonterminal);
+        existingNodes.addParent(start, end - 1, nonterminal, node);
+        long[] endingRow = sigmaSets.get(end)[start];
+        for(int ruleNumber : rulesWithLeftHandSide[nonterminalId]) {
+            int ruleLength = rules.get(ruleNumber).getRightHandSide().size();
+            if(hasBit(endingRow, ruleFirstItems[ruleNumber] + ruleLength)) {
+                addChildrenRightToLeft(
+                        node,
+                        ruleNumber,
+                        ruleLength,
+                        end,
+                        start,
+                        new ArrayList<ParseTreeNode>(),
+                        existingNodes,
+                        sigmaSets,
+                        tokens);
+            }
+        }
+        return node;
+    }
+
+    // The bit sets don't remember how items got there, so working from
+    // right to left we look for every split of the tokens that has the
+    // right items in the right sigma sets
+    private void addChildrenRightToLeft(ParseTreeParent parent,
+                                        int ruleNumber,
+                                        int cursorIndex,
+                                        int currentSigmaSetIndex,
+                                        int tag,
+                                        List<ParseTreeNode> accumulatedNodes,
+                                        ParseTreeNodeCache existingNodes,
+                                        List<long[][]> sigmaSets,
+                                        List<Token> tokens) {
+        if(cursorIndex == 0) {
+            // We're done working right to left. They were added in from
+            // right to left, so we need to reverse them first
+            ArrayList<ParseTreeNode> childTreeNodes = new ArrayList<>();
+            for(int i = accumulatedNodes.size() - 1; i >= 0; i--) {
+                childTreeNodes.add(accumulatedNodes.get(i));
+            }
+            parent.addChildTree(childTreeNodes);
+            return;
+        }
+        int previousItem = ruleFirstItems[ruleNumber] + cursorIndex - 1;
+        GrammarElement previousElement = rules.get(ruleNumber).getRightHandSide().get(cursorIndex - 1);
+        if(previousElement instanceof Terminal) {
+            int tokenIndex = currentSigmaSetIndex - 1;
+            if(tokenIndex < tag || ! hasItem(sigmaSets.get(tokenIndex), tag, previousItem)) {
+                return;
+            }
+            ParseTreeLeaf scanLeaf;
+            if(existingNodes.containsLeaf(tokenIndex)) {
+                scanLeaf = existingNodes.getLeaf(tokenIndex);
+            } else {
+                scanLeaf = new ParseTreeLeaf(tokens.get(tokenIndex));
+                existingNodes.addLeaf(tokenIndex, scanLeaf);
+            }
+            accumulatedNodes.add(scanLeaf);
+            addChildrenRightToLeft(parent, ruleNumber, cursorIndex - 1, tokenIndex, tag,
+                    accumulatedNodes, existingNodes, sigmaSets, tokens);
+            accumulatedNodes.remove(accumulatedNodes.size() - 1);
+        } else {
+            int previousId = nonterminalIds.get(previousElement);
+            long[][] currentSigmaSet = sigmaSets.get(currentSigmaSetIndex);
+            // The nonterminal covers the tokens from callingIndex up to the
+            // current index, for every callingIndex where both the item
+            // before it and the nonterminal's completion are there
+            for(int callingIndex = currentSigmaSetIndex; callingIndex >= tag; callingIndex--) {
+                long[] completedRow = currentSigmaSet[callingIndex];
+                if(completedRow == null ||
+                        ! intersects(completedRow, completedMasks[previousId]) ||
+                        ! hasItem(sigmaSets.get(callingIndex), tag, previousItem)) {
+                    continue;
+                }
+                ParseTreeParent nonterminalNode = buildNode(previousId, callingIndex, currentSigmaSetIndex,
+                        sigmaSets, tokens, existingNodes);
+                accumulatedNodes.add(nonterminalNode);
+                addChildrenRightToLeft(parent, ruleNumber, cursorIndex - 1, callingIndex, tag,
+                        accumulatedNodes, existingNodes, sigmaSets, tokens);
+                accumulatedNodes.remove(accumulatedNodes.size() - 1);
+            }
+        }
+    }
+
+    // Moves the cursor of every item in row that is also in mask, and ORs
+    // the moved items into destination. Returns whether destination changed
+    private boolean advanceInto(long[] row, long[] mask, long[] destination) {
+        boolean changed = false;
+        long carry = 0;
+        for(int word = 0; word < wordCount; word++) {
+            long selected = row[word] & mask[word];
+            long advanced = (selected << 1) | carry;
+            carry = selected >>> 63;
+            long newBits = advanced & ~destination[word];
+            if(newBits != 0) {
+                destination[word] |= newBits;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private boolean orInto(long[] source, long[] destination) {
+        boolean changed = false;
+        for(int word = 0; word < wordCount; word++) {
+            long newBits = source[word] & ~destination[word];
+            if(newBits != 0) {
+                destination[word] |= newBits;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private boolean intersects(long[] first, long[] second) {
+        for(int word = 0; word < wordCount; word++) {
+            if((first[word] & second[word]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasItem(long[][] sigmaSet, int tag, int item) {
+        return sigmaSet[tag] != null && hasBit(sigmaSet[tag], item);
+    }
+
+    private static boolean hasBit(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void setBit(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+}
@@ -0,0 +1,324 @@
+package cykparser;
+
+import shared.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public class CNFGrammar {
+
+    // The grammar in Chomsky normal form, except that unit rules (one
+    // nonterminal on the right hand side) are kept instead of eliminated.
+    // CYK applies them by closing each cell under them, which is cheap
+    // with bitsets, and keeping them means every rule here still maps
+    // straight back to a rule of the grammar:
+    // - A rule with one terminal stays a lexical rule
+    // - A rule with one nonterminal stays a unit rule
+    // - A longer rule A -> X1 X2 ... Xk becomes A -> X1 <X2 ... Xk>,
+    //   <X2 ... Xk> -> X2 <X3 ... Xk>, and so on down to two elements. The
+    //   suffix nonterminals are shared by every rule that ends the same
+    //   way. Terminals in these rules are replaced by a wrapper nonterminal
+    //   with a lexical rule for just that terminal
+    // So the parse tree for a grammar nonterminal is the children of its
+    // rules here, with wrapper nonterminals turned back into leaves and
+    // suffix nonterminals flattened into the rest of the list.
+
+    // What each CNF nonterminal stands for
+    public static final int ORIGINAL = 0;
+    public static final int TERMINAL = 1;
+    public static final int SUFFIX = 2;
+
+    private ArrayList<Integer> kinds;
+    // The grammar nonterminal for originals, the symbol for wrappers, and
+    // null for suffixes
+    private ArrayList<Object> sources;
+    private HashMap<Nonterminal, Integer> nonterminalIds;
+    private HashMap<Symbol, Integer> wrapperIds;
+    private HashMap<List<Integer>, Integer> suffixIds;
+    private HashMap<Symbol, Integer> symbolIds;
+
+    // Binary rules, numbered, as parent, left child and right child
+    private ArrayList<int[]> binaryRuleList;
+    private ArrayList<ArrayList<Integer>> unitChildLists;
+    // For each symbol, the nonterminals with a lexical rule for it
+    private ArrayList<ArrayList<Integer>> lexicalParentLists;
+
+    // Everything below is worked out once the rules are all in
+    private int[] binaryParents;
+    private int[] binaryLefts;
+    private int[] binaryRights;
+    private int[][] binaryRules;
+    private int[][] unitChildren;
+    // For each nonterminal, every nonterminal that derives it through
+    // zero or more unit rules
+    private long[][] unitClosures;
+    // For each nonterminal, the binary rules it's the left or the right
+    // child of
+    private long[][] leftRuleMasks;
+    private long[][] rightRuleMasks;
+    // For each symbol, the nonterminals that derive it, closed under unit
+    // rules, and the ones that have a lexical rule for it
+    private long[][] lexicalSets;
+    private long[][] lexicalParents;
+
+    // The grammar can't use EBNF operators or have rules with an empty
+    // right hand side
+    public CNFGrammar(Grammar grammar) {
+        if(grammar.isExtended()) {
+            throw new IllegalArgumentException("CNF conversion doesn't support EBNF operators");
+        }
+        kinds = new ArrayList<>();
+        sources = new ArrayList<>();
+        nonterminalIds = new HashMap<>();
+        wrapperIds = new HashMap<>();
+        suffixIds = new HashMap<>();
+        symbolIds = new HashMap<>();
+        binaryRuleList = new ArrayList<>();
+        unitChildLists = new ArrayList<>();
+        lexicalParentLists = new ArrayList<>();
+
+        getNonterminalId(grammar.getStartRule().getLeftHandSide());
+        for(Nonterminal nonterminal : grammar.getNonterminals()) {
+            for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+                addRule(rule);
+            }
+        }
+        finish();
+    }
+
+    public int getNonterminalCount() {
+        return kinds.size();
+    }
+
+    public int getKind(int id) {
+        return kinds.get(id);
+    }
+
+    public Nonterminal getNonterminal(int id) {
+        return (Nonterminal) sources.get(id);
+    }
+
+    // Returns -1 for nonterminals that aren't in the grammar
+    public int findNonterminalId(Nonterminal nonterminal) {
+        Integer id = nonterminalIds.get(nonterminal);
+        return id == null ? -1 : id;
+    }
+
+    // Returns -1 for symbols that aren't in the grammar
+    public int getSymbolId(Symbol symbol) {
+        Integer id = symbolIds.get(symbol);
+        return id == null ? -1 : id;
+    }
+
+    public int getBinaryRuleCount() {
+        return binaryParents.length;
+    }
+
+    public int getBinaryParent(int rule) {
+        return binaryParents[rule];
+    }
+
+    public int getBinaryLeft(int rule) {
+        return binaryLefts[rule];
+    }
+
+    public int getBinaryRight(int rule) {
+        return binaryRights[rule];
+    }
+
+    // The binary rules with the nonterminal on their left hand side
+    public int[] getBinaryRules(int id) {
+        return binaryRules[id];
+    }
+
+    public int[] getUnitChildren(int id) {
+        return unitChildren[id];
+    }
+
+    public long[] getUnitClosure(int id) {
+        return unitClosures[id];
+    }
+
+    public long[] getLeftRuleMask(int id) {
+        return leftRuleMasks[id];
+    }
+
+    public long[] getRightRuleMask(int id) {
+        return rightRuleMasks[id];
+    }
+
+    public long[] getLexicalSet(int symbolId) {
+        return lexicalSets[symbolId];
+    }
+
+    public boolean hasLexicalRule(int id, int symbolId) {
+        return isSet(lexicalParents[symbolId], id);
+    }
+
+    public static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private void addRule(GrammarRule rule) {
+        int parent = getNonterminalId(rule.getLeftHandSide());
+        List<GrammarElement> ruleRHS = rule.getRightHandSide();
+        if(ruleRHS.isEmpty()) {
+            throw new IllegalArgumentException("CNF conversion doesn't support empty rules");
+        }
+        if(ruleRHS.size() == 1) {
+            GrammarElement element = ruleRHS.get(0);
+            if(element instanceof Terminal) {
+                lexicalParentLists.get(getSymbolIdForRule(((Terminal) element).getSymbol())).add(parent);
+            } else {
+                unitChildLists.get(parent).add(getNonterminalId((Nonterminal) element));
+            }
+            return;
+        }
+        ArrayList<Integer> elementIds = new ArrayList<>(ruleRHS.size());
+        for(GrammarElement element : ruleRHS) {
+            if(element instanceof Terminal) {
+                elementIds.add(getWrapperId(((Terminal) element).getSymbol()));
+            } else {
+                elementIds.add(getNonterminalId((Nonterminal) element));
+            }
+        }
+        binaryRuleList.add(new int[] {parent, elementIds.get(0), getRightId(elementIds, 1)});
+    }
+
+    // The nonterminal for the elements from index on, which is just the
+    // element if it's the last one
+    private int getRightId(List<Integer> elementIds, int index) {
+        if(index == elementIds.size() - 1) {
+            return elementIds.get(index);
+        }
+        List<Integer> suffix = elementIds.subList(index, elementIds.size());
+        Integer id = suffixIds.get(suffix);
+        if(id == null) {
+            id = addNonterminal(SUFFIX, null);
+            suffixIds.put(new ArrayList<>(suffix), id);
+            binaryRuleList.add(new int[] {id, elementIds.get(index), getRightId(elementIds, index + 1)});
+        }
+        return id;
+    }
+
+    private int getNonterminalId(Nonterminal nonterminal) {
+        Integer id = nonterminalIds.get(nonterminal);
+        if(id == null) {
+            id = addNonterminal(ORIGINAL, nonterminal);
+            nonterminalIds.put(nonterminal, id);
+        }
+        return id;
+    }
+
+    private int getWrapperId(Symbol symbol) {
+        Integer id = wrapperIds.get(symbol);
+        if(id == null) {
+            id = addNonterminal(TERMINAL, symbol);
+            wrapperIds.put(symbol, id);
+            lexicalParentLists.get(getSymbolIdForRule(symbol)).add(id);
+        }
+        return id;
+    }
+
+    private int getSymbolIdForRule(Symbol symbol) {
+        Integer id = symbolIds.get(symbol);
+        if(id == null) {
+            id = symbolIds.size();
+            symbolIds.put(symbol, id);
+            lexicalParentLists.add(new ArrayList<Integer>());
+        }
+        return id;
+    }
+
+    private int addNonterminal(int kind, Object source) {
+        kinds.add(kind);
+        sources.add(source);
+        unitChildLists.add(new ArrayList<Integer>());
+        return kinds.size() - 1;
+    }
+
+    private void finish() {
+        int nonterminalCount = kinds.size();
+        int nonterminalWords = (nonterminalCount + 63) / 64;
+        int ruleCount = binaryRuleList.size();
+        int ruleWords = (ruleCount + 63) / 64;
+
+        binaryParents = new int[ruleCount];
+        binaryLefts = new int[ruleCount];
+        binaryRights = new int[ruleCount];
+        ArrayList<ArrayList<Integer>> rulesByParent = new ArrayList<>();
+        leftRuleMasks = new long[nonterminalCount][ruleWords];
+        rightRuleMasks = new long[nonterminalCount][ruleWords];
+        for(int id = 0; id < nonterminalCount; id++) {
+            rulesByParent.add(new ArrayList<Integer>());
+        }
+        for(int rule = 0; rule < ruleCount; rule++) {
+            int[] binaryRule = binaryRuleList.get(rule);
+            binaryParents[rule] = binaryRule[0];
+            binaryLefts[rule] = binaryRule[1];
+            binaryRights[rule] = binaryRule[2];
+            rulesByParent.get(binaryRule[0]).add(rule);
+            set(leftRuleMasks[binaryRule[1]], rule);
+            set(rightRuleMasks[binaryRule[2]], rule);
+        }
+        binaryRules = toArrays(rulesByParent);
+        unitChildren = toArrays(unitChildLists);
+
+        // Walk the unit rules backwards from each nonterminal
+        ArrayList<ArrayList<Integer>> unitParentLists = new ArrayList<>();
+        for(int id = 0; id < nonterminalCount; id++) {
+            unitParentLists.add(new ArrayList<Integer>());
+        }
+        for(int id = 0; id < nonterminalCount; id++) {
+            for(int child : unitChildren[id]) {
+                unitParentLists.get(child).add(id);
+            }
+        }
+        unitClosures = new long[nonterminalCount][nonterminalWords];
+        for(int id = 0; id < nonterminalCount; id++) {
+            long[] closure = unitClosures[id];
+            ArrayList<Integer> toVisit = new ArrayList<>();
+            set(closure, id);
+            toVisit.add(id);
+            while(! toVisit.isEmpty()) {
+                int visiting = toVisit.remove(toVisit.size() - 1);
+                for(int parent : unitParentLists.get(visiting)) {
+                    if(! isSet(closure, parent)) {
+                        set(closure, parent);
+                        toVisit.add(parent);
+                    }
+                }
+            }
+        }
+
+        int symbolCount = symbolIds.size();
+        lexicalSets = new long[symbolCount][nonterminalWords];
+        lexicalParents = new long[symbolCount][nonterminalWords];
+        for(int symbolId = 0; symbolId < symbolCount; symbolId++) {
+            for(int parent : lexicalParentLists.get(symbolId)) {
+                set(lexicalParents[symbolId], parent);
+                long[] closure = unitClosures[parent];
+                for(int word = 0; word < nonterminalWords; word++) {
+                    lexicalSets[symbolId][word] |= closure[word];
+                }
+            }
+        }
+    }
+
+    private static int[][] toArrays(List<ArrayList<Integer>> lists) {
+        int[][] arrays = new int[lists.size()][];
+        for(int i = 0; i < arrays.length; i++) {
+            ArrayList<Integer> list = lists.get(i);
+            arrays[i] = new int[list.size()];
+            for(int j = 0; j < arrays[i].length; j++) {
+                arrays[i][j] = list.get(j);
+            }
+        }
+        return arrays;
+    }
+}
@@ -0,0 +1,173 @@
+package cykparser;
+
+import gfgparser.GFGParser;
+import shared.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public class CYKParser implements Parser {
+
+    // Fills the whole CYK span table for the grammar in Chomsky normal
+    // form, then builds the parse tree top down from the start nonterminal
+    // over every token, following only the entries of the table that the
+    // rules need. Every span gets filled whether or not anything could use
+    // it, so this takes cubic time on every input, but it doesn't care how
+    // ambiguous the grammar is, which makes it a baseline for the inputs
+    // that are hardest on the other parsers.
+
+    // Diagonals shorter than this are filled on the calling thread, since
+    // handing them out costs more than filling them
+    public static final int MIN_PARALLEL_CELLS = 64;
+
+    // Shared by every parallel CYK parser, and made the first time one
+    // needs it. The threads are daemons, so they don't keep the program
+    // running
+    private static ExecutorService diagonalExecutor;
+
+    private Grammar grammar;
+    private CNFGrammar cnf;
+    // The conversion numbers things across the whole grammar, so if rules
+    // have been added or removed since it was done, it's done again
+    private int cnfModificationCount;
+    // Only set if the grammar uses EBNF operators or has a rule with an
+    // empty right hand side, which the conversion can't handle
+    private Parser fallbackParser;
+    // If this is set, the cells of each long enough diagonal are split up
+    // between threads
+    private boolean parallel;
+
+    public CYKParser(Grammar g) {
+        this(g, false);
+    }
+
+    public CYKParser(Grammar g, boolean fillInParallel) {
+        parallel = fillInParallel;
+        setGrammar(g);
+    }
+
+    @Override
+    public void setGrammar(Grammar g) {
+        grammar = g;
+        cnfModificationCount = grammar.getModificationCount();
+        if(grammar.isExtended() || hasEmptyRule(grammar)) {
+            cnf = null;
+            fallbackParser = new GFGParser(grammar);
+            return;
+        }
+        fallbackParser = null;
+        cnf = new CNFGrammar(grammar);
+    }
+
+    // Null if the parser fell back
+    public CNFGrammar getCNFGrammar() {
+        return cnf;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    @Override
+    public ParseTreeNode parse(List<Token> tokens) {
+        if(cnfModificationCount != grammar.getModificationCount()) {
+            setGrammar(grammar);
+        }
+        if(fallbackParser != null) {
+            return fallbackParser.parse(tokens);
+        }
+        if(tokens.isEmpty()) {
+            // Without empty rules, nothing matches no tokens
+            return null;
+        }
+
+        int[] tokenSymbolIds = new int[tokens.size()];
+        for(int i = 0; i < tokenSymbolIds.length; i++) {
+            tokenSymbolIds[i] = cnf.getSymbolId(tokens.get(i).getType());
+            if(tokenSymbolIds[i] == -1) {
+                return null;
+            }
+        }
+        CYKTable table = new CYKTable(cnf, tokenSymbolIds);
+        for(int length = 2; length <= tokens.size(); length++) {
+            int cellCount = tokens.size() - length + 1;
+            if(parallel && cellCount >= MIN_PARALLEL_CELLS) {
+                fillDiagonalInParallel(table, length, cellCount);
+            } else {
+                table.fillDiagonal(length, 0, cellCount);
+            }
+        }
+
+        int startId = cnf.findNonterminalId(grammar.getStartRule().getLeftHandSide());
+        if(! table.contains(0, tokens.size(), startId)) {
+            return null;
+        }
+        ParseTreeLeaf[] leaves = new ParseTreeLeaf[tokens.size()];
+        for(int i = 0; i < leaves.length; i++) {
+            leaves[i] = new ParseTreeLeaf(tokens.get(i));
+        }
+        return new CYKTreeBuilder(cnf, table, tokenSymbolIds, leaves).getNode(startId, 0, tokens.size());
+    }
+
+    private void fillDiagonalInParallel(final CYKTable table, final int length, int cellCount) {
+        ExecutorService executor = getDiagonalExecutor();
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        int chunkSize = (cellCount + threadCount - 1) / threadCount;
+        ArrayList<Callable<Void>> chunks = new ArrayList<>();
+        for(int firstStart = 0; firstStart < cellCount; firstStart += chunkSize) {
+            final int chunkStart = firstStart;
+            final int chunkEnd = Math.min(firstStart + chunkSize, cellCount);
+            chunks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    table.fillDiagonal(length, chunkStart, chunkEnd);
+                    return null;
+                }
+            });
+        }
+        try {
+            // Waiting on the futures also makes what the threads wrote
+            // visible here before the next diagonal reads it
+            for(Future<Void> future : executor.invokeAll(chunks)) {
+                future.get();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while filling the CYK table", e);
+        } catch(ExecutionException e) {
+            throw new IllegalStateException("Filling the CYK table failed", e.getCause());
+        }
+    }
+
+    private static synchronized ExecutorService getDiagonalExecutor() {
+        if(diagonalExecutor == null) {
+            diagonalExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "CYK diagonal filler");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return diagonalExecutor;
+    }
+
+    private static boolean hasEmptyRule(Grammar grammar) {
+        for(Nonterminal nonterminal : grammar.getNonterminals()) {
+            for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+                if(rule.getRightHandSide().isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,114 @@
+package cykparser;
+
+import java.util.Arrays;
+
+public class CYKTable {
+
+    // The CYK span table: for each start and length, the set of CNF
+    // nonterminals that match that many tokens from start, as a bitset.
+    // Each cell also keeps the binary rules its nonterminals are a left or
+    // right child of, so a split of a longer span comes down to ANDing the
+    // left cell's left rules with the right cell's right rules, a word at
+    // a time. Cells that match nothing are null.
+    // A cell only depends on shorter ones, so the cells of one length (a
+    // diagonal of the table) can be filled in any order, or at once by
+    // different threads, as long as every shorter diagonal is done first
+
+    private CNFGrammar cnf;
+    private int tokenCount;
+    private long[][][] nonterminals;
+    private long[][][] leftRules;
+    private long[][][] rightRules;
+
+    // Fills in the cells of length 1. A token with a symbol that isn't in
+    // the grammar has id -1
+    public CYKTable(CNFGrammar g, int[] tokenSymbolIds) {
+        cnf = g;
+        tokenCount = tokenSymbolIds.length;
+        nonterminals = new long[tokenCount][tokenCount + 1][];
+        leftRules = new long[tokenCount][tokenCount + 1][];
+        rightRules = new long[tokenCount][tokenCount + 1][];
+        for(int start = 0; start < tokenCount; start++) {
+            if(tokenSymbolIds[start] != -1) {
+                setCell(start, 1, cnf.getLexicalSet(tokenSymbolIds[start]).clone());
+            }
+        }
+    }
+
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    public boolean contains(int start, int length, int id) {
+        long[] cell = nonterminals[start][length];
+        return cell != null && CNFGrammar.isSet(cell, id);
+    }
+
+    // Fills in the cells of the length that start from firstStart up to
+    // but not including endStart
+    public void fillDiagonal(int length, int firstStart, int endStart) {
+        long[] matchedRules = new long[(cnf.getBinaryRuleCount() + 63) / 64];
+        for(int start = firstStart; start < endStart; start++) {
+            fillCell(start, length, matchedRules);
+        }
+    }
+
+    private void fillCell(int start, int length, long[] matchedRules) {
+        Arrays.fill(matchedRules, 0);
+        boolean anyMatched = false;
+        for(int leftLength = 1; leftLength < length; leftLength++) {
+            long[] left = leftRules[start][leftLength];
+            long[] right = rightRules[start + leftLength][length - leftLength];
+            if(left == null || right == null) {
+                continue;
+            }
+            for(int word = 0; word < matchedRules.length; word++) {
+                long matched = left[word] & right[word];
+                if(matched != 0) {
+                    matchedRules[word] |= matched;
+                    anyMatched = true;
+                }
+            }
+        }
+        if(! anyMatched) {
+            return;
+        }
+
+        long[] cell = new long[(cnf.getNonterminalCount() + 63) / 64];
+        for(int word = 0; word < matchedRules.length; word++) {
+            long matched = matchedRules[word];
+            while(matched != 0) {
+                int rule = word * 64 + Long.numberOfTrailingZeros(matched);
+                matched &= matched - 1;
+                // Closed under unit rules right away
+                long[] closure = cnf.getUnitClosure(cnf.getBinaryParent(rule));
+                for(int cellWord = 0; cellWord < cell.length; cellWord++) {
+                    cell[cellWord] |= closure[cellWord];
+                }
+            }
+        }
+        setCell(start, length, cell);
+    }
+
+    private void setCell(int start, int length, long[] cell) {
+        int ruleWords = (cnf.getBinaryRuleCount() + 63) / 64;
+        long[] cellLeftRules = new long[ruleWords];
+        long[] cellRightRules = new long[ruleWords];
+        for(int word = 0; word < cell.length; word++) {
+            long bits = cell[word];
+            while(bits != 0) {
+                int id = word * 64 + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                long[] leftMask = cnf.getLeftRuleMask(id);
+                long[] rightMask = cnf.getRightRuleMask(id);
+                for(int ruleWord = 0; ruleWord < ruleWords; ruleWord++) {
+                    cellLeftRules[ruleWord] |= leftMask[ruleWord];
+                    cellRightRules[ruleWord] |= rightMask[ruleWord];
+                }
+            }
+        }
+        nonterminals[start][length] = cell;
+        leftRules[start][length] = cellLeftRules;
+        rightRules[start][length] = cellRightRules;
+    }
+}
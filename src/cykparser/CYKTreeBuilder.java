@@ -0,0 +1,110 @@
+package cykparser;
+
+import shared.ParseTreeLeaf;
+import shared.ParseTreeNode;
+import shared.ParseTreeParent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+public class CYKTreeBuilder {
+
+    // Maps a filled table back to parse tree nodes for the grammar's
+    // nonterminals, with one node per nonterminal and span
+
+    private CNFGrammar cnf;
+    private CYKTable table;
+    private int[] tokenSymbolIds;
+    private ParseTreeLeaf[] leaves;
+    private HashMap<Long, ParseTreeParent> nodes;
+    // The lists of children a suffix nonterminal stands for
+    private HashMap<Long, List<List<ParseTreeNode>>> suffixChildTrees;
+
+    public CYKTreeBuilder(CNFGrammar g, CYKTable t, int[] s, ParseTreeLeaf[] l) {
+        cnf = g;
+        table = t;
+        tokenSymbolIds = s;
+        leaves = l;
+        nodes = new HashMap<>();
+        suffixChildTrees = new HashMap<>();
+    }
+
+    // The node is made after its children, so that they're complete by
+    // the time it holds them
+    public ParseTreeParent getNode(int id, int start, int length) {
+        Long key = getKey(id, start, length);
+        ParseTreeParent node = nodes.get(key);
+        if(node != null) {
+            return node;
+        }
+        node = new ParseTreeParent(cnf.getNonterminal(id));
+        for(List<ParseTreeNode> childTree : getChildTrees(id, start, length)) {
+            node.addChildTree(childTree);
+        }
+        nodes.put(key, node);
+        return node;
+    }
+
+    private List<List<ParseTreeNode>> getChildTrees(int id, int start, int length) {
+        ArrayList<List<ParseTreeNode>> childTrees = new ArrayList<>();
+        if(length == 1 && cnf.hasLexicalRule(id, tokenSymbolIds[start])) {
+            childTrees.add(new ArrayList<ParseTreeNode>(Collections.singletonList(leaves[start])));
+        }
+        for(int child : cnf.getUnitChildren(id)) {
+            if(table.contains(start, length, child)) {
+                childTrees.add(new ArrayList<ParseTreeNode>(Collections.singletonList(getNode(child, start, length))));
+            }
+        }
+        for(int rule : cnf.getBinaryRules(id)) {
+            int left = cnf.getBinaryLeft(rule);
+            int right = cnf.getBinaryRight(rule);
+            for(int leftLength = 1; leftLength < length; leftLength++) {
+                int rightStart = start + leftLength;
+                int rightLength = length - leftLength;
+                if(! table.contains(start, leftLength, left) || ! table.contains(rightStart, rightLength, right)) {
+                    continue;
+                }
+                ParseTreeNode leftChild = getChild(left, start, leftLength);
+                if(cnf.getKind(right) == CNFGrammar.SUFFIX) {
+                    for(List<ParseTreeNode> rest : getSuffixChildTrees(right, rightStart, rightLength)) {
+                        ArrayList<ParseTreeNode> childTree = new ArrayList<>(rest.size() + 1);
+                        childTree.add(leftChild);
+                        childTree.addAll(rest);
+                        childTrees.add(childTree);
+                    }
+                } else {
+                    ArrayList<ParseTreeNode> childTree = new ArrayList<>(2);
+                    childTree.add(leftChild);
+                    childTree.add(getChild(right, rightStart, rightLength));
+                    childTrees.add(childTree);
+                }
+            }
+        }
+        return childTrees;
+    }
+
+    private List<List<ParseTreeNode>> getSuffixChildTrees(int id, int start, int length) {
+        Long key = getKey(id, start, length);
+        List<List<ParseTreeNode>> childTrees = suffixChildTrees.get(key);
+        if(childTrees == null) {
+            childTrees = getChildTrees(id, start, length);
+            suffixChildTrees.put(key, childTrees);
+        }
+        return childTrees;
+    }
+
+    // A wrapper nonterminal is just its token
+    private ParseTreeNode getChild(int id, int start, int length) {
+        if(cnf.getKind(id) == CNFGrammar.TERMINAL) {
+            return leaves[start];
+        }
+        return getNode(id, start, length);
+    }
+
+    private Long getKey(int id, int start, int length) {
+        long positions = table.getTokenCount() + 1;
+        return (id * positions + start) * positions + length;
+    }
+}
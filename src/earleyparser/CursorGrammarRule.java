@@ -2,29 +2,50 @@ package earleyparser;
 
 import shared.GrammarElement;
 import shared.GrammarRule;
+import shared.RuleAutomaton;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 public class CursorGrammarRule {
 
     private GrammarRule grammarRule;
+    // The state of the rule's automaton the cursor is at. For a rule
+    // without EBNF operators this is just how many elements are before
+    // the cursor
     private int cursorIndex;
 
     public CursorGrammarRule(GrammarRule rule, int index) {
-        if(index < 0 || index > rule.getRightHandSide().size()) {
+        if(index < 0 || index >= rule.getAutomaton().getStateCount()) {
             throw new IllegalArgumentException("Cursor index must be in bounds");
         }
         grammarRule = rule;
         cursorIndex = index;
     }
 
-    public CursorGrammarRule createNext() {
-        return new CursorGrammarRule(grammarRule, cursorIndex + 1);
+    // Moves the cursor over the given element, every way the rule allows.
+    // Without EBNF operators there's at most one
+    public List<CursorGrammarRule> createNext(GrammarElement element) {
+        RuleAutomaton automaton = grammarRule.getAutomaton();
+        ArrayList<CursorGrammarRule> nextRules = new ArrayList<>(1);
+        for(int nextState : automaton.getNextStates(cursorIndex)) {
+            if(automaton.getElement(nextState).equals(element)) {
+                nextRules.add(new CursorGrammarRule(grammarRule, nextState));
+            }
+        }
+        return nextRules;
     }
 
-    public CursorGrammarRule createPrevious() {
-        return new CursorGrammarRule(grammarRule, cursorIndex - 1);
+    // Every place the cursor could have been before moving over the
+    // previous element
+    public List<CursorGrammarRule> createPrevious() {
+        int[] previousStates = grammarRule.getAutomaton().getPreviousStates(cursorIndex);
+        ArrayList<CursorGrammarRule> previousRules = new ArrayList<>(previousStates.length);
+        for(int previousState : previousStates) {
+            previousRules.add(new CursorGrammarRule(grammarRule, previousState));
+        }
+        return previousRules;
     }
 
     public GrammarRule getGrammarRule() {
@@ -39,22 +60,26 @@ public class CursorGrammarRule {
         return cursorIndex == 0;
     }
 
+    // Whether the rule can end here. With EBNF operators the rule might
+    // also be able to keep going
     public boolean isCursorAtEnd() {
-        return cursorIndex == grammarRule.getRightHandSide().size();
+        return grammarRule.getAutomaton().isFinal(cursorIndex);
     }
 
-    public GrammarElement getNextGrammarElement() {
-        if(isCursorAtEnd()) {
-            return null;
+    public List<GrammarElement> getNextGrammarElements() {
+        RuleAutomaton automaton = grammarRule.getAutomaton();
+        int[] nextStates = automaton.getNextStates(cursorIndex);
+        ArrayList<GrammarElement> nextElements = new ArrayList<>(nextStates.length);
+        for(int nextState : nextStates) {
+            nextElements.add(automaton.getElement(nextState));
         }
-        return grammarRule.getRightHandSide().get(cursorIndex);
+        return nextElements;
     }
 
     public GrammarElement getPreviousGrammarElement() {
-        if(isCursorAtStart()) {
-            return null;
-        }
-        return grammarRule.getRightHandSide().get(cursorIndex - 1);
+        // Every way into a state moves over the same element, so this is
+        // the same whichever way the cursor got here
+        return grammarRule.getAutomaton().getElement(cursorIndex);
     }
 
     @Override
@@ -74,7 +99,11 @@ public class CursorGrammarRule {
 
     @Override
     public String toString() {
-       String rhs = "";
+        if(grammarRule.isExtended()) {
+            // There's no single place in the written rule for the cursor
+            return grammarRule + " @" + cursorIndex;
+        }
+        String rhs = "";
         ArrayList<GrammarElement> ruleRHS = grammarRule.getRightHandSide();
         for(int i = 0; i < cursorIndex; i++) {
             rhs += ruleRHS.get(i) + " ";
@@ -1,144 +1,483 @@
 package earleyparser;
 
 import shared.*;
+import shared.jfr.RecognitionEvent;
+import shared.jfr.TreeBuildingEvent;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-public class EarleyParser implements Parser{
+public class EarleyParser implements IncrementalParser {
 
     private Grammar grammar;
+    // Only used by reparse, to remember the last parse
+    private ReparseState<EarleySigmaSet> reparseState = new ReparseState<>();
+    // The last parse can't be reused if rules were added or removed since
+    private int previousModificationCount;
+    // Null unless someone wants to hear what the parser does
+    private ParseListener parseListener;
+    // If this is set, parse repairs syntax errors instead of giving up on
+    // them. See processTokensRecovering
+    private boolean recoveringFromErrors;
 
     public EarleyParser(Grammar g) {
         grammar = g;
     }
 
+    public ParseListener getParseListener() {
+        return parseListener;
+    }
+
+    public void setParseListener(ParseListener listener) {
+        parseListener = listener;
+    }
+
+    public boolean isRecoveringFromErrors() {
+        return recoveringFromErrors;
+    }
+
+    // Only parse recovers. Reparse still rejects tokens with errors
+    public void setRecoveringFromErrors(boolean recovering) {
+        recoveringFromErrors = recovering;
+    }
+
     @Override
     public void setGrammar(Grammar g) {
         grammar = g;
+        reparseState.clear();
     }
 
     @Override
     public ParseTreeNode parse(List<Token> tokens) {
+        return parse(tokens, null).getTree();
+    }
+
+    // Stops as soon as the parse runs out of its budget, which can be null
+    // for no limits. Running out is one of the outcomes, not an error
+    public ParseOutcome parse(List<Token> tokens, ParseBudget budget) {
+        ParseListener listener = parseListener;
+        if(listener != null) {
+            listener.parseStarted(tokens.size());
+        }
         // Keep a list of sigma sets. In this list, index j will correspond to
         // the sigma set right before the jth token
         ArrayList<EarleySigmaSet> sigmaSets = new ArrayList<>();
+        // Null unless the parse is recovering from errors, in which case
+        // the sigma sets go with the repaired tokens
+        TokenRepairs repairs = recoveringFromErrors ? new TokenRepairs() : null;
+        try {
+            RecognitionEvent recognitionEvent = new RecognitionEvent();
+            recognitionEvent.begin();
+            List<Token> parsedTokens = tokens;
+            if(repairs == null) {
+                processTokens(tokens, sigmaSets, 0, budget);
+            } else {
+                processTokensRecovering(tokens, sigmaSets, repairs, budget);
+                parsedTokens = repairs.getTokens();
+            }
+            boolean accepted = accepts(parsedTokens, sigmaSets);
+            commitRecognitionEvent(recognitionEvent, parsedTokens, sigmaSets, accepted);
 
-        // Set up the first sigma set
-        EarleySigmaSet sigmaSet0 = new EarleySigmaSet();
-        sigmaSets.add(sigmaSet0);
-        ArrayDeque<EarleySigmaSetEntry> sigmaSet0ToProcess = new ArrayDeque<>();
-        GrammarRule startRule = grammar.getStartRule();
-        CursorGrammarRule startCursorRule = new CursorGrammarRule(startRule, 0);
-        EarleySigmaSetEntry startRuleEntry = new EarleySigmaSetEntry(startCursorRule, 0);
-        sigmaSet0ToProcess.add(startRuleEntry);
-        fillSigmaSet(sigmaSets, 0, sigmaSet0ToProcess);
+            if(! accepted) {
+                if(listener != null) {
+                    listener.parseFinished(tokens.size(), false);
+                }
+                // A recovering parse only gets here if it couldn't finish
+                // the start rule after the last token
+                int position = repairs == null ? sigmaSets.size() - 1 : tokens.size();
+                EarleySigmaSet lastSigmaSet = sigmaSets.get(sigmaSets.size() - 1);
+                return ParseOutcome.rejected(tokens, position, lastSigmaSet.getExpectedSymbols(), budget);
+            }
+
+            // The recognizing was successful - rebuild the parse tree
+            TreeBuildingEvent treeBuildingEvent = new TreeBuildingEvent();
+            treeBuildingEvent.begin();
+            ParseTreeNodeCache nodes = new ParseTreeNodeCache(listener);
+            ParseTreeNode root = buildParseTree(parsedTokens, sigmaSets, nodes, repairs, budget);
+            commitTreeBuildingEvent(treeBuildingEvent, parsedTokens, nodes);
+            if(listener != null) {
+                listener.parseFinished(tokens.size(), true);
+            }
+            if(repairs != null && ! repairs.getErrors().isEmpty()) {
+                return ParseOutcome.recovered(root, tokens.size(), repairs.getErrors(), budget);
+            }
+            return ParseOutcome.accepted(root, tokens.size(), budget);
+        } catch(ParseAbortedException e) {
+            if(listener != null) {
+                listener.parseFinished(tokens.size(), false);
+            }
+            return ParseOutcome.aborted(e, Math.max(sigmaSets.size() - 1, 0), budget);
+        }
+    }
+
+    // Not thread safe: this keeps the sigma sets and the parse tree nodes
+    // from the last call around to reuse them in the next one
+    @Override
+    public ParseTreeNode reparse(List<Token> tokens) {
+        if(previousModificationCount != grammar.getModificationCount()) {
+            // The last parse might have gone differently with the new rules
+            reparseState.clear();
+        }
+        if(parseListener != null) {
+            parseListener.parseStarted(tokens.size());
+        }
+        RecognitionEvent recognitionEvent = new RecognitionEvent();
+        recognitionEvent.begin();
+        int firstTokenIndex = reparseState.resume(tokens);
+        ArrayList<EarleySigmaSet> sigmaSets = reparseState.getSigmaSets();
+        processTokens(tokens, sigmaSets, firstTokenIndex, null);
+        boolean accepted = accepts(tokens, sigmaSets);
+        commitRecognitionEvent(recognitionEvent, tokens, sigmaSets, accepted);
+
+        ParseTreeNode root = null;
+        ParseTreeNodeCache nodes = null;
+        if(accepted) {
+            TreeBuildingEvent treeBuildingEvent = new TreeBuildingEvent();
+            treeBuildingEvent.begin();
+            nodes = reparseState.createNodeCache(tokens, parseListener);
+            root = buildParseTree(tokens, sigmaSets, nodes, null, null);
+            commitTreeBuildingEvent(treeBuildingEvent, tokens, nodes);
+        }
+        reparseState.finish(tokens, nodes);
+        previousModificationCount = grammar.getModificationCount();
+        if(parseListener != null) {
+            parseListener.parseFinished(tokens.size(), root != null);
+        }
+        return root;
+    }
+
+    // Builds sigma sets firstTokenIndex + 1 through tokens.size(), assuming
+    // sigmaSets already holds sigma sets 0 through firstTokenIndex. If
+    // sigmaSets is empty, sigma set 0 is built first. Stops early at the
+    // first token nothing can scan, so a rejected parse only costs as much
+    // as the part of the tokens that was fine
+    private void processTokens(List<Token> tokens, ArrayList<EarleySigmaSet> sigmaSets, int firstTokenIndex, ParseBudget budget) {
+        if(sigmaSets.isEmpty()) {
+            addFirstSigmaSet(sigmaSets, budget);
+        }
 
         // Process the input
-        for(int tokenIndex = 0; tokenIndex < tokens.size(); tokenIndex++) {
+        for(int tokenIndex = firstTokenIndex; tokenIndex < tokens.size(); tokenIndex++) {
             Token currentToken = tokens.get(tokenIndex);
             EarleySigmaSet previousSigmaSet = sigmaSets.get(tokenIndex);
+            Set<EarleySigmaSetEntry> scanableEntries = previousSigmaSet.getEntriesPrecedingSymbol(currentToken.getType());
+            if(parseListener != null) {
+                parseListener.scanned(tokenIndex, currentToken, scanableEntries.size());
+            }
+            if(scanableEntries.isEmpty()) {
+                // Every sigma set from here on would be empty, so stop, and
+                // leave the last sigma set as the one the parse got stuck in
+                return;
+            }
             EarleySigmaSet nextSigmaSet = new EarleySigmaSet();
             sigmaSets.add(nextSigmaSet);
             ArrayDeque<EarleySigmaSetEntry> toProcess = new ArrayDeque<>();
+            scan(scanableEntries, currentToken.getType(), nextSigmaSet, tokenIndex + 1, toProcess);
+            fillSigmaSet(sigmaSets, tokenIndex + 1, toProcess, budget);
+        }
+    }
+
+    // Like processTokens, but instead of stopping at a token nothing can
+    // scan, it repairs the tokens and keeps going. Either the token is
+    // skipped, or one token is made up in front of it, if that lets it be
+    // scanned. Both cost one token, so skipping wins if the token after it
+    // can be scanned straight away. Once the tokens run out, tokens are
+    // made up until the start rule is finished. The repairs are only the
+    // cheapest at each error, not over all the tokens, but since nothing
+    // is ever undone, this is about as fast as a normal parse
+    private void processTokensRecovering(List<Token> tokens, ArrayList<EarleySigmaSet> sigmaSets, TokenRepairs repairs, ParseBudget budget) {
+        addFirstSigmaSet(sigmaSets, budget);
+        // What the sigma set after a made up token expects, if making one
+        // up didn't work at the last token. Skipping a token doesn't
+        // change what's in the last sigma set, so this stays the same
+        // until a token is scanned
+        Set<Symbol> expectedAfterMissing = null;
+        for(int tokenIndex = 0; tokenIndex < tokens.size(); tokenIndex++) {
+            Token currentToken = tokens.get(tokenIndex);
+            EarleySigmaSet previousSigmaSet = sigmaSets.get(sigmaSets.size() - 1);
             Set<EarleySigmaSetEntry> scanableEntries = previousSigmaSet.getEntriesPrecedingSymbol(currentToken.getType());
-            for(EarleySigmaSetEntry scanableEntry : scanableEntries) {
+            if(scanableEntries.isEmpty()) {
+                Set<Symbol> expectedSymbols = previousSigmaSet.getExpectedSymbols();
+                boolean nextTokenFits = tokenIndex + 1 < tokens.size() &&
+                        ! previousSigmaSet.getEntriesPrecedingSymbol(tokens.get(tokenIndex + 1).getType()).isEmpty();
+                if(! nextTokenFits &&
+                        (expectedAfterMissing == null || expectedAfterMissing.contains(currentToken.getType()))) {
+                    EarleySigmaSet missingSigmaSet = addMissingSigmaSet(sigmaSets, budget);
+                    scanableEntries = missingSigmaSet.getEntriesPrecedingSymbol(currentToken.getType());
+                    if(scanableEntries.isEmpty()) {
+                        expectedAfterMissing = missingSigmaSet.getExpectedSymbols();
+                        sigmaSets.remove(sigmaSets.size() - 1);
+                    } else {
+                        repairs.addMissing(tokenIndex, expectedSymbols);
+                    }
+                }
+                if(scanableEntries.isEmpty()) {
+                    addSkippedSigmaSet(sigmaSets, budget);
+                    repairs.addSkipped(tokenIndex, currentToken, expectedSymbols);
+                    continue;
+                }
+            }
+            if(parseListener != null) {
+                parseListener.scanned(tokenIndex, currentToken, scanableEntries.size());
+            }
+            EarleySigmaSet nextSigmaSet = new EarleySigmaSet();
+            sigmaSets.add(nextSigmaSet);
+            ArrayDeque<EarleySigmaSetEntry> toProcess = new ArrayDeque<>();
+            scan(scanableEntries, currentToken.getType(), nextSigmaSet, sigmaSets.size() - 1, toProcess);
+            fillSigmaSet(sigmaSets, sigmaSets.size() - 1, toProcess, budget);
+            repairs.addScanned(currentToken);
+            expectedAfterMissing = null;
+        }
+
+        for(int missingCount = 0; missingCount < TokenRepairs.MAX_MISSING_AT_END; missingCount++) {
+            EarleySigmaSet lastSigmaSet = sigmaSets.get(sigmaSets.size() - 1);
+            Set<Symbol> expectedSymbols = lastSigmaSet.getExpectedSymbols();
+            if(accepts(repairs.getTokens(), sigmaSets) || expectedSymbols.isEmpty()) {
+                return;
+            }
+            addMissingSigmaSet(sigmaSets, budget);
+            repairs.addMissing(tokens.size(), expectedSymbols);
+        }
+    }
+
+    private void addFirstSigmaSet(ArrayList<EarleySigmaSet> sigmaSets, ParseBudget budget) {
+        GrammarRule startRule = grammar.getStartRule();
+        EarleySigmaSet sigmaSet0 = new EarleySigmaSet();
+        sigmaSets.add(sigmaSet0);
+        ArrayDeque<EarleySigmaSetEntry> sigmaSet0ToProcess = new ArrayDeque<>();
+        CursorGrammarRule startCursorRule = new CursorGrammarRule(startRule, 0);
+        EarleySigmaSetEntry startRuleEntry = new EarleySigmaSetEntry(startCursorRule, 0);
+        sigmaSet0ToProcess.add(startRuleEntry);
+        if(parseListener != null) {
+            parseListener.predicted(0, startRule.getLeftHandSide());
+        }
+        fillSigmaSet(sigmaSets, 0, sigmaSet0ToProcess, budget);
+    }
+
+    // The Scan step, for one symbol. The new entries go in the next sigma
+    // set and in toProcess
+    private void scan(Set<EarleySigmaSetEntry> scanableEntries,
+                      Symbol symbol,
+                      EarleySigmaSet nextSigmaSet,
+                      int nextSigmaSetIndex,
+                      ArrayDeque<EarleySigmaSetEntry> toProcess) {
+        Terminal scannedTerminal = new Terminal(symbol);
+        for(EarleySigmaSetEntry scanableEntry : scanableEntries) {
+            for(CursorGrammarRule nextCursorRule : scanableEntry.getCursorGrammarRule().createNext(scannedTerminal)) {
                 EarleySigmaSetEntry newEntry = new EarleySigmaSetEntry(
-                        scanableEntry.getCursorGrammarRule().createNext(),
+                        nextCursorRule,
                         scanableEntry.getTag(),
                         scanableEntry);
-                toProcess.add(newEntry);
+                // With EBNF operators, entries at different places in
+                // a rule can scan into the same entry, and the builder
+                // needs to know about all of them
+                if(! nextSigmaSet.contains(newEntry)) {
+                    nextSigmaSet.add(newEntry);
+                    toProcess.add(newEntry);
+                } else {
+                    nextSigmaSet.get(newEntry).addPrecedingEntry(scanableEntry);
+                    if(parseListener != null) {
+                        GrammarRule rule = nextCursorRule.getGrammarRule();
+                        parseListener.precedingEntryAdded(nextSigmaSetIndex, rule.getLeftHandSide(), rule);
+                    }
+                }
             }
+        }
+    }
+
+    // Adds a sigma set after the last one as if a token had been there,
+    // scanning every symbol the last one expects. Which symbol the tree
+    // builder puts in depends on the entry it comes from
+    private EarleySigmaSet addMissingSigmaSet(ArrayList<EarleySigmaSet> sigmaSets, ParseBudget budget) {
+        EarleySigmaSet previousSigmaSet = sigmaSets.get(sigmaSets.size() - 1);
+        EarleySigmaSet nextSigmaSet = new EarleySigmaSet();
+        sigmaSets.add(nextSigmaSet);
+        ArrayDeque<EarleySigmaSetEntry> toProcess = new ArrayDeque<>();
+        for(Symbol expectedSymbol : previousSigmaSet.getExpectedSymbols()) {
+            scan(previousSigmaSet.getEntriesPrecedingSymbol(expectedSymbol), expectedSymbol,
+                    nextSigmaSet, sigmaSets.size() - 1, toProcess);
+        }
+        fillSigmaSet(sigmaSets, sigmaSets.size() - 1, toProcess, budget);
+        return nextSigmaSet;
+    }
 
-            fillSigmaSet(sigmaSets, tokenIndex + 1, toProcess);
+    // Adds a copy of the last sigma set after it, as if the token between
+    // them wasn't there. The only preceding entry of each copy is the entry
+    // it's a copy of, which the tree builder goes back to after putting
+    // the skipped token in. Nothing is added to the copy afterwards, so
+    // its entries all stay copies
+    private void addSkippedSigmaSet(ArrayList<EarleySigmaSet> sigmaSets, ParseBudget budget) {
+        EarleySigmaSet previousSigmaSet = sigmaSets.get(sigmaSets.size() - 1);
+        EarleySigmaSet nextSigmaSet = new EarleySigmaSet();
+        for(EarleySigmaSetEntry entry : previousSigmaSet.getEntries()) {
+            nextSigmaSet.add(new EarleySigmaSetEntry(entry.getCursorGrammarRule(), entry.getTag(), entry));
+        }
+        sigmaSets.add(nextSigmaSet);
+        if(parseListener != null) {
+            parseListener.sigmaSetFilled(sigmaSets.size() - 1, nextSigmaSet.size());
+        }
+        if(budget != null) {
+            budget.sigmaSetFilled(nextSigmaSet.size());
         }
+    }
 
-        CursorGrammarRule acceptingCursorRule = new CursorGrammarRule(startRule, startRule.getRightHandSide().size());
-        EarleySigmaSetEntry acceptingSigmaSetEntry = new EarleySigmaSetEntry(acceptingCursorRule, 0);
-        if (! sigmaSets.get(tokens.size()).contains(acceptingSigmaSetEntry)) {
-            return null;
+    private boolean accepts(List<Token> tokens, List<EarleySigmaSet> sigmaSets) {
+        return sigmaSets.size() > tokens.size() && ! getAcceptingEntries(tokens, sigmaSets).isEmpty();
+    }
+
+    // The entries in the last sigma set for the start rule covering all of
+    // the tokens. Without EBNF operators there's at most one, at the end of
+    // the start rule
+    private List<EarleySigmaSetEntry> getAcceptingEntries(List<Token> tokens, List<EarleySigmaSet> sigmaSets) {
+        GrammarRule startRule = grammar.getStartRule();
+        RuleAutomaton startAutomaton = startRule.getAutomaton();
+        EarleySigmaSet lastSigmaSet = sigmaSets.get(tokens.size());
+        ArrayList<EarleySigmaSetEntry> acceptingEntries = new ArrayList<>();
+        for(int state = 0; state < startAutomaton.getStateCount(); state++) {
+            if(! startAutomaton.isFinal(state)) {
+                continue;
+            }
+            CursorGrammarRule acceptingCursorRule = new CursorGrammarRule(startRule, state);
+            EarleySigmaSetEntry acceptingEntry = lastSigmaSet.get(new EarleySigmaSetEntry(acceptingCursorRule, 0));
+            if(acceptingEntry != null) {
+                acceptingEntries.add(acceptingEntry);
+            }
+        }
+        return acceptingEntries;
+    }
+
+    // The chart is only gone over for the numbers if the event is going
+    // to be recorded, so with recording off this costs next to nothing
+    private void commitRecognitionEvent(RecognitionEvent event, List<Token> tokens, List<EarleySigmaSet> sigmaSets, boolean accepted) {
+        event.end();
+        if(! event.shouldCommit()) {
+            return;
+        }
+        event.engine = getClass().getSimpleName();
+        event.tokenCount = tokens.size();
+        event.accepted = accepted;
+        for(EarleySigmaSet sigmaSet : sigmaSets) {
+            event.chartEntries += sigmaSet.size();
+            event.peakSigmaSetSize = Math.max(event.peakSigmaSetSize, sigmaSet.size());
+            event.ambiguityCount += sigmaSet.getAmbiguityCount();
         }
+        event.commit();
+    }
 
-        // The recognizing was successful - rebuild the parse tree
-        return buildParseTree(tokens, sigmaSets);
+    private void commitTreeBuildingEvent(TreeBuildingEvent event, List<Token> tokens, ParseTreeNodeCache nodes) {
+        event.end();
+        if(! event.shouldCommit()) {
+            return;
+        }
+        event.engine = getClass().getSimpleName();
+        event.tokenCount = tokens.size();
+        event.forestNodes = nodes.size();
+        event.commit();
     }
 
+
     private void fillSigmaSet(ArrayList<EarleySigmaSet> sigmaSets,
                               int currentSigmaSetIndex,
-                              ArrayDeque<EarleySigmaSetEntry> toProcess) {
+                              ArrayDeque<EarleySigmaSetEntry> toProcess,
+                              ParseBudget budget) {
         EarleySigmaSet currentSigmaSet = sigmaSets.get(currentSigmaSetIndex);
+        ParseListener listener = parseListener;
         // We maintain the invariant that every element in toProcess is
         // also in currentSigmaSet
         currentSigmaSet.addAll(toProcess);
         while(! toProcess.isEmpty()) {
             EarleySigmaSetEntry processing = toProcess.remove();
+            if(budget != null) {
+                budget.checkChartEntries(currentSigmaSet.size());
+            }
 
             CursorGrammarRule processingCursorRule = processing.getCursorGrammarRule();
+            // With EBNF operators a rule can both end here and keep going,
+            // so the entry may need the Exit & End step and the Call &
+            // Start step
             if(processingCursorRule.isCursorAtEnd()) {
                 // This is the Exit & End step
                 // Look for calling entries in the appropriate sigma set
                 Nonterminal endingNonterminal = processingCursorRule.getGrammarRule().getLeftHandSide();
                 int endingTag = processing.getTag();
+                if(listener != null) {
+                    listener.completed(currentSigmaSetIndex, endingNonterminal, endingTag);
+                }
                 EarleySigmaSet callingSigmaSet = sigmaSets.get(endingTag);
                 Set<EarleySigmaSetEntry> callingEntries = callingSigmaSet.getEntriesPrecedingNonterminal(endingNonterminal);
                 for(EarleySigmaSetEntry callingEntry : callingEntries) {
                     CursorGrammarRule callingCursorRule = callingEntry.getCursorGrammarRule();
-                    CursorGrammarRule nextCursorRule = callingCursorRule.createNext();
                     int callingEntryTag = callingEntry.getTag();
-                    EarleySigmaSetEntry newEntry = new EarleySigmaSetEntry(nextCursorRule, callingEntryTag, processing);
-                    if(! currentSigmaSet.contains(newEntry)) {
-                        currentSigmaSet.add(newEntry);
-                        toProcess.add(newEntry);
-                    } else {
-                        // This entry is already in the set, so it
-                        // doesn't need to be added to toProcess. But
-                        // we do need to get the entry in the set and
-                        // modify its preceding entries
-                        EarleySigmaSetEntry existingEntry = currentSigmaSet.get(newEntry);
-                        existingEntry.addPrecedingEntry(processing);
+                    for(CursorGrammarRule nextCursorRule : callingCursorRule.createNext(endingNonterminal)) {
+                        EarleySigmaSetEntry newEntry = new EarleySigmaSetEntry(nextCursorRule, callingEntryTag, processing);
+                        if(! currentSigmaSet.contains(newEntry)) {
+                            currentSigmaSet.add(newEntry);
+                            toProcess.add(newEntry);
+                        } else {
+                            // This entry is already in the set, so it
+                            // doesn't need to be added to toProcess. But
+                            // we do need to get the entry in the set and
+                            // modify its preceding entries
+                            EarleySigmaSetEntry existingEntry = currentSigmaSet.get(newEntry);
+                            existingEntry.addPrecedingEntry(processing);
+                            if(listener != null) {
+                                listener.precedingEntryAdded(currentSigmaSetIndex, endingNonterminal, processingCursorRule.getGrammarRule());
+                            }
+                        }
                     }
                 }
-            } else {
-                GrammarElement nextElement = processingCursorRule.getNextGrammarElement();
+            }
+            for(GrammarElement nextElement : processingCursorRule.getNextGrammarElements()) {
                 if(nextElement instanceof Nonterminal) {
                     // This is the Call & Start step
                     Nonterminal nextNonterminal = (Nonterminal) nextElement;
                     List<GrammarRule> nextNonterminalRules = grammar.getRulesWithLeftHandSide(nextNonterminal);
+                    boolean predictedNow = false;
                     for(GrammarRule rule : nextNonterminalRules) {
                         CursorGrammarRule cursorRule = new CursorGrammarRule(rule, 0);
                         EarleySigmaSetEntry newEntry = new EarleySigmaSetEntry(cursorRule, currentSigmaSetIndex, processing);
                         if(! currentSigmaSet.contains(newEntry)) {
                             currentSigmaSet.add(newEntry);
                             toProcess.add(newEntry);
+                            predictedNow = true;
                         }
                     }
+                    if(predictedNow && listener != null) {
+                        listener.predicted(currentSigmaSetIndex, nextNonterminal);
+                    }
                 } else {
                     // This is the Scan step
                     // We don't scan in this method, so nothing happens here
                 }
             }
         }
+        if(listener != null) {
+            listener.sigmaSetFilled(currentSigmaSetIndex, currentSigmaSet.size());
+        }
+        if(budget != null) {
+            budget.sigmaSetFilled(currentSigmaSet.size());
+        }
     }
 
-    private ParseTreeNode buildParseTree(List<Token> tokens, List<EarleySigmaSet> sigmaSets) {
+    private ParseTreeNode buildParseTree(List<Token> tokens, List<EarleySigmaSet> sigmaSets, ParseTreeNodeCache existingNodes, TokenRepairs repairs, ParseBudget budget) {
         GrammarRule startRule = grammar.getStartRule();
         ParseTreeParent root = new ParseTreeParent(startRule.getLeftHandSide());
-        CursorGrammarRule acceptingCursorGrammarRule = new CursorGrammarRule(startRule, startRule.getRightHandSide().size());
-        EarleySigmaSetEntry acceptingSigmaSetEntry = new EarleySigmaSetEntry(acceptingCursorGrammarRule, 0);
-        EarleySigmaSet lastSigmaSet = sigmaSets.get(tokens.size());
-        EarleySigmaSetEntry lastSigmaSetEntry = lastSigmaSet.get(acceptingSigmaSetEntry);
-
-        addChildrenRightToLeft(
-                root,
-                lastSigmaSetEntry,
-                new ArrayList<ParseTreeNode>(),
-                new ParseTreeNodeCache(),
-                tokens.size(),
-                sigmaSets,
-                tokens
-        );
+        for(EarleySigmaSetEntry acceptingEntry : getAcceptingEntries(tokens, sigmaSets)) {
+            addChildrenRightToLeft(
+                    root,
+                    acceptingEntry,
+                    new ArrayList<ParseTreeNode>(),
+                    existingNodes,
+                    tokens.size(),
+                    sigmaSets,
+                    tokens,
+                    repairs,
+                    budget
+            );
+        }
         return root;
     }
 
@@ -149,8 +488,30 @@ public class EarleyParser implements Parser{
             ParseTreeNodeCache existingNodes,
             int currentSigmaSetIndex,
             List<EarleySigmaSet> sigmaSets,
-            List<Token> tokens) {
+            List<Token> tokens,
+            TokenRepairs repairs,
+            ParseBudget budget) {
+        if(parseListener != null) {
+            parseListener.treeBuildRecursed(parent.getNonterminal(), currentEntry.getCursorGrammarRule().getGrammarRule());
+        }
+        if(budget != null) {
+            budget.checkForestNodes(existingNodes.size());
+        }
         while(true) {
+            if(repairs != null && currentSigmaSetIndex > 0 &&
+                    repairs.getKind(currentSigmaSetIndex - 1) == TokenRepairs.SKIPPED) {
+                // The entry is a copy made to skip the token before it, so
+                // the token goes in as an error, and the entry it's a copy
+                // of carries on to the left
+                int tokenIndex = currentSigmaSetIndex - 1;
+                if(! existingNodes.containsLeaf(tokenIndex)) {
+                    existingNodes.addLeaf(tokenIndex, new ParseTreeErrorLeaf(tokens.get(tokenIndex), ParseTreeErrorLeaf.SKIPPED));
+                }
+                accumulatedNodes.add(existingNodes.getLeaf(tokenIndex));
+                currentEntry = currentEntry.getPrecedingEntries().get(0);
+                currentSigmaSetIndex--;
+                continue;
+            }
             CursorGrammarRule currentGrammarRule = currentEntry.getCursorGrammarRule();
             if(currentGrammarRule.isCursorAtStart()) {
                 // We're done working right to left
@@ -162,6 +523,9 @@ public class EarleyParser implements Parser{
                     childTreeNodes.add(accumulatedNodes.get(i));
                 }
                 parent.addChildTree(childTreeNodes);
+                if(budget != null) {
+                    budget.childTreeAdded();
+                }
                 // And we're done
                 return;
             }
@@ -170,7 +534,11 @@ public class EarleyParser implements Parser{
                 // Easy case - just create a new node and add it to the list
                 int tokenIndex = currentSigmaSetIndex - 1;
                 ParseTreeLeaf scanLeaf;
-                if(existingNodes.containsLeaf(tokenIndex)) {
+                if(repairs != null && repairs.getKind(tokenIndex) == TokenRepairs.MISSING) {
+                    // Every expected symbol was scanned here, so the leaf
+                    // is for whichever one this entry scanned
+                    scanLeaf = ParseTreeErrorLeaf.missing(((Terminal) previousElement).getSymbol());
+                } else if(existingNodes.containsLeaf(tokenIndex)) {
                     scanLeaf = existingNodes.getLeaf(tokenIndex);
                 } else {
                     Token scannedToken = tokens.get(currentSigmaSetIndex - 1);
@@ -179,7 +547,31 @@ public class EarleyParser implements Parser{
                 }
                 accumulatedNodes.add(scanLeaf);
                 currentSigmaSetIndex--;
-                currentEntry = currentEntry.getPrecedingEntries().get(0);
+                List<EarleySigmaSetEntry> precedingEntries = currentEntry.getPrecedingEntries();
+                if(precedingEntries.size() == 1) {
+                    currentEntry = precedingEntries.get(0);
+                    continue;
+                }
+                // With EBNF operators, more than one place in the rule
+                // can scan this token into the current entry, so follow
+                // each of them
+                int numAccumNodes = accumulatedNodes.size();
+                for(EarleySigmaSetEntry precedingEntry : precedingEntries) {
+                    addChildrenRightToLeft(
+                            parent,
+                            precedingEntry,
+                            accumulatedNodes,
+                            existingNodes,
+                            currentSigmaSetIndex,
+                            sigmaSets,
+                            tokens,
+                            repairs,
+                            budget);
+                    while(accumulatedNodes.size() > numAccumNodes) {
+                        accumulatedNodes.remove(accumulatedNodes.size() - 1);
+                    }
+                }
+                return;
             } else { // previousElement instanceof Nonterminal
                 Nonterminal previousNonterminal = (Nonterminal) previousElement;
                 List<EarleySigmaSetEntry> precedingEntries = currentEntry.getPrecedingEntries();
@@ -189,101 +581,140 @@ public class EarleyParser implements Parser{
                     // keep going through the while loop
                     // First, let's get ready to keep working left, by
                     // getting the sigma set entry we'll need to continue
-                    // from
-                    CursorGrammarRule previousGrammarRule = currentGrammarRule.createPrevious();
-                    int currentTag = currentEntry.getTag();
+                    // from. With EBNF operators there can be more than
+                    // one, which is the harder case below
                     EarleySigmaSetEntry precedingEntry = precedingEntries.get(0);
                     int callingNonterminalTag = precedingEntry.getTag();
-                    EarleySigmaSet callingSigmaSet = sigmaSets.get(callingNonterminalTag);
-                    EarleySigmaSetEntry callingEntryCopy = new EarleySigmaSetEntry(previousGrammarRule, currentTag);
-                    EarleySigmaSetEntry originalCallingEntry = callingSigmaSet.get(callingEntryCopy);
-                    // Now we'll get the nonterminal node if it already
-                    // exists, or create it and fill it if it doesn't
-                    int lastTokenIndexCovered = currentSigmaSetIndex - 1;
-                    int firstTokenIndexCovered = callingNonterminalTag;
-                    ParseTreeParent nonterminalNode;
-                    if(existingNodes.containsParent(firstTokenIndexCovered, lastTokenIndexCovered, previousNonterminal)) {
-                        nonterminalNode = existingNodes.getParent(firstTokenIndexCovered, lastTokenIndexCovered, previousNonterminal);
-                    } else {
-                        nonterminalNode = new ParseTreeParent(previousNonterminal);
-                        existingNodes.addParent(firstTokenIndexCovered, lastTokenIndexCovered, previousNonterminal, nonterminalNode);
-                        addChildrenRightToLeft(
-                                nonterminalNode,
-                                precedingEntry,
-                                new ArrayList<ParseTreeNode>(),
+                    List<EarleySigmaSetEntry> callingEntries = getCallingEntries(currentEntry, sigmaSets.get(callingNonterminalTag));
+                    if(callingEntries.size() == 1) {
+                        ParseTreeParent nonterminalNode = getNonterminalNode(
+                                previousNonterminal,
+                                callingNonterminalTag,
+                                precedingEntries,
                                 existingNodes,
                                 currentSigmaSetIndex,
                                 sigmaSets,
-                                tokens
-                        );
+                                tokens,
+                                repairs,
+                                budget);
+                        accumulatedNodes.add(nonterminalNode);
+                        // Update the fields and keep working left through
+                        // the while loop
+                        currentEntry = callingEntries.get(0);
+                        currentSigmaSetIndex = callingNonterminalTag;
+                        continue;
                     }
-                    accumulatedNodes.add(nonterminalNode);
-                    // Update the fields and keep working left through
-                    // the while loop
-                    currentEntry = originalCallingEntry;
-                    currentSigmaSetIndex = callingNonterminalTag;
-                } else {
-                    // This is the harder case - we need to do recursive
-                    // backtracking to follow all possible paths to the
-                    // left
-                    // Keep track of the current size of the
-                    // accumulated nodes list so that after every
-                    // recursive call we can get it back to its
-                    // current state
-                    int numAccumNodes = accumulatedNodes.size();
-                    for(EarleySigmaSetEntry precedingEntry : precedingEntries) {
-                        // Get the correct sigma set entry to continue
-                        // working left from
-                        CursorGrammarRule previousGrammarRule = currentGrammarRule.createPrevious();
-                        int currentTag = currentEntry.getTag();
-                        int callingNonterminalTag = precedingEntry.getTag();
-                        EarleySigmaSet callingSigmaSet = sigmaSets.get(callingNonterminalTag);
-                        EarleySigmaSetEntry callingEntryCopy = new EarleySigmaSetEntry(previousGrammarRule, currentTag);
-                        EarleySigmaSetEntry originalCallingEntry = callingSigmaSet.get(callingEntryCopy);
-
-                        int lastTokenIndexCovered = currentSigmaSetIndex - 1;
-                        int firstTokenIndexCovered = callingNonterminalTag;
-                        ParseTreeParent nonterminalNode;
-                        if(existingNodes.containsParent(firstTokenIndexCovered, lastTokenIndexCovered, previousNonterminal)) {
-                            nonterminalNode = existingNodes.getParent(firstTokenIndexCovered, lastTokenIndexCovered, previousNonterminal);
-                        } else {
-                            nonterminalNode = new ParseTreeParent(previousNonterminal);
-                            existingNodes.addParent(firstTokenIndexCovered, lastTokenIndexCovered, previousNonterminal, nonterminalNode);
-                            addChildrenRightToLeft(
-                                    nonterminalNode,
-                                    precedingEntry,
-                                    new ArrayList<ParseTreeNode>(),
-                                    existingNodes,
-                                    currentSigmaSetIndex,
-                                    sigmaSets,
-                                    tokens
-                            );
-                        }
+                }
+                // This is the harder case - we need to do recursive
+                // backtracking to follow all possible paths to the
+                // left
+                // Keep track of the current size of the
+                // accumulated nodes list so that after every
+                // recursive call we can get it back to its
+                // current state
+                int numAccumNodes = accumulatedNodes.size();
+                // Different rules of the nonterminal that cover the
+                // same tokens each have their own preceding entry,
+                // but they share one node, so each tag only needs to
+                // be followed once
+                HashSet<Integer> followedTags = new HashSet<>();
+                for(EarleySigmaSetEntry precedingEntry : precedingEntries) {
+                    int callingNonterminalTag = precedingEntry.getTag();
+                    if(! followedTags.add(callingNonterminalTag)) {
+                        continue;
+                    }
+                    ParseTreeParent nonterminalNode = getNonterminalNode(
+                            previousNonterminal,
+                            callingNonterminalTag,
+                            precedingEntries,
+                            existingNodes,
+                            currentSigmaSetIndex,
+                            sigmaSets,
+                            tokens,
+                            repairs,
+                            budget);
+                    // Get the correct sigma set entries to continue
+                    // working left from, and do recursive backtracking
+                    // to follow all paths
+                    for(EarleySigmaSetEntry callingEntry : getCallingEntries(currentEntry, sigmaSets.get(callingNonterminalTag))) {
                         accumulatedNodes.add(nonterminalNode);
-
-                        // Do recursive backtracking to follow all paths
-                        // First we must save the size of the
-                        // accumulatedNodes list, so we can remove all
-                        // the children that the recursive call adds
                         addChildrenRightToLeft(
                                 parent,
-                                originalCallingEntry,
+                                callingEntry,
                                 accumulatedNodes,
                                 existingNodes,
                                 callingNonterminalTag,
                                 sigmaSets,
-                                tokens);
-                        // Remove the nodes now
-                        while (accumulatedNodes.size() > numAccumNodes) {
+                                tokens,
+                                repairs,
+                                budget);
+                        // Remove the nodes the recursive call added, and
+                        // the nonterminal node
+                        while(accumulatedNodes.size() > numAccumNodes) {
                             accumulatedNodes.remove(accumulatedNodes.size() - 1);
                         }
                     }
-                    // We've done all the working left we need to do
-                    // through the recursive calls, so we can just
-                    // return
-                    return;
                 }
+                // We've done all the working left we need to do
+                // through the recursive calls, so we can just
+                // return
+                return;
+            }
+        }
+    }
+
+    // The entries in the calling sigma set that could have called the
+    // nonterminal just before the cursor of the current entry
+    private List<EarleySigmaSetEntry> getCallingEntries(EarleySigmaSetEntry currentEntry, EarleySigmaSet callingSigmaSet) {
+        int currentTag = currentEntry.getTag();
+        ArrayList<EarleySigmaSetEntry> callingEntries = new ArrayList<>(1);
+        for(CursorGrammarRule previousGrammarRule : currentEntry.getCursorGrammarRule().createPrevious()) {
+            EarleySigmaSetEntry callingEntryCopy = new EarleySigmaSetEntry(previousGrammarRule, currentTag);
+            EarleySigmaSetEntry originalCallingEntry = callingSigmaSet.get(callingEntryCopy);
+            if(originalCallingEntry != null) {
+                callingEntries.add(originalCallingEntry);
+            }
+        }
+        return callingEntries;
+    }
+
+    // Gets the nonterminal node if it already exists, or creates it and
+    // fills it if it doesn't
+    private ParseTreeParent getNonterminalNode(
+            Nonterminal nonterminal,
+            int callingNonterminalTag,
+            List<EarleySigmaSetEntry> completedEntries,
+            ParseTreeNodeCache existingNodes,
+            int currentSigmaSetIndex,
+            List<EarleySigmaSet> sigmaSets,
+            List<Token> tokens,
+            TokenRepairs repairs,
+            ParseBudget budget) {
+        int lastTokenIndexCovered = currentSigmaSetIndex - 1;
+        int firstTokenIndexCovered = callingNonterminalTag;
+        if(existingNodes.containsParent(firstTokenIndexCovered, lastTokenIndexCovered, nonterminal)) {
+            return existingNodes.getParent(firstTokenIndexCovered, lastTokenIndexCovered, nonterminal);
+        }
+        ParseTreeParent nonterminalNode = new ParseTreeParent(nonterminal);
+        existingNodes.addParent(firstTokenIndexCovered, lastTokenIndexCovered, nonterminal, nonterminalNode);
+        // Fill it with the children from every rule that covers these
+        // tokens
+        for(EarleySigmaSetEntry completedEntry : completedEntries) {
+            if(completedEntry.getTag() != callingNonterminalTag) {
+                continue;
             }
+            addChildrenRightToLeft(
+                    nonterminalNode,
+                    completedEntry,
+                    new ArrayList<ParseTreeNode>(),
+                    existingNodes,
+                    currentSigmaSetIndex,
+                    sigmaSets,
+                    tokens,
+                    repairs,
+                    budget
+            );
         }
+        return nonterminalNode;
     }
 }
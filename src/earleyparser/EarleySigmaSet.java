@@ -8,6 +8,7 @@ import shared.Terminal;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 public class EarleySigmaSet {
@@ -39,18 +40,17 @@ public class EarleySigmaSet {
         }
         allEntries.put(entry, entry);
         CursorGrammarRule cursorRule = entry.getCursorGrammarRule();
-        if(cursorRule.isCursorAtEnd()) {
-            return;
-        }
-        GrammarElement nextElement = cursorRule.getNextGrammarElement();
-        if(nextElement instanceof Terminal) {
-            Symbol nextSymbol = ((Terminal) nextElement).getSymbol();
-            ensurePrecedingSymbolSet(nextSymbol);
-            entriesPrecedingSymbol.get(nextSymbol).add(entry);
-        } else { // nextElement instanceof Nonterminal
-            Nonterminal nextNonterminal = (Nonterminal) nextElement;
-            ensurePrecedingNonterminalSet(nextNonterminal);
-            entriesPrecedingNonterminal.get(nextNonterminal).add(entry);
+        // With EBNF operators an entry can precede more than one element
+        for(GrammarElement nextElement : cursorRule.getNextGrammarElements()) {
+            if(nextElement instanceof Terminal) {
+                Symbol nextSymbol = ((Terminal) nextElement).getSymbol();
+                ensurePrecedingSymbolSet(nextSymbol);
+                entriesPrecedingSymbol.get(nextSymbol).add(entry);
+            } else { // nextElement instanceof Nonterminal
+                Nonterminal nextNonterminal = (Nonterminal) nextElement;
+                ensurePrecedingNonterminalSet(nextNonterminal);
+                entriesPrecedingNonterminal.get(nextNonterminal).add(entry);
+            }
         }
     }
 
@@ -68,11 +68,41 @@ public class EarleySigmaSet {
         return allEntries.get(entry);
     }
 
+    public Set<EarleySigmaSetEntry> getEntries() {
+        return allEntries.keySet();
+    }
+
+    public int size() {
+        return allEntries.size();
+    }
+
+    // How many preceding entries there are beyond the first one of each
+    // entry, which is how many times an entry was reached another way
+    public int getAmbiguityCount() {
+        int ambiguityCount = 0;
+        for(EarleySigmaSetEntry entry : allEntries.keySet()) {
+            ambiguityCount += Math.max(entry.getPrecedingEntries().size() - 1, 0);
+        }
+        return ambiguityCount;
+    }
+
     public Set<EarleySigmaSetEntry> getEntriesPrecedingSymbol(Symbol symbol) {
         ensurePrecedingSymbolSet(symbol);
         return entriesPrecedingSymbol.get(symbol);
     }
 
+    // The symbols the entries in this sigma set could scan next. Looking
+    // up a symbol leaves an empty set behind for it, so those don't count
+    public Set<Symbol> getExpectedSymbols() {
+        HashSet<Symbol> expectedSymbols = new HashSet<>();
+        for(Map.Entry<Symbol, HashSet<EarleySigmaSetEntry>> symbolEntries : entriesPrecedingSymbol.entrySet()) {
+            if(! symbolEntries.getValue().isEmpty()) {
+                expectedSymbols.add(symbolEntries.getKey());
+            }
+        }
+        return expectedSymbols;
+    }
+
     public Set<EarleySigmaSetEntry> getEntriesPrecedingNonterminal(Nonterminal nonterminal) {
         ensurePrecedingNonterminalSet(nonterminal);
         return entriesPrecedingNonterminal.get(nonterminal);
@@ -0,0 +1,35 @@
+package gfgparser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BranchGFGNode implements GFGNode {
+
+    // When rules with the same left hand side share a prefix, the GFG can
+    // share the nodes for that prefix too. A branch node is where the
+    // rules go their separate ways: it has an epsilon edge to the first
+    // node of each way they continue (including exiting, for a rule that
+    // ends here)
+    private ArrayList<InnerGFGNode> nextNodes;
+
+    public BranchGFGNode() {
+        nextNodes = new ArrayList<>();
+    }
+
+    public List<InnerGFGNode> getNextNodes() {
+        return nextNodes;
+    }
+
+    public void addNextNode(InnerGFGNode nextNode) {
+        nextNodes.add(nextNode);
+    }
+
+    public String toString() {
+        return "BranchGFGNode";
+    }
+
+    // Even though we hash these objects, we do not override hashCode
+    // (and equals) here, as we ensure that each unique node is only
+    // ever created once, and so using a hash code based on the
+    // identity is appropriate.
+}
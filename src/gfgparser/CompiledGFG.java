@@ -0,0 +1,677 @@
+package gfgparser;
+
+import shared.Grammar;
+import shared.GrammarElement;
+import shared.GrammarRule;
+import shared.Nonterminal;
+import shared.Symbol;
+import shared.analysis.GrammarAnalysis;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class CompiledGFG {
+
+    // The GFG is built out of node objects, which are easy to put together
+    // but slow to walk: every step is an instanceof check and following a
+    // pointer, and the End step and the tree builder have to look up call
+    // and return nodes in hash maps. So once the graph is built, we number
+    // its nodes and flatten it into arrays, and the parser only ever deals
+    // with node numbers.
+    // Every nonterminal's start and end nodes are numbered up front, and
+    // the rest of its nodes are built and numbered one nonterminal at a
+    // time. Usually that's all done right away, but a lazy GFG waits until
+    // a nonterminal is first started, so that a big grammar only pays for
+    // the part of the graph its inputs actually reach.
+    // A lazy GFG can be shared by parsers on different threads. Building
+    // only happens while holding the lock on the GFG, and the node numbers
+    // of a nonterminal's rules only get out through getSuccessors and
+    // getPredictedNonterminals, which check whether the nonterminal has been
+    // built through atomic arrays. So any thread that has a node number has
+    // also seen everything that was written for it.
+    // When rules are added to or removed from the grammar, updateRules
+    // rebuilds just the nodes of the nonterminal whose rules changed. Its
+    // old nodes are left where they are, but nothing leads to them anymore
+
+    // What a node does, which decides what happens when it's processed
+    public static final int START = 0;
+    // An inner node with a terminal transition
+    public static final int SCAN = 1;
+    // An inner node with an epsilon transition to a start node
+    public static final int CALL = 2;
+    // An inner node with an epsilon transition to an end node
+    public static final int EXIT = 3;
+    public static final int END = 4;
+    // A node where rules that share a prefix split up, or where a rule
+    // with EBNF operators can go more than one way
+    public static final int BRANCH = 5;
+    // An inner node with an epsilon transition to another inner or branch
+    // node. These are how more than one way into the same point of a rule
+    // with EBNF operators come together, including the cycles for repetition
+    public static final int JOIN = 6;
+
+    private NodeArrays nodes;
+    private volatile int nodeCount;
+    // For each nonterminal, every nonterminal that gets started when it's
+    // called (including itself). This is the epsilon closure of its start
+    // node, following Start and Call edges and stopping at scan and end
+    // nodes, boiled down to the start nodes in it. Worked out the first
+    // time it's needed
+    private AtomicReferenceArray<int[]> predictedNonterminals;
+
+    private Nonterminal[] nonterminals;
+    private int[] nonterminalStartNodes;
+    private int[] nonterminalEndNodes;
+    private HashMap<Nonterminal, Integer> nonterminalIds;
+    // Symbols get ids as the scan nodes for them are built, so this can be
+    // added to while other threads are looking things up in it
+    private ConcurrentHashMap<Symbol, Integer> symbolIdMap;
+    private volatile int symbolCount;
+
+    private GFGBuilder builder;
+    // 1 for each nonterminal whose rules have been built
+    private AtomicIntegerArray builtNonterminals;
+    // The rules each nonterminal's nodes were built from, or null if they
+    // haven't been built yet. Only used while holding the lock
+    private ArrayList<List<GrammarRule>> builtRules;
+    private volatile int builtNonterminalCount;
+    private volatile int builtRuleCount;
+
+    public CompiledGFG(GFGBuilder b, boolean lazy) {
+        Grammar grammar = b.getGrammar();
+        // Nonterminals that some rule calls but that don't have any rules
+        // yet get ids too, so the rules for them can be added later. That
+        // way every nonterminal a built node can lead to already has its
+        // start and end nodes, even with a lazy GFG
+        LinkedHashSet<Nonterminal> grammarNonterminals = new LinkedHashSet<>(grammar.getNonterminals());
+        for(Nonterminal nonterminal : grammar.getNonterminals()) {
+            for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+                for(GrammarElement element : GrammarAnalysis.getElements(rule)) {
+                    if(element instanceof Nonterminal) {
+                        grammarNonterminals.add((Nonterminal) element);
+                    }
+                }
+            }
+        }
+        nonterminals = grammarNonterminals.toArray(new Nonterminal[grammarNonterminals.size()]);
+        nonterminalIds = new HashMap<>();
+        for(int i = 0; i < nonterminals.length; i++) {
+            nonterminalIds.put(nonterminals[i], i);
+        }
+        // Number the start and end nodes of each nonterminal first
+        nodes = new NodeArrays(4 * nonterminals.length);
+        nonterminalStartNodes = new int[nonterminals.length];
+        nonterminalEndNodes = new int[nonterminals.length];
+        for(int i = 0; i < nonterminals.length; i++) {
+            nonterminalStartNodes[i] = 2 * i;
+            nonterminalEndNodes[i] = 2 * i + 1;
+            initializeNode(nonterminalStartNodes[i], START, i);
+            initializeNode(nonterminalEndNodes[i], END, i);
+        }
+        nodeCount = 2 * nonterminals.length;
+        symbolIdMap = new ConcurrentHashMap<>();
+        predictedNonterminals = new AtomicReferenceArray<>(nonterminals.length);
+        builtNonterminals = new AtomicIntegerArray(nonterminals.length);
+        builtRules = new ArrayList<>(Collections.<List<GrammarRule>>nCopies(nonterminals.length, null));
+
+        builder = b;
+        if(! lazy) {
+            buildAll();
+        }
+    }
+
+    // Only used by read
+    private CompiledGFG() {
+    }
+
+    // Builds whatever hasn't been built yet
+    public synchronized void buildAll() {
+        for(int i = 0; i < nonterminals.length; i++) {
+            getPredictedNonterminals(i);
+        }
+    }
+
+    // Writes out the arrays, for a grammar image. Nonterminals are written
+    // as their ids here, so the image has to keep them in the same order,
+    // and symbols and exit rules are written as their indices in the
+    // image's lists of them
+    public synchronized void write(DataOutputStream out, Map<Symbol, Integer> symbolIndices, Map<GrammarRule, Integer> ruleIndices) throws IOException {
+        buildAll();
+        writeIntArray(out, Arrays.copyOf(nodes.kinds, nodeCount));
+        writeIntArray(out, Arrays.copyOf(nodes.symbolIds, nodeCount));
+        writeIntArray(out, Arrays.copyOf(nodes.nextNodes, nodeCount));
+        writeIntArray(out, Arrays.copyOf(nodes.returnNodes, nodeCount));
+        writeIntArray(out, Arrays.copyOf(nodes.callNodes, nodeCount));
+        int[] ruleEntries = new int[nodeCount];
+        int[] exitRuleIndices = new int[nodeCount];
+        for(int node = 0; node < nodeCount; node++) {
+            ruleEntries[node] = nodes.ruleEntryNodes[node] ? 1 : 0;
+            // Nodes left over from rules that were removed aren't reachable,
+            // so their exit rules don't need to be kept
+            Integer ruleIndex = nodes.exitRules[node] == null ? null : ruleIndices.get(nodes.exitRules[node]);
+            exitRuleIndices[node] = ruleIndex == null ? -1 : ruleIndex;
+        }
+        writeIntArray(out, ruleEntries);
+        writeIntArray(out, exitRuleIndices);
+        // Only start and branch nodes have successors
+        for(int node = 0; node < nodeCount; node++) {
+            if(nodes.kinds[node] == START || nodes.kinds[node] == BRANCH) {
+                writeIntArray(out, nodes.successors[node]);
+            }
+        }
+        writeIntArray(out, nonterminalStartNodes);
+        writeIntArray(out, nonterminalEndNodes);
+        for(int i = 0; i < nonterminals.length; i++) {
+            writeIntArray(out, predictedNonterminals.get(i));
+        }
+        int[] symbolIndicesById = new int[symbolCount];
+        for(Map.Entry<Symbol, Integer> symbolId : symbolIdMap.entrySet()) {
+            symbolIndicesById[symbolId.getValue()] = symbolIndices.get(symbolId.getKey());
+        }
+        writeIntArray(out, symbolIndicesById);
+    }
+
+    // Reads back what write wrote, with the image's lists of nonterminals
+    // (in id order), symbols and rules. The builder is only used if the
+    // grammar's rules change later
+    public static CompiledGFG read(ByteBuffer in, Nonterminal[] nonterminals, Symbol[] symbols, GrammarRule[] rules, GFGBuilder builder) {
+        CompiledGFG gfg = new CompiledGFG();
+        gfg.builder = builder;
+        int[] kinds = readIntArray(in);
+        int[] symbolIds = readIntArray(in);
+        int[] nextNodes = readIntArray(in);
+        int[] returnNodes = readIntArray(in);
+        int[] callNodes = readIntArray(in);
+        int nodeCount = kinds.length;
+        int[] ruleEntries = readIntArray(in);
+        int[] exitRuleIndices = readIntArray(in);
+        boolean[] ruleEntryNodes = new boolean[nodeCount];
+        GrammarRule[] exitRules = new GrammarRule[nodeCount];
+        int[][] successors = new int[nodeCount][];
+        for(int node = 0; node < nodeCount; node++) {
+            ruleEntryNodes[node] = ruleEntries[node] == 1;
+            if(exitRuleIndices[node] != -1) {
+                exitRules[node] = rules[exitRuleIndices[node]];
+            }
+        }
+        for(int node = 0; node < nodeCount; node++) {
+            if(kinds[node] == START || kinds[node] == BRANCH) {
+                successors[node] = readIntArray(in);
+            }
+        }
+        gfg.nodes = new NodeArrays(kinds, symbolIds, nextNodes, successors, returnNodes, callNodes, ruleEntryNodes, exitRules);
+        gfg.nodeCount = nodeCount;
+        gfg.nonterminals = nonterminals;
+        gfg.nonterminalIds = new HashMap<>();
+        for(int i = 0; i < nonterminals.length; i++) {
+            gfg.nonterminalIds.put(nonterminals[i], i);
+        }
+        gfg.nonterminalStartNodes = readIntArray(in);
+        gfg.nonterminalEndNodes = readIntArray(in);
+        gfg.predictedNonterminals = new AtomicReferenceArray<>(nonterminals.length);
+        gfg.builtNonterminals = new AtomicIntegerArray(nonterminals.length);
+        gfg.builtRules = new ArrayList<>();
+        for(int i = 0; i < nonterminals.length; i++) {
+            gfg.predictedNonterminals.set(i, readIntArray(in));
+            gfg.builtNonterminals.set(i, 1);
+            gfg.builtRules.add(new ArrayList<>(builder.getGrammar().getRulesWithLeftHandSide(nonterminals[i])));
+        }
+        gfg.builtNonterminalCount = nonterminals.length;
+        gfg.builtRuleCount = rules.length;
+        int[] symbolIndicesById = readIntArray(in);
+        gfg.symbolCount = symbolIndicesById.length;
+        gfg.symbolIdMap = new ConcurrentHashMap<>();
+        for(int id = 0; id < symbolIndicesById.length; id++) {
+            gfg.symbolIdMap.put(symbols[symbolIndicesById[id]], id);
+        }
+        return gfg;
+    }
+
+    // Brings the GFG up to date after rules with the nonterminal on their
+    // left hand side were added or removed. If the nonterminal's nodes were
+    // already built, they're rebuilt, and which nonterminals get predicted
+    // is worked out again for any nonterminal that could predict it. The
+    // rest of the graph is left alone. This isn't safe to call while a
+    // parse is using the GFG
+    public synchronized void updateRules(Nonterminal nonterminal) {
+        Grammar grammar = builder.getGrammar();
+        List<GrammarRule> rules = new ArrayList<>(grammar.getRulesWithLeftHandSide(nonterminal));
+        // The new rules can call nonterminals the GFG hasn't seen
+        addNonterminal(nonterminal);
+        for(GrammarRule rule : rules) {
+            for(GrammarElement element : GrammarAnalysis.getElements(rule)) {
+                if(element instanceof Nonterminal) {
+                    addNonterminal((Nonterminal) element);
+                }
+            }
+        }
+        int nonterminalId = nonterminalIds.get(nonterminal);
+        if(builtNonterminals.get(nonterminalId) == 1) {
+            if(rules.equals(builtRules.get(nonterminalId))) {
+                // Another parser sharing this GFG has already updated it
+                return;
+            }
+            build(nonterminalId);
+        }
+        for(int i = 0; i < nonterminals.length; i++) {
+            int[] predicted = predictedNonterminals.get(i);
+            if(predicted == null) {
+                continue;
+            }
+            for(int predictedId : predicted) {
+                if(predictedId == nonterminalId) {
+                    predictedNonterminals.set(i, null);
+                    break;
+                }
+            }
+        }
+    }
+
+    // How much of the graph has been built so far
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getBuiltNonterminalCount() {
+        return builtNonterminalCount;
+    }
+
+    public int getBuiltRuleCount() {
+        return builtRuleCount;
+    }
+
+    public int getKind(int node) {
+        return nodes.kinds[node];
+    }
+
+    public int getSymbolId(int node) {
+        return nodes.symbolIds[node];
+    }
+
+    public int getNextNode(int node) {
+        return nodes.nextNodes[node];
+    }
+
+    // For a start node, these are the entry nodes of the nonterminal's
+    // rules, which get built now if they haven't been yet
+    public int[] getSuccessors(int node) {
+        if(nodes.kinds[node] == START) {
+            buildIfNeeded(nodes.symbolIds[node]);
+        }
+        return nodes.successors[node];
+    }
+
+    public int getReturnNode(int callNode) {
+        return nodes.returnNodes[callNode];
+    }
+
+    public int getCallNode(int returnNode) {
+        return nodes.callNodes[returnNode];
+    }
+
+    public GrammarRule getExitRule(int exitNode) {
+        return nodes.exitRules[exitNode];
+    }
+
+    public GrammarRule getJoinRule(int joinNode) {
+        return nodes.exitRules[joinNode];
+    }
+
+    public boolean isRuleEntry(int node) {
+        return nodes.ruleEntryNodes[node];
+    }
+
+    public int[] getPredictedNonterminals(int nonterminalId) {
+        int[] predicted = predictedNonterminals.get(nonterminalId);
+        if(predicted == null) {
+            synchronized(this) {
+                predicted = predictedNonterminals.get(nonterminalId);
+                if(predicted == null) {
+                    predicted = computePredictedNonterminals(nonterminalId);
+                    predictedNonterminals.set(nonterminalId, predicted);
+                }
+            }
+        }
+        return predicted;
+    }
+
+    public int getNonterminalCount() {
+        return nonterminals.length;
+    }
+
+    public Nonterminal getNonterminal(int nonterminalId) {
+        return nonterminals[nonterminalId];
+    }
+
+    public int getNonterminalId(Nonterminal nonterminal) {
+        return nonterminalIds.get(nonterminal);
+    }
+
+    public int getStartNode(int nonterminalId) {
+        return nonterminalStartNodes[nonterminalId];
+    }
+
+    public int getEndNode(int nonterminalId) {
+        return nonterminalEndNodes[nonterminalId];
+    }
+
+    // With a lazy GFG, this only counts the symbols seen so far
+    public int getSymbolCount() {
+        return symbolCount;
+    }
+
+    // Returns -1 for symbols that aren't in the grammar, or, with a lazy
+    // GFG, that aren't in any rule built so far. This is the only map
+    // lookup, and it happens once per token
+    public int getSymbolIdOf(Symbol symbol) {
+        Integer id = symbolIdMap.get(symbol);
+        return id == null ? -1 : id;
+    }
+
+    // The other way around from getSymbolIdOf. This goes through the whole
+    // map, which is fine for error messages but not for parsing
+    public Symbol getSymbol(int symbolId) {
+        for(Map.Entry<Symbol, Integer> symbolIdEntry : symbolIdMap.entrySet()) {
+            if(symbolIdEntry.getValue() == symbolId) {
+                return symbolIdEntry.getKey();
+            }
+        }
+        return null;
+    }
+
+    public String nodeString(int node) {
+        switch(nodes.kinds[node]) {
+            case START:
+                return "Start: ." + nonterminals[nodes.symbolIds[node]];
+            case END:
+                return "End: " + nonterminals[nodes.symbolIds[node]] + ".";
+            case CALL:
+                return "Call: " + nonterminals[nodes.symbolIds[node]];
+            case EXIT:
+                return "Exit: " + nodes.exitRules[node];
+            case BRANCH:
+                return "Branch " + node;
+            case JOIN:
+                return "Join " + node;
+            default:
+                return "Scan " + node;
+        }
+    }
+
+    private void buildIfNeeded(int nonterminalId) {
+        if(builtNonterminals.get(nonterminalId) == 0) {
+            synchronized(this) {
+                if(builtNonterminals.get(nonterminalId) == 0) {
+                    build(nonterminalId);
+                }
+            }
+        }
+    }
+
+    // Builds the nodes for the rules of a nonterminal, numbers them after
+    // every node so far, and flattens them into the arrays. Only called
+    // while holding the lock
+    private void build(int nonterminalId) {
+        List<GrammarRule> rules = new ArrayList<>(builder.getGrammar().getRulesWithLeftHandSide(nonterminals[nonterminalId]));
+        StartGFGNode startNode = builder.buildRules(nonterminals[nonterminalId]);
+        // Every node reachable from the start node without going through
+        // another start node. That's every inner and branch node of the
+        // nonterminal's rules
+        IdentityHashMap<GFGNode, Integer> nodeIds = new IdentityHashMap<>();
+        ArrayList<GFGNode> newNodes = new ArrayList<>();
+        ArrayList<GFGNode> toVisit = new ArrayList<GFGNode>(startNode.getNextNodes());
+        while(! toVisit.isEmpty()) {
+            GFGNode node = toVisit.remove(toVisit.size() - 1);
+            if(nodeIds.containsKey(node)) {
+                continue;
+            }
+            nodeIds.put(node, nodeCount + newNodes.size());
+            newNodes.add(node);
+            if(node instanceof BranchGFGNode) {
+                toVisit.addAll(((BranchGFGNode) node).getNextNodes());
+                continue;
+            }
+            InnerGFGNode innerNode = (InnerGFGNode) node;
+            GFGNode nextNode = innerNode.getNextNode();
+            if(nextNode instanceof StartGFGNode) {
+                // Skip over the call to where it returns
+                EndGFGNode calledEndNode = builder.getEndNode(((StartGFGNode) nextNode).getNonterminal());
+                toVisit.add(calledEndNode.getReturnNode(innerNode));
+            } else if(! (nextNode instanceof EndGFGNode)) {
+                toVisit.add(nextNode);
+            }
+        }
+
+        int newNodeCount = nodeCount + newNodes.size();
+        if(newNodeCount > nodes.kinds.length) {
+            // Readers that still have the old arrays only look at nodes
+            // that are in them, so copying is enough
+            nodes = new NodeArrays(nodes, Math.max(newNodeCount, 2 * nodes.kinds.length));
+        }
+        for(int node = nodeCount; node < newNodeCount; node++) {
+            initializeNode(node, -1, -1);
+        }
+        for(GFGNode gfgNode : newNodes) {
+            int node = nodeIds.get(gfgNode);
+            if(gfgNode instanceof BranchGFGNode) {
+                nodes.kinds[node] = BRANCH;
+                nodes.successors[node] = numbersOf(((BranchGFGNode) gfgNode).getNextNodes(), nodeIds);
+                continue;
+            }
+            InnerGFGNode innerNode = (InnerGFGNode) gfgNode;
+            GFGNode nextNode = innerNode.getNextNode();
+            nodes.nextNodes[node] = numberOf(nextNode, nodeIds);
+            if(innerNode.getTransition() != null) {
+                nodes.kinds[node] = SCAN;
+                nodes.symbolIds[node] = symbolId(innerNode.getTransition().getSymbol());
+            } else if(nextNode instanceof StartGFGNode) {
+                nodes.kinds[node] = CALL;
+                Nonterminal calledNonterminal = ((StartGFGNode) nextNode).getNonterminal();
+                nodes.symbolIds[node] = nonterminalIds.get(calledNonterminal);
+                int returnNode = nodeIds.get(builder.getEndNode(calledNonterminal).getReturnNode(innerNode));
+                nodes.returnNodes[node] = returnNode;
+                nodes.callNodes[returnNode] = node;
+            } else if(nextNode instanceof EndGFGNode) {
+                nodes.kinds[node] = EXIT;
+                nodes.exitRules[node] = builder.getExitRule(innerNode);
+            } else {
+                nodes.kinds[node] = JOIN;
+                nodes.exitRules[node] = builder.getExitRule(innerNode);
+            }
+        }
+        int startNodeNumber = nonterminalStartNodes[nonterminalId];
+        nodes.successors[startNodeNumber] = numbersOf(startNode.getNextNodes(), nodeIds);
+        for(int entryNode : nodes.successors[startNodeNumber]) {
+            nodes.ruleEntryNodes[entryNode] = true;
+        }
+        nodeCount = newNodeCount;
+        List<GrammarRule> oldRules = builtRules.get(nonterminalId);
+        if(oldRules == null) {
+            builtNonterminalCount++;
+        } else {
+            builtRuleCount -= oldRules.size();
+        }
+        builtRules.set(nonterminalId, rules);
+        builtRuleCount += rules.size();
+        builtNonterminals.set(nonterminalId, 1);
+    }
+
+    // Gives a nonterminal an id and start and end nodes, if it doesn't
+    // have them yet. Only called while holding the lock
+    private void addNonterminal(Nonterminal nonterminal) {
+        if(nonterminalIds.containsKey(nonterminal)) {
+            return;
+        }
+        int nonterminalId = nonterminals.length;
+        nonterminals = Arrays.copyOf(nonterminals, nonterminalId + 1);
+        nonterminals[nonterminalId] = nonterminal;
+        nonterminalIds.put(nonterminal, nonterminalId);
+        if(nodeCount + 2 > nodes.kinds.length) {
+            nodes = new NodeArrays(nodes, 2 * (nodeCount + 2));
+        }
+        nonterminalStartNodes = Arrays.copyOf(nonterminalStartNodes, nonterminalId + 1);
+        nonterminalEndNodes = Arrays.copyOf(nonterminalEndNodes, nonterminalId + 1);
+        nonterminalStartNodes[nonterminalId] = nodeCount;
+        nonterminalEndNodes[nonterminalId] = nodeCount + 1;
+        initializeNode(nodeCount, START, nonterminalId);
+        initializeNode(nodeCount + 1, END, nonterminalId);
+        nodeCount += 2;
+
+        AtomicReferenceArray<int[]> newPredictedNonterminals = new AtomicReferenceArray<>(nonterminalId + 1);
+        AtomicIntegerArray newBuiltNonterminals = new AtomicIntegerArray(nonterminalId + 1);
+        for(int i = 0; i < nonterminalId; i++) {
+            newPredictedNonterminals.set(i, predictedNonterminals.get(i));
+            newBuiltNonterminals.set(i, builtNonterminals.get(i));
+        }
+        predictedNonterminals = newPredictedNonterminals;
+        builtNonterminals = newBuiltNonterminals;
+        builtRules.add(null);
+    }
+
+    private void initializeNode(int node, int kind, int symbolId) {
+        nodes.kinds[node] = kind;
+        nodes.symbolIds[node] = symbolId;
+        nodes.nextNodes[node] = -1;
+        nodes.returnNodes[node] = -1;
+        nodes.callNodes[node] = -1;
+    }
+
+    // Only called while holding the lock
+    private int[] computePredictedNonterminals(int nonterminalId) {
+        boolean[] predicted = new boolean[nonterminals.length];
+        ArrayList<Integer> closure = new ArrayList<>();
+        predicted[nonterminalId] = true;
+        closure.add(nonterminalId);
+        // closure doubles as the worklist, since everything in it needs
+        // to be looked at exactly once
+        for(int i = 0; i < closure.size(); i++) {
+            for(int entryNode : getSuccessors(nonterminalStartNodes[closure.get(i)])) {
+                int calledNonterminalId = nodes.symbolIds[entryNode];
+                if(nodes.kinds[entryNode] == CALL && ! predicted[calledNonterminalId]) {
+                    predicted[calledNonterminalId] = true;
+                    closure.add(calledNonterminalId);
+                }
+            }
+        }
+        int[] closureArray = new int[closure.size()];
+        for(int i = 0; i < closure.size(); i++) {
+            closureArray[i] = closure.get(i);
+        }
+        return closureArray;
+    }
+
+    // Only called while holding the lock
+    private int symbolId(Symbol symbol) {
+        Integer id = symbolIdMap.get(symbol);
+        if(id == null) {
+            id = symbolCount;
+            symbolIdMap.put(symbol, id);
+            symbolCount++;
+        }
+        return id;
+    }
+
+    // Start and end nodes were numbered up front, and everything else is
+    // one of the nodes being built
+    private int numberOf(GFGNode node, IdentityHashMap<GFGNode, Integer> nodeIds) {
+        if(node instanceof StartGFGNode) {
+            return nonterminalStartNodes[nonterminalIds.get(((StartGFGNode) node).getNonterminal())];
+        }
+        if(node instanceof EndGFGNode) {
+            return nonterminalEndNodes[nonterminalIds.get(((EndGFGNode) node).getNonterminal())];
+        }
+        return nodeIds.get(node);
+    }
+
+    private int[] numbersOf(List<InnerGFGNode> nodeList, IdentityHashMap<GFGNode, Integer> nodeIds) {
+        int[] numbers = new int[nodeList.size()];
+        for(int i = 0; i < nodeList.size(); i++) {
+            numbers[i] = numberOf(nodeList.get(i), nodeIds);
+        }
+        return numbers;
+    }
+
+    private static void writeIntArray(DataOutputStream out, int[] array) throws IOException {
+        out.writeInt(array.length);
+        for(int value : array) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readIntArray(ByteBuffer in) {
+        int[] array = new int[in.getInt()];
+        // A bulk get, so that a mapped file is copied straight into the array
+        in.asIntBuffer().get(array);
+        in.position(in.position() + 4 * array.length);
+        return array;
+    }
+
+    // The arrays the nodes are flattened into, indexed by node number. They
+    // can have room for more nodes than have been built. When they run out
+    // of room, they're copied into bigger ones. The fields are final, so a
+    // thread that sees the new arrays also sees everything that was copied
+    // into them
+    private static class NodeArrays {
+
+        public final int[] kinds;
+        // For scan nodes, the id of the transition's symbol. For start, end
+        // and call nodes, the id of the nonterminal that is started, ended
+        // or called
+        public final int[] symbolIds;
+        // The node at the end of the node's only edge. Start and branch
+        // nodes have several edges, so they use successors instead
+        public final int[] nextNodes;
+        public final int[][] successors;
+        // For call nodes, the matching return node, and for return nodes,
+        // the matching call node. A node can be a return node and a call
+        // node at once (for two nonterminals in a row), so these are
+        // separate arrays
+        public final int[] returnNodes;
+        public final int[] callNodes;
+        // Whether the node is the first inner node of a rule, right after
+        // the start node
+        public final boolean[] ruleEntryNodes;
+        // For exit nodes, the rule they finish, and for join nodes, the
+        // rule with EBNF operators they're part of
+        public final GrammarRule[] exitRules;
+
+        public NodeArrays(int capacity) {
+            this(new int[capacity], new int[capacity], new int[capacity], new int[capacity][],
+                    new int[capacity], new int[capacity], new boolean[capacity], new GrammarRule[capacity]);
+        }
+
+        public NodeArrays(NodeArrays old, int capacity) {
+            this(Arrays.copyOf(old.kinds, capacity),
+                    Arrays.copyOf(old.symbolIds, capacity),
+                    Arrays.copyOf(old.nextNodes, capacity),
+                    Arrays.copyOf(old.successors, capacity),
+                    Arrays.copyOf(old.returnNodes, capacity),
+                    Arrays.copyOf(old.callNodes, capacity),
+                    Arrays.copyOf(old.ruleEntryNodes, capacity),
+                    Arrays.copyOf(old.exitRules, capacity));
+        }
+
+        public NodeArrays(int[] k, int[] s, int[] n, int[][] su, int[] r, int[] c, boolean[] re, GrammarRule[] e) {
+            kinds = k;
+            symbolIds = s;
+            nextNodes = n;
+            successors = su;
+            returnNodes = r;
+            callNodes = c;
+            ruleEntryNodes = re;
+            exitRules = e;
+        }
+    }
+}
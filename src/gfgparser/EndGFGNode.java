@@ -7,7 +7,9 @@ import java.util.HashMap;
 public class EndGFGNode implements GFGNode {
 
     private Nonterminal nonterminal;
-    private HashMap<InnerGFGNode, InnerGFGNode> callNodesToReturnNodes;
+    // The return node is usually an inner node, but it can be a branch
+    // node when rules share a prefix that ends with the call
+    private HashMap<InnerGFGNode, GFGNode> callNodesToReturnNodes;
 
     public EndGFGNode(Nonterminal n) {
         nonterminal = n;
@@ -18,11 +20,11 @@ public class EndGFGNode implements GFGNode {
         return nonterminal;
     }
 
-    public void mapNodes(InnerGFGNode callNode, InnerGFGNode returnNode) {
+    public void mapNodes(InnerGFGNode callNode, GFGNode returnNode) {
         callNodesToReturnNodes.put(callNode, returnNode);
     }
 
-    public InnerGFGNode getReturnNode(InnerGFGNode callNode) {
+    public GFGNode getReturnNode(InnerGFGNode callNode) {
         return callNodesToReturnNodes.get(callNode);
     }
 
@@ -0,0 +1,268 @@
+package gfgparser;
+
+import shared.*;
+
+import java.util.*;
+
+public class GFGBuilder {
+
+    // Builds the GFG out of node objects, one nonterminal's rules at a time,
+    // for CompiledGFG to number and flatten into arrays. Each call to
+    // buildRules starts fresh: the nodes it makes for the rules lead to the
+    // start and end nodes of whatever nonterminals the rules call, but those
+    // are only placeholders, and nothing else is built for them. So the
+    // nodes for a nonterminal can be built whenever they're needed, and
+    // thrown away once they're compiled
+
+    private Grammar grammar;
+    // If this is set, rules with the same left hand side share the nodes
+    // for any prefix their right hand sides have in common, so the GFG for
+    // each nonterminal is a trie. Otherwise every rule gets its own chain
+    // of inner nodes
+    private boolean sharingPrefixes;
+    // The start and end nodes the rules being built refer to, made the
+    // first time they come up
+    private HashMap<Nonterminal, StartGFGNode> startNodes;
+    private HashMap<Nonterminal, EndGFGNode> endNodes;
+    // Which rule each exit node belongs to, since with shared prefixes
+    // that's the first point where the rules are told apart. Join nodes are
+    // only made for the automaton of a single rule, so they're in here too
+    private IdentityHashMap<InnerGFGNode, GrammarRule> exitRules;
+
+    public GFGBuilder(Grammar g, boolean sharePrefixes) {
+        grammar = g;
+        sharingPrefixes = sharePrefixes;
+    }
+
+    public Grammar getGrammar() {
+        return grammar;
+    }
+
+    // Builds the inner and branch nodes for every rule of the nonterminal,
+    // and returns its start node
+    public StartGFGNode buildRules(Nonterminal nonterminal) {
+        startNodes = new HashMap<>();
+        endNodes = new HashMap<>();
+        exitRules = new IdentityHashMap<>();
+        // Rules with EBNF operators always get their own nodes, built
+        // from their automata
+        ArrayList<GrammarRule> plainRules = new ArrayList<>();
+        for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+            if(rule.isExtended()) {
+                addRuleAutomaton(rule);
+            } else {
+                plainRules.add(rule);
+            }
+        }
+        if(sharingPrefixes) {
+            if(! plainRules.isEmpty()) {
+                addRuleTrie(plainRules);
+            }
+        } else {
+            for(GrammarRule rule : plainRules) {
+                addRuleChain(rule);
+            }
+        }
+        return getStartNode(nonterminal);
+    }
+
+    // The end node of a nonterminal that the last rules built call, which
+    // knows where each of their calls to it returns to
+    public EndGFGNode getEndNode(Nonterminal nonterminal) {
+        EndGFGNode endNode = endNodes.get(nonterminal);
+        if(endNode == null) {
+            endNode = new EndGFGNode(nonterminal);
+            endNodes.put(nonterminal, endNode);
+        }
+        return endNode;
+    }
+
+    // Also works for join nodes
+    public GrammarRule getExitRule(InnerGFGNode exitNode) {
+        return exitRules.get(exitNode);
+    }
+
+    private StartGFGNode getStartNode(Nonterminal nonterminal) {
+        StartGFGNode startNode = startNodes.get(nonterminal);
+        if(startNode == null) {
+            startNode = new StartGFGNode(nonterminal);
+            startNodes.put(nonterminal, startNode);
+        }
+        return startNode;
+    }
+
+    private void addRuleChain(GrammarRule rule) {
+        InnerGFGNode entryNode = new InnerGFGNode();
+        getStartNode(rule.getLeftHandSide()).addNextNode(entryNode);
+        InnerGFGNode previousNode = entryNode;
+        List<GrammarElement> ruleRHS = rule.getRightHandSide();
+        for(int currentIndex = 0; currentIndex < ruleRHS.size(); currentIndex++) {
+            // Go ahead and create the next GFG node
+            InnerGFGNode nextNode = new InnerGFGNode();
+            addEdge(previousNode, ruleRHS.get(currentIndex), nextNode);
+            previousNode = nextNode;
+        }
+        // previousNode is now the exit node for this rule. Leave its
+        // transition null to represent an epsilon transition
+        previousNode.setNextNode(getEndNode(rule.getLeftHandSide()));
+        exitRules.put(previousNode, rule);
+    }
+
+    private void addRuleTrie(List<GrammarRule> rules) {
+        // The start node already has an edge per rule, so it can do the
+        // first branching itself
+        StartGFGNode startNode = getStartNode(rules.get(0).getLeftHandSide());
+        for(List<GrammarRule> group : groupByElement(rules, 0)) {
+            InnerGFGNode entryNode = new InnerGFGNode();
+            startNode.addNextNode(entryNode);
+            addTrieEdge(entryNode, group, 0);
+        }
+    }
+
+    // All of the rules have the same element at index depth. This makes
+    // node the one that moves over it, and builds everything after it
+    private void addTrieEdge(InnerGFGNode node, List<GrammarRule> rules, int depth) {
+        GrammarElement element = rules.get(0).getRightHandSide().get(depth);
+        List<List<GrammarRule>> groups = groupByElement(rules, depth + 1);
+        // Rules that end right after this element, so they're left out of
+        // every group
+        ArrayList<GrammarRule> endingRules = new ArrayList<>();
+        for(GrammarRule rule : rules) {
+            if(rule.getRightHandSide().size() == depth + 1) {
+                endingRules.add(rule);
+            }
+        }
+
+        if(groups.size() + endingRules.size() == 1) {
+            // Only one way to go on, so there's no need for a branch
+            InnerGFGNode nextNode = new InnerGFGNode();
+            addEdge(node, element, nextNode);
+            if(endingRules.isEmpty()) {
+                addTrieEdge(nextNode, groups.get(0), depth + 1);
+            } else {
+                nextNode.setNextNode(getEndNode(endingRules.get(0).getLeftHandSide()));
+                exitRules.put(nextNode, endingRules.get(0));
+            }
+            return;
+        }
+
+        BranchGFGNode branchNode = new BranchGFGNode();
+        addEdge(node, element, branchNode);
+        for(GrammarRule endingRule : endingRules) {
+            InnerGFGNode exitNode = new InnerGFGNode();
+            exitNode.setNextNode(getEndNode(endingRule.getLeftHandSide()));
+            exitRules.put(exitNode, endingRule);
+            branchNode.addNextNode(exitNode);
+        }
+        for(List<GrammarRule> group : groups) {
+            InnerGFGNode groupNode = new InnerGFGNode();
+            branchNode.addNextNode(groupNode);
+            addTrieEdge(groupNode, group, depth + 1);
+        }
+    }
+
+    // A rule with EBNF operators gets a node for each state of its
+    // automaton, where the ways out of the state split up, just like a
+    // branch in a prefix trie. A state with more than one way in is reached
+    // through a join node per way, so the node for the state can be shared
+    // by all of them. Repetition comes out as a cycle back through a join
+    // node, and the children of the rule's nonterminal stay a flat list
+    private void addRuleAutomaton(GrammarRule rule) {
+        RuleAutomaton automaton = rule.getAutomaton();
+        GFGNode[] stateNodes = new GFGNode[automaton.getStateCount()];
+        // Nothing goes back to the first state, so the start node can do
+        // its branching itself
+        StartGFGNode startNode = getStartNode(rule.getLeftHandSide());
+        for(int nextState : automaton.getNextStates(0)) {
+            InnerGFGNode entryNode = new InnerGFGNode();
+            startNode.addNextNode(entryNode);
+            addAutomatonEdge(entryNode, rule, nextState, stateNodes);
+        }
+    }
+
+    // Makes node move over the element that leads into state, to the node
+    // for the state
+    private void addAutomatonEdge(InnerGFGNode node, GrammarRule rule, int state, GFGNode[] stateNodes) {
+        RuleAutomaton automaton = rule.getAutomaton();
+        GFGNode nextNode = getStateNode(rule, state, stateNodes);
+        if(automaton.getPreviousStates(state).length > 1) {
+            InnerGFGNode joinNode = new InnerGFGNode();
+            joinNode.setNextNode(nextNode);
+            exitRules.put(joinNode, rule);
+            nextNode = joinNode;
+        }
+        addEdge(node, automaton.getElement(state), nextNode);
+    }
+
+    private GFGNode getStateNode(GrammarRule rule, int state, GFGNode[] stateNodes) {
+        if(stateNodes[state] != null) {
+            return stateNodes[state];
+        }
+        RuleAutomaton automaton = rule.getAutomaton();
+        int[] nextStates = automaton.getNextStates(state);
+        boolean isFinal = automaton.isFinal(state);
+        // The node is remembered before its edges are added, since they
+        // can lead back to it
+        if(nextStates.length + (isFinal ? 1 : 0) == 1) {
+            // Only one way to go on, so there's no need for a branch
+            InnerGFGNode node = new InnerGFGNode();
+            stateNodes[state] = node;
+            if(isFinal) {
+                node.setNextNode(getEndNode(rule.getLeftHandSide()));
+                exitRules.put(node, rule);
+            } else {
+                addAutomatonEdge(node, rule, nextStates[0], stateNodes);
+            }
+            return node;
+        }
+        BranchGFGNode branchNode = new BranchGFGNode();
+        stateNodes[state] = branchNode;
+        if(isFinal) {
+            InnerGFGNode exitNode = new InnerGFGNode();
+            exitNode.setNextNode(getEndNode(rule.getLeftHandSide()));
+            exitRules.put(exitNode, rule);
+            branchNode.addNextNode(exitNode);
+        }
+        for(int nextState : nextStates) {
+            InnerGFGNode edgeNode = new InnerGFGNode();
+            branchNode.addNextNode(edgeNode);
+            addAutomatonEdge(edgeNode, rule, nextState, stateNodes);
+        }
+        return branchNode;
+    }
+
+    // Makes node move over element to nextNode. For a nonterminal, that
+    // means node calls it and nextNode is where it returns to
+    private void addEdge(InnerGFGNode node, GrammarElement element, GFGNode nextNode) {
+        if(element instanceof Terminal) {
+            // This is a typical transition edge
+            node.setTransition((Terminal) element);
+            node.setNextNode(nextNode);
+        } else { // element instanceof Nonterminal
+            // node is a call node, and nextNode is a return node
+            Nonterminal nonterminal = (Nonterminal) element;
+            // Leave node's transition null, to represent an epsilon transition
+            node.setNextNode(getStartNode(nonterminal));
+            getEndNode(nonterminal).mapNodes(node, nextNode);
+        }
+    }
+
+    // Groups the rules that are longer than index by their element at
+    // index, keeping the groups in the order they first show up
+    private static List<List<GrammarRule>> groupByElement(List<GrammarRule> rules, int index) {
+        LinkedHashMap<GrammarElement, List<GrammarRule>> groups = new LinkedHashMap<>();
+        for(GrammarRule rule : rules) {
+            List<GrammarElement> ruleRHS = rule.getRightHandSide();
+            if(ruleRHS.size() <= index) {
+                continue;
+            }
+            List<GrammarRule> group = groups.get(ruleRHS.get(index));
+            if(group == null) {
+                group = new ArrayList<>();
+                groups.put(ruleRHS.get(index), group);
+            }
+            group.add(rule);
+        }
+        return new ArrayList<>(groups.values());
+    }
+}
@@ -1,196 +1,596 @@
 package gfgparser;
 
 import shared.*;
+import shared.jfr.RecognitionEvent;
+import shared.jfr.TreeBuildingEvent;
 
 import java.util.*;
 
-public class GFGParser implements Parser {
+public class GFGParser implements IncrementalParser, GrammarListener {
 
     private Grammar grammar;
-    private HashMap<Nonterminal, StartGFGNode> startNodes;
-    private HashMap<Nonterminal, EndGFGNode> endNodes;
-    // This is used during the parsing phase, when we're working backwards
-    // through the GFG path using the call stack
-    private HashMap<InnerGFGNode, InnerGFGNode> returnNodesToCallNodes;
+    // The GFG is built out of node objects, and then compiled into arrays
+    // that the parser actually runs on
+    private CompiledGFG gfg;
+    // If this is set, calling a nonterminal adds the whole epsilon closure
+    // of the call at once, and only the rule entry nodes in it are stored.
+    // Otherwise every Call and Start step goes through the worklist
+    private boolean usingEpsilonClosures;
+    // If this is set, rules with the same left hand side share the nodes
+    // for any prefix their right hand sides have in common, so the GFG for
+    // each nonterminal is a trie. Otherwise every rule gets its own chain
+    // of inner nodes
+    private boolean sharingPrefixes;
+    // If this is set, the nodes for a nonterminal's rules aren't built until
+    // a parse first starts the nonterminal. See CompiledGFG
+    private boolean buildingLazily;
+    // Only used by reparse, to remember the last parse
+    private ReparseState<GFGSigmaSet> reparseState = new ReparseState<>();
+    // Null unless someone wants to hear what the parser does
+    private ParseListener parseListener;
+    // If this is set, parse repairs syntax errors instead of giving up on
+    // them. See processTokensRecovering
+    private boolean recoveringFromErrors;
 
     public GFGParser(Grammar g) {
+        this(g, true, false);
+    }
+
+    public GFGParser(Grammar g, boolean useEpsilonClosures) {
+        this(g, useEpsilonClosures, false);
+    }
+
+    public GFGParser(Grammar g, boolean useEpsilonClosures, boolean sharePrefixes) {
+        this(g, useEpsilonClosures, sharePrefixes, false);
+    }
+
+    public GFGParser(Grammar g, boolean useEpsilonClosures, boolean sharePrefixes, boolean buildLazily) {
+        usingEpsilonClosures = useEpsilonClosures;
+        sharingPrefixes = sharePrefixes;
+        buildingLazily = buildLazily;
         setGrammar(g);
     }
 
+    // For a GFG that was already built and compiled, like the one in a
+    // grammar image. sharePrefixes only matters if setGrammar is called
+    // again later, and then the new GFG is built right away
+    public GFGParser(Grammar g, CompiledGFG compiledGFG, boolean useEpsilonClosures, boolean sharePrefixes) {
+        usingEpsilonClosures = useEpsilonClosures;
+        sharingPrefixes = sharePrefixes;
+        grammar = g;
+        gfg = compiledGFG;
+        grammar.addGrammarListener(this);
+    }
+
+    public CompiledGFG getCompiledGFG() {
+        return gfg;
+    }
+
+    public boolean isUsingEpsilonClosures() {
+        return usingEpsilonClosures;
+    }
+
+    public boolean isSharingPrefixes() {
+        return sharingPrefixes;
+    }
+
+    public boolean isBuildingLazily() {
+        return buildingLazily;
+    }
+
+    public ParseListener getParseListener() {
+        return parseListener;
+    }
+
+    public void setParseListener(ParseListener listener) {
+        parseListener = listener;
+    }
+
+    public boolean isRecoveringFromErrors() {
+        return recoveringFromErrors;
+    }
+
+    // Only parse recovers. Reparse still rejects tokens with errors
+    public void setRecoveringFromErrors(boolean recovering) {
+        recoveringFromErrors = recovering;
+    }
+
+    // The parser listens to its grammar, so that rules added to it or
+    // removed from it later only mean patching the GFG
     @Override
     public void setGrammar(Grammar g) {
-        grammar = g;
-        // Build the GFG
-        // First, build all the start and end nodes
-        startNodes = new HashMap<>();
-        endNodes = new HashMap<>();
-        Set<Nonterminal> nonterminals = grammar.getNonterminals();
-        for(Nonterminal nonterminal : nonterminals) {
-            StartGFGNode startNode = new StartGFGNode(nonterminal);
-            startNodes.put(nonterminal, startNode);
-            EndGFGNode endNode = new EndGFGNode(nonterminal);
-            endNodes.put(nonterminal, endNode);
+        if(grammar != null) {
+            grammar.removeGrammarListener(this);
         }
+        grammar = g;
+        reparseState.clear();
+        gfg = new CompiledGFG(new GFGBuilder(grammar, sharingPrefixes), buildingLazily);
+        grammar.addGrammarListener(this);
+    }
 
-        // Now add the inner nodes for every grammar rule
-        returnNodesToCallNodes = new HashMap<>();
-        for(Nonterminal ruleLeftHandSide : nonterminals) {
-            StartGFGNode leftHandSideStartNode = startNodes.get(ruleLeftHandSide);
-            EndGFGNode leftHandSideEndNode = endNodes.get(ruleLeftHandSide);
-            List<GrammarRule> rulesWithLeftHandSide = grammar.getRulesWithLeftHandSide(ruleLeftHandSide);
-            for(GrammarRule rule : rulesWithLeftHandSide) {
-                InnerGFGNode entryNode = new InnerGFGNode();
-                leftHandSideStartNode.addNextNode(entryNode);
-                InnerGFGNode previousNode = entryNode;
-                List<GrammarElement> ruleRHS = rule.getRightHandSide();
-                for(int currentIndex = 0; currentIndex < ruleRHS.size(); currentIndex++) {
-                    // Go ahead and create the next GFG node
-                    InnerGFGNode nextNode = new InnerGFGNode();
-                    GrammarElement currentElement = ruleRHS.get(currentIndex);
-                    if(currentElement instanceof Terminal) {
-                        // This is a typical transition edge
-                        Terminal currentTerminal = (Terminal) currentElement;
-                        previousNode.setTransition(currentTerminal);
-                        previousNode.setNextNode(nextNode);
-                    } else { // currentElement instanceof Nonterminal
-                        // previousNode is a call node, and nextNode is a return node
-                        Nonterminal currentNonterminal = (Nonterminal) currentElement;
-                        // Leave previousNode's transition null, to represent an epsilon transition
-                        StartGFGNode calledStartNode = startNodes.get(currentNonterminal);
-                        previousNode.setNextNode(calledStartNode);
-                        EndGFGNode calledEndNode = endNodes.get(currentNonterminal);
-                        calledEndNode.mapNodes(previousNode, nextNode);
-                        returnNodesToCallNodes.put(nextNode, previousNode);
-                    }
-                    previousNode = nextNode;
-                }
-                // previousNode is now the exit node for this rule. Leave its
-                // transition null to represent an epsilon transition
-                previousNode.setNextNode(leftHandSideEndNode);
-            }
-        }
+    @Override
+    public void ruleAdded(Grammar g, GrammarRule rule) {
+        updateRules(rule.getLeftHandSide());
+    }
+
+    @Override
+    public void ruleRemoved(Grammar g, GrammarRule rule) {
+        updateRules(rule.getLeftHandSide());
+    }
+
+    private void updateRules(Nonterminal nonterminal) {
+        gfg.updateRules(nonterminal);
+        // The last parse might have gone differently with the new rules
+        reparseState.clear();
     }
 
     @Override
     public ParseTreeNode parse(List<Token> tokens) {
+        return parse(tokens, null).getTree();
+    }
+
+    // Stops as soon as the parse runs out of its budget, which can be null
+    // for no limits. Running out is one of the outcomes, not an error
+    public ParseOutcome parse(List<Token> tokens, ParseBudget budget) {
+        ParseListener listener = parseListener;
+        if(listener != null) {
+            listener.parseStarted(tokens.size());
+        }
         // In this list, index j will correspond to the sigma set right before
         // the jth token
         ArrayList<GFGSigmaSet> sigmaSets = new ArrayList<>();
+        // Null unless the parse is recovering from errors, in which case
+        // the sigma sets go with the repaired tokens
+        TokenRepairs repairs = recoveringFromErrors ? new TokenRepairs() : null;
+        try {
+            RecognitionEvent recognitionEvent = new RecognitionEvent();
+            recognitionEvent.begin();
+            List<Token> parsedTokens = tokens;
+            if(repairs == null) {
+                processTokens(tokens, sigmaSets, 0, budget);
+            } else {
+                processTokensRecovering(tokens, sigmaSets, repairs, budget);
+                parsedTokens = repairs.getTokens();
+            }
+            boolean accepted = accepts(parsedTokens, sigmaSets);
+            commitRecognitionEvent(recognitionEvent, parsedTokens, sigmaSets, accepted);
 
-        // Set up the first sigma set
-        GFGSigmaSet sigmaSet0 = new GFGSigmaSet();
-        sigmaSets.add(sigmaSet0);
-        ArrayDeque<GFGSigmaSetEntry> sigmaSet0ToProcess = new ArrayDeque<>();
-        GrammarRule startRule = grammar.getStartRule();
-        Nonterminal startNonterminal = startRule.getLeftHandSide();
-        StartGFGNode startRuleStartNode = startNodes.get(startNonterminal);
-        GFGSigmaSetEntry startRuleEntry = new GFGSigmaSetEntry(startRuleStartNode, 0);
-        sigmaSet0ToProcess.add(startRuleEntry);
-        fillSigmaSet(sigmaSets, 0, sigmaSet0ToProcess);
+            if(! accepted) {
+                if(listener != null) {
+                    listener.parseFinished(tokens.size(), false);
+                }
+                // A recovering parse only gets here if it couldn't finish
+                // the start rule after the last token
+                int position = repairs == null ? sigmaSets.size() - 1 : tokens.size();
+                GFGSigmaSet lastSigmaSet = sigmaSets.get(sigmaSets.size() - 1);
+                return ParseOutcome.rejected(tokens, position, lastSigmaSet.getExpectedSymbols(), budget);
+            }
+
+            // The recognizing was successful - rebuild the parse tree
+            TreeBuildingEvent treeBuildingEvent = new TreeBuildingEvent();
+            treeBuildingEvent.begin();
+            ParseTreeNodeCache nodes = new ParseTreeNodeCache(listener);
+            ParseTreeNode root = buildParseTree(parsedTokens, sigmaSets, nodes, repairs, budget);
+            commitTreeBuildingEvent(treeBuildingEvent, parsedTokens, nodes);
+            if(listener != null) {
+                listener.parseFinished(tokens.size(), true);
+            }
+            if(repairs != null && ! repairs.getErrors().isEmpty()) {
+                return ParseOutcome.recovered(root, tokens.size(), repairs.getErrors(), budget);
+            }
+            return ParseOutcome.accepted(root, tokens.size(), budget);
+        } catch(ParseAbortedException e) {
+            if(listener != null) {
+                listener.parseFinished(tokens.size(), false);
+            }
+            return ParseOutcome.aborted(e, Math.max(sigmaSets.size() - 1, 0), budget);
+        }
+    }
+
+    // Not thread safe: this keeps the sigma sets and the parse tree nodes
+    // from the last call around to reuse them in the next one
+    @Override
+    public ParseTreeNode reparse(List<Token> tokens) {
+        if(parseListener != null) {
+            parseListener.parseStarted(tokens.size());
+        }
+        RecognitionEvent recognitionEvent = new RecognitionEvent();
+        recognitionEvent.begin();
+        int firstTokenIndex = reparseState.resume(tokens);
+        ArrayList<GFGSigmaSet> sigmaSets = reparseState.getSigmaSets();
+        processTokens(tokens, sigmaSets, firstTokenIndex, null);
+        boolean accepted = accepts(tokens, sigmaSets);
+        commitRecognitionEvent(recognitionEvent, tokens, sigmaSets, accepted);
+
+        ParseTreeNode root = null;
+        ParseTreeNodeCache nodes = null;
+        if(accepted) {
+            TreeBuildingEvent treeBuildingEvent = new TreeBuildingEvent();
+            treeBuildingEvent.begin();
+            nodes = reparseState.createNodeCache(tokens, parseListener);
+            root = buildParseTree(tokens, sigmaSets, nodes, null, null);
+            commitTreeBuildingEvent(treeBuildingEvent, tokens, nodes);
+        }
+        reparseState.finish(tokens, nodes);
+        if(parseListener != null) {
+            parseListener.parseFinished(tokens.size(), root != null);
+        }
+        return root;
+    }
+
+    // Builds sigma sets firstTokenIndex + 1 through tokens.size(), assuming
+    // sigmaSets already holds sigma sets 0 through firstTokenIndex. If
+    // sigmaSets is empty, sigma set 0 is built first. Stops early at the
+    // first token nothing can scan, so a rejected parse only costs as much
+    // as the part of the tokens that was fine
+    private void processTokens(List<Token> tokens, ArrayList<GFGSigmaSet> sigmaSets, int firstTokenIndex, ParseBudget budget) {
+        if(sigmaSets.isEmpty()) {
+            addFirstSigmaSet(sigmaSets, budget);
+        }
 
         // Process the input
-        for(int tokenIndex = 0; tokenIndex < tokens.size(); tokenIndex++) {
+        for(int tokenIndex = firstTokenIndex; tokenIndex < tokens.size(); tokenIndex++) {
             Token currentToken = tokens.get(tokenIndex);
             GFGSigmaSet previousSigmaSet = sigmaSets.get(tokenIndex);
-            GFGSigmaSet nextSigmaSet = new GFGSigmaSet();
+            int symbolId = gfg.getSymbolIdOf(currentToken.getType());
+            List<GFGSigmaSetEntry> scanableEntries = previousSigmaSet.getEntriesPrecedingSymbol(symbolId);
+            if(parseListener != null) {
+                parseListener.scanned(tokenIndex, currentToken, scanableEntries.size());
+            }
+            if(scanableEntries.isEmpty()) {
+                // Every sigma set from here on would be empty, so stop, and
+                // leave the last sigma set as the one the parse got stuck in
+                return;
+            }
+            GFGSigmaSet nextSigmaSet = new GFGSigmaSet(gfg);
             sigmaSets.add(nextSigmaSet);
             ArrayDeque<GFGSigmaSetEntry> toProcess = new ArrayDeque<>();
-            Set<GFGSigmaSetEntry> scanableEntries = previousSigmaSet.getEntriesPrecedingSymbol(currentToken.getType());
-            for(GFGSigmaSetEntry scanableEntry : scanableEntries) {
-                InnerGFGNode scanningNode = (InnerGFGNode) scanableEntry.getNode();
-                GFGNode nextNode = scanningNode.getNextNode();
-                GFGSigmaSetEntry newEntry = new GFGSigmaSetEntry(nextNode, scanableEntry.getTag(), scanableEntry);
-                toProcess.add(newEntry);
+            scan(scanableEntries, toProcess);
+            fillSigmaSet(sigmaSets, tokenIndex + 1, toProcess, budget);
+        }
+    }
+
+    // Like processTokens, but instead of stopping at a token nothing can
+    // scan, it repairs the tokens and keeps going. Either the token is
+    // skipped, or one token is made up in front of it, if that lets it be
+    // scanned. Both cost one token, so skipping wins if the token after it
+    // can be scanned straight away. Once the tokens run out, tokens are
+    // made up until the start rule is finished. The repairs are only the
+    // cheapest at each error, not over all the tokens, but since nothing
+    // is ever undone, this is about as fast as a normal parse
+    private void processTokensRecovering(List<Token> tokens, ArrayList<GFGSigmaSet> sigmaSets, TokenRepairs repairs, ParseBudget budget) {
+        addFirstSigmaSet(sigmaSets, budget);
+        // What the sigma set after a made up token expects, if making one
+        // up didn't work at the last token. Skipping a token doesn't
+        // change what's in the last sigma set, so this stays the same
+        // until a token is scanned
+        Set<Symbol> expectedAfterMissing = null;
+        for(int tokenIndex = 0; tokenIndex < tokens.size(); tokenIndex++) {
+            Token currentToken = tokens.get(tokenIndex);
+            GFGSigmaSet previousSigmaSet = sigmaSets.get(sigmaSets.size() - 1);
+            int symbolId = gfg.getSymbolIdOf(currentToken.getType());
+            List<GFGSigmaSetEntry> scanableEntries = previousSigmaSet.getEntriesPrecedingSymbol(symbolId);
+            if(scanableEntries.isEmpty()) {
+                Set<Symbol> expectedSymbols = previousSigmaSet.getExpectedSymbols();
+                boolean nextTokenFits = tokenIndex + 1 < tokens.size() &&
+                        ! previousSigmaSet.getEntriesPrecedingSymbol(gfg.getSymbolIdOf(tokens.get(tokenIndex + 1).getType())).isEmpty();
+                if(! nextTokenFits &&
+                        (expectedAfterMissing == null || expectedAfterMissing.contains(currentToken.getType()))) {
+                    GFGSigmaSet missingSigmaSet = addMissingSigmaSet(sigmaSets, budget);
+                    // A lazy GFG may only have given the symbol an id now
+                    symbolId = gfg.getSymbolIdOf(currentToken.getType());
+                    scanableEntries = missingSigmaSet.getEntriesPrecedingSymbol(symbolId);
+                    if(scanableEntries.isEmpty()) {
+                        expectedAfterMissing = missingSigmaSet.getExpectedSymbols();
+                        sigmaSets.remove(sigmaSets.size() - 1);
+                    } else {
+                        repairs.addMissing(tokenIndex, expectedSymbols);
+                    }
+                }
+                if(scanableEntries.isEmpty()) {
+                    addSkippedSigmaSet(sigmaSets, budget);
+                    repairs.addSkipped(tokenIndex, currentToken, expectedSymbols);
+                    continue;
+                }
+            }
+            if(parseListener != null) {
+                parseListener.scanned(tokenIndex, currentToken, scanableEntries.size());
+            }
+            GFGSigmaSet nextSigmaSet = new GFGSigmaSet(gfg);
+            sigmaSets.add(nextSigmaSet);
+            ArrayDeque<GFGSigmaSetEntry> toProcess = new ArrayDeque<>();
+            scan(scanableEntries, toProcess);
+            fillSigmaSet(sigmaSets, sigmaSets.size() - 1, toProcess, budget);
+            repairs.addScanned(currentToken);
+            expectedAfterMissing = null;
+        }
+
+        for(int missingCount = 0; missingCount < TokenRepairs.MAX_MISSING_AT_END; missingCount++) {
+            GFGSigmaSet lastSigmaSet = sigmaSets.get(sigmaSets.size() - 1);
+            Set<Symbol> expectedSymbols = lastSigmaSet.getExpectedSymbols();
+            if(accepts(repairs.getTokens(), sigmaSets) || expectedSymbols.isEmpty()) {
+                return;
             }
+            addMissingSigmaSet(sigmaSets, budget);
+            repairs.addMissing(tokens.size(), expectedSymbols);
+        }
+    }
+
+    private void addFirstSigmaSet(ArrayList<GFGSigmaSet> sigmaSets, ParseBudget budget) {
+        GFGSigmaSet sigmaSet0 = new GFGSigmaSet(gfg);
+        sigmaSets.add(sigmaSet0);
+        ArrayDeque<GFGSigmaSetEntry> sigmaSet0ToProcess = new ArrayDeque<>();
+        int startNonterminalId = gfg.getNonterminalId(grammar.getStartRule().getLeftHandSide());
+        if(usingEpsilonClosures) {
+            predict(sigmaSet0, 0, startNonterminalId);
+        } else {
+            GFGSigmaSetEntry startRuleEntry = new GFGSigmaSetEntry(gfg.getStartNode(startNonterminalId), 0);
+            sigmaSet0ToProcess.add(startRuleEntry);
+            if(parseListener != null) {
+                parseListener.predicted(0, grammar.getStartRule().getLeftHandSide());
+            }
+        }
+        fillSigmaSet(sigmaSets, 0, sigmaSet0ToProcess, budget);
+    }
 
-            fillSigmaSet(sigmaSets, tokenIndex + 1, toProcess);
+    // The Scan step. Each scan node has just the one node after it
+    private void scan(List<GFGSigmaSetEntry> scanableEntries, ArrayDeque<GFGSigmaSetEntry> toProcess) {
+        for(GFGSigmaSetEntry scanableEntry : scanableEntries) {
+            int nextNode = gfg.getNextNode(scanableEntry.getNode());
+            GFGSigmaSetEntry newEntry = new GFGSigmaSetEntry(nextNode, scanableEntry.getTag(), scanableEntry);
+            toProcess.add(newEntry);
         }
+    }
+
+    // Adds a sigma set after the last one as if a token had been there,
+    // scanning every symbol the last one expects. Which symbol the tree
+    // builder puts in depends on the scan node it comes from
+    private GFGSigmaSet addMissingSigmaSet(ArrayList<GFGSigmaSet> sigmaSets, ParseBudget budget) {
+        GFGSigmaSet previousSigmaSet = sigmaSets.get(sigmaSets.size() - 1);
+        GFGSigmaSet nextSigmaSet = new GFGSigmaSet(gfg);
+        sigmaSets.add(nextSigmaSet);
+        ArrayDeque<GFGSigmaSetEntry> toProcess = new ArrayDeque<>();
+        for(int symbolId = 0; symbolId < gfg.getSymbolCount(); symbolId++) {
+            scan(previousSigmaSet.getEntriesPrecedingSymbol(symbolId), toProcess);
+        }
+        fillSigmaSet(sigmaSets, sigmaSets.size() - 1, toProcess, budget);
+        return nextSigmaSet;
+    }
+
+    // Adds a copy of the last sigma set after it, as if the token between
+    // them wasn't there. The only preceding entry of each copy is the entry
+    // it's a copy of, which the tree builder goes back to after putting
+    // the skipped token in. Nothing is added to the copy afterwards, so
+    // its entries all stay copies
+    private void addSkippedSigmaSet(ArrayList<GFGSigmaSet> sigmaSets, ParseBudget budget) {
+        GFGSigmaSet previousSigmaSet = sigmaSets.get(sigmaSets.size() - 1);
+        GFGSigmaSet nextSigmaSet = new GFGSigmaSet(gfg);
+        for(GFGSigmaSetEntry entry : previousSigmaSet.getEntries()) {
+            nextSigmaSet.add(new GFGSigmaSetEntry(entry.getNode(), entry.getTag(), entry));
+        }
+        sigmaSets.add(nextSigmaSet);
+        if(parseListener != null) {
+            parseListener.sigmaSetFilled(sigmaSets.size() - 1, nextSigmaSet.size());
+        }
+        if(budget != null) {
+            budget.sigmaSetFilled(nextSigmaSet.size());
+        }
+    }
 
-        EndGFGNode acceptingNode = endNodes.get(grammar.getStartRule().getLeftHandSide());
+    private boolean accepts(List<Token> tokens, List<GFGSigmaSet> sigmaSets) {
+        int acceptingNode = gfg.getEndNode(gfg.getNonterminalId(grammar.getStartRule().getLeftHandSide()));
         GFGSigmaSetEntry acceptingEntry = new GFGSigmaSetEntry(acceptingNode, 0);
+        if(sigmaSets.size() <= tokens.size()) {
+            return false;
+        }
         GFGSigmaSet finalSigmaSet = sigmaSets.get(tokens.size());
-        if(! finalSigmaSet.contains(acceptingEntry)) {
-            return null;
+        return finalSigmaSet.contains(acceptingEntry);
+    }
+
+    // The chart is only gone over for the numbers if the event is going
+    // to be recorded, so with recording off this costs next to nothing
+    private void commitRecognitionEvent(RecognitionEvent event, List<Token> tokens, List<GFGSigmaSet> sigmaSets, boolean accepted) {
+        event.end();
+        if(! event.shouldCommit()) {
+            return;
         }
+        event.engine = getClass().getSimpleName();
+        event.tokenCount = tokens.size();
+        event.accepted = accepted;
+        for(GFGSigmaSet sigmaSet : sigmaSets) {
+            event.chartEntries += sigmaSet.size();
+            event.peakSigmaSetSize = Math.max(event.peakSigmaSetSize, sigmaSet.size());
+            event.ambiguityCount += sigmaSet.getAmbiguityCount();
+        }
+        event.commit();
+    }
 
-        // The recognizing was successful - rebuild the parse tree
-        return buildParseTree(tokens, sigmaSets);
+    private void commitTreeBuildingEvent(TreeBuildingEvent event, List<Token> tokens, ParseTreeNodeCache nodes) {
+        event.end();
+        if(! event.shouldCommit()) {
+            return;
+        }
+        event.engine = getClass().getSimpleName();
+        event.tokenCount = tokens.size();
+        event.forestNodes = nodes.size();
+        event.commit();
     }
 
+
     private void fillSigmaSet(ArrayList<GFGSigmaSet> sigmaSets,
                               int currentSigmaSetIndex,
-                              ArrayDeque<GFGSigmaSetEntry> toProcess) {
+                              ArrayDeque<GFGSigmaSetEntry> toProcess,
+                              ParseBudget budget) {
         GFGSigmaSet currentSigmaSet = sigmaSets.get(currentSigmaSetIndex);
+        ParseListener listener = parseListener;
         currentSigmaSet.addAll(toProcess);
         while(! toProcess.isEmpty()) {
             GFGSigmaSetEntry processing = toProcess.remove();
+            if(budget != null) {
+                budget.checkChartEntries(currentSigmaSet.size());
+            }
 
-            GFGNode entryNode = processing.getNode();
-            if(entryNode instanceof StartGFGNode) {
-                // This is the Start step
-                StartGFGNode startEntryNode = (StartGFGNode) entryNode;
-                List<InnerGFGNode> nextNodes = startEntryNode.getNextNodes();
-                for(InnerGFGNode nextNode : nextNodes) {
-                    GFGSigmaSetEntry newEntry = new GFGSigmaSetEntry(nextNode, processing.getTag(), processing);
-                    if(! currentSigmaSet.contains(newEntry)) {
-                        currentSigmaSet.add(newEntry);
-                        toProcess.add(newEntry);
-                    }
-                }
-            } else if(entryNode instanceof InnerGFGNode) {
-                InnerGFGNode innerEntryNode = (InnerGFGNode) entryNode;
-                if(innerEntryNode.getTransition() != null) {
-                    // This is the scan step. We do this in the parse method,
-                    // so just drop this now
-                } else {
-                    GFGNode nextNode = innerEntryNode.getNextNode();
-                    if(nextNode instanceof StartGFGNode) {
-                        // This is the Call step
-                        GFGSigmaSetEntry newEntry = new GFGSigmaSetEntry(nextNode, currentSigmaSetIndex, processing);
+            int entryNode = processing.getNode();
+            switch(gfg.getKind(entryNode)) {
+                case CompiledGFG.START:
+                    // This is the Start step
+                    for(int nextNode : gfg.getSuccessors(entryNode)) {
+                        GFGSigmaSetEntry newEntry = new GFGSigmaSetEntry(nextNode, processing.getTag(), processing);
                         if(! currentSigmaSet.contains(newEntry)) {
                             currentSigmaSet.add(newEntry);
                             toProcess.add(newEntry);
                         }
-                    } else {
-                        // This is the Exit step
+                    }
+                    break;
+                case CompiledGFG.BRANCH:
+                    // This is where rules that share a prefix split up
+                    for(int nextNode : gfg.getSuccessors(entryNode)) {
                         GFGSigmaSetEntry newEntry = new GFGSigmaSetEntry(nextNode, processing.getTag(), processing);
                         if(! currentSigmaSet.contains(newEntry)) {
                             currentSigmaSet.add(newEntry);
                             toProcess.add(newEntry);
                         }
                     }
+                    break;
+                case CompiledGFG.JOIN: {
+                    // This is where more than one way into the same point
+                    // of a rule comes together
+                    GFGSigmaSetEntry newEntry = new GFGSigmaSetEntry(gfg.getNextNode(entryNode), processing.getTag(), processing);
+                    if(! currentSigmaSet.contains(newEntry)) {
+                        currentSigmaSet.add(newEntry);
+                        toProcess.add(newEntry);
+                    } else {
+                        // Building the parse tree needs to follow every
+                        // way in
+                        currentSigmaSet.get(newEntry).addPrecedingEntry(processing);
+                        if(listener != null) {
+                            GrammarRule rule = gfg.getJoinRule(entryNode);
+                            listener.precedingEntryAdded(currentSigmaSetIndex, rule.getLeftHandSide(), rule);
+                        }
+                    }
+                    break;
                 }
-            } else { // entryNode instanceof EndGFGNode
-                // This is the End step
-                EndGFGNode endEntryNode = (EndGFGNode) entryNode;
-                int endingTag = processing.getTag();
-                GFGSigmaSet endingSigmaSet = sigmaSets.get(endingTag);
-                Nonterminal endingNonterminal = endEntryNode.getNonterminal();
-                Set<GFGSigmaSetEntry> callingEntries = endingSigmaSet.getEntriesPrecedingNonterminal(endingNonterminal);
-                for(GFGSigmaSetEntry callingEntry : callingEntries) {
-                    InnerGFGNode callNode = (InnerGFGNode) callingEntry.getNode();
-                    InnerGFGNode returnNode = endEntryNode.getReturnNode(callNode);
-                    GFGSigmaSetEntry newEntry = new GFGSigmaSetEntry(returnNode, callingEntry.getTag(), processing);
+                case CompiledGFG.SCAN:
+                    // This is the scan step. We do this in the parse method,
+                    // so just drop this now
+                    break;
+                case CompiledGFG.CALL: {
+                    // This is the Call step
+                    if(usingEpsilonClosures) {
+                        predict(currentSigmaSet, currentSigmaSetIndex, gfg.getSymbolId(entryNode));
+                        break;
+                    }
+                    GFGSigmaSetEntry newEntry = new GFGSigmaSetEntry(gfg.getNextNode(entryNode), currentSigmaSetIndex, processing);
+                    if(! currentSigmaSet.contains(newEntry)) {
+                        currentSigmaSet.add(newEntry);
+                        toProcess.add(newEntry);
+                        if(listener != null) {
+                            listener.predicted(currentSigmaSetIndex, gfg.getNonterminal(gfg.getSymbolId(entryNode)));
+                        }
+                    }
+                    break;
+                }
+                case CompiledGFG.EXIT: {
+                    // This is the Exit step
+                    GFGSigmaSetEntry newEntry = new GFGSigmaSetEntry(gfg.getNextNode(entryNode), processing.getTag(), processing);
                     if(! currentSigmaSet.contains(newEntry)) {
                         currentSigmaSet.add(newEntry);
                         toProcess.add(newEntry);
                     } else {
-                        // This entry is already in the set, so it
-                        // doesn't need to be added to toProcess. But
-                        // we do need to get the entry in the set and
-                        // modify its preceding entries
+                        // Another rule of the same nonterminal already
+                        // ended here with the same tag. The end entry
+                        // has already been processed, but building the
+                        // parse tree needs to know about this rule too
                         GFGSigmaSetEntry existingEntry = currentSigmaSet.get(newEntry);
                         existingEntry.addPrecedingEntry(processing);
+                        if(listener != null) {
+                            GrammarRule rule = gfg.getExitRule(entryNode);
+                            listener.precedingEntryAdded(currentSigmaSetIndex, rule.getLeftHandSide(), rule);
+                        }
                     }
+                    break;
+                }
+                case CompiledGFG.END: {
+                    // This is the End step
+                    int endingTag = processing.getTag();
+                    if(listener != null) {
+                        listener.completed(currentSigmaSetIndex, gfg.getNonterminal(gfg.getSymbolId(entryNode)), endingTag);
+                    }
+                    GFGSigmaSet endingSigmaSet = sigmaSets.get(endingTag);
+                    List<GFGSigmaSetEntry> callingEntries = endingSigmaSet.getEntriesPrecedingNonterminal(gfg.getSymbolId(entryNode));
+                    for(GFGSigmaSetEntry callingEntry : callingEntries) {
+                        int returnNode = gfg.getReturnNode(callingEntry.getNode());
+                        GFGSigmaSetEntry newEntry = new GFGSigmaSetEntry(returnNode, callingEntry.getTag(), processing);
+                        if(! currentSigmaSet.contains(newEntry)) {
+                            currentSigmaSet.add(newEntry);
+                            toProcess.add(newEntry);
+                        } else {
+                            // This entry is already in the set, so it
+                            // doesn't need to be added to toProcess. But
+                            // we do need to get the entry in the set and
+                            // modify its preceding entries
+                            GFGSigmaSetEntry existingEntry = currentSigmaSet.get(newEntry);
+                            existingEntry.addPrecedingEntry(processing);
+                            if(listener != null) {
+                                // The end entry came from the first of the
+                                // nonterminal's rules to exit into it. Later
+                                // ones were counted at their exit nodes
+                                GrammarRule rule = gfg.getExitRule(processing.getPrecedingEntries().get(0).getNode());
+                                listener.precedingEntryAdded(currentSigmaSetIndex,
+                                        gfg.getNonterminal(gfg.getSymbolId(entryNode)), rule);
+                            }
+                        }
+                    }
+                    break;
                 }
             }
         }
+        if(listener != null) {
+            listener.sigmaSetFilled(currentSigmaSetIndex, currentSigmaSet.size());
+        }
+        if(budget != null) {
+            budget.sigmaSetFilled(currentSigmaSet.size());
+        }
     }
 
-    private ParseTreeNode buildParseTree(List<Token> tokens, List<GFGSigmaSet> sigmaSets) {
+    // Adds the epsilon closure of calling the nonterminal. The closure is
+    // every rule of every nonterminal that gets started, so we add the
+    // entry node of each of those rules. The start nodes themselves aren't
+    // stored, since nothing needs them later, and none of the entries need
+    // to go through the worklist: any call node among them is a call to a
+    // nonterminal that's already in the closure
+    private void predict(GFGSigmaSet sigmaSet, int sigmaSetIndex, int calledNonterminalId) {
+        for(int nonterminalId : gfg.getPredictedNonterminals(calledNonterminalId)) {
+            if(! sigmaSet.markPredicted(nonterminalId)) {
+                // Everything it predicts is already here too
+                continue;
+            }
+            if(parseListener != null) {
+                parseListener.predicted(sigmaSetIndex, gfg.getNonterminal(nonterminalId));
+            }
+            for(int entryNode : gfg.getSuccessors(gfg.getStartNode(nonterminalId))) {
+                sigmaSet.add(new GFGSigmaSetEntry(entryNode, sigmaSetIndex));
+            }
+        }
+    }
+
+    // Runs just the recognizer, and returns the total number of entries in
+    // the sigma sets. This is for comparing how big the chart is with and
+    // without epsilon closures
+    public int getChartSize(List<Token> tokens) {
+        ArrayList<GFGSigmaSet> sigmaSets = new ArrayList<>();
+        processTokens(tokens, sigmaSets, 0, null);
+        int chartSize = 0;
+        for(GFGSigmaSet sigmaSet : sigmaSets) {
+            chartSize += sigmaSet.size();
+        }
+        return chartSize;
+    }
+
+    private ParseTreeNode buildParseTree(List<Token> tokens, List<GFGSigmaSet> sigmaSets, ParseTreeNodeCache existingNodes, TokenRepairs repairs, ParseBudget budget) {
         GrammarRule startRule = grammar.getStartRule();
         ParseTreeParent root = new ParseTreeParent(startRule.getLeftHandSide());
-        EndGFGNode acceptingNode = endNodes.get(grammar.getStartRule().getLeftHandSide());
+        int acceptingNode = gfg.getEndNode(gfg.getNonterminalId(startRule.getLeftHandSide()));
         GFGSigmaSetEntry acceptingSigmaSetEntry = new GFGSigmaSetEntry(acceptingNode, 0);
         GFGSigmaSet lastSigmaSet = sigmaSets.get(tokens.size());
         GFGSigmaSetEntry lastSigmaSetEntry = lastSigmaSet.get(acceptingSigmaSetEntry);
@@ -199,10 +599,12 @@ public class GFGParser implements Parser {
                 root,
                 lastSigmaSetEntry,
                 new ArrayList<ParseTreeNode>(),
-                new ParseTreeNodeCache(),
+                existingNodes,
                 tokens.size(),
                 sigmaSets,
-                tokens
+                tokens,
+                repairs,
+                budget
         );
         return root;
     }
@@ -214,11 +616,39 @@ public class GFGParser implements Parser {
             ParseTreeNodeCache existingNodes,
             int currentSigmaSetIndex,
             List<GFGSigmaSet> sigmaSets,
-            List<Token> tokens) {
+            List<Token> tokens,
+            TokenRepairs repairs,
+            ParseBudget budget) {
+        if(parseListener != null) {
+            // Only an exit node knows its rule
+            int entryNode = currentEntry.getNode();
+            GrammarRule rule = gfg.getKind(entryNode) == CompiledGFG.EXIT ? gfg.getExitRule(entryNode) : null;
+            parseListener.treeBuildRecursed(parent.getNonterminal(), rule);
+        }
+        if(budget != null) {
+            budget.checkForestNodes(existingNodes.size());
+        }
         while(true) {
-            GFGNode currentNode = currentEntry.getNode();
-            if(currentNode instanceof StartGFGNode) {
-                // We're done working right to left
+            if(repairs != null && currentSigmaSetIndex > 0 &&
+                    repairs.getKind(currentSigmaSetIndex - 1) == TokenRepairs.SKIPPED) {
+                // The entry is a copy made to skip the token before it, so
+                // the token goes in as an error, and the entry it's a copy
+                // of carries on to the left
+                int tokenIndex = currentSigmaSetIndex - 1;
+                if(! existingNodes.containsLeaf(tokenIndex)) {
+                    existingNodes.addLeaf(tokenIndex, new ParseTreeErrorLeaf(tokens.get(tokenIndex), ParseTreeErrorLeaf.SKIPPED));
+                }
+                accumulatedNodes.add(existingNodes.getLeaf(tokenIndex));
+                currentEntry = currentEntry.getPrecedingEntries().get(0);
+                currentSigmaSetIndex--;
+                continue;
+            }
+            int currentNode = currentEntry.getNode();
+            int currentKind = gfg.getKind(currentNode);
+            if(gfg.isRuleEntry(currentNode)) {
+                // We're done working right to left. We check for the rule's
+                // entry node rather than going back to its start node, since
+                // the start node isn't stored when epsilon closures are used
                 // Add (a copy of) this list to the parent
                 // They were added in from right to left, so we
                 // need to reverse them first
@@ -227,21 +657,73 @@ public class GFGParser implements Parser {
                     childTreeNodes.add(accumulatedNodes.get(i));
                 }
                 parent.addChildTree(childTreeNodes);
+                if(budget != null) {
+                    budget.childTreeAdded();
+                }
                 // And we're done
                 return;
-            } else if(currentNode instanceof EndGFGNode) {
+            } else if(currentKind == CompiledGFG.END) {
                 // This is reversing the Exit step
-                currentEntry = currentEntry.getPrecedingEntries().get(0);
-            } else { // currentNode instanceof InnerGFGNode
+                List<GFGSigmaSetEntry> exitEntries = currentEntry.getPrecedingEntries();
+                if(exitEntries.size() == 1) {
+                    currentEntry = exitEntries.get(0);
+                } else {
+                    // More than one rule of the nonterminal covers these
+                    // tokens, so each of them adds its own child trees
+                    int numAccumNodes = accumulatedNodes.size();
+                    for(GFGSigmaSetEntry exitEntry : exitEntries) {
+                        addChildrenRightToLeft(
+                                parent,
+                                exitEntry,
+                                accumulatedNodes,
+                                existingNodes,
+                                currentSigmaSetIndex,
+                                sigmaSets,
+                                tokens,
+                                repairs,
+                                budget);
+                        while (accumulatedNodes.size() > numAccumNodes) {
+                            accumulatedNodes.remove(accumulatedNodes.size() - 1);
+                        }
+                    }
+                    return;
+                }
+            } else { // currentNode is an inner node
                 GFGSigmaSetEntry precedingEntry = currentEntry.getPrecedingEntries().get(0);
-                GFGNode precedingNode = precedingEntry.getNode();
-                if(precedingNode instanceof StartGFGNode) {
-                    // This is reversing the Start step
-                    currentEntry = currentEntry.getPrecedingEntries().get(0);
-                } else if(precedingNode instanceof EndGFGNode) {
+                int precedingKind = gfg.getKind(precedingEntry.getNode());
+                if(precedingKind == CompiledGFG.BRANCH) {
+                    // This is reversing a branch. The branch node's entry
+                    // works left just like the entry of any inner node
+                    currentEntry = precedingEntry;
+                } else if(precedingKind == CompiledGFG.JOIN) {
+                    // This is reversing a join. Every preceding entry is a
+                    // different way into this point of the rule
+                    List<GFGSigmaSetEntry> joinEntries = currentEntry.getPrecedingEntries();
+                    if(joinEntries.size() == 1) {
+                        currentEntry = precedingEntry;
+                    } else {
+                        int numAccumNodes = accumulatedNodes.size();
+                        for(GFGSigmaSetEntry joinEntry : joinEntries) {
+                            addChildrenRightToLeft(
+                                    parent,
+                                    joinEntry,
+                                    accumulatedNodes,
+                                    existingNodes,
+                                    currentSigmaSetIndex,
+                                    sigmaSets,
+                                    tokens,
+                                    repairs,
+                                    budget);
+                            while (accumulatedNodes.size() > numAccumNodes) {
+                                accumulatedNodes.remove(accumulatedNodes.size() - 1);
+                            }
+                        }
+                        return;
+                    }
+                } else if(precedingKind == CompiledGFG.END) {
                     // This is reversing the End step
-                    EndGFGNode precedingEndNode = (EndGFGNode) precedingNode;
-                    Nonterminal previousNonterminal = precedingEndNode.getNonterminal();
+                    Nonterminal previousNonterminal = gfg.getNonterminal(gfg.getSymbolId(precedingEntry.getNode()));
+                    int endingCallNode = gfg.getCallNode(currentNode);
                     List<GFGSigmaSetEntry> precedingEntries = currentEntry.getPrecedingEntries();
                     if(precedingEntries.size() == 1) {
                         // Easy case - we just need to add a nonterminal node
@@ -252,8 +734,6 @@ public class GFGParser implements Parser {
                         // from
                         int callingNonterminalTag = precedingEntry.getTag();
                         GFGSigmaSet endingCallSigmaSet = sigmaSets.get(callingNonterminalTag);
-                        InnerGFGNode returnNode = (InnerGFGNode) currentNode;
-                        InnerGFGNode endingCallNode = returnNodesToCallNodes.get(returnNode);
                         GFGSigmaSetEntry callingEntryCopy = new GFGSigmaSetEntry(endingCallNode, currentEntry.getTag());
                         GFGSigmaSetEntry originalCallingEntry = endingCallSigmaSet.get(callingEntryCopy);
 
@@ -274,7 +754,9 @@ public class GFGParser implements Parser {
                                     existingNodes,
                                     currentSigmaSetIndex,
                                     sigmaSets,
-                                    tokens
+                                    tokens,
+                                    repairs,
+                                    budget
                             );
                         }
                         accumulatedNodes.add(nonterminalNode);
@@ -297,8 +779,6 @@ public class GFGParser implements Parser {
                             // working left from
                             int callingNonterminalTag = singlePrecedingEntry.getTag();
                             GFGSigmaSet endingCallSigmaSet = sigmaSets.get(callingNonterminalTag);
-                            InnerGFGNode returnNode = (InnerGFGNode) currentNode;
-                            InnerGFGNode endingCallNode = returnNodesToCallNodes.get(returnNode);
                             GFGSigmaSetEntry callingEntryCopy = new GFGSigmaSetEntry(endingCallNode, currentEntry.getTag());
                             GFGSigmaSetEntry originalCallingEntry = endingCallSigmaSet.get(callingEntryCopy);
 
@@ -317,7 +797,9 @@ public class GFGParser implements Parser {
                                         existingNodes,
                                         currentSigmaSetIndex,
                                         sigmaSets,
-                                        tokens
+                                        tokens,
+                                        repairs,
+                                        budget
                                 );
                             }
                             accumulatedNodes.add(nonterminalNode);
@@ -332,7 +814,9 @@ public class GFGParser implements Parser {
                                     existingNodes,
                                     callingNonterminalTag,
                                     sigmaSets,
-                                    tokens);
+                                    tokens,
+                                    repairs,
+                                    budget);
                             // Remove the nodes now
                             while (accumulatedNodes.size() > numAccumNodes) {
                                 accumulatedNodes.remove(accumulatedNodes.size() - 1);
@@ -343,11 +827,15 @@ public class GFGParser implements Parser {
                         // return
                         return;
                     }
-                } else { // precedingNode instanceof InnerGFGNode
+                } else { // precedingNode is a scan node
                     // Reverse the Scan step
                     int tokenIndex = currentSigmaSetIndex - 1;
                     ParseTreeLeaf scanLeaf;
-                    if(existingNodes.containsLeaf(tokenIndex)) {
+                    if(repairs != null && repairs.getKind(tokenIndex) == TokenRepairs.MISSING) {
+                        // Every expected symbol was scanned here, so the
+                        // leaf is for whichever one this scan node scans
+                        scanLeaf = ParseTreeErrorLeaf.missing(gfg.getSymbol(gfg.getSymbolId(precedingEntry.getNode())));
+                    } else if(existingNodes.containsLeaf(tokenIndex)) {
                         scanLeaf = existingNodes.getLeaf(tokenIndex);
                     } else {
                         Token scannedToken = tokens.get(currentSigmaSetIndex - 1);
@@ -1,20 +1,21 @@
 package gfgparser;
 
-import shared.Nonterminal;
 import shared.Symbol;
-import shared.Terminal;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public class GFGSigmaSet {
 
     // Occasionally, we want to see if there is an entry in this sigma set that
-    // represents a specific GFGNode and tag, but we don't have a reference to
+    // represents a specific GFG node and tag, but we don't have a reference to
     // it. To allow for that, when two GFGSigmaSetEntry's are hashed and/or
-    // compared for equality, only their GFGNode and tag are considered (not
+    // compared for equality, only their node and tag are considered (not
     // their precedingEntries). This allows the kind of lookup we want.
     // Other times, we want to quickly get at a GFGSigmaSetEntry instance in
     // this set, so we can look at its precedingEntries. So instead of simply
@@ -23,13 +24,22 @@ public class GFGSigmaSet {
     // look it up in the map (which, again, will ignore the precedingEntries)
     // and return it.
     private HashMap<GFGSigmaSetEntry, GFGSigmaSetEntry> allEntries;
-    private HashMap<Symbol, HashSet<GFGSigmaSetEntry>> entriesPrecedingSymbol;
-    private HashMap<Nonterminal, HashSet<GFGSigmaSetEntry>> entriesPrecedingNonterminal;
+    // Indexed by symbol id and nonterminal id. Each list is only created
+    // once something goes in it. With a lazy GFG, symbols can get ids
+    // after the sigma set is made, so the first one grows as needed
+    private ArrayList<ArrayList<GFGSigmaSetEntry>> entriesPrecedingSymbol;
+    private ArrayList<ArrayList<GFGSigmaSetEntry>> entriesPrecedingNonterminal;
+    private CompiledGFG gfg;
+    // Which nonterminals have been started in this sigma set. Only used
+    // when the parser adds whole epsilon closures at once
+    private boolean[] predictedNonterminals;
 
-    public GFGSigmaSet() {
+    public GFGSigmaSet(CompiledGFG g) {
+        gfg = g;
         allEntries = new HashMap<>();
-        entriesPrecedingSymbol = new HashMap<>();
-        entriesPrecedingNonterminal = new HashMap<>();
+        entriesPrecedingSymbol = new ArrayList<>(Collections.<ArrayList<GFGSigmaSetEntry>>nCopies(gfg.getSymbolCount(), null));
+        entriesPrecedingNonterminal = new ArrayList<>(Collections.<ArrayList<GFGSigmaSetEntry>>nCopies(gfg.getNonterminalCount(), null));
+        predictedNonterminals = new boolean[gfg.getNonterminalCount()];
     }
 
     public void add(GFGSigmaSetEntry entry) {
@@ -37,26 +47,18 @@ public class GFGSigmaSet {
             return;
         }
         allEntries.put(entry, entry);
-        GFGNode entryNode = entry.getNode();
-        if(entryNode instanceof InnerGFGNode) {
-            InnerGFGNode innerEntryNode = (InnerGFGNode) entryNode;
-            Terminal transition = innerEntryNode.getTransition();
-            if(transition != null) {
-                Symbol transitionSymbol = transition.getSymbol();
-                ensurePrecedingSymbolSet(transitionSymbol);
-                entriesPrecedingSymbol.get(transitionSymbol).add(entry);
-            } else {
-                // Just because the transition was not an epsilon transition
-                // doesn't necessarily mean this entry precedes a nonterminal;
-                // it could be an exit node
-                GFGNode nextNode = innerEntryNode.getNextNode();
-                if(nextNode instanceof StartGFGNode) {
-                    StartGFGNode startNextNode = (StartGFGNode) nextNode;
-                    Nonterminal nextNonterminal = startNextNode.getNonterminal();
-                    ensurePrecedingNonterminalSet(nextNonterminal);
-                    entriesPrecedingNonterminal.get(nextNonterminal).add(entry);
-                }
-            }
+        int node = entry.getNode();
+        switch(gfg.getKind(node)) {
+            case CompiledGFG.SCAN:
+                addTo(entriesPrecedingSymbol, gfg.getSymbolId(node), entry);
+                break;
+            case CompiledGFG.CALL:
+                addTo(entriesPrecedingNonterminal, gfg.getSymbolId(node), entry);
+                break;
+            default:
+                // Start, end, exit, branch and join nodes don't precede
+                // anything the Scan or End steps look for
+                break;
         }
     }
 
@@ -74,30 +76,75 @@ public class GFGSigmaSet {
         return allEntries.get(entry);
     }
 
-    public Set<GFGSigmaSetEntry> getEntriesPrecedingSymbol(Symbol symbol) {
-        ensurePrecedingSymbolSet(symbol);
-        return entriesPrecedingSymbol.get(symbol);
+    public List<GFGSigmaSetEntry> getEntriesPrecedingSymbol(int symbolId) {
+        return getFrom(entriesPrecedingSymbol, symbolId);
+    }
+
+    // The symbols the entries in this sigma set could scan next
+    public Set<Symbol> getExpectedSymbols() {
+        HashSet<Symbol> expectedSymbols = new HashSet<>();
+        for(int symbolId = 0; symbolId < entriesPrecedingSymbol.size(); symbolId++) {
+            if(entriesPrecedingSymbol.get(symbolId) != null) {
+                expectedSymbols.add(gfg.getSymbol(symbolId));
+            }
+        }
+        return expectedSymbols;
     }
 
-    public Set<GFGSigmaSetEntry> getEntriesPrecedingNonterminal(Nonterminal nonterminal) {
-        ensurePrecedingNonterminalSet(nonterminal);
-        return entriesPrecedingNonterminal.get(nonterminal);
+    public List<GFGSigmaSetEntry> getEntriesPrecedingNonterminal(int nonterminalId) {
+        return getFrom(entriesPrecedingNonterminal, nonterminalId);
     }
 
-    private void ensurePrecedingSymbolSet(Symbol symbol) {
-        HashSet<GFGSigmaSetEntry> listForTerminal = entriesPrecedingSymbol.get(symbol);
-        if(listForTerminal == null) {
-            listForTerminal = new HashSet<>();
-            entriesPrecedingSymbol.put(symbol, listForTerminal);
+    // Returns false if the nonterminal was already predicted
+    public boolean markPredicted(int nonterminalId) {
+        if(predictedNonterminals[nonterminalId]) {
+            return false;
         }
+        predictedNonterminals[nonterminalId] = true;
+        return true;
+    }
+
+    public Set<GFGSigmaSetEntry> getEntries() {
+        return allEntries.keySet();
+    }
+
+    public int size() {
+        return allEntries.size();
     }
 
-    private void ensurePrecedingNonterminalSet(Nonterminal nonterminal) {
-        HashSet<GFGSigmaSetEntry> listForNonterminal = entriesPrecedingNonterminal.get(nonterminal);
-        if(listForNonterminal == null) {
-            listForNonterminal = new HashSet<>();
-            entriesPrecedingNonterminal.put(nonterminal, listForNonterminal);
+    // How many preceding entries there are beyond the first one of each
+    // entry, which is how many times an entry was reached another way
+    public int getAmbiguityCount() {
+        int ambiguityCount = 0;
+        for(GFGSigmaSetEntry entry : allEntries.keySet()) {
+            ambiguityCount += Math.max(entry.getPrecedingEntries().size() - 1, 0);
+        }
+        return ambiguityCount;
+    }
+
+    private static void addTo(ArrayList<ArrayList<GFGSigmaSetEntry>> lists, int id, GFGSigmaSetEntry entry) {
+        while(lists.size() <= id) {
+            lists.add(null);
+        }
+        ArrayList<GFGSigmaSetEntry> list = lists.get(id);
+        if(list == null) {
+            list = new ArrayList<>();
+            lists.set(id, list);
+        }
+        list.add(entry);
+    }
+
+    private static List<GFGSigmaSetEntry> getFrom(ArrayList<ArrayList<GFGSigmaSetEntry>> lists, int id) {
+        if(id < 0 || id >= lists.size()) {
+            // A symbol that isn't in the grammar, or nothing's been added
+            // for it yet
+            return Collections.emptyList();
+        }
+        ArrayList<GFGSigmaSetEntry> list = lists.get(id);
+        if(list == null) {
+            return Collections.emptyList();
         }
+        return list;
     }
 
     public String toString() {
@@ -2,28 +2,28 @@ package gfgparser;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
 
 public class GFGSigmaSetEntry {
 
-    private GFGNode node;
+    // The number of the node in the CompiledGFG
+    private int node;
     private int tag;
     private ArrayList<GFGSigmaSetEntry> precedingEntries;
 
-    public GFGSigmaSetEntry(GFGNode n, int t) {
+    public GFGSigmaSetEntry(int n, int t) {
         node = n;
         tag = t;
         precedingEntries = new ArrayList<>();
     }
 
-    public GFGSigmaSetEntry(GFGNode n, int t, GFGSigmaSetEntry precedingEntry) {
+    public GFGSigmaSetEntry(int n, int t, GFGSigmaSetEntry precedingEntry) {
         node = n;
         tag = t;
         precedingEntries = new ArrayList<>();
         precedingEntries.add(precedingEntry);
     }
 
-    public GFGNode getNode() {
+    public int getNode() {
         return node;
     }
 
@@ -45,13 +45,13 @@ public class GFGSigmaSetEntry {
             return false;
         }
         GFGSigmaSetEntry otherGFGSigmaSetEntry = (GFGSigmaSetEntry) other;
-        return node.equals(otherGFGSigmaSetEntry.node) &&
+        return node == otherGFGSigmaSetEntry.node &&
                 tag == otherGFGSigmaSetEntry.tag;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(node, tag);
+        return node * 31 + tag;
     }
 
     public String entryString() {
@@ -0,0 +1,326 @@
+package gfgparser;
+
+import shared.*;
+import shared.analysis.GrammarAnalysis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+public class GrammarImage {
+
+    // Reading a grammar file means scanning it line by line, building the
+    // Grammar, and then building the GFG out of node objects and compiling
+    // it. For a short run, that's most of the time spent. A grammar image
+    // is all of that done ahead of time: the lexer's symbols, the rules, and
+    // the compiled GFG's arrays, in one file that's mapped into memory and
+    // copied straight into the arrays the parser runs on.
+    // The file starts with a header
+    //     MAGIC, VERSION, flags, source checksum, body CRC, body length
+    // where the source checksum is the SHA-256 of the grammar file the
+    // image was compiled from, so a stale image can be told apart from a
+    // current one, and the body CRC catches a damaged file. The body is
+    //     symbols, nonterminals, start rule index, rules, compiled GFG
+    // Nonterminals are in the compiled GFG's id order. The regexes for the
+    // lexer can't be stored compiled, so the lexer compiles them the first
+    // time it's used
+    private static final int MAGIC = 0x47464749;
+    private static final int VERSION = 2;
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_LENGTH = 12 + HASH_LENGTH + 8;
+    private static final int USING_EPSILON_CLOSURES = 1;
+    private static final int SHARING_PREFIXES = 2;
+    // How the elements of a rule's right hand side are tagged
+    private static final int TERMINAL = 0;
+    private static final int NONTERMINAL = 1;
+    private static final int GROUP = 2;
+
+    private byte[] sourceChecksum;
+    private List<Symbol> symbols;
+    private Grammar grammar;
+    private GFGParser parser;
+
+    public GrammarImage(byte[] checksum, List<Symbol> s, Grammar g, GFGParser p) {
+        sourceChecksum = checksum;
+        symbols = s;
+        grammar = g;
+        parser = p;
+    }
+
+    // Usage: GrammarImage grammarFile imageFile
+    public static void main(String[] args) throws IOException {
+        if(args.length != 2) {
+            System.out.println("Usage: GrammarImage grammarFile imageFile");
+            return;
+        }
+        compile(new File(args[0]), new File(args[1]), true, true);
+    }
+
+    public static void compile(File grammarFile, File imageFile, boolean useEpsilonClosures, boolean sharePrefixes) throws IOException {
+        GrammarFile source = GrammarFile.read(grammarFile);
+        GFGParser parser = new GFGParser(source.getGrammar(), useEpsilonClosures, sharePrefixes);
+        new GrammarImage(source.getChecksum(), source.getSymbols(), source.getGrammar(), parser).write(imageFile);
+    }
+
+    // Returns null if there's no image, or it's damaged, or it was compiled
+    // from a different version of the grammar file
+    public static GrammarImage loadIfCurrent(File imageFile, File grammarFile) throws IOException {
+        if(! imageFile.exists()) {
+            return null;
+        }
+        GrammarImage image;
+        try {
+            image = load(imageFile);
+        } catch(IOException e) {
+            return null;
+        }
+        if(! image.isCompiledFrom(grammarFile)) {
+            return null;
+        }
+        return image;
+    }
+
+    public static GrammarImage load(File imageFile) throws IOException {
+        ByteBuffer in;
+        RandomAccessFile file = new RandomAccessFile(imageFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if(channel.size() < HEADER_LENGTH || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(imageFile + " is not a grammar image");
+            }
+            // The mapping stays good after the file is closed
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+
+        if(in.getInt() != MAGIC) {
+            throw new IOException(imageFile + " is not a grammar image");
+        }
+        if(in.getInt() != VERSION) {
+            throw new IOException(imageFile + " is from a different version, and needs to be compiled again");
+        }
+        int flags = in.getInt();
+        byte[] checksum = new byte[HASH_LENGTH];
+        in.get(checksum);
+        int bodyCRC = in.getInt();
+        int bodyLength = in.getInt();
+        if(bodyLength != in.remaining() || bodyCRC != crc(in)) {
+            throw new IOException(imageFile + " is damaged");
+        }
+
+        Symbol[] symbols = new Symbol[in.getInt()];
+        for(int i = 0; i < symbols.length; i++) {
+            String name = readString(in);
+            symbols[i] = new Symbol(name, readString(in));
+        }
+        Terminal[] terminals = new Terminal[symbols.length];
+        for(int i = 0; i < symbols.length; i++) {
+            terminals[i] = new Terminal(symbols[i]);
+        }
+        // Any nonterminals that some rule mentions but that aren't in the GFG
+        // come after the ones that are
+        int gfgNonterminalCount = in.getInt();
+        Nonterminal[] nonterminals = new Nonterminal[in.getInt()];
+        for(int i = 0; i < nonterminals.length; i++) {
+            nonterminals[i] = new Nonterminal(readString(in));
+        }
+        int startRuleIndex = in.getInt();
+        GrammarRule[] rules = new GrammarRule[in.getInt()];
+        for(int i = 0; i < rules.length; i++) {
+            Nonterminal leftHandSide = nonterminals[in.getInt()];
+            rules[i] = new GrammarRule(leftHandSide, readElements(in, terminals, nonterminals));
+        }
+        Grammar grammar = new Grammar(rules[startRuleIndex]);
+        for(int i = 0; i < rules.length; i++) {
+            if(i != startRuleIndex) {
+                grammar.addRule(rules[i]);
+            }
+        }
+
+        boolean sharePrefixes = (flags & SHARING_PREFIXES) != 0;
+        CompiledGFG gfg = CompiledGFG.read(in, Arrays.copyOf(nonterminals, gfgNonterminalCount), symbols, rules,
+                new GFGBuilder(grammar, sharePrefixes));
+        GFGParser parser = new GFGParser(grammar, gfg, (flags & USING_EPSILON_CLOSURES) != 0, sharePrefixes);
+        return new GrammarImage(checksum, Arrays.asList(symbols), grammar, parser);
+    }
+
+    public void write(File imageFile) throws IOException {
+        CompiledGFG gfg = parser.getCompiledGFG();
+        HashMap<Symbol, Integer> symbolIndices = new HashMap<>();
+        for(Symbol symbol : symbols) {
+            symbolIndices.put(symbol, symbolIndices.size());
+        }
+        ArrayList<Nonterminal> nonterminals = new ArrayList<>();
+        HashMap<Nonterminal, Integer> nonterminalIds = new HashMap<>();
+        for(int i = 0; i < gfg.getNonterminalCount(); i++) {
+            nonterminals.add(gfg.getNonterminal(i));
+            nonterminalIds.put(gfg.getNonterminal(i), i);
+        }
+        // The start rule goes first, and the rest go in the order the
+        // grammar gives them
+        ArrayList<GrammarRule> rules = new ArrayList<>();
+        rules.add(grammar.getStartRule());
+        for(Nonterminal nonterminal : grammar.getNonterminals()) {
+            for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+                if(rule != grammar.getStartRule()) {
+                    rules.add(rule);
+                }
+            }
+        }
+        IdentityHashMap<GrammarRule, Integer> ruleIndices = new IdentityHashMap<>();
+        for(GrammarRule rule : rules) {
+            ruleIndices.put(rule, ruleIndices.size());
+            for(GrammarElement element : GrammarAnalysis.getElements(rule)) {
+                if(element instanceof Nonterminal && ! nonterminalIds.containsKey(element)) {
+                    nonterminalIds.put((Nonterminal) element, nonterminals.size());
+                    nonterminals.add((Nonterminal) element);
+                }
+            }
+        }
+
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        body.writeInt(symbols.size());
+        for(Symbol symbol : symbols) {
+            writeString(body, symbol.getName());
+            writeString(body, symbol.getPattern());
+        }
+        body.writeInt(gfg.getNonterminalCount());
+        body.writeInt(nonterminals.size());
+        for(Nonterminal nonterminal : nonterminals) {
+            writeString(body, nonterminal.getName());
+        }
+        body.writeInt(0);
+        body.writeInt(rules.size());
+        for(GrammarRule rule : rules) {
+            body.writeInt(nonterminalIds.get(rule.getLeftHandSide()));
+            writeElements(body, rule.getRightHandSide(), symbolIndices, nonterminalIds);
+        }
+        gfg.write(body, symbolIndices, ruleIndices);
+        body.flush();
+        byte[] bodyArray = bodyBytes.toByteArray();
+
+        int flags = 0;
+        if(parser.isUsingEpsilonClosures()) {
+            flags |= USING_EPSILON_CLOSURES;
+        }
+        if(parser.isSharingPrefixes()) {
+            flags |= SHARING_PREFIXES;
+        }
+        // Write to a temporary file and move it into place, so that nothing
+        // ever loads half an image
+        File temporaryFile = new File(imageFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(temporaryFile));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(flags);
+            out.write(sourceChecksum);
+            out.writeInt(crc(ByteBuffer.wrap(bodyArray)));
+            out.writeInt(bodyArray.length);
+            out.write(bodyArray);
+        } finally {
+            out.close();
+        }
+        Files.move(temporaryFile.toPath(), imageFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public boolean isCompiledFrom(File grammarFile) throws IOException {
+        byte[] checksum = GrammarFile.checksum(Files.readAllBytes(grammarFile.toPath()));
+        return Arrays.equals(checksum, sourceChecksum);
+    }
+
+    public byte[] getSourceChecksum() {
+        return sourceChecksum;
+    }
+
+    public List<Symbol> getSymbols() {
+        return symbols;
+    }
+
+    public Grammar getGrammar() {
+        return grammar;
+    }
+
+    public GFGParser getParser() {
+        return parser;
+    }
+
+    public Lexer createLexer() {
+        return new Lexer(symbols);
+    }
+
+    private static void writeElements(DataOutputStream out, List<GrammarElement> elements,
+                                      Map<Symbol, Integer> symbolIndices,
+                                      Map<Nonterminal, Integer> nonterminalIds) throws IOException {
+        out.writeInt(elements.size());
+        for(GrammarElement element : elements) {
+            if(element instanceof Terminal) {
+                out.writeInt(TERMINAL);
+                out.writeInt(symbolIndices.get(((Terminal) element).getSymbol()));
+            } else if(element instanceof Nonterminal) {
+                out.writeInt(NONTERMINAL);
+                out.writeInt(nonterminalIds.get(element));
+            } else {
+                EbnfGroup group = (EbnfGroup) element;
+                out.writeInt(GROUP);
+                out.writeInt(group.getOperator());
+                writeElements(out, group.getElements(), symbolIndices, nonterminalIds);
+            }
+        }
+    }
+
+    private static ArrayList<GrammarElement> readElements(ByteBuffer in, Terminal[] terminals, Nonterminal[] nonterminals) {
+        int elementCount = in.getInt();
+        ArrayList<GrammarElement> elements = new ArrayList<>(elementCount);
+        for(int i = 0; i < elementCount; i++) {
+            int tag = in.getInt();
+            if(tag == TERMINAL) {
+                elements.add(terminals[in.getInt()]);
+            } else if(tag == NONTERMINAL) {
+                elements.add(nonterminals[in.getInt()]);
+            } else {
+                char operator = (char) in.getInt();
+                elements.add(new EbnfGroup(readElements(in, terminals, nonterminals), operator));
+            }
+        }
+        return elements;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // The CRC of everything from the buffer's position on. The position is
+    // left where it was
+    private static int crc(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        ByteBuffer remaining = buffer.duplicate();
+        byte[] chunk = new byte[8192];
+        while(remaining.hasRemaining()) {
+            int length = Math.min(chunk.length, remaining.remaining());
+            remaining.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,60 @@
+package gllparser;
+
+import java.util.Objects;
+
+public class GLLDescriptor {
+
+    // A point the parse still has to go on from: a GFG node inside a
+    // rule, the call the rule is in, the position, and what the rule has
+    // matched so far (null if nothing yet)
+
+    private int node;
+    private GLLStackNode stackNode;
+    private int position;
+    private GLLPartialNode partial;
+
+    public GLLDescriptor(int n, GLLStackNode s, int p, GLLPartialNode pa) {
+        node = n;
+        stackNode = s;
+        position = p;
+        partial = pa;
+    }
+
+    public int getNode() {
+        return node;
+    }
+
+    public GLLStackNode getStackNode() {
+        return stackNode;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public GLLPartialNode getPartial() {
+        return partial;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(! (other instanceof GLLDescriptor)) {
+            return false;
+        }
+        GLLDescriptor otherDescriptor = (GLLDescriptor) other;
+        return otherDescriptor.node == node &&
+                otherDescriptor.stackNode.equals(stackNode) &&
+                otherDescriptor.position == position &&
+                Objects.equals(otherDescriptor.partial, partial);
+    }
+
+    @Override
+    public int hashCode() {
+        return ((node * 31 + stackNode.hashCode()) * 31 + position) * 31 + Objects.hashCode(partial);
+    }
+
+    @Override
+    public String toString() {
+        return "<" + node + ", " + stackNode + ", " + position + ", " + partial + ">";
+    }
+}
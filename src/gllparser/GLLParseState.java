@@ -0,0 +1,118 @@
+package gllparser;
+
+import gfgparser.CompiledGFG;
+import shared.ParseTreeLeaf;
+import shared.Token;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+public class GLLParseState {
+
+    // Everything one parse builds up: the descriptors still to process and
+    // every one ever added, and the stack, partial and symbol nodes, each
+    // looked up by what identifies it so that they're shared
+
+    private CompiledGFG gfg;
+    private List<Token> tokens;
+    // The symbol id of each token, looked up the first time a scan node
+    // needs it, since with a lazy GFG a symbol only has an id once a scan
+    // node for it has been built. -1 until then
+    private int[] tokenSymbolIds;
+    private ParseTreeLeaf[] leaves;
+    private ArrayDeque<GLLDescriptor> toProcess;
+    private HashSet<GLLDescriptor> descriptors;
+    private HashMap<GLLStackNode, GLLStackNode> stackNodes;
+    private HashMap<GLLPartialNode, GLLPartialNode> partialNodes;
+    private HashMap<GLLSymbolNode, GLLSymbolNode> symbolNodes;
+
+    public GLLParseState(CompiledGFG g, List<Token> t) {
+        gfg = g;
+        tokens = t;
+        tokenSymbolIds = new int[tokens.size()];
+        Arrays.fill(tokenSymbolIds, -1);
+        leaves = new ParseTreeLeaf[tokens.size()];
+        toProcess = new ArrayDeque<>();
+        descriptors = new HashSet<>();
+        stackNodes = new HashMap<>();
+        partialNodes = new HashMap<>();
+        symbolNodes = new HashMap<>();
+    }
+
+    public int getTokenCount() {
+        return tokens.size();
+    }
+
+    public int getTokenSymbolId(int position) {
+        if(tokenSymbolIds[position] == -1) {
+            tokenSymbolIds[position] = gfg.getSymbolIdOf(tokens.get(position).getType());
+        }
+        return tokenSymbolIds[position];
+    }
+
+    public ParseTreeLeaf getLeaf(int position) {
+        if(leaves[position] == null) {
+            leaves[position] = new ParseTreeLeaf(tokens.get(position));
+        }
+        return leaves[position];
+    }
+
+    // Returns false if the descriptor was already added once
+    public boolean addDescriptor(GLLDescriptor descriptor) {
+        if(! descriptors.add(descriptor)) {
+            return false;
+        }
+        toProcess.add(descriptor);
+        return true;
+    }
+
+    // Like addDescriptor, for a descriptor that's about to be processed
+    // without going through the queue
+    public boolean markDescriptor(GLLDescriptor descriptor) {
+        return descriptors.add(descriptor);
+    }
+
+    // Null once there's nothing left to process
+    public GLLDescriptor nextDescriptor() {
+        return toProcess.poll();
+    }
+
+    // Null if the nonterminal hasn't been called at the position yet
+    public GLLStackNode getStackNode(int nonterminalId, int position) {
+        return stackNodes.get(new GLLStackNode(nonterminalId, position));
+    }
+
+    public GLLStackNode addStackNode(int nonterminalId, int position) {
+        GLLStackNode stackNode = new GLLStackNode(nonterminalId, position);
+        stackNodes.put(stackNode, stackNode);
+        return stackNode;
+    }
+
+    public GLLPartialNode getPartialNode(int node, int start, int end) {
+        GLLPartialNode key = new GLLPartialNode(node, start, end);
+        GLLPartialNode partialNode = partialNodes.get(key);
+        if(partialNode == null) {
+            partialNode = key;
+            partialNodes.put(key, key);
+        }
+        return partialNode;
+    }
+
+    public GLLSymbolNode getSymbolNode(int nonterminalId, int start, int end) {
+        GLLSymbolNode key = new GLLSymbolNode(nonterminalId, start, end);
+        GLLSymbolNode symbolNode = symbolNodes.get(key);
+        if(symbolNode == null) {
+            symbolNode = key;
+            symbolNodes.put(key, key);
+        }
+        return symbolNode;
+    }
+
+    // Null if the nonterminal was never found to match those tokens
+    public GLLSymbolNode findSymbolNode(int nonterminalId, int start, int end) {
+        return symbolNodes.get(new GLLSymbolNode(nonterminalId, start, end));
+    }
+}
@@ -0,0 +1,237 @@
+package gllparser;
+
+import gfgparser.CompiledGFG;
+import gfgparser.GFGBuilder;
+import shared.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+public class GLLParser implements Parser, GrammarListener {
+
+    // Generalized LL parsing, with the GFG as the control flow graph: each
+    // descriptor walks forward through the nodes of a rule, scanning
+    // tokens, until it calls a nonterminal, ends the rule, or reaches a
+    // branch. Calls go on a graph-structured stack with one node per
+    // nonterminal and position, which remembers every position the
+    // nonterminal has ended at, so left recursion and callers that show
+    // up late are both handled. Unlike the Earley and GFG parsers, a rule
+    // is only ever started where something calls it, and nothing is done
+    // per position for rules that can't go on there.
+
+    private Grammar grammar;
+    private CompiledGFG gfg;
+    // See GFGParser. Sharing prefixes also means rules that start the same
+    // way share their descriptors until they split up
+    private boolean sharingPrefixes;
+    private boolean buildingLazily;
+
+    public GLLParser(Grammar g) {
+        this(g, true, false);
+    }
+
+    public GLLParser(Grammar g, boolean sharePrefixes, boolean buildLazily) {
+        sharingPrefixes = sharePrefixes;
+        buildingLazily = buildLazily;
+        setGrammar(g);
+    }
+
+    // For a GFG that was already built and compiled, like a GFG parser's or
+    // the one in a grammar image. It can be shared with the parsers it came
+    // from
+    public GLLParser(Grammar g, CompiledGFG compiledGFG) {
+        grammar = g;
+        gfg = compiledGFG;
+        grammar.addGrammarListener(this);
+    }
+
+    public CompiledGFG getCompiledGFG() {
+        return gfg;
+    }
+
+    @Override
+    public void setGrammar(Grammar g) {
+        if(grammar != null) {
+            grammar.removeGrammarListener(this);
+        }
+        grammar = g;
+        gfg = new CompiledGFG(new GFGBuilder(grammar, sharingPrefixes), buildingLazily);
+        grammar.addGrammarListener(this);
+    }
+
+    @Override
+    public void ruleAdded(Grammar g, GrammarRule rule) {
+        gfg.updateRules(rule.getLeftHandSide());
+    }
+
+    @Override
+    public void ruleRemoved(Grammar g, GrammarRule rule) {
+        gfg.updateRules(rule.getLeftHandSide());
+    }
+
+    @Override
+    public ParseTreeNode parse(List<Token> tokens) {
+        GLLParseState state = new GLLParseState(gfg, tokens);
+        int startNonterminalId = gfg.getNonterminalId(grammar.getStartRule().getLeftHandSide());
+        // The call to the start nonterminal has no caller to return to
+        startRules(state, state.addStackNode(startNonterminalId, 0));
+        GLLDescriptor descriptor;
+        while((descriptor = state.nextDescriptor()) != null) {
+            process(state, descriptor);
+        }
+
+        GLLSymbolNode root = state.findSymbolNode(startNonterminalId, 0, tokens.size());
+        if(root == null) {
+            return null;
+        }
+        return toParseTree(root, new IdentityHashMap<GLLSymbolNode, ParseTreeParent>(),
+                new IdentityHashMap<GLLPartialNode, List<List<ParseTreeNode>>>());
+    }
+
+    private void startRules(GLLParseState state, GLLStackNode stackNode) {
+        int startNode = gfg.getStartNode(stackNode.getNonterminalId());
+        for(int entryNode : gfg.getSuccessors(startNode)) {
+            state.addDescriptor(new GLLDescriptor(entryNode, stackNode, stackNode.getPosition(), null));
+        }
+    }
+
+    private void process(GLLParseState state, GLLDescriptor descriptor) {
+        int node = descriptor.getNode();
+        GLLStackNode stackNode = descriptor.getStackNode();
+        int position = descriptor.getPosition();
+        GLLPartialNode partial = descriptor.getPartial();
+        while(true) {
+            switch(gfg.getKind(node)) {
+                case CompiledGFG.SCAN: {
+                    if(position == state.getTokenCount() || gfg.getSymbolId(node) != state.getTokenSymbolId(position)) {
+                        return;
+                    }
+                    int nextNode = gfg.getNextNode(node);
+                    GLLPartialNode nextPartial = state.getPartialNode(nextNode, stackNode.getPosition(), position + 1);
+                    nextPartial.addWay(partial, state.getLeaf(position));
+                    // Rather than wait for its turn, the descriptor after
+                    // the scan is processed right away. Another way
+                    // through the rule may have already scanned the same
+                    // token to the same node, though
+                    if(! state.markDescriptor(new GLLDescriptor(nextNode, stackNode, position + 1, nextPartial))) {
+                        return;
+                    }
+                    node = nextNode;
+                    position++;
+                    partial = nextPartial;
+                    break;
+                }
+                case CompiledGFG.JOIN:
+                    node = gfg.getNextNode(node);
+                    break;
+                case CompiledGFG.BRANCH:
+                    for(int nextNode : gfg.getSuccessors(node)) {
+                        state.addDescriptor(new GLLDescriptor(nextNode, stackNode, position, partial));
+                    }
+                    return;
+                case CompiledGFG.CALL:
+                    call(state, new GLLStackEdge(gfg.getReturnNode(node), stackNode, partial),
+                            gfg.getSymbolId(node), position);
+                    return;
+                case CompiledGFG.EXIT:
+                    exit(state, stackNode, position, partial);
+                    return;
+                default:
+                    // Start and end nodes are never inside a rule
+                    return;
+            }
+        }
+    }
+
+    private void call(GLLParseState state, GLLStackEdge edge, int nonterminalId, int position) {
+        GLLStackNode called = state.getStackNode(nonterminalId, position);
+        if(called == null) {
+            called = state.addStackNode(nonterminalId, position);
+            startRules(state, called);
+        }
+        if(! called.addEdge(edge)) {
+            return;
+        }
+        // The nonterminal may have already ended somewhere for an earlier
+        // caller at the same position
+        for(int end : called.getPoppedPositions()) {
+            returnTo(state, edge, state.getSymbolNode(nonterminalId, position, end));
+        }
+    }
+
+    private void exit(GLLParseState state, GLLStackNode stackNode, int position, GLLPartialNode partial) {
+        GLLSymbolNode symbolNode = state.getSymbolNode(stackNode.getNonterminalId(), stackNode.getPosition(), position);
+        symbolNode.addDerivation(partial);
+        // If the nonterminal already ended here, every caller was already
+        // returned to with the same symbol node, and will see this
+        // derivation through it
+        if(! stackNode.addPoppedPosition(position)) {
+            return;
+        }
+        for(GLLStackEdge edge : stackNode.getEdges()) {
+            returnTo(state, edge, symbolNode);
+        }
+    }
+
+    private void returnTo(GLLParseState state, GLLStackEdge edge, GLLSymbolNode symbolNode) {
+        int returnNode = edge.getReturnNode();
+        GLLStackNode caller = edge.getCaller();
+        GLLPartialNode partial = state.getPartialNode(returnNode, caller.getPosition(), symbolNode.getEnd());
+        partial.addWay(edge.getPartial(), symbolNode);
+        state.addDescriptor(new GLLDescriptor(returnNode, caller, symbolNode.getEnd(), partial));
+    }
+
+    // Each symbol node becomes one parse tree node, made after its
+    // children so that they're complete by the time it holds them
+    private ParseTreeParent toParseTree(GLLSymbolNode symbolNode,
+                                        IdentityHashMap<GLLSymbolNode, ParseTreeParent> parents,
+                                        IdentityHashMap<GLLPartialNode, List<List<ParseTreeNode>>> childTrees) {
+        ParseTreeParent parent = parents.get(symbolNode);
+        if(parent != null) {
+            return parent;
+        }
+        parent = new ParseTreeParent(gfg.getNonterminal(symbolNode.getNonterminalId()));
+        for(GLLPartialNode derivation : symbolNode.getDerivations()) {
+            if(derivation == null) {
+                parent.addChildTree(new ArrayList<ParseTreeNode>());
+                continue;
+            }
+            for(List<ParseTreeNode> childTree : getChildTrees(derivation, parents, childTrees)) {
+                parent.addChildTree(childTree);
+            }
+        }
+        parents.put(symbolNode, parent);
+        return parent;
+    }
+
+    // Every list of children that gets a rule to the partial node, one per
+    // path back through the partial nodes before it
+    private List<List<ParseTreeNode>> getChildTrees(GLLPartialNode partial,
+                                                    IdentityHashMap<GLLSymbolNode, ParseTreeParent> parents,
+                                                    IdentityHashMap<GLLPartialNode, List<List<ParseTreeNode>>> childTrees) {
+        List<List<ParseTreeNode>> partialChildTrees = childTrees.get(partial);
+        if(partialChildTrees != null) {
+            return partialChildTrees;
+        }
+        partialChildTrees = new ArrayList<>();
+        for(int way = 0; way < partial.getWayCount(); way++) {
+            Object element = partial.getElement(way);
+            ParseTreeNode child = element instanceof GLLSymbolNode ?
+                    toParseTree((GLLSymbolNode) element, parents, childTrees) : (ParseTreeLeaf) element;
+            GLLPartialNode previousPartial = partial.getPreviousPartial(way);
+            List<List<ParseTreeNode>> previousChildTrees = previousPartial == null ?
+                    Collections.singletonList(Collections.<ParseTreeNode>emptyList()) :
+                    getChildTrees(previousPartial, parents, childTrees);
+            for(List<ParseTreeNode> previousChildTree : previousChildTrees) {
+                ArrayList<ParseTreeNode> childTree = new ArrayList<>(previousChildTree.size() + 1);
+                childTree.addAll(previousChildTree);
+                childTree.add(child);
+                partialChildTrees.add(childTree);
+            }
+        }
+        childTrees.put(partial, partialChildTrees);
+        return partialChildTrees;
+    }
+}
@@ -0,0 +1,84 @@
+package gllparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+public class GLLPartialNode {
+
+    // What a rule has matched from start up to end, when it's at a GFG
+    // node right after one of its elements. Every way of getting there is
+    // kept as the partial node before the element (null if the element was
+    // the first one) plus the node for the element itself, so the partial
+    // nodes of a rule make a graph of all the ways through it
+
+    private int node;
+    private int start;
+    private int end;
+    private ArrayList<GLLPartialNode> previousPartials;
+    // A ParseTreeLeaf for a token, or a GLLSymbolNode for a nonterminal
+    private ArrayList<Object> elements;
+    private HashSet<List<Object>> ways;
+
+    public GLLPartialNode(int n, int s, int e) {
+        node = n;
+        start = s;
+        end = e;
+        previousPartials = new ArrayList<>();
+        elements = new ArrayList<>();
+        ways = new HashSet<>();
+    }
+
+    public int getNode() {
+        return node;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public int getWayCount() {
+        return elements.size();
+    }
+
+    public GLLPartialNode getPreviousPartial(int way) {
+        return previousPartials.get(way);
+    }
+
+    public Object getElement(int way) {
+        return elements.get(way);
+    }
+
+    public void addWay(GLLPartialNode previousPartial, Object element) {
+        if(ways.add(Arrays.asList(previousPartial, element))) {
+            previousPartials.add(previousPartial);
+            elements.add(element);
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(! (other instanceof GLLPartialNode)) {
+            return false;
+        }
+        GLLPartialNode otherNode = (GLLPartialNode) other;
+        return otherNode.node == node &&
+                otherNode.start == start &&
+                otherNode.end == end;
+    }
+
+    @Override
+    public int hashCode() {
+        return (node * 31 + start) * 31 + end;
+    }
+
+    @Override
+    public String toString() {
+        return "<" + node + ", " + start + ", " + end + ">";
+    }
+}
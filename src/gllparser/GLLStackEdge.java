@@ -0,0 +1,49 @@
+package gllparser;
+
+import java.util.Objects;
+
+public class GLLStackEdge {
+
+    // Where to go on once the called nonterminal ends: the return node in
+    // the caller's rule, the call the caller's rule is in, and what the
+    // caller's rule had matched before the call
+
+    private int returnNode;
+    private GLLStackNode caller;
+    // Null if the call was the first element of the caller's rule
+    private GLLPartialNode partial;
+
+    public GLLStackEdge(int r, GLLStackNode c, GLLPartialNode p) {
+        returnNode = r;
+        caller = c;
+        partial = p;
+    }
+
+    public int getReturnNode() {
+        return returnNode;
+    }
+
+    public GLLStackNode getCaller() {
+        return caller;
+    }
+
+    public GLLPartialNode getPartial() {
+        return partial;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(! (other instanceof GLLStackEdge)) {
+            return false;
+        }
+        GLLStackEdge otherEdge = (GLLStackEdge) other;
+        return otherEdge.returnNode == returnNode &&
+                otherEdge.caller.equals(caller) &&
+                Objects.equals(otherEdge.partial, partial);
+    }
+
+    @Override
+    public int hashCode() {
+        return (returnNode * 31 + caller.hashCode()) * 31 + Objects.hashCode(partial);
+    }
+}
@@ -0,0 +1,85 @@
+package gllparser;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+public class GLLStackNode {
+
+    // A node of the graph-structured call stack: a call to a nonterminal
+    // at a position. Every call to the same nonterminal at the same
+    // position shares it, so each of its edges goes back to one caller,
+    // and the nonterminal's rules are only started once per position
+
+    private int nonterminalId;
+    private int position;
+    private ArrayList<GLLStackEdge> edges;
+    private HashSet<GLLStackEdge> edgeSet;
+    // Every position the nonterminal has been found to end at so far, so
+    // that callers that only show up later can still be returned to
+    private ArrayList<Integer> poppedPositions;
+    private HashSet<Integer> poppedPositionSet;
+
+    public GLLStackNode(int n, int p) {
+        nonterminalId = n;
+        position = p;
+        edges = new ArrayList<>();
+        edgeSet = new HashSet<>();
+        poppedPositions = new ArrayList<>();
+        poppedPositionSet = new HashSet<>();
+    }
+
+    public int getNonterminalId() {
+        return nonterminalId;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public List<GLLStackEdge> getEdges() {
+        return edges;
+    }
+
+    // Returns false if the node already had the edge
+    public boolean addEdge(GLLStackEdge edge) {
+        if(! edgeSet.add(edge)) {
+            return false;
+        }
+        edges.add(edge);
+        return true;
+    }
+
+    public List<Integer> getPoppedPositions() {
+        return poppedPositions;
+    }
+
+    // Returns false if the nonterminal had already ended at the position
+    public boolean addPoppedPosition(int poppedPosition) {
+        if(! poppedPositionSet.add(poppedPosition)) {
+            return false;
+        }
+        poppedPositions.add(poppedPosition);
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(! (other instanceof GLLStackNode)) {
+            return false;
+        }
+        GLLStackNode otherNode = (GLLStackNode) other;
+        return otherNode.nonterminalId == nonterminalId &&
+                otherNode.position == position;
+    }
+
+    @Override
+    public int hashCode() {
+        return nonterminalId * 31 + position;
+    }
+
+    @Override
+    public String toString() {
+        return "<" + nonterminalId + ", " + position + ">";
+    }
+}
@@ -0,0 +1,72 @@
+package gllparser;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+public class GLLSymbolNode {
+
+    // Every way a nonterminal was found to match the tokens from start up
+    // to end, as the partial node each of its rules ended with. Like the
+    // partial nodes, these are only turned into parse tree nodes once the
+    // parse is done, since a parse tree node can't take on more child
+    // trees once it's a child of another one
+
+    private int nonterminalId;
+    private int start;
+    private int end;
+    // A null partial node is a rule with an empty right hand side
+    private ArrayList<GLLPartialNode> derivations;
+    private HashSet<GLLPartialNode> derivationSet;
+
+    public GLLSymbolNode(int n, int s, int e) {
+        nonterminalId = n;
+        start = s;
+        end = e;
+        derivations = new ArrayList<>();
+        derivationSet = new HashSet<>();
+    }
+
+    public int getNonterminalId() {
+        return nonterminalId;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public List<GLLPartialNode> getDerivations() {
+        return derivations;
+    }
+
+    public void addDerivation(GLLPartialNode derivation) {
+        if(derivationSet.add(derivation)) {
+            derivations.add(derivation);
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(! (other instanceof GLLSymbolNode)) {
+            return false;
+        }
+        GLLSymbolNode otherNode = (GLLSymbolNode) other;
+        return otherNode.nonterminalId == nonterminalId &&
+                otherNode.start == start &&
+                otherNode.end == end;
+    }
+
+    @Override
+    public int hashCode() {
+        return (nonterminalId * 31 + start) * 31 + end;
+    }
+
+    @Override
+    public String toString() {
+        return "<" + nonterminalId + ", " + start + ", " + end + ">";
+    }
+}
@@ -0,0 +1,220 @@
+package glrparser;
+
+import gfgparser.GFGParser;
+import lalrparser.LALRTable;
+import shared.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+public class GLRParser implements Parser {
+
+    // Tomita style generalized LR parsing with the LALR(1) table. Where the
+    // table has a conflict, the stack splits and every action is followed,
+    // and stacks that reach the same state at the same token are merged
+    // again, so all of the stacks together make a graph. Each reduction
+    // is done along every path of the right length back from the node it
+    // starts at. Like the other parsers, this assumes no rule has an empty
+    // right hand side, so every path back leaves the current token, and a
+    // new edge only needs the reductions that start with it.
+
+    private static final int[] NO_ACTIONS = {};
+
+    private Grammar grammar;
+    private LALRTable table;
+    // The table numbers its states across the whole grammar, so if rules
+    // have been added or removed since it was built, it's rebuilt
+    private int tableModificationCount;
+    // Only set if the grammar uses EBNF operators, which the table can't
+    // handle, or has a rule with an empty right hand side
+    private Parser fallbackParser;
+
+    public GLRParser(Grammar g) {
+        setGrammar(g);
+    }
+
+    @Override
+    public void setGrammar(Grammar g) {
+        grammar = g;
+        tableModificationCount = grammar.getModificationCount();
+        if(grammar.isExtended() || hasEmptyRule(grammar)) {
+            table = null;
+            fallbackParser = new GFGParser(grammar);
+            return;
+        }
+        fallbackParser = null;
+        table = new LALRTable(grammar);
+    }
+
+    public boolean isUsingFallback() {
+        return fallbackParser != null;
+    }
+
+    @Override
+    public ParseTreeNode parse(List<Token> tokens) {
+        if(tableModificationCount != grammar.getModificationCount()) {
+            setGrammar(grammar);
+        }
+        if(fallbackParser != null) {
+            return fallbackParser.parse(tokens);
+        }
+
+        GLRStackLevel level = new GLRStackLevel(0, getSymbolId(tokens, 0));
+        level.addNode(0);
+        while(true) {
+            int position = level.getPosition();
+            if(level.getSymbolId() == -1) {
+                return null;
+            }
+            // Shifts are put off until every reduction at this token is
+            // done, so that the next level starts out with all its nodes
+            ArrayList<GLRStackNode> shiftNodes = new ArrayList<>();
+            ArrayList<Integer> shiftStates = new ArrayList<>();
+            GLRSymbolNode acceptedNode = null;
+            GLRStackNode node;
+            while((node = level.nextUnprocessedNode()) != null) {
+                node.setProcessed();
+                for(int action : getActions(node.getState(), level.getSymbolId())) {
+                    if(action == LALRTable.ACCEPT) {
+                        // The stack is just the start nonterminal
+                        acceptedNode = (GLRSymbolNode) node.getEdges().get(0).getElement();
+                    } else if(action > 0) {
+                        shiftNodes.add(node);
+                        shiftStates.add(action - 1);
+                    } else {
+                        reduce(level, node, null, table.getRule(-1 - action));
+                    }
+                }
+            }
+            if(position == tokens.size()) {
+                return acceptedNode == null ? null :
+                        toParseTree(acceptedNode, new IdentityHashMap<GLRSymbolNode, ParseTreeParent>());
+            }
+            if(shiftNodes.isEmpty()) {
+                return null;
+            }
+
+            ParseTreeLeaf leaf = new ParseTreeLeaf(tokens.get(position));
+            GLRStackLevel nextLevel = new GLRStackLevel(position + 1, getSymbolId(tokens, position + 1));
+            for(int i = 0; i < shiftNodes.size(); i++) {
+                GLRStackNode nextNode = nextLevel.getNode(shiftStates.get(i));
+                if(nextNode == null) {
+                    nextNode = nextLevel.addNode(shiftStates.get(i));
+                }
+                nextNode.addEdge(shiftNodes.get(i), leaf);
+            }
+            level = nextLevel;
+        }
+    }
+
+    private int getSymbolId(List<Token> tokens, int position) {
+        return position == tokens.size() ?
+                table.getEndOfInputId() : table.getSymbolId(tokens.get(position).getType());
+    }
+
+    private int[] getActions(int state, int symbolId) {
+        int action = table.getAction(state, symbolId);
+        if(action == LALRTable.ERROR) {
+            return NO_ACTIONS;
+        } else if(action == LALRTable.CONFLICT) {
+            return table.getConflictActions(state, symbolId);
+        }
+        return new int[] {action};
+    }
+
+    // Reduces by the rule along every path back from node, or only the
+    // ones that start with firstEdge if it isn't null
+    private void reduce(GLRStackLevel level, GLRStackNode node, GLRStackEdge firstEdge, GrammarRule rule) {
+        Object[] elements = new Object[rule.getRightHandSide().size()];
+        if(firstEdge == null) {
+            reducePaths(level, node, rule, elements, elements.length);
+        } else {
+            elements[elements.length - 1] = firstEdge.getElement();
+            reducePaths(level, firstEdge.getTarget(), rule, elements, elements.length - 1);
+        }
+    }
+
+    // Fills in elements back to front while walking the paths
+    private void reducePaths(GLRStackLevel level, GLRStackNode node, GrammarRule rule,
+                             Object[] elements, int remaining) {
+        if(remaining == 0) {
+            finishReduction(level, node, rule, new ArrayList<>(Arrays.asList(elements)));
+            return;
+        }
+        // Nodes at the current token can get more edges while this runs,
+        // so this can't use an iterator
+        List<GLRStackEdge> edges = node.getEdges();
+        for(int i = 0; i < edges.size(); i++) {
+            GLRStackEdge edge = edges.get(i);
+            elements[remaining - 1] = edge.getElement();
+            reducePaths(level, edge.getTarget(), rule, elements, remaining - 1);
+        }
+    }
+
+    // Pushes the rule's nonterminal onto the stack that's left once its
+    // elements are popped off, which ends at node
+    private void finishReduction(GLRStackLevel level, GLRStackNode node, GrammarRule rule,
+                                 List<Object> derivation) {
+        Nonterminal nonterminal = rule.getLeftHandSide();
+        GLRSymbolNode symbolNode = level.getSymbolNode(nonterminal, node.getPosition());
+        symbolNode.addDerivation(derivation);
+
+        int gotoState = table.getGoto(node.getState(), nonterminal);
+        GLRStackNode nextNode = level.getNode(gotoState);
+        if(nextNode == null) {
+            level.addNode(gotoState).addEdge(node, symbolNode);
+            return;
+        }
+        // An edge between the same two nodes is always for the same
+        // nonterminal over the same tokens, so it already has the new
+        // derivation through symbolNode
+        if(nextNode.getEdgeTo(node) != null) {
+            return;
+        }
+        GLRStackEdge edge = nextNode.addEdge(node, symbolNode);
+        if(nextNode.isProcessed()) {
+            for(int action : getActions(gotoState, level.getSymbolId())) {
+                if(action < 0) {
+                    reduce(level, nextNode, edge, table.getRule(-1 - action));
+                }
+            }
+        }
+    }
+
+    // Each symbol node becomes one parse tree node, made after its
+    // children so that they're complete by the time it holds them
+    private static ParseTreeParent toParseTree(GLRSymbolNode symbolNode,
+                                               IdentityHashMap<GLRSymbolNode, ParseTreeParent> parents) {
+        ParseTreeParent parent = parents.get(symbolNode);
+        if(parent != null) {
+            return parent;
+        }
+        parent = new ParseTreeParent(symbolNode.getNonterminal());
+        for(List<Object> derivation : symbolNode.getDerivations()) {
+            ArrayList<ParseTreeNode> childTree = new ArrayList<>(derivation.size());
+            for(Object element : derivation) {
+                if(element instanceof GLRSymbolNode) {
+                    childTree.add(toParseTree((GLRSymbolNode) element, parents));
+                } else {
+                    childTree.add((ParseTreeLeaf) element);
+                }
+            }
+            parent.addChildTree(childTree);
+        }
+        parents.put(symbolNode, parent);
+        return parent;
+    }
+
+    private static boolean hasEmptyRule(Grammar grammar) {
+        for(Nonterminal nonterminal : grammar.getNonterminals()) {
+            for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+                if(rule.getRightHandSide().isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
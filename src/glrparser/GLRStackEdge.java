@@ -0,0 +1,22 @@
+package glrparser;
+
+public class GLRStackEdge {
+
+    private GLRStackNode target;
+    // What was read between the target and the node the edge comes from:
+    // a ParseTreeLeaf for a token, or a GLRSymbolNode for a nonterminal
+    private Object element;
+
+    public GLRStackEdge(GLRStackNode t, Object e) {
+        target = t;
+        element = e;
+    }
+
+    public GLRStackNode getTarget() {
+        return target;
+    }
+
+    public Object getElement() {
+        return element;
+    }
+}
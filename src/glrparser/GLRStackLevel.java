@@ -0,0 +1,65 @@
+package glrparser;
+
+import shared.Nonterminal;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+public class GLRStackLevel {
+
+    // The top of the graph-structured stack after the tokens before
+    // position have been read: at most one node per state, since stacks
+    // that end up in the same state are merged, and the nonterminals
+    // found to end at position, shared by every stack that reads them
+
+    private int position;
+    // The id of the token at position, which the actions are looked up
+    // for, or of the end of the input
+    private int symbolId;
+    private HashMap<Integer, GLRStackNode> nodes;
+    private ArrayDeque<GLRStackNode> unprocessedNodes;
+    private HashMap<GLRSymbolNode, GLRSymbolNode> symbolNodes;
+
+    public GLRStackLevel(int p, int s) {
+        position = p;
+        symbolId = s;
+        nodes = new HashMap<>();
+        unprocessedNodes = new ArrayDeque<>();
+        symbolNodes = new HashMap<>();
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getSymbolId() {
+        return symbolId;
+    }
+
+    // Null if no stack is in the state here yet
+    public GLRStackNode getNode(int state) {
+        return nodes.get(state);
+    }
+
+    public GLRStackNode addNode(int state) {
+        GLRStackNode node = new GLRStackNode(state, position);
+        nodes.put(state, node);
+        unprocessedNodes.add(node);
+        return node;
+    }
+
+    // Null once every node has been processed
+    public GLRStackNode nextUnprocessedNode() {
+        return unprocessedNodes.poll();
+    }
+
+    public GLRSymbolNode getSymbolNode(Nonterminal nonterminal, int start) {
+        GLRSymbolNode key = new GLRSymbolNode(nonterminal, start);
+        GLRSymbolNode symbolNode = symbolNodes.get(key);
+        if(symbolNode == null) {
+            symbolNode = key;
+            symbolNodes.put(key, key);
+        }
+        return symbolNode;
+    }
+}
@@ -0,0 +1,64 @@
+package glrparser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class GLRStackNode {
+
+    // A node of the graph-structured stack: an LR state that some stack
+    // is in after reading the tokens before position. Its edges go back
+    // to the nodes it was pushed on top of
+
+    private int state;
+    private int position;
+    private ArrayList<GLRStackEdge> edges;
+    // Set once the parser has started doing its actions for the next
+    // token, after which any new edge needs its reductions done right away
+    private boolean processed;
+
+    public GLRStackNode(int s, int p) {
+        state = s;
+        position = p;
+        edges = new ArrayList<>();
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public List<GLRStackEdge> getEdges() {
+        return edges;
+    }
+
+    public GLRStackEdge getEdgeTo(GLRStackNode target) {
+        for(GLRStackEdge edge : edges) {
+            if(edge.getTarget() == target) {
+                return edge;
+            }
+        }
+        return null;
+    }
+
+    public GLRStackEdge addEdge(GLRStackNode target, Object element) {
+        GLRStackEdge edge = new GLRStackEdge(target, element);
+        edges.add(edge);
+        return edge;
+    }
+
+    public boolean isProcessed() {
+        return processed;
+    }
+
+    public void setProcessed() {
+        processed = true;
+    }
+
+    @Override
+    public String toString() {
+        return "<" + state + ", " + position + ">";
+    }
+}
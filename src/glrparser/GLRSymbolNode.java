@@ -0,0 +1,69 @@
+package glrparser;
+
+import shared.Nonterminal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+
+public class GLRSymbolNode {
+
+    // Every way a nonterminal was found to match the tokens from start up
+    // to some position, shared by all the stacks that read it there. These
+    // are only turned into parse tree nodes once the parse is done, since a
+    // parse tree node can't take on more child trees once it's a child of
+    // another one. Nodes are only compared within one derivation or one
+    // position, where the start is enough to tell them apart
+
+    private Nonterminal nonterminal;
+    private int start;
+    // Each derivation is a list of ParseTreeLeafs and GLRSymbolNodes
+    private ArrayList<List<Object>> derivations;
+    private HashSet<List<Object>> derivationSet;
+
+    public GLRSymbolNode(Nonterminal n, int s) {
+        nonterminal = n;
+        start = s;
+        derivations = new ArrayList<>();
+        derivationSet = new HashSet<>();
+    }
+
+    public Nonterminal getNonterminal() {
+        return nonterminal;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public List<List<Object>> getDerivations() {
+        return derivations;
+    }
+
+    public void addDerivation(List<Object> derivation) {
+        if(derivationSet.add(derivation)) {
+            derivations.add(derivation);
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(! (other instanceof GLRSymbolNode)) {
+            return false;
+        }
+        GLRSymbolNode otherNode = (GLRSymbolNode) other;
+        return otherNode.nonterminal.equals(nonterminal) &&
+                otherNode.start == start;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(nonterminal, start);
+    }
+
+    @Override
+    public String toString() {
+        return "<" + nonterminal + ", " + start + ">";
+    }
+}
@@ -0,0 +1,204 @@
+package lalrparser;
+
+import gfgparser.GFGParser;
+import shared.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+public class LALRParser implements Parser {
+
+    // Parses deterministically with an LALR(1) table for as long as the
+    // table only allows one action, which for most grammars is most of the
+    // input. Up to that point every parse of the input has to make the same
+    // moves, so every parse has the nodes on the stack in it. When the
+    // table has a conflict, the rest is handed over to a GFG parser: each
+    // nonterminal node on the stack becomes a single stand-in token, and
+    // the tokens that haven't been read yet follow. Once the stand-ins are
+    // swapped back for the nodes they stand for, the GFG parser's tree is
+    // the same as it would have been for the whole input.
+
+    private Grammar grammar;
+    private LALRTable table;
+    // The table numbers its states across the whole grammar, so if rules
+    // have been added or removed since it was built, it's rebuilt
+    private int tableModificationCount;
+    // Only set if the grammar uses EBNF operators, which the table can't
+    // handle
+    private Parser fallbackParser;
+
+    // The GFG parser for after a conflict runs on the grammar plus a
+    // rule for each nonterminal that matches its stand-in token. Its start
+    // rule wraps the grammar's start rule, so that it's still the only rule
+    // of its nonterminal. This is all made the first time it's needed
+    private Parser resumeParser;
+    private HashMap<Nonterminal, Symbol> standInSymbols;
+
+    public LALRParser(Grammar g) {
+        setGrammar(g);
+    }
+
+    @Override
+    public void setGrammar(Grammar g) {
+        grammar = g;
+        tableModificationCount = grammar.getModificationCount();
+        resumeParser = null;
+        standInSymbols = null;
+        if(grammar.isExtended()) {
+            table = null;
+            fallbackParser = new GFGParser(grammar);
+            return;
+        }
+        fallbackParser = null;
+        table = new LALRTable(grammar);
+    }
+
+    // Null if the grammar uses EBNF operators
+    public LALRTable getTable() {
+        return table;
+    }
+
+    @Override
+    public ParseTreeNode parse(List<Token> tokens) {
+        if(tableModificationCount != grammar.getModificationCount()) {
+            setGrammar(grammar);
+        }
+        if(fallbackParser != null) {
+            return fallbackParser.parse(tokens);
+        }
+
+        // The states on the stack, and the node for each element between
+        // them
+        ArrayList<Integer> states = new ArrayList<>();
+        ArrayList<ParseTreeNode> nodes = new ArrayList<>();
+        states.add(0);
+        int tokenIndex = 0;
+        while(true) {
+            int symbolId = tokenIndex == tokens.size() ?
+                    table.getEndOfInputId() : table.getSymbolId(tokens.get(tokenIndex).getType());
+            if(symbolId == -1) {
+                return null;
+            }
+            int state = states.get(states.size() - 1);
+            int action = table.getAction(state, symbolId);
+            if(action == LALRTable.ERROR) {
+                return null;
+            } else if(action == LALRTable.ACCEPT) {
+                // The stack is just the start nonterminal
+                return nodes.get(0);
+            } else if(action == LALRTable.CONFLICT) {
+                return resume(nodes, tokens, tokenIndex);
+            } else if(action > 0) {
+                // Shift
+                nodes.add(new ParseTreeLeaf(tokens.get(tokenIndex)));
+                states.add(action - 1);
+                tokenIndex++;
+            } else {
+                // Reduce
+                GrammarRule rule = table.getRule(-1 - action);
+                int ruleLength = rule.getRightHandSide().size();
+                List<ParseTreeNode> childNodes = nodes.subList(nodes.size() - ruleLength, nodes.size());
+                ParseTreeParent parent = new ParseTreeParent(rule.getLeftHandSide());
+                parent.addChildTree(new ArrayList<>(childNodes));
+                childNodes.clear();
+                states.subList(states.size() - ruleLength, states.size()).clear();
+                nodes.add(parent);
+                states.add(table.getGoto(states.get(states.size() - 1), rule.getLeftHandSide()));
+            }
+        }
+    }
+
+    private ParseTreeNode resume(List<ParseTreeNode> stackNodes, List<Token> tokens, int tokenIndex) {
+        Parser parser = getResumeParser();
+        ArrayList<Token> resumeTokens = new ArrayList<>();
+        IdentityHashMap<Token, ParseTreeNode> standIns = new IdentityHashMap<>();
+        for(ParseTreeNode node : stackNodes) {
+            if(node instanceof ParseTreeLeaf) {
+                resumeTokens.add(((ParseTreeLeaf) node).getToken());
+            } else {
+                Nonterminal nonterminal = ((ParseTreeParent) node).getNonterminal();
+                Token standIn = new Token(nonterminal.getName(), standInSymbols.get(nonterminal));
+                standIns.put(standIn, node);
+                resumeTokens.add(standIn);
+            }
+        }
+        resumeTokens.addAll(tokens.subList(tokenIndex, tokens.size()));
+
+        ParseTreeNode wrapperRoot = parser.parse(resumeTokens);
+        if(wrapperRoot == null) {
+            return null;
+        }
+        // The wrapping start rule has the grammar's start nonterminal as its
+        // only child
+        ParseTreeNode root = ((ParseTreeParent) wrapperRoot).getChildTrees().iterator().next().get(0);
+        return swapStandIns(root, standIns, new IdentityHashMap<ParseTreeNode, ParseTreeNode>());
+    }
+
+    // Copies the tree, with every node that only matches a stand-in token
+    // replaced by the node the token stands for. Nodes are shared between
+    // parse trees, so each one is only copied once
+    private static ParseTreeNode swapStandIns(ParseTreeNode node,
+                                              IdentityHashMap<Token, ParseTreeNode> standIns,
+                                              IdentityHashMap<ParseTreeNode, ParseTreeNode> swappedNodes) {
+        if(node instanceof ParseTreeLeaf) {
+            return node;
+        }
+        ParseTreeNode swappedNode = swappedNodes.get(node);
+        if(swappedNode != null) {
+            return swappedNode;
+        }
+        ParseTreeParent parent = (ParseTreeParent) node;
+        if(parent.getChildTrees().size() == 1) {
+            List<ParseTreeNode> childTree = parent.getChildTrees().iterator().next();
+            if(childTree.size() == 1 && childTree.get(0) instanceof ParseTreeLeaf) {
+                ParseTreeNode standInFor = standIns.get(((ParseTreeLeaf) childTree.get(0)).getToken());
+                if(standInFor != null) {
+                    swappedNodes.put(node, standInFor);
+                    return standInFor;
+                }
+            }
+        }
+        ParseTreeParent copy = new ParseTreeParent(parent.getNonterminal());
+        for(List<ParseTreeNode> childTree : parent.getChildTrees()) {
+            ArrayList<ParseTreeNode> copiedChildTree = new ArrayList<>(childTree.size());
+            for(ParseTreeNode child : childTree) {
+                copiedChildTree.add(swapStandIns(child, standIns, swappedNodes));
+            }
+            copy.addChildTree(copiedChildTree);
+        }
+        swappedNodes.put(node, copy);
+        return copy;
+    }
+
+    private synchronized Parser getResumeParser() {
+        if(resumeParser != null) {
+            return resumeParser;
+        }
+        ArrayList<GrammarRule> rules = new ArrayList<>();
+        HashMap<Nonterminal, Symbol> symbols = new HashMap<>();
+        for(Nonterminal nonterminal : grammar.getNonterminals()) {
+            rules.addAll(grammar.getRulesWithLeftHandSide(nonterminal));
+            // Symbol names come from regex group names, so they can't have
+            // angle brackets in them
+            Symbol standInSymbol = new Symbol("<" + nonterminal.getName() + ">", null);
+            symbols.put(nonterminal, standInSymbol);
+            ArrayList<GrammarElement> standInRHS = new ArrayList<>();
+            standInRHS.add(new Terminal(standInSymbol));
+            rules.add(new GrammarRule(nonterminal, standInRHS));
+        }
+        Nonterminal startNonterminal = grammar.getStartRule().getLeftHandSide();
+        String wrapperName = startNonterminal.getName() + "'";
+        while(grammar.getNonterminals().contains(new Nonterminal(wrapperName))) {
+            wrapperName += "'";
+        }
+        ArrayList<GrammarElement> wrapperRHS = new ArrayList<>();
+        wrapperRHS.add(startNonterminal);
+        GrammarRule wrapperRule = new GrammarRule(new Nonterminal(wrapperName), wrapperRHS);
+        rules.add(wrapperRule);
+        standInSymbols = symbols;
+        resumeParser = new GFGParser(new Grammar(wrapperRule, rules));
+        return resumeParser;
+    }
+}
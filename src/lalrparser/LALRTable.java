@@ -0,0 +1,405 @@
+package lalrparser;
+
+import shared.*;
+import shared.analysis.GrammarAnalysis;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class LALRTable {
+
+    // The LR(0) states of the grammar, with LALR(1) lookaheads worked out
+    // by propagating them between states until nothing changes, boiled
+    // down to an action table and a goto table. Entries where the grammar
+    // allows more than one action are marked as conflicts, instead of
+    // picking one, so the parser knows where it can't go on by itself. The
+    // actions a conflict allows are kept as well, for parsers that follow
+    // all of them.
+
+    // Actions are stored as ints: shifts as the state shifted to plus one,
+    // reductions as minus one minus the rule number, and these
+    public static final int ERROR = 0;
+    public static final int ACCEPT = Integer.MAX_VALUE;
+    public static final int CONFLICT = Integer.MIN_VALUE;
+
+    // The grammar's start rule is wrapped in one more rule, whose only
+    // element is the start nonterminal, so that accepting is reducing it.
+    // It's always rule 0
+    private ArrayList<GrammarRule> rules;
+    // Every dotted item (a rule plus a cursor index) gets a number, and the
+    // items of a rule are numbered consecutively in cursor order, so the
+    // item after item i in the same rule is i + 1
+    private int[] ruleFirstItems;
+    private int[] itemRules;
+    private HashMap<Nonterminal, ArrayList<Integer>> rulesWithLeftHandSide;
+    // Terminals are numbered by their symbols, and the end of the input
+    // comes after all of them
+    private HashMap<Symbol, Integer> symbolIds;
+    private int endOfInputId;
+    private HashMap<Nonterminal, Integer> nonterminalIds;
+    // For each nonterminal, the terminals that can start it, and whether it
+    // can match nothing at all
+    private BitSet[] firstSets;
+    private boolean[] nullable;
+
+    private int[][] actions;
+    private int[][] gotos;
+    private int conflictCount;
+    // Null except for the entries that are conflicts
+    private int[][][] conflictActions;
+
+    // The grammar can't use EBNF operators, since the items are rules with
+    // a cursor index
+    public LALRTable(Grammar grammar) {
+        if(grammar.isExtended()) {
+            throw new IllegalArgumentException("LALR tables don't support EBNF operators");
+        }
+        numberRules(grammar);
+        computeFirstSets(grammar);
+
+        // Build the LR(0) states, each one named by its kernel items
+        ArrayList<BitSet> kernels = new ArrayList<>();
+        HashMap<BitSet, Integer> stateIds = new HashMap<>();
+        ArrayList<LinkedHashMap<GrammarElement, Integer>> transitions = new ArrayList<>();
+        BitSet startKernel = new BitSet();
+        startKernel.set(ruleFirstItems[0]);
+        kernels.add(startKernel);
+        stateIds.put(startKernel, 0);
+        for(int state = 0; state < kernels.size(); state++) {
+            // Group the items by the element after their cursor. Moving the
+            // cursors of each group over that element gives the kernel of
+            // the state we transition to
+            LinkedHashMap<GrammarElement, BitSet> successorKernels = new LinkedHashMap<>();
+            BitSet closure = getClosure(kernels.get(state));
+            for(int item = closure.nextSetBit(0); item >= 0; item = closure.nextSetBit(item + 1)) {
+                GrammarElement nextElement = getNextElement(item);
+                if(nextElement == null) {
+                    continue;
+                }
+                BitSet successorKernel = successorKernels.get(nextElement);
+                if(successorKernel == null) {
+                    successorKernel = new BitSet();
+                    successorKernels.put(nextElement, successorKernel);
+                }
+                successorKernel.set(item + 1);
+            }
+            LinkedHashMap<GrammarElement, Integer> stateTransitions = new LinkedHashMap<>();
+            for(Map.Entry<GrammarElement, BitSet> successor : successorKernels.entrySet()) {
+                Integer successorState = stateIds.get(successor.getValue());
+                if(successorState == null) {
+                    successorState = kernels.size();
+                    kernels.add(successor.getValue());
+                    stateIds.put(successor.getValue(), successorState);
+                }
+                stateTransitions.put(successor.getKey(), successorState);
+            }
+            transitions.add(stateTransitions);
+        }
+
+        // Propagate lookaheads from the kernel items of each state, through
+        // its closure, to the kernel items of the states it transitions to.
+        // Any state whose kernel lookaheads grow gets looked at again
+        ArrayList<HashMap<Integer, BitSet>> kernelLookaheads = new ArrayList<>();
+        for(BitSet kernel : kernels) {
+            HashMap<Integer, BitSet> lookaheads = new HashMap<>();
+            for(int item = kernel.nextSetBit(0); item >= 0; item = kernel.nextSetBit(item + 1)) {
+                lookaheads.put(item, new BitSet());
+            }
+            kernelLookaheads.add(lookaheads);
+        }
+        kernelLookaheads.get(0).get(ruleFirstItems[0]).set(endOfInputId);
+        ArrayDeque<Integer> toProcess = new ArrayDeque<>();
+        boolean[] queued = new boolean[kernels.size()];
+        toProcess.add(0);
+        queued[0] = true;
+        while(! toProcess.isEmpty()) {
+            int state = toProcess.remove();
+            queued[state] = false;
+            HashMap<Integer, BitSet> closure = getLookaheadClosure(kernelLookaheads.get(state));
+            for(Map.Entry<Integer, BitSet> itemLookaheads : closure.entrySet()) {
+                int item = itemLookaheads.getKey();
+                GrammarElement nextElement = getNextElement(item);
+                if(nextElement == null) {
+                    continue;
+                }
+                int successorState = transitions.get(state).get(nextElement);
+                BitSet successorLookaheads = kernelLookaheads.get(successorState).get(item + 1);
+                BitSet added = (BitSet) itemLookaheads.getValue().clone();
+                added.andNot(successorLookaheads);
+                if(! added.isEmpty()) {
+                    successorLookaheads.or(added);
+                    if(! queued[successorState]) {
+                        queued[successorState] = true;
+                        toProcess.add(successorState);
+                    }
+                }
+            }
+        }
+
+        // Fill in the tables
+        actions = new int[kernels.size()][endOfInputId + 1];
+        gotos = new int[kernels.size()][nonterminalIds.size()];
+        conflictActions = new int[kernels.size()][endOfInputId + 1][];
+        for(int state = 0; state < kernels.size(); state++) {
+            Arrays.fill(gotos[state], -1);
+            for(Map.Entry<GrammarElement, Integer> transition : transitions.get(state).entrySet()) {
+                if(transition.getKey() instanceof Terminal) {
+                    int symbolId = symbolIds.get(((Terminal) transition.getKey()).getSymbol());
+                    setAction(state, symbolId, transition.getValue() + 1);
+                } else {
+                    gotos[state][nonterminalIds.get(transition.getKey())] = transition.getValue();
+                }
+            }
+            HashMap<Integer, BitSet> closure = getLookaheadClosure(kernelLookaheads.get(state));
+            for(Map.Entry<Integer, BitSet> itemLookaheads : closure.entrySet()) {
+                int item = itemLookaheads.getKey();
+                if(getNextElement(item) != null) {
+                    continue;
+                }
+                int ruleNumber = itemRules[item];
+                int action = ruleNumber == 0 ? ACCEPT : -1 - ruleNumber;
+                BitSet lookaheads = itemLookaheads.getValue();
+                for(int symbolId = lookaheads.nextSetBit(0); symbolId >= 0; symbolId = lookaheads.nextSetBit(symbolId + 1)) {
+                    setAction(state, symbolId, action);
+                }
+            }
+        }
+    }
+
+    public int getStateCount() {
+        return actions.length;
+    }
+
+    // How many table entries allow more than one action
+    public int getConflictCount() {
+        return conflictCount;
+    }
+
+    public GrammarRule getRule(int ruleNumber) {
+        return rules.get(ruleNumber);
+    }
+
+    public int getEndOfInputId() {
+        return endOfInputId;
+    }
+
+    // Returns -1 for symbols that aren't in the grammar
+    public int getSymbolId(Symbol symbol) {
+        Integer id = symbolIds.get(symbol);
+        return id == null ? -1 : id;
+    }
+
+    public int getAction(int state, int symbolId) {
+        return actions[state][symbolId];
+    }
+
+    // Every action allowed by an entry that's a conflict
+    public int[] getConflictActions(int state, int symbolId) {
+        return conflictActions[state][symbolId];
+    }
+
+    public int getGoto(int state, Nonterminal nonterminal) {
+        return gotos[state][nonterminalIds.get(nonterminal)];
+    }
+
+    private void setAction(int state, int symbolId, int action) {
+        int existingAction = actions[state][symbolId];
+        if(existingAction == ERROR || existingAction == action) {
+            actions[state][symbolId] = action;
+        } else if(existingAction != CONFLICT) {
+            actions[state][symbolId] = CONFLICT;
+            conflictActions[state][symbolId] = new int[] {existingAction, action};
+            conflictCount++;
+        } else {
+            int[] allowedActions = conflictActions[state][symbolId];
+            for(int allowedAction : allowedActions) {
+                if(allowedAction == action) {
+                    return;
+                }
+            }
+            allowedActions = Arrays.copyOf(allowedActions, allowedActions.length + 1);
+            allowedActions[allowedActions.length - 1] = action;
+            conflictActions[state][symbolId] = allowedActions;
+        }
+    }
+
+    private void numberRules(Grammar grammar) {
+        // Find a name for the wrapping start nonterminal that the grammar
+        // doesn't already use
+        Nonterminal startNonterminal = grammar.getStartRule().getLeftHandSide();
+        String wrapperName = startNonterminal.getName() + "'";
+        while(grammar.getNonterminals().contains(new Nonterminal(wrapperName))) {
+            wrapperName += "'";
+        }
+        ArrayList<GrammarElement> wrapperRHS = new ArrayList<>();
+        wrapperRHS.add(startNonterminal);
+        rules = new ArrayList<>();
+        rules.add(new GrammarRule(new Nonterminal(wrapperName), wrapperRHS));
+        for(Nonterminal nonterminal : grammar.getNonterminals()) {
+            rules.addAll(grammar.getRulesWithLeftHandSide(nonterminal));
+        }
+
+        rulesWithLeftHandSide = new HashMap<>();
+        nonterminalIds = new HashMap<>();
+        symbolIds = new HashMap<>();
+        ruleFirstItems = new int[rules.size()];
+        int itemCount = 0;
+        for(int ruleNumber = 0; ruleNumber < rules.size(); ruleNumber++) {
+            GrammarRule rule = rules.get(ruleNumber);
+            getNonterminalId(rule.getLeftHandSide());
+            rulesWithLeftHandSide.get(rule.getLeftHandSide()).add(ruleNumber);
+            for(GrammarElement element : rule.getRightHandSide()) {
+                if(element instanceof Terminal) {
+                    Symbol symbol = ((Terminal) element).getSymbol();
+                    if(! symbolIds.containsKey(symbol)) {
+                        symbolIds.put(symbol, symbolIds.size());
+                    }
+                } else {
+                    getNonterminalId((Nonterminal) element);
+                }
+            }
+            ruleFirstItems[ruleNumber] = itemCount;
+            itemCount += rule.getRightHandSide().size() + 1;
+        }
+        endOfInputId = symbolIds.size();
+        itemRules = new int[itemCount];
+        for(int ruleNumber = 0; ruleNumber < rules.size(); ruleNumber++) {
+            int ruleLength = rules.get(ruleNumber).getRightHandSide().size();
+            for(int cursorIndex = 0; cursorIndex <= ruleLength; cursorIndex++) {
+                itemRules[ruleFirstItems[ruleNumber] + cursorIndex] = ruleNumber;
+            }
+        }
+    }
+
+    // Nonterminals that rules call but that don't have any rules of their
+    // own get ids too
+    private int getNonterminalId(Nonterminal nonterminal) {
+        Integer id = nonterminalIds.get(nonterminal);
+        if(id == null) {
+            id = nonterminalIds.size();
+            nonterminalIds.put(nonterminal, id);
+            rulesWithLeftHandSide.put(nonterminal, new ArrayList<Integer>());
+        }
+        return id;
+    }
+
+    private void computeFirstSets(Grammar grammar) {
+        GrammarAnalysis analysis = GrammarAnalysis.of(grammar);
+        firstSets = new BitSet[nonterminalIds.size()];
+        nullable = new boolean[nonterminalIds.size()];
+        for(Map.Entry<Nonterminal, Integer> nonterminalId : nonterminalIds.entrySet()) {
+            Nonterminal nonterminal = nonterminalId.getKey();
+            BitSet firstSet = new BitSet();
+            if(nonterminalId.getValue() == 0) {
+                // The wrapping start nonterminal isn't in the grammar, but
+                // nothing ever calls it anyway
+                firstSets[0] = firstSet;
+                continue;
+            }
+            // A nonterminal without any rules has no first set at all
+            Set<Terminal> firstTerminals = analysis.getFirstSet(nonterminal);
+            if(firstTerminals != null) {
+                for(Terminal terminal : firstTerminals) {
+                    firstSet.set(symbolIds.get(terminal.getSymbol()));
+                }
+            }
+            firstSets[nonterminalId.getValue()] = firstSet;
+            nullable[nonterminalId.getValue()] = analysis.isNullable(nonterminal);
+        }
+    }
+
+    // The element right after the item's cursor, or null if the cursor is
+    // at the end of the rule
+    private GrammarElement getNextElement(int item) {
+        int ruleNumber = itemRules[item];
+        List<GrammarElement> ruleRHS = rules.get(ruleNumber).getRightHandSide();
+        int cursorIndex = item - ruleFirstItems[ruleNumber];
+        return cursorIndex == ruleRHS.size() ? null : ruleRHS.get(cursorIndex);
+    }
+
+    private BitSet getClosure(BitSet kernel) {
+        BitSet closure = (BitSet) kernel.clone();
+        ArrayDeque<Integer> toProcess = new ArrayDeque<>();
+        for(int item = kernel.nextSetBit(0); item >= 0; item = kernel.nextSetBit(item + 1)) {
+            toProcess.add(item);
+        }
+        while(! toProcess.isEmpty()) {
+            GrammarElement nextElement = getNextElement(toProcess.remove());
+            if(! (nextElement instanceof Nonterminal)) {
+                continue;
+            }
+            for(int ruleNumber : rulesWithLeftHandSide.get(nextElement)) {
+                int predictedItem = ruleFirstItems[ruleNumber];
+                if(! closure.get(predictedItem)) {
+                    closure.set(predictedItem);
+                    toProcess.add(predictedItem);
+                }
+            }
+        }
+        return closure;
+    }
+
+    // The closure of the kernel items, with the lookaheads of each item.
+    // Calling a nonterminal gives its rules the first terminals of what
+    // comes after the call, plus the calling item's own lookaheads if all
+    // of that can match nothing
+    private HashMap<Integer, BitSet> getLookaheadClosure(HashMap<Integer, BitSet> kernelLookaheads) {
+        HashMap<Integer, BitSet> closure = new HashMap<>();
+        ArrayDeque<Integer> toProcess = new ArrayDeque<>();
+        for(Map.Entry<Integer, BitSet> itemLookaheads : kernelLookaheads.entrySet()) {
+            closure.put(itemLookaheads.getKey(), (BitSet) itemLookaheads.getValue().clone());
+            toProcess.add(itemLookaheads.getKey());
+        }
+        while(! toProcess.isEmpty()) {
+            int item = toProcess.remove();
+            GrammarElement nextElement = getNextElement(item);
+            if(! (nextElement instanceof Nonterminal)) {
+                continue;
+            }
+            BitSet predictedLookaheads = getFirstAfter(item + 1, closure.get(item));
+            for(int ruleNumber : rulesWithLeftHandSide.get(nextElement)) {
+                int predictedItem = ruleFirstItems[ruleNumber];
+                BitSet lookaheads = closure.get(predictedItem);
+                if(lookaheads == null) {
+                    closure.put(predictedItem, (BitSet) predictedLookaheads.clone());
+                    toProcess.add(predictedItem);
+                    continue;
+                }
+                BitSet added = (BitSet) predictedLookaheads.clone();
+                added.andNot(lookaheads);
+                if(! added.isEmpty()) {
+                    lookaheads.or(added);
+                    toProcess.add(predictedItem);
+                }
+            }
+        }
+        return closure;
+    }
+
+    // The terminals that can come first from the item's cursor on, with
+    // followingLookaheads added if the rest of the rule is nullable
+    private BitSet getFirstAfter(int item, BitSet followingLookaheads) {
+        BitSet first = new BitSet();
+        for(; getNextElement(item) != null; item++) {
+            GrammarElement element = getNextElement(item);
+            if(element instanceof Terminal) {
+                first.set(symbolIds.get(((Terminal) element).getSymbol()));
+                return first;
+            }
+            int nonterminalId = nonterminalIds.get(element);
+            first.or(firstSets[nonterminalId]);
+            if(! nullable[nonterminalId]) {
+                return first;
+            }
+        }
+        first.or(followingLookaheads);
+        return first;
+    }
+}
@@ -0,0 +1,179 @@
+package lr0parser;
+
+import shared.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class LR0Automaton {
+
+    // Every dotted item (a rule plus a cursor index) gets a number, and the
+    // items of a rule are numbered consecutively in cursor order, so the
+    // item after item i in the same rule is i + 1
+    private ArrayList<GrammarRule> rules;
+    private int[] ruleFirstItems;
+    private int[] itemRules;
+    private HashMap<Nonterminal, int[]> rulesWithLeftHandSide;
+    // The dot 0 items predicted when the given nonterminal is called,
+    // including everything those items predict in turn
+    private HashMap<Nonterminal, BitSet> predictions;
+
+    private ArrayList<LR0State> states;
+    private HashMap<BitSet, LR0State> kernelStates;
+    private HashMap<BitSet, LR0State> nonkernelStates;
+    private LR0State startState;
+    private int acceptingItem;
+
+    // The states are built up front from the grammar. This assumes no rule
+    // has an empty right hand side, like the other parsers do
+    public LR0Automaton(Grammar grammar) {
+        rules = new ArrayList<>();
+        rulesWithLeftHandSide = new HashMap<>();
+        ArrayList<Integer> firstItems = new ArrayList<>();
+        int itemCount = 0;
+        for(Nonterminal nonterminal : grammar.getNonterminals()) {
+            List<GrammarRule> nonterminalRules = grammar.getRulesWithLeftHandSide(nonterminal);
+            int[] ruleNumbers = new int[nonterminalRules.size()];
+            for(int i = 0; i < nonterminalRules.size(); i++) {
+                ruleNumbers[i] = rules.size();
+                rules.add(nonterminalRules.get(i));
+                firstItems.add(itemCount);
+                itemCount += nonterminalRules.get(i).getRightHandSide().size() + 1;
+            }
+            rulesWithLeftHandSide.put(nonterminal, ruleNumbers);
+        }
+        ruleFirstItems = new int[rules.size()];
+        itemRules = new int[itemCount];
+        for(int ruleNumber = 0; ruleNumber < rules.size(); ruleNumber++) {
+            ruleFirstItems[ruleNumber] = firstItems.get(ruleNumber);
+            int ruleLength = rules.get(ruleNumber).getRightHandSide().size();
+            for(int cursorIndex = 0; cursorIndex <= ruleLength; cursorIndex++) {
+                itemRules[ruleFirstItems[ruleNumber] + cursorIndex] = ruleNumber;
+            }
+        }
+
+        computePredictions();
+
+        states = new ArrayList<>();
+        kernelStates = new HashMap<>();
+        nonkernelStates = new HashMap<>();
+        ArrayDeque<LR0State> toProcess = new ArrayDeque<>();
+        GrammarRule startRule = grammar.getStartRule();
+        int startRuleNumber = rulesWithLeftHandSide.get(startRule.getLeftHandSide())[0];
+        BitSet startItems = new BitSet();
+        startItems.set(ruleFirstItems[startRuleNumber]);
+        startState = getState(kernelStates, startItems, true, toProcess);
+        acceptingItem = ruleFirstItems[startRuleNumber] + startRule.getRightHandSide().size();
+
+        while(! toProcess.isEmpty()) {
+            LR0State state = toProcess.remove();
+            // Group the items by the element after their cursor. Moving the
+            // cursors of each group over that element gives the kernel of
+            // the state we transition to
+            LinkedHashMap<GrammarElement, BitSet> successorKernels = new LinkedHashMap<>();
+            BitSet predicted = new BitSet();
+            BitSet items = state.getItems();
+            for(int item = items.nextSetBit(0); item >= 0; item = items.nextSetBit(item + 1)) {
+                GrammarRule rule = rules.get(itemRules[item]);
+                int cursorIndex = item - ruleFirstItems[itemRules[item]];
+                if(cursorIndex == rule.getRightHandSide().size()) {
+                    state.addCompletedNonterminal(rule.getLeftHandSide());
+                    continue;
+                }
+                GrammarElement nextElement = rule.getRightHandSide().get(cursorIndex);
+                BitSet successorKernel = successorKernels.get(nextElement);
+                if(successorKernel == null) {
+                    successorKernel = new BitSet();
+                    successorKernels.put(nextElement, successorKernel);
+                }
+                successorKernel.set(item + 1);
+                if(nextElement instanceof Nonterminal) {
+                    predicted.or(predictions.get(nextElement));
+                }
+            }
+            for(Map.Entry<GrammarElement, BitSet> successor : successorKernels.entrySet()) {
+                LR0State successorState = getState(kernelStates, successor.getValue(), true, toProcess);
+                GrammarElement element = successor.getKey();
+                if(element instanceof Terminal) {
+                    state.setTerminalTransition(((Terminal) element).getSymbol(), successorState);
+                } else {
+                    state.setNonterminalTransition((Nonterminal) element, successorState);
+                }
+            }
+            // Only kernel states predict. A non-kernel state already holds
+            // everything its own items would predict
+            if(state.isKernel() && ! predicted.isEmpty()) {
+                state.setEpsilonTransition(getState(nonkernelStates, predicted, false, toProcess));
+            }
+        }
+    }
+
+    public LR0State getStartState() {
+        return startState;
+    }
+
+    public List<LR0State> getStates() {
+        return states;
+    }
+
+    public GrammarRule getRule(int ruleNumber) {
+        return rules.get(ruleNumber);
+    }
+
+    public int[] getRulesWithLeftHandSide(Nonterminal nonterminal) {
+        return rulesWithLeftHandSide.get(nonterminal);
+    }
+
+    public int getItem(int ruleNumber, int cursorIndex) {
+        return ruleFirstItems[ruleNumber] + cursorIndex;
+    }
+
+    public int getAcceptingItem() {
+        return acceptingItem;
+    }
+
+    private void computePredictions() {
+        predictions = new HashMap<>();
+        for(Nonterminal nonterminal : rulesWithLeftHandSide.keySet()) {
+            BitSet prediction = new BitSet();
+            ArrayList<Nonterminal> toPredict = new ArrayList<>();
+            HashSet<Nonterminal> predicted = new HashSet<>();
+            toPredict.add(nonterminal);
+            predicted.add(nonterminal);
+            while(! toPredict.isEmpty()) {
+                Nonterminal predictedNonterminal = toPredict.remove(toPredict.size() - 1);
+                for(int ruleNumber : rulesWithLeftHandSide.get(predictedNonterminal)) {
+                    prediction.set(ruleFirstItems[ruleNumber]);
+                    List<GrammarElement> ruleRHS = rules.get(ruleNumber).getRightHandSide();
+                    if(! ruleRHS.isEmpty() && ruleRHS.get(0) instanceof Nonterminal) {
+                        Nonterminal firstNonterminal = (Nonterminal) ruleRHS.get(0);
+                        if(predicted.add(firstNonterminal)) {
+                            toPredict.add(firstNonterminal);
+                        }
+                    }
+                }
+            }
+            predictions.put(nonterminal, prediction);
+        }
+    }
+
+    private LR0State getState(HashMap<BitSet, LR0State> existingStates,
+                              BitSet items,
+                              boolean kernel,
+                              ArrayDeque<LR0State> toProcess) {
+        LR0State state = existingStates.get(items);
+        if(state == null) {
+            state = new LR0State(states.size(), kernel, items);
+            states.add(state);
+            existingStates.put(items, state);
+            toProcess.add(state);
+        }
+        return state;
+    }
+}
@@ -0,0 +1,225 @@
+package lr0parser;
+
+import shared.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LR0Parser implements Parser {
+
+    // This is Earley parsing over the states of an LR(0) automaton, as
+    // described by Aycock and Horspool. Where the Earley parser has one
+    // sigma set entry per item, this parser has one entry per state, and
+    // a state stands for every item that always shows up together with
+    // the same tag. Predictions are worked out ahead of time, when the
+    // automaton is built, so they don't get redone at every position.
+
+    private Grammar grammar;
+    private LR0Automaton automaton;
+    // The automaton numbers its states across the whole grammar, so if
+    // rules have been added or removed since it was built, it's rebuilt
+    private int automatonModificationCount;
+
+    public LR0Parser(Grammar g) {
+        setGrammar(g);
+    }
+
+    @Override
+    public void setGrammar(Grammar g) {
+        // The automaton's items are rules with a cursor index, which can't
+        // stand for a place in a rule with EBNF operators
+        if(g.isExtended()) {
+            throw new IllegalArgumentException("The LR(0) parser doesn't support EBNF operators");
+        }
+        grammar = g;
+        automaton = new LR0Automaton(grammar);
+        automatonModificationCount = grammar.getModificationCount();
+    }
+
+    @Override
+    public ParseTreeNode parse(List<Token> tokens) {
+        if(automatonModificationCount != grammar.getModificationCount()) {
+            setGrammar(grammar);
+        }
+        List<LR0SigmaSet> sigmaSets = recognize(tokens);
+        if(sigmaSets == null) {
+            return null;
+        }
+        // The recognizing was successful - rebuild the parse tree
+        Nonterminal startNonterminal = grammar.getStartRule().getLeftHandSide();
+        return buildNode(startNonterminal, 0, tokens.size(), sigmaSets, tokens, new ParseTreeNodeCache());
+    }
+
+    public LR0Automaton getAutomaton() {
+        return automaton;
+    }
+
+    // Runs the recognizer, and returns the sigma sets if the tokens are in
+    // the language, or null if they aren't
+    private List<LR0SigmaSet> recognize(List<Token> tokens) {
+        // Keep a list of sigma sets. In this list, index j will correspond to
+        // the sigma set right before the jth token
+        ArrayList<LR0SigmaSet> sigmaSets = new ArrayList<>();
+        LR0SigmaSet sigmaSet0 = new LR0SigmaSet();
+        sigmaSets.add(sigmaSet0);
+        ArrayDeque<LR0SigmaSetEntry> sigmaSet0ToProcess = new ArrayDeque<>();
+        addEntry(sigmaSet0, new LR0SigmaSetEntry(automaton.getStartState(), 0), 0, sigmaSet0ToProcess);
+        fillSigmaSet(sigmaSets, sigmaSet0ToProcess);
+
+        for(int tokenIndex = 0; tokenIndex < tokens.size(); tokenIndex++) {
+            Symbol tokenType = tokens.get(tokenIndex).getType();
+            LR0SigmaSet previousSigmaSet = sigmaSets.get(tokenIndex);
+            LR0SigmaSet nextSigmaSet = new LR0SigmaSet();
+            sigmaSets.add(nextSigmaSet);
+            ArrayDeque<LR0SigmaSetEntry> toProcess = new ArrayDeque<>();
+            // This is the Scan step
+            for(LR0SigmaSetEntry scanableEntry : previousSigmaSet.getEntries()) {
+                LR0State nextState = scanableEntry.getState().getTerminalTransition(tokenType);
+                if(nextState != null) {
+                    addEntry(nextSigmaSet, new LR0SigmaSetEntry(nextState, scanableEntry.getTag()), tokenIndex + 1, toProcess);
+                }
+            }
+            if(toProcess.isEmpty()) {
+                // Nothing will ever get into the later sigma sets
+                return null;
+            }
+            fillSigmaSet(sigmaSets, toProcess);
+        }
+
+        if(! sigmaSets.get(tokens.size()).containsItem(automaton.getAcceptingItem(), 0)) {
+            return null;
+        }
+        return sigmaSets;
+    }
+
+    // Does the completions for everything in toProcess, which must already
+    // be in the last sigma set
+    private void fillSigmaSet(ArrayList<LR0SigmaSet> sigmaSets, ArrayDeque<LR0SigmaSetEntry> toProcess) {
+        int currentSigmaSetIndex = sigmaSets.size() - 1;
+        LR0SigmaSet currentSigmaSet = sigmaSets.get(currentSigmaSetIndex);
+        while(! toProcess.isEmpty()) {
+            LR0SigmaSetEntry processing = toProcess.remove();
+            // Without empty rules, completed items always have a tag before
+            // the current sigma set, so the calling sigma set is finished
+            LR0SigmaSet callingSigmaSet = sigmaSets.get(processing.getTag());
+            for(Nonterminal endingNonterminal : processing.getState().getCompletedNonterminals()) {
+                for(LR0SigmaSetEntry callingEntry : callingSigmaSet.getEntriesWithTransition(endingNonterminal)) {
+                    LR0State nextState = callingEntry.getState().getNonterminalTransition(endingNonterminal);
+                    addEntry(currentSigmaSet, new LR0SigmaSetEntry(nextState, callingEntry.getTag()), currentSigmaSetIndex, toProcess);
+                }
+            }
+        }
+    }
+
+    // Adds an entry for a kernel state, along with the entry for everything
+    // it predicts. The predictions are made here, so they get this sigma
+    // set's index as their tag
+    private void addEntry(LR0SigmaSet sigmaSet,
+                          LR0SigmaSetEntry entry,
+                          int sigmaSetIndex,
+                          ArrayDeque<LR0SigmaSetEntry> toProcess) {
+        if(! sigmaSet.add(entry)) {
+            return;
+        }
+        toProcess.add(entry);
+        LR0State predictedState = entry.getState().getEpsilonTransition();
+        if(predictedState != null) {
+            LR0SigmaSetEntry predictedEntry = new LR0SigmaSetEntry(predictedState, sigmaSetIndex);
+            if(sigmaSet.add(predictedEntry)) {
+                toProcess.add(predictedEntry);
+            }
+        }
+    }
+
+    private ParseTreeParent buildNode(Nonterminal nonterminal,
+                                      int start,
+                                      int end,
+                                      List<LR0SigmaSet> sigmaSets,
+                                      List<Token> tokens,
+                                      ParseTreeNodeCache existingNodes) {
+        if(existingNodes.containsParent(start, end - 1, nonterminal)) {
+            return existingNodes.getParent(start, end - 1, nonterminal);
+        }
+        ParseTreeParent node = new ParseTreeParent(nonterminal);
+        existingNodes.addParent(start, end - 1, nonterminal, node);
+        LR0SigmaSet endingSigmaSet = sigmaSets.get(end);
+        for(int ruleNumber : automaton.getRulesWithLeftHandSide(nonterminal)) {
+            int ruleLength = automaton.getRule(ruleNumber).getRightHandSide().size();
+            if(endingSigmaSet.containsItem(automaton.getItem(ruleNumber, ruleLength), start)) {
+                addChildrenRightToLeft(
+                        node,
+                        ruleNumber,
+                        ruleLength,
+                        end,
+                        start,
+                        new ArrayList<ParseTreeNode>(),
+                        existingNodes,
+                        sigmaSets,
+                        tokens);
+            }
+        }
+        return node;
+    }
+
+    // The entries don't remember how they got into their sigma sets, so
+    // working from right to left we look for every split of the tokens that
+    // has the right items in the right sigma sets
+    private void addChildrenRightToLeft(ParseTreeParent parent,
+                                        int ruleNumber,
+                                        int cursorIndex,
+                                        int currentSigmaSetIndex,
+                                        int tag,
+                                        List<ParseTreeNode> accumulatedNodes,
+                                        ParseTreeNodeCache existingNodes,
+                                        List<LR0SigmaSet> sigmaSets,
+                                        List<Token> tokens) {
+        if(cursorIndex == 0) {
+            // We're done working right to left. They were added in from
+            // right to left, so we need to reverse them first
+            ArrayList<ParseTreeNode> childTreeNodes = new ArrayList<>();
+            for(int i = accumulatedNodes.size() - 1; i >= 0; i--) {
+                childTreeNodes.add(accumulatedNodes.get(i));
+            }
+            parent.addChildTree(childTreeNodes);
+            return;
+        }
+        int previousItem = automaton.getItem(ruleNumber, cursorIndex - 1);
+        GrammarElement previousElement = automaton.getRule(ruleNumber).getRightHandSide().get(cursorIndex - 1);
+        if(previousElement instanceof Terminal) {
+            int tokenIndex = currentSigmaSetIndex - 1;
+            if(tokenIndex < tag || ! sigmaSets.get(tokenIndex).containsItem(previousItem, tag)) {
+                return;
+            }
+            ParseTreeLeaf scanLeaf;
+            if(existingNodes.containsLeaf(tokenIndex)) {
+                scanLeaf = existingNodes.getLeaf(tokenIndex);
+            } else {
+                scanLeaf = new ParseTreeLeaf(tokens.get(tokenIndex));
+                existingNodes.addLeaf(tokenIndex, scanLeaf);
+            }
+            accumulatedNodes.add(scanLeaf);
+            addChildrenRightToLeft(parent, ruleNumber, cursorIndex - 1, tokenIndex, tag,
+                    accumulatedNodes, existingNodes, sigmaSets, tokens);
+            accumulatedNodes.remove(accumulatedNodes.size() - 1);
+        } else {
+            Nonterminal previousNonterminal = (Nonterminal) previousElement;
+            LR0SigmaSet currentSigmaSet = sigmaSets.get(currentSigmaSetIndex);
+            // The nonterminal covers the tokens from callingIndex up to the
+            // current index, for every callingIndex where both the item
+            // before it and the nonterminal's completion are there
+            for(int callingIndex = currentSigmaSetIndex - 1; callingIndex >= tag; callingIndex--) {
+                if(! currentSigmaSet.containsCompleted(previousNonterminal, callingIndex) ||
+                        ! sigmaSets.get(callingIndex).containsItem(previousItem, tag)) {
+                    continue;
+                }
+                ParseTreeParent nonterminalNode = buildNode(previousNonterminal, callingIndex, currentSigmaSetIndex,
+                        sigmaSets, tokens, existingNodes);
+                accumulatedNodes.add(nonterminalNode);
+                addChildrenRightToLeft(parent, ruleNumber, cursorIndex - 1, callingIndex, tag,
+                        accumulatedNodes, existingNodes, sigmaSets, tokens);
+                accumulatedNodes.remove(accumulatedNodes.size() - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package lr0parser;
+
+import shared.Nonterminal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+public class LR0SigmaSet {
+
+    private HashSet<LR0SigmaSetEntry> allEntries;
+    // Every entry in one list, so the scan step doesn't have to go through
+    // the hash set
+    private ArrayList<LR0SigmaSetEntry> entryList;
+    private HashMap<Nonterminal, ArrayList<LR0SigmaSetEntry>> entriesWithNonterminalTransition;
+    // Building the parse tree asks whether an item with a given tag is in
+    // this set. An item can be in any of the states with that tag
+    private HashMap<Integer, ArrayList<LR0State>> statesWithTag;
+
+    public LR0SigmaSet() {
+        allEntries = new HashSet<>();
+        entryList = new ArrayList<>();
+        entriesWithNonterminalTransition = new HashMap<>();
+        statesWithTag = new HashMap<>();
+    }
+
+    // Returns whether the entry was new
+    public boolean add(LR0SigmaSetEntry entry) {
+        if(! allEntries.add(entry)) {
+            return false;
+        }
+        entryList.add(entry);
+        LR0State state = entry.getState();
+        for(Nonterminal nonterminal : state.getNonterminalsWithTransitions()) {
+            ArrayList<LR0SigmaSetEntry> entries = entriesWithNonterminalTransition.get(nonterminal);
+            if(entries == null) {
+                entries = new ArrayList<>();
+                entriesWithNonterminalTransition.put(nonterminal, entries);
+            }
+            entries.add(entry);
+        }
+        ArrayList<LR0State> states = statesWithTag.get(entry.getTag());
+        if(states == null) {
+            states = new ArrayList<>();
+            statesWithTag.put(entry.getTag(), states);
+        }
+        states.add(state);
+        return true;
+    }
+
+    public boolean contains(LR0SigmaSetEntry entry) {
+        return allEntries.contains(entry);
+    }
+
+    public List<LR0SigmaSetEntry> getEntries() {
+        return entryList;
+    }
+
+    public List<LR0SigmaSetEntry> getEntriesWithTransition(Nonterminal nonterminal) {
+        ArrayList<LR0SigmaSetEntry> entries = entriesWithNonterminalTransition.get(nonterminal);
+        if(entries == null) {
+            return Collections.emptyList();
+        }
+        return entries;
+    }
+
+    public Collection<LR0State> getStatesWithTag(int tag) {
+        ArrayList<LR0State> states = statesWithTag.get(tag);
+        if(states == null) {
+            return Collections.emptyList();
+        }
+        return states;
+    }
+
+    public boolean containsItem(int item, int tag) {
+        for(LR0State state : getStatesWithTag(tag)) {
+            if(state.containsItem(item)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean containsCompleted(Nonterminal nonterminal, int tag) {
+        for(LR0State state : getStatesWithTag(tag)) {
+            if(state.getCompletedNonterminals().contains(nonterminal)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return entryList.size();
+    }
+
+    @Override
+    public String toString() {
+        return entryList.toString();
+    }
+}
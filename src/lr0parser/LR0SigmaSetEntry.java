@@ -0,0 +1,42 @@
+package lr0parser;
+
+import java.util.Objects;
+
+public class LR0SigmaSetEntry {
+
+    private LR0State state;
+    private int tag;
+
+    public LR0SigmaSetEntry(LR0State s, int t) {
+        state = s;
+        tag = t;
+    }
+
+    public LR0State getState() {
+        return state;
+    }
+
+    public int getTag() {
+        return tag;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(! (other instanceof LR0SigmaSetEntry)) {
+            return false;
+        }
+        LR0SigmaSetEntry otherEntry = (LR0SigmaSetEntry) other;
+        return otherEntry.state.equals(state) &&
+                otherEntry.tag == tag;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(state, tag);
+    }
+
+    @Override
+    public String toString() {
+        return "<" + state + ", " + tag + ">";
+    }
+}
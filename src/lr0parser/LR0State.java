@@ -0,0 +1,107 @@
+package lr0parser;
+
+import shared.Nonterminal;
+import shared.Symbol;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+public class LR0State {
+
+    private int id;
+    // Kernel states are the ones we get to by moving over a symbol. Each one
+    // has a non-kernel partner holding everything it predicts, which is
+    // where the epsilon transition goes. Keeping the two apart means the
+    // predictions made at a position get their own tag
+    private boolean kernel;
+    // The numbers of the dotted items in this state. See LR0Automaton for
+    // how items are numbered
+    private BitSet items;
+    private HashMap<Symbol, LR0State> terminalTransitions;
+    private HashMap<Nonterminal, LR0State> nonterminalTransitions;
+    private LR0State epsilonTransition;
+    // The left hand sides of the completed items in this state
+    private HashSet<Nonterminal> completedNonterminals;
+
+    public LR0State(int i, boolean k, BitSet it) {
+        id = i;
+        kernel = k;
+        items = it;
+        terminalTransitions = new HashMap<>();
+        nonterminalTransitions = new HashMap<>();
+        epsilonTransition = null;
+        completedNonterminals = new HashSet<>();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public boolean isKernel() {
+        return kernel;
+    }
+
+    public boolean containsItem(int item) {
+        return items.get(item);
+    }
+
+    public BitSet getItems() {
+        return items;
+    }
+
+    public LR0State getTerminalTransition(Symbol symbol) {
+        return terminalTransitions.get(symbol);
+    }
+
+    public void setTerminalTransition(Symbol symbol, LR0State state) {
+        terminalTransitions.put(symbol, state);
+    }
+
+    public LR0State getNonterminalTransition(Nonterminal nonterminal) {
+        return nonterminalTransitions.get(nonterminal);
+    }
+
+    public void setNonterminalTransition(Nonterminal nonterminal, LR0State state) {
+        nonterminalTransitions.put(nonterminal, state);
+    }
+
+    public Set<Nonterminal> getNonterminalsWithTransitions() {
+        return nonterminalTransitions.keySet();
+    }
+
+    public LR0State getEpsilonTransition() {
+        return epsilonTransition;
+    }
+
+    public void setEpsilonTransition(LR0State state) {
+        epsilonTransition = state;
+    }
+
+    public Set<Nonterminal> getCompletedNonterminals() {
+        return completedNonterminals;
+    }
+
+    public void addCompletedNonterminal(Nonterminal nonterminal) {
+        completedNonterminals.add(nonterminal);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(! (other instanceof LR0State)) {
+            return false;
+        }
+        return ((LR0State) other).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return (kernel ? "K" : "N") + id;
+    }
+}
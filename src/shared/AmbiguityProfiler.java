@@ -0,0 +1,223 @@
+package shared;
+
+import java.io.PrintStream;
+import java.util.*;
+
+public class AmbiguityProfiler implements ParseListener {
+
+    // Adds up, for each nonterminal and each rule, what the ambiguity it
+    // causes costs: preceding entries added to entries that were already
+    // in a sigma set, extra child trees in the parse forest, and times the
+    // tree builder had to start working left from an entry. Install it as
+    // the parse listener of a chart parser and hand it every forest the
+    // parser returns, then the report ranks the nonterminals and rules by
+    // how much they cost over all of the parses.
+    // Not thread safe, since it's meant for profiling a corpus, not for
+    // leaving on in production like CountingParseListener
+
+    public static final int MERGES = 0;
+    public static final int ALTERNATIVES = 1;
+    public static final int RECURSIONS = 2;
+    private static final String[] COLUMN_NAMES = {"merges", "alternatives", "recursions"};
+
+    private HashMap<Nonterminal, long[]> nonterminalCosts;
+    private HashMap<GrammarRule, long[]> ruleCosts;
+    // Rules the parsers couldn't tell apart get counted here, so the
+    // per-rule totals still add up
+    private long[] unknownRuleCosts;
+    private Grammar grammar;
+    private int parses;
+    private int acceptedParses;
+
+    // The grammar is used to work out which rule each child tree of an
+    // ambiguous node comes from
+    public AmbiguityProfiler(Grammar g) {
+        grammar = g;
+        nonterminalCosts = new HashMap<>();
+        ruleCosts = new HashMap<>();
+        unknownRuleCosts = new long[COLUMN_NAMES.length];
+    }
+
+    @Override
+    public void parseStarted(int tokenCount) {
+        parses++;
+    }
+
+    @Override
+    public void predicted(int position, Nonterminal nonterminal) {
+    }
+
+    @Override
+    public void scanned(int tokenIndex, Token token, int entryCount) {
+    }
+
+    @Override
+    public void completed(int position, Nonterminal nonterminal, int start) {
+    }
+
+    @Override
+    public void sigmaSetFilled(int position, int size) {
+    }
+
+    @Override
+    public void precedingEntryAdded(int position, Nonterminal nonterminal, GrammarRule rule) {
+        count(nonterminal, rule, MERGES);
+    }
+
+    @Override
+    public void nodeReused(int start, int end, Nonterminal nonterminal) {
+    }
+
+    @Override
+    public void treeBuildRecursed(Nonterminal nonterminal, GrammarRule rule) {
+        count(nonterminal, rule, RECURSIONS);
+    }
+
+    @Override
+    public void parseFinished(int tokenCount, boolean accepted) {
+        if(accepted) {
+            acceptedParses++;
+        }
+    }
+
+    // Counts the extra child trees of every node in the forest. Each node
+    // with more than one child tree costs its nonterminal one alternative
+    // per child tree beyond the first, and costs the rule of every one of
+    // its child trees one alternative. Nodes shared between parts of the
+    // forest are only counted once
+    public void addForest(ParseTreeNode root) {
+        if(root == null) {
+            return;
+        }
+        Set<ParseTreeParent> visited = Collections.newSetFromMap(new IdentityHashMap<ParseTreeParent, Boolean>());
+        ArrayDeque<ParseTreeParent> toVisit = new ArrayDeque<>();
+        if(root instanceof ParseTreeParent) {
+            visited.add((ParseTreeParent) root);
+            toVisit.add((ParseTreeParent) root);
+        }
+        while(! toVisit.isEmpty()) {
+            ParseTreeParent node = toVisit.remove();
+            Set<List<ParseTreeNode>> childTrees = node.getChildTrees();
+            if(childTrees.size() > 1) {
+                getCosts(nonterminalCosts, node.getNonterminal())[ALTERNATIVES] += childTrees.size() - 1;
+                for(List<ParseTreeNode> childTree : childTrees) {
+                    GrammarRule rule = findRule(node.getNonterminal(), childTree);
+                    (rule == null ? unknownRuleCosts : getCosts(ruleCosts, rule))[ALTERNATIVES]++;
+                }
+            }
+            for(List<ParseTreeNode> childTree : childTrees) {
+                for(ParseTreeNode child : childTree) {
+                    if(child instanceof ParseTreeParent && visited.add((ParseTreeParent) child)) {
+                        toVisit.add((ParseTreeParent) child);
+                    }
+                }
+            }
+        }
+    }
+
+    public int getParses() {
+        return parses;
+    }
+
+    public long getCost(Nonterminal nonterminal, int column) {
+        long[] costs = nonterminalCosts.get(nonterminal);
+        return costs == null ? 0 : costs[column];
+    }
+
+    public long getCost(GrammarRule rule, int column) {
+        long[] costs = ruleCosts.get(rule);
+        return costs == null ? 0 : costs[column];
+    }
+
+    public void reset() {
+        nonterminalCosts.clear();
+        ruleCosts.clear();
+        Arrays.fill(unknownRuleCosts, 0);
+        parses = 0;
+        acceptedParses = 0;
+    }
+
+    // Prints the limit most expensive nonterminals and rules. Every node
+    // that's built costs a recursion, ambiguous or not, so they're ranked
+    // by merges and alternatives together first, and by recursions only
+    // after that
+    public void printReport(PrintStream out, int limit) {
+        out.println("Ambiguity hotspots over " + parses + " parses (" + acceptedParses + " accepted)");
+        out.println();
+        out.println("Nonterminals:");
+        printTable(out, nonterminalCosts, limit);
+        out.println();
+        out.println("Rules:");
+        printTable(out, ruleCosts, limit);
+        if(total(unknownRuleCosts) > 0) {
+            out.println(String.format("    %10d %12d %10d  (rule unknown)",
+                    unknownRuleCosts[MERGES], unknownRuleCosts[ALTERNATIVES], unknownRuleCosts[RECURSIONS]));
+        }
+    }
+
+    private <K> void printTable(PrintStream out, final HashMap<K, long[]> costs, int limit) {
+        ArrayList<K> ranked = new ArrayList<>(costs.keySet());
+        Collections.sort(ranked, new Comparator<K>() {
+            @Override
+            public int compare(K first, K second) {
+                long[] firstCosts = costs.get(first);
+                long[] secondCosts = costs.get(second);
+                int byAmbiguity = Long.compare(secondCosts[MERGES] + secondCosts[ALTERNATIVES],
+                        firstCosts[MERGES] + firstCosts[ALTERNATIVES]);
+                return byAmbiguity != 0 ? byAmbiguity : Long.compare(secondCosts[RECURSIONS], firstCosts[RECURSIONS]);
+            }
+        });
+        out.println(String.format("    %10s %12s %10s", COLUMN_NAMES[MERGES], COLUMN_NAMES[ALTERNATIVES], COLUMN_NAMES[RECURSIONS]));
+        for(int i = 0; i < ranked.size() && i < limit; i++) {
+            long[] keyCosts = costs.get(ranked.get(i));
+            out.println(String.format("    %10d %12d %10d  %s",
+                    keyCosts[MERGES], keyCosts[ALTERNATIVES], keyCosts[RECURSIONS], ranked.get(i)));
+        }
+    }
+
+    private void count(Nonterminal nonterminal, GrammarRule rule, int column) {
+        if(nonterminal == null && rule != null) {
+            nonterminal = rule.getLeftHandSide();
+        }
+        if(nonterminal != null) {
+            getCosts(nonterminalCosts, nonterminal)[column]++;
+        }
+        (rule == null ? unknownRuleCosts : getCosts(ruleCosts, rule))[column]++;
+    }
+
+    // The rule of the nonterminal that matches the child tree, or null if
+    // there's none, which can only happen if the grammar changed
+    private GrammarRule findRule(Nonterminal nonterminal, List<ParseTreeNode> childTree) {
+        ArrayList<GrammarElement> elements = new ArrayList<>(childTree.size());
+        for(ParseTreeNode child : childTree) {
+            if(child instanceof ParseTreeParent) {
+                elements.add(((ParseTreeParent) child).getNonterminal());
+            } else {
+                elements.add(new Terminal(((ParseTreeLeaf) child).getSymbol()));
+            }
+        }
+        for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+            if(rule.isExtended() ? rule.getAutomaton().matches(elements) : rule.getRightHandSide().equals(elements)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    private static <K> long[] getCosts(HashMap<K, long[]> costs, K key) {
+        long[] keyCosts = costs.get(key);
+        if(keyCosts == null) {
+            keyCosts = new long[COLUMN_NAMES.length];
+            costs.put(key, keyCosts);
+        }
+        return keyCosts;
+    }
+
+    private static long total(long[] costs) {
+        long total = 0;
+        for(long cost : costs) {
+            total += cost;
+        }
+        return total;
+    }
+}
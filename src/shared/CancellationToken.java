@@ -0,0 +1,17 @@
+package shared;
+
+public class CancellationToken {
+
+    // Lets another thread ask a parse to stop. The parse only looks at
+    // this every so often, so it stops soon after, not right away
+
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,156 @@
+package shared;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CountingParseListener implements ParseListener {
+
+    // Adds up what the parsers it's installed in do, without keeping
+    // anything per parse, so it can stay installed in production. The
+    // counters are atomic, so one listener can be shared by parsers on
+    // different threads. To sample, install it in some of the parsers, or
+    // in one parser some of the time
+
+    private AtomicLong parses = new AtomicLong();
+    private AtomicLong acceptedParses = new AtomicLong();
+    private AtomicLong tokens = new AtomicLong();
+    private AtomicLong predictions = new AtomicLong();
+    private AtomicLong scannedEntries = new AtomicLong();
+    private AtomicLong completions = new AtomicLong();
+    private AtomicLong sigmaSets = new AtomicLong();
+    private AtomicLong sigmaSetEntries = new AtomicLong();
+    private AtomicLong largestSigmaSet = new AtomicLong();
+    private AtomicLong precedingEntriesAdded = new AtomicLong();
+    private AtomicLong nodesReused = new AtomicLong();
+    private AtomicLong treeBuildRecursions = new AtomicLong();
+
+    @Override
+    public void parseStarted(int tokenCount) {
+        parses.incrementAndGet();
+        tokens.addAndGet(tokenCount);
+    }
+
+    @Override
+    public void predicted(int position, Nonterminal nonterminal) {
+        predictions.incrementAndGet();
+    }
+
+    @Override
+    public void scanned(int tokenIndex, Token token, int entryCount) {
+        scannedEntries.addAndGet(entryCount);
+    }
+
+    @Override
+    public void completed(int position, Nonterminal nonterminal, int start) {
+        completions.incrementAndGet();
+    }
+
+    @Override
+    public void sigmaSetFilled(int position, int size) {
+        sigmaSets.incrementAndGet();
+        sigmaSetEntries.addAndGet(size);
+        long largest = largestSigmaSet.get();
+        while(size > largest && ! largestSigmaSet.compareAndSet(largest, size)) {
+            largest = largestSigmaSet.get();
+        }
+    }
+
+    @Override
+    public void precedingEntryAdded(int position, Nonterminal nonterminal, GrammarRule rule) {
+        precedingEntriesAdded.incrementAndGet();
+    }
+
+    @Override
+    public void nodeReused(int start, int end, Nonterminal nonterminal) {
+        nodesReused.incrementAndGet();
+    }
+
+    @Override
+    public void treeBuildRecursed(Nonterminal nonterminal, GrammarRule rule) {
+        treeBuildRecursions.incrementAndGet();
+    }
+
+    @Override
+    public void parseFinished(int tokenCount, boolean accepted) {
+        if(accepted) {
+            acceptedParses.incrementAndGet();
+        }
+    }
+
+    public long getParses() {
+        return parses.get();
+    }
+
+    public long getAcceptedParses() {
+        return acceptedParses.get();
+    }
+
+    public long getTokens() {
+        return tokens.get();
+    }
+
+    public long getPredictions() {
+        return predictions.get();
+    }
+
+    public long getScannedEntries() {
+        return scannedEntries.get();
+    }
+
+    public long getCompletions() {
+        return completions.get();
+    }
+
+    public long getSigmaSets() {
+        return sigmaSets.get();
+    }
+
+    public long getSigmaSetEntries() {
+        return sigmaSetEntries.get();
+    }
+
+    public long getLargestSigmaSet() {
+        return largestSigmaSet.get();
+    }
+
+    public long getPrecedingEntriesAdded() {
+        return precedingEntriesAdded.get();
+    }
+
+    public long getNodesReused() {
+        return nodesReused.get();
+    }
+
+    public long getTreeBuildRecursions() {
+        return treeBuildRecursions.get();
+    }
+
+    public double getAverageSigmaSetSize() {
+        long count = sigmaSets.get();
+        return count == 0 ? 0 : (double) sigmaSetEntries.get() / count;
+    }
+
+    public void reset() {
+        parses.set(0);
+        acceptedParses.set(0);
+        tokens.set(0);
+        predictions.set(0);
+        scannedEntries.set(0);
+        completions.set(0);
+        sigmaSets.set(0);
+        sigmaSetEntries.set(0);
+        largestSigmaSet.set(0);
+        precedingEntriesAdded.set(0);
+        nodesReused.set(0);
+        treeBuildRecursions.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return parses.get() + " parses (" + acceptedParses.get() + " accepted) over " + tokens.get() + " tokens: " +
+                predictions.get() + " predictions, " + scannedEntries.get() + " scanned entries, " +
+                completions.get() + " completions, " + sigmaSetEntries.get() + " sigma set entries in " +
+                sigmaSets.get() + " sigma sets (largest " + largestSigmaSet.get() + "), " +
+                precedingEntriesAdded.get() + " preceding entries added, " + nodesReused.get() + " nodes reused, " +
+                treeBuildRecursions.get() + " tree build recursions";
+    }
+}
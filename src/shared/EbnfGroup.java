@@ -0,0 +1,63 @@
+package shared;
+
+import java.util.ArrayList;
+import java.util.Objects;
+
+public class EbnfGroup implements GrammarElement {
+
+    // The operators that can follow an element or a parenthesized group in
+    // a grammar file, written the same way they are in the file
+    public static final char OPTIONAL = '?';
+    public static final char ZERO_OR_MORE = '*';
+    public static final char ONE_OR_MORE = '+';
+
+    private ArrayList<GrammarElement> elements;
+    private char operator;
+
+    public EbnfGroup(ArrayList<GrammarElement> e, char o) {
+        if(o != OPTIONAL && o != ZERO_OR_MORE && o != ONE_OR_MORE) {
+            throw new IllegalArgumentException("Unknown EBNF operator " + o);
+        }
+        elements = e;
+        operator = o;
+    }
+
+    public ArrayList<GrammarElement> getElements() {
+        return elements;
+    }
+
+    public char getOperator() {
+        return operator;
+    }
+
+    public static boolean isOperator(char c) {
+        return c == OPTIONAL || c == ZERO_OR_MORE || c == ONE_OR_MORE;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(! (other instanceof EbnfGroup)) {
+            return false;
+        }
+        EbnfGroup otherGroup = (EbnfGroup) other;
+        return operator == otherGroup.operator &&
+                elements.equals(otherGroup.elements);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(elements, operator);
+    }
+
+    @Override
+    public String toString() {
+        if(elements.size() == 1 && ! (elements.get(0) instanceof EbnfGroup)) {
+            return elements.get(0).toString() + operator;
+        }
+        String inside = "";
+        for(GrammarElement element : elements) {
+            inside += element + " ";
+        }
+        return "( " + inside + ")" + operator;
+    }
+}
@@ -1,7 +1,10 @@
 package shared;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -12,10 +15,19 @@ public class Grammar {
     // rules that have a given nonterminal on their left hand side, so this
     // is how we'll store the rules for now.
     private HashMap<Nonterminal, ArrayList<GrammarRule>> grammarRules;
+    // Goes up every time a rule is added or removed, so anything worked out
+    // from the rules can tell when it's out of date
+    private int modificationCount;
+    // Told about every rule that's added or removed, so they can patch
+    // whatever they worked out from the rules instead of starting over.
+    // They're only held weakly, so that a parser that's done with doesn't
+    // stay around for as long as its grammar does
+    private ArrayList<WeakReference<GrammarListener>> listeners;
 
     public Grammar(GrammarRule start) {
         startRule = start;
         grammarRules = new HashMap<>();
+        listeners = new ArrayList<>();
         ArrayList<GrammarRule> startRuleList = new ArrayList<>();
         startRuleList.add(startRule);
         grammarRules.put(startRule.getLeftHandSide(), startRuleList);
@@ -24,6 +36,7 @@ public class Grammar {
     public Grammar(GrammarRule start, ArrayList<GrammarRule> rules) {
         startRule = start;
         grammarRules = new HashMap<>();
+        listeners = new ArrayList<>();
         for(GrammarRule rule : rules) {
             addRule(rule);
         }
@@ -31,6 +44,7 @@ public class Grammar {
     }
 
     public void addRule(GrammarRule rule) {
+        modificationCount++;
         Nonterminal ruleLHS = rule.getLeftHandSide();
         if(grammarRules.containsKey(ruleLHS)) {
             ArrayList<GrammarRule> lhsRules = grammarRules.get(ruleLHS);
@@ -40,17 +54,86 @@ public class Grammar {
             newLhsRules.add(rule);
             grammarRules.put(ruleLHS, newLhsRules);
         }
+        for(GrammarListener listener : getListeners()) {
+            listener.ruleAdded(this, rule);
+        }
+    }
+
+    // Returns false if the rule wasn't in the grammar. A nonterminal whose
+    // last rule is removed stays in the grammar, with no rules
+    public boolean removeRule(GrammarRule rule) {
+        if(rule.equals(startRule)) {
+            throw new IllegalArgumentException("The start rule can't be removed");
+        }
+        ArrayList<GrammarRule> lhsRules = grammarRules.get(rule.getLeftHandSide());
+        if(lhsRules == null || ! lhsRules.remove(rule)) {
+            return false;
+        }
+        modificationCount++;
+        for(GrammarListener listener : getListeners()) {
+            listener.ruleRemoved(this, rule);
+        }
+        return true;
+    }
+
+    public void addGrammarListener(GrammarListener listener) {
+        listeners.add(new WeakReference<>(listener));
+    }
+
+    public void removeGrammarListener(GrammarListener listener) {
+        Iterator<WeakReference<GrammarListener>> iterator = listeners.iterator();
+        while(iterator.hasNext()) {
+            GrammarListener other = iterator.next().get();
+            if(other == null || other == listener) {
+                iterator.remove();
+            }
+        }
+    }
+
+    // The listeners that are still around, copied so that they can add or
+    // remove listeners while they're being told about a change
+    private List<GrammarListener> getListeners() {
+        ArrayList<GrammarListener> liveListeners = new ArrayList<>();
+        Iterator<WeakReference<GrammarListener>> iterator = listeners.iterator();
+        while(iterator.hasNext()) {
+            GrammarListener listener = iterator.next().get();
+            if(listener == null) {
+                iterator.remove();
+            } else {
+                liveListeners.add(listener);
+            }
+        }
+        return liveListeners;
     }
 
     public GrammarRule getStartRule() {
         return startRule;
     }
 
+    // Empty for a nonterminal that rules call but that doesn't have any
+    // rules itself (yet)
     public List<GrammarRule> getRulesWithLeftHandSide(Nonterminal lhs) {
-        return grammarRules.get(lhs);
+        List<GrammarRule> rules = grammarRules.get(lhs);
+        return rules == null ? Collections.<GrammarRule>emptyList() : rules;
     }
 
     public Set<Nonterminal> getNonterminals() {
         return grammarRules.keySet();
     }
+
+    public int getModificationCount() {
+        return modificationCount;
+    }
+
+    // Whether any rule uses EBNF operators. Not every parser supports them
+    public boolean isExtended() {
+        for(ArrayList<GrammarRule> rules : grammarRules.values()) {
+            for(GrammarRule rule : rules) {
+                if(rule.isExtended()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,164 @@
+package shared;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+public class GrammarFile {
+
+    // A grammar file has a LEX section, with a "NAME = pattern" line for
+    // each symbol, then a blank line, then a GRAMMAR section with one rule
+    // per line. The first rule is the start rule. Test grammar files have a
+    // TERMINALS section instead, where each pattern is the literal text of
+    // the token rather than a regex, and a GRAMMAR_RULES section
+
+    private ArrayList<Symbol> symbols;
+    private Grammar grammar;
+    // A SHA-256 hash of the file's bytes, so that anything built from the
+    // file can tell whether it's still up to date
+    private byte[] checksum;
+
+    public GrammarFile(ArrayList<Symbol> s, Grammar g, byte[] c) {
+        symbols = s;
+        grammar = g;
+        checksum = c;
+    }
+
+    public static GrammarFile read(File file) throws IOException {
+        byte[] contents = Files.readAllBytes(file.toPath());
+        Scanner grammarFile = new Scanner(new String(contents, StandardCharsets.UTF_8));
+
+        // first the lexing section
+        String line = grammarFile.nextLine();
+        assert(line.equals("LEX") || line.equals("TERMINALS"));
+
+        ArrayList<Symbol> symbols = new ArrayList<>();
+        // Map the names of terminals to the terminal instances
+        HashMap<String, Terminal> terminals = new HashMap<>();
+        line = grammarFile.nextLine();
+        while(! line.equals("")) {
+            // The format of each line should be "name = pattern"
+            String name = line.substring(0, line.indexOf(" "));
+            String pattern = line.substring(line.indexOf(" ") + 3);
+            assert(! terminals.containsKey(name));
+            Symbol newSymbol = new Symbol(name, pattern);
+            symbols.add(newSymbol);
+            terminals.put(name, new Terminal(newSymbol));
+            line = grammarFile.nextLine();
+        }
+
+        line = grammarFile.nextLine();
+        assert(line.equals("GRAMMAR") || line.equals("GRAMMAR_RULES"));
+
+        // Map the names of nonterminals to the nonterminal instances
+        HashMap<String, Nonterminal> nonterminals = new HashMap<>();
+        // The first rule is the start rule
+        GrammarRule startRule = parseGrammarRule(grammarFile.nextLine(), terminals, nonterminals);
+        Grammar grammar = new Grammar(startRule);
+        while(grammarFile.hasNextLine()) {
+            grammar.addRule(parseGrammarRule(grammarFile.nextLine(), terminals, nonterminals));
+        }
+        return new GrammarFile(symbols, grammar, checksum(contents));
+    }
+
+    public List<Symbol> getSymbols() {
+        return symbols;
+    }
+
+    public Grammar getGrammar() {
+        return grammar;
+    }
+
+    public byte[] getChecksum() {
+        return checksum;
+    }
+
+    public Lexer createLexer() {
+        return new Lexer(symbols);
+    }
+
+    public static byte[] checksum(byte[] contents) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(contents);
+        } catch(NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static GrammarRule parseGrammarRule(String grammarRuleLine, HashMap<String, Terminal> terminals, HashMap<String, Nonterminal> nonterminals) {
+        // The format of each line should be "Nonterminal = GrammarElement GrammarElement GrammarElement"
+        // Any element can be followed by an EBNF operator (*, + or ?), and
+        // elements can be grouped with parentheses, as in
+        // "ArgumentList = Argument ( COMMA Argument )*". The parentheses are
+        // pieces of their own, and a closing one takes the operator
+        String[] pieces = grammarRuleLine.split(" ");
+        String nonterminalName = pieces[0];
+        Nonterminal lhsNonterminal = getNonterminal(nonterminalName, nonterminals);
+        // pieces[1] will be the '='
+        ArrayDeque<String> rhsPieces = new ArrayDeque<>(Arrays.asList(pieces).subList(2, pieces.length));
+        ArrayList<GrammarElement> ruleRightHandSide = parseGrammarElements(rhsPieces, terminals, nonterminals);
+        if(! rhsPieces.isEmpty()) {
+            throw new IllegalArgumentException("Unmatched ) in the grammar rule " + grammarRuleLine);
+        }
+        GrammarRule rule = new GrammarRule(lhsNonterminal, ruleRightHandSide);
+        // None of the parsers handle empty rules, and with EBNF operators
+        // it's easy to write one by accident
+        if(rule.isExtended() && rule.getAutomaton().isNullable()) {
+            throw new IllegalArgumentException("The grammar rule " + grammarRuleLine + " can match nothing, which isn't supported");
+        }
+        return rule;
+    }
+
+    // Parses elements until the pieces run out or a closing parenthesis
+    // comes up, which is left for the caller
+    private static ArrayList<GrammarElement> parseGrammarElements(ArrayDeque<String> pieces, HashMap<String, Terminal> terminals, HashMap<String, Nonterminal> nonterminals) {
+        ArrayList<GrammarElement> elements = new ArrayList<>();
+        while(! pieces.isEmpty() && ! pieces.peek().startsWith(")")) {
+            String piece = pieces.poll();
+            if(piece.equals("(")) {
+                ArrayList<GrammarElement> groupElements = parseGrammarElements(pieces, terminals, nonterminals);
+                String closing = pieces.poll();
+                if(closing == null || closing.length() > 2) {
+                    throw new IllegalArgumentException("Unmatched ( in a grammar rule");
+                }
+                if(closing.length() == 1) {
+                    // Parentheses without an operator don't change anything
+                    elements.addAll(groupElements);
+                } else {
+                    elements.add(new EbnfGroup(groupElements, closing.charAt(1)));
+                }
+                continue;
+            }
+            char lastChar = piece.charAt(piece.length() - 1);
+            if(piece.length() > 1 && EbnfGroup.isOperator(lastChar)) {
+                ArrayList<GrammarElement> groupElements = new ArrayList<>();
+                groupElements.add(getGrammarElement(piece.substring(0, piece.length() - 1), terminals, nonterminals));
+                elements.add(new EbnfGroup(groupElements, lastChar));
+            } else {
+                elements.add(getGrammarElement(piece, terminals, nonterminals));
+            }
+        }
+        return elements;
+    }
+
+    private static GrammarElement getGrammarElement(String grammarElementName, HashMap<String, Terminal> terminals, HashMap<String, Nonterminal> nonterminals) {
+        if(terminals.containsKey(grammarElementName)) {
+            return terminals.get(grammarElementName);
+        }
+        return getNonterminal(grammarElementName, nonterminals);
+    }
+
+    private static Nonterminal getNonterminal(String nonterminalName, HashMap<String, Nonterminal> nonterminals) {
+        Nonterminal nonterminal = nonterminals.get(nonterminalName);
+        if(nonterminal == null) {
+            nonterminal = new Nonterminal(nonterminalName);
+            nonterminals.put(nonterminalName, nonterminal);
+        }
+        return nonterminal;
+    }
+}
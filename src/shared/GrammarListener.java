@@ -0,0 +1,7 @@
+package shared;
+
+public interface GrammarListener {
+    // Called right after the rule is added to or removed from the grammar
+    public void ruleAdded(Grammar grammar, GrammarRule rule);
+    public void ruleRemoved(Grammar grammar, GrammarRule rule);
+}
@@ -0,0 +1,301 @@
+package shared;
+
+import shared.analysis.GrammarAnalysis;
+import shared.analysis.StronglyConnectedComponents;
+
+import java.util.*;
+
+public class GrammarOptimizer {
+
+    // Rewrites a grammar into a smaller one for the same language, which
+    // the parsers can run on instead:
+    // - Rules that can never finish (because they use a nonterminal that
+    //   can't produce a string of terminals) are removed
+    // - Unit rules, like "Statement = VariableAssignment", are inlined: the
+    //   left hand side gets a copy of every rule of the right hand side
+    //   instead. That saves a Call, Start, End and Exit at every position
+    //   the nonterminal is predicted at. Unit rules that are in a cycle of
+    //   unit rules are kept, since inlining those would never end
+    // - Nonterminals that can no longer be reached from the start rule are
+    //   removed
+    // The start rule itself is kept as it is, since the start nonterminal
+    // can only have one rule.
+    // Every rule of the optimized grammar remembers the unit rules that
+    // were inlined to make it, so a parse tree from the optimized grammar
+    // can be expanded back into the shape the original grammar gives it.
+
+    private Grammar originalGrammar;
+    private Grammar optimizedGrammar;
+    // For each rule of the optimized grammar, every chain of nonterminals
+    // whose unit rules were inlined to make it. The empty chain means the
+    // rule was in the original grammar too
+    private HashMap<GrammarRule, List<List<Nonterminal>>> unitChains;
+
+    public GrammarOptimizer(Grammar grammar) {
+        originalGrammar = grammar;
+        GrammarAnalysis analysis = GrammarAnalysis.of(grammar);
+        GrammarRule startRule = grammar.getStartRule();
+        Nonterminal startNonterminal = startRule.getLeftHandSide();
+
+        // First, the rules that can finish. If the start nonterminal can't
+        // finish, the language is empty and there's nothing to gain.
+        // Rules with EBNF operators are always kept, since a nonterminal
+        // that can't finish might only be in an optional part of them
+        HashMap<Nonterminal, ArrayList<GrammarRule>> usefulRules = new HashMap<>();
+        boolean removingUnproductive = analysis.isProductive(startNonterminal);
+        for(Nonterminal nonterminal : grammar.getNonterminals()) {
+            ArrayList<GrammarRule> rules = new ArrayList<>();
+            for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+                if(! removingUnproductive || rule.isExtended() || isProductive(rule, analysis)) {
+                    rules.add(rule);
+                }
+            }
+            if(! rules.isEmpty()) {
+                usefulRules.put(nonterminal, rules);
+            }
+        }
+        if(removingUnproductive && hasRulelessNonterminals(usefulRules)) {
+            // An EBNF rule still refers to a nonterminal whose rules were
+            // all removed, and the parsers need every nonterminal they can
+            // call to have rules
+            usefulRules.clear();
+            for(Nonterminal nonterminal : grammar.getNonterminals()) {
+                usefulRules.put(nonterminal, new ArrayList<>(grammar.getRulesWithLeftHandSide(nonterminal)));
+            }
+        }
+
+        // Next, find the unit rules that can be inlined. Those are the ones
+        // that aren't in a cycle of unit rules
+        HashMap<Nonterminal, HashSet<Nonterminal>> unitEdges = new HashMap<>();
+        for(Nonterminal nonterminal : usefulRules.keySet()) {
+            HashSet<Nonterminal> unitTargets = new HashSet<>();
+            for(GrammarRule rule : usefulRules.get(nonterminal)) {
+                if(isUnitRule(rule)) {
+                    unitTargets.add((Nonterminal) rule.getRightHandSide().get(0));
+                }
+            }
+            unitEdges.put(nonterminal, unitTargets);
+        }
+        StronglyConnectedComponents unitComponents = new StronglyConnectedComponents(unitEdges);
+
+        // Now inline them. A nonterminal's inlined rules depend on the
+        // inlined rules of the nonterminals its unit rules go to, so they're
+        // worked out on demand and remembered
+        HashMap<Nonterminal, LinkedHashMap<GrammarRule, List<List<Nonterminal>>>> inlinedRules = new HashMap<>();
+        unitChains = new HashMap<>();
+        unitChains.put(startRule, Collections.singletonList(Collections.<Nonterminal>emptyList()));
+        for(Nonterminal nonterminal : usefulRules.keySet()) {
+            if(nonterminal.equals(startNonterminal)) {
+                continue;
+            }
+            unitChains.putAll(inlineUnitRules(nonterminal, usefulRules, unitComponents, inlinedRules));
+        }
+
+        // Finally, keep only the nonterminals the start rule can still reach
+        HashSet<Nonterminal> reachable = new HashSet<>();
+        ArrayDeque<Nonterminal> toVisit = new ArrayDeque<>();
+        toVisit.add(startNonterminal);
+        reachable.add(startNonterminal);
+        optimizedGrammar = new Grammar(startRule);
+        while(! toVisit.isEmpty()) {
+            Nonterminal nonterminal = toVisit.remove();
+            List<GrammarRule> rules;
+            if(nonterminal.equals(startNonterminal)) {
+                rules = Collections.singletonList(startRule);
+            } else {
+                rules = new ArrayList<>(inlinedRules.get(nonterminal).keySet());
+                for(GrammarRule rule : rules) {
+                    optimizedGrammar.addRule(rule);
+                }
+            }
+            for(GrammarRule rule : rules) {
+                for(GrammarElement element : GrammarAnalysis.getElements(rule)) {
+                    if(element instanceof Nonterminal && reachable.add((Nonterminal) element)) {
+                        toVisit.add((Nonterminal) element);
+                    }
+                }
+            }
+        }
+        unitChains.keySet().retainAll(getAllRules(optimizedGrammar));
+    }
+
+    public Grammar getOriginalGrammar() {
+        return originalGrammar;
+    }
+
+    public Grammar getOptimizedGrammar() {
+        return optimizedGrammar;
+    }
+
+    // Expands a parse tree from the optimized grammar into the parse tree
+    // the original grammar gives the same tokens, by putting back the nodes
+    // for the inlined unit rules. Subtrees shared in the given tree are
+    // shared in the expanded one too
+    public ParseTreeNode expand(ParseTreeNode optimizedTree) {
+        if(optimizedTree == null) {
+            return null;
+        }
+        return expand(optimizedTree, new IdentityHashMap<ParseTreeNode, ParseTreeNode>());
+    }
+
+    private ParseTreeNode expand(ParseTreeNode node, IdentityHashMap<ParseTreeNode, ParseTreeNode> expandedNodes) {
+        if(node instanceof ParseTreeLeaf) {
+            return node;
+        }
+        ParseTreeNode expandedNode = expandedNodes.get(node);
+        if(expandedNode != null) {
+            return expandedNode;
+        }
+        ParseTreeParent parent = (ParseTreeParent) node;
+        Nonterminal nonterminal = parent.getNonterminal();
+        // Each child tree came from one or more rules of the optimized
+        // grammar, which tells us which chains of unit rule nodes go
+        // between the parent and the children
+        ArrayList<ChainedChildTree> chainedChildTrees = new ArrayList<>();
+        for(List<ParseTreeNode> childTree : parent.getChildTrees()) {
+            ArrayList<GrammarElement> childElements = new ArrayList<>(childTree.size());
+            ArrayList<ParseTreeNode> expandedChildTree = new ArrayList<>(childTree.size());
+            for(ParseTreeNode child : childTree) {
+                childElements.add(elementOf(child));
+                expandedChildTree.add(expand(child, expandedNodes));
+            }
+            HashSet<List<Nonterminal>> chains = new HashSet<>();
+            for(GrammarRule rule : optimizedGrammar.getRulesWithLeftHandSide(nonterminal)) {
+                if(rule.getAutomaton().matches(childElements)) {
+                    chains.addAll(unitChains.get(rule));
+                }
+            }
+            for(List<Nonterminal> chain : chains) {
+                chainedChildTrees.add(new ChainedChildTree(chain, expandedChildTree));
+            }
+        }
+        ParseTreeParent expandedParent = buildChainNode(nonterminal, chainedChildTrees);
+        expandedNodes.put(node, expandedParent);
+        return expandedParent;
+    }
+
+    // Builds the node for the nonterminal from child trees that each still
+    // need the given chain of nodes between it and them. Child trees whose
+    // chains start with the same nonterminal share the node for it, just
+    // like they would in a parse of the original grammar
+    private static ParseTreeParent buildChainNode(Nonterminal nonterminal, List<ChainedChildTree> chainedChildTrees) {
+        ParseTreeParent node = new ParseTreeParent(nonterminal);
+        LinkedHashMap<Nonterminal, List<ChainedChildTree>> chainsByNext = new LinkedHashMap<>();
+        for(ChainedChildTree chainedChildTree : chainedChildTrees) {
+            if(chainedChildTree.chain.isEmpty()) {
+                node.addChildTree(chainedChildTree.childTree);
+                continue;
+            }
+            Nonterminal nextNonterminal = chainedChildTree.chain.get(0);
+            List<ChainedChildTree> group = chainsByNext.get(nextNonterminal);
+            if(group == null) {
+                group = new ArrayList<>();
+                chainsByNext.put(nextNonterminal, group);
+            }
+            group.add(new ChainedChildTree(chainedChildTree.chain.subList(1, chainedChildTree.chain.size()), chainedChildTree.childTree));
+        }
+        for(Map.Entry<Nonterminal, List<ChainedChildTree>> group : chainsByNext.entrySet()) {
+            ParseTreeNode chainNode = buildChainNode(group.getKey(), group.getValue());
+            node.addChildTree(Collections.singletonList(chainNode));
+        }
+        return node;
+    }
+
+    private static GrammarElement elementOf(ParseTreeNode node) {
+        if(node instanceof ParseTreeLeaf) {
+            return new Terminal(((ParseTreeLeaf) node).getSymbol());
+        }
+        return ((ParseTreeParent) node).getNonterminal();
+    }
+
+    private static Map<GrammarRule, List<List<Nonterminal>>> inlineUnitRules(
+            Nonterminal nonterminal,
+            Map<Nonterminal, ArrayList<GrammarRule>> rules,
+            StronglyConnectedComponents unitComponents,
+            Map<Nonterminal, LinkedHashMap<GrammarRule, List<List<Nonterminal>>>> inlinedRules) {
+        LinkedHashMap<GrammarRule, List<List<Nonterminal>>> inlined = inlinedRules.get(nonterminal);
+        if(inlined != null) {
+            return inlined;
+        }
+        inlined = new LinkedHashMap<>();
+        for(GrammarRule rule : rules.get(nonterminal)) {
+            if(! isUnitRule(rule)) {
+                addChain(inlined, rule, Collections.<Nonterminal>emptyList());
+                continue;
+            }
+            Nonterminal target = (Nonterminal) rule.getRightHandSide().get(0);
+            if(unitComponents.getComponentOf(nonterminal).contains(target) || ! rules.containsKey(target)) {
+                // In a cycle of unit rules, so it stays
+                addChain(inlined, rule, Collections.<Nonterminal>emptyList());
+                continue;
+            }
+            Map<GrammarRule, List<List<Nonterminal>>> targetRules = inlineUnitRules(target, rules, unitComponents, inlinedRules);
+            for(Map.Entry<GrammarRule, List<List<Nonterminal>>> targetRule : targetRules.entrySet()) {
+                GrammarRule copiedRule = new GrammarRule(nonterminal, targetRule.getKey().getRightHandSide());
+                for(List<Nonterminal> targetChain : targetRule.getValue()) {
+                    ArrayList<Nonterminal> chain = new ArrayList<>();
+                    chain.add(target);
+                    chain.addAll(targetChain);
+                    addChain(inlined, copiedRule, chain);
+                }
+            }
+        }
+        inlinedRules.put(nonterminal, inlined);
+        return inlined;
+    }
+
+    private static void addChain(Map<GrammarRule, List<List<Nonterminal>>> rules, GrammarRule rule, List<Nonterminal> chain) {
+        List<List<Nonterminal>> chains = rules.get(rule);
+        if(chains == null) {
+            chains = new ArrayList<>();
+            rules.put(rule, chains);
+        }
+        chains.add(chain);
+    }
+
+    private static boolean isUnitRule(GrammarRule rule) {
+        List<GrammarElement> rightHandSide = rule.getRightHandSide();
+        return rightHandSide.size() == 1 && rightHandSide.get(0) instanceof Nonterminal;
+    }
+
+    private static boolean isProductive(GrammarRule rule, GrammarAnalysis analysis) {
+        for(GrammarElement element : rule.getRightHandSide()) {
+            if(element instanceof Nonterminal && ! analysis.isProductive((Nonterminal) element)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasRulelessNonterminals(Map<Nonterminal, ArrayList<GrammarRule>> rules) {
+        for(ArrayList<GrammarRule> nonterminalRules : rules.values()) {
+            for(GrammarRule rule : nonterminalRules) {
+                for(GrammarElement element : GrammarAnalysis.getElements(rule)) {
+                    if(element instanceof Nonterminal && ! rules.containsKey(element)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static HashSet<GrammarRule> getAllRules(Grammar grammar) {
+        HashSet<GrammarRule> rules = new HashSet<>();
+        for(Nonterminal nonterminal : grammar.getNonterminals()) {
+            rules.addAll(grammar.getRulesWithLeftHandSide(nonterminal));
+        }
+        return rules;
+    }
+
+    private static class ChainedChildTree {
+
+        public List<Nonterminal> chain;
+        public List<ParseTreeNode> childTree;
+
+        public ChainedChildTree(List<Nonterminal> c, List<ParseTreeNode> t) {
+            chain = c;
+            childTree = t;
+        }
+    }
+}
@@ -7,6 +7,8 @@ public class GrammarRule {
 
     private Nonterminal leftHandSide;
     private ArrayList<GrammarElement> rightHandSide;
+    // Built the first time a parser asks for it
+    private RuleAutomaton automaton;
 
     public GrammarRule(Nonterminal left) {
         this(left, new ArrayList<GrammarElement>());
@@ -25,6 +27,24 @@ public class GrammarRule {
         return rightHandSide;
     }
 
+    // Whether the right hand side uses any EBNF operators, so that it can
+    // match more than one sequence of elements
+    public boolean isExtended() {
+        for(GrammarElement element : rightHandSide) {
+            if(element instanceof EbnfGroup) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public RuleAutomaton getAutomaton() {
+        if(automaton == null) {
+            automaton = new RuleAutomaton(rightHandSide);
+        }
+        return automaton;
+    }
+
     @Override
     public boolean equals(Object other) {
         if(! (other instanceof GrammarRule)) {
@@ -0,0 +1,10 @@
+package shared;
+
+import java.util.List;
+
+public interface IncrementalParser extends Parser {
+    // Parses tokens, reusing whatever it can from the last call to reparse.
+    // The tokens are compared to the last tokens to find what was edited,
+    // so callers can simply pass in the whole edited token list
+    public ParseTreeNode reparse(List<Token> tokens);
+}
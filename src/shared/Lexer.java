@@ -0,0 +1,62 @@
+package shared;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class Lexer {
+
+    // Splits a line of text into tokens, using the patterns from the LEX
+    // section of a grammar file. All the patterns are combined into one
+    // regex with a named group for each symbol, and whitespace is allowed
+    // before any token
+
+    private List<Symbol> symbols;
+    // Compiled the first time it's needed, so that loading a grammar image
+    // doesn't pay for it up front
+    private Pattern lexerPattern;
+
+    public Lexer(List<Symbol> s) {
+        symbols = s;
+    }
+
+    public List<Symbol> getSymbols() {
+        return symbols;
+    }
+
+    // Returns null if the line can't be tokenized
+    public ArrayList<Token> tokenize(String inputLine) {
+        Matcher inputMatcher = getPattern().matcher(inputLine);
+        ArrayList<Token> tokens = new ArrayList<>();
+        int lastIndexMatched = 0;
+        while(inputMatcher.find()) {
+            if(inputMatcher.start() != lastIndexMatched) {
+                return null;
+            }
+            for(Symbol symbol : symbols) {
+                String text = inputMatcher.group(symbol.getName());
+                if(text != null) {
+                    tokens.add(new Token(text, symbol));
+                    break;
+                }
+            }
+            lastIndexMatched = inputMatcher.end();
+        }
+        if(lastIndexMatched != inputLine.length()) {
+            return null;
+        }
+        return tokens;
+    }
+
+    private synchronized Pattern getPattern() {
+        if(lexerPattern == null) {
+            StringBuilder combinedRegex = new StringBuilder();
+            for(Symbol symbol : symbols) {
+                combinedRegex.append(String.format("|\\s*(?<%s>%s)", symbol.getName(), symbol.getPattern()));
+            }
+            lexerPattern = Pattern.compile(combinedRegex.substring(1));
+        }
+        return lexerPattern;
+    }
+}
@@ -0,0 +1,22 @@
+package shared;
+
+public class ParseAbortedException extends RuntimeException {
+
+    // Thrown out of the fill and build loops when a parse runs out of its
+    // budget. The parsers catch it and turn it into a ParseOutcome, so
+    // callers don't see it
+
+    private static final long serialVersionUID = 1L;
+
+    private int status;
+
+    public ParseAbortedException(int s, String message) {
+        super(message);
+        status = s;
+    }
+
+    // One of the aborted statuses of ParseOutcome
+    public int getStatus() {
+        return status;
+    }
+}
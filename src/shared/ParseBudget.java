@@ -0,0 +1,113 @@
+package shared;
+
+public class ParseBudget {
+
+    // How much one parse is allowed to use: sigma set entries, parse forest
+    // nodes, time, and a token another thread can cancel it with. Every
+    // child tree of a node counts as a forest node too, the way a shared
+    // packed parse forest has a packed node for each, since that's where
+    // an ambiguous forest's size goes. The parser reports its progress as
+    // it goes, and the budget throws a ParseAbortedException once any of
+    // them runs out. The counts are
+    // compared every time, since that's just a comparison, but the clock
+    // and the cancellation token are only looked at every CHECK_INTERVAL
+    // steps. A budget keeps track of what its parse has used, so each
+    // parse needs a new one
+
+    public static final long UNLIMITED = Long.MAX_VALUE;
+    public static final int CHECK_INTERVAL = 256;
+
+    private long maxChartEntries;
+    private long maxForestNodes;
+    // In System.nanoTime terms. Only used if hasDeadline is set
+    private long deadline;
+    private boolean hasDeadline;
+    // Can be null
+    private CancellationToken cancellationToken;
+
+    // Entries in the sigma sets that are already filled
+    private long filledChartEntries;
+    private long chartEntries;
+    private int forestNodes;
+    private int childTrees;
+    private int steps;
+
+    // The timeout starts now, not when the parse does, so that time spent
+    // waiting for a parser counts against it too. A timeout of UNLIMITED
+    // means no deadline
+    public ParseBudget(long maximumChartEntries, long maximumForestNodes, long timeoutNanos, CancellationToken token) {
+        maxChartEntries = maximumChartEntries;
+        maxForestNodes = maximumForestNodes;
+        hasDeadline = timeoutNanos != UNLIMITED;
+        if(hasDeadline) {
+            deadline = System.nanoTime() + timeoutNanos;
+        }
+        cancellationToken = token;
+    }
+
+    public long getChartEntries() {
+        return chartEntries;
+    }
+
+    public int getForestNodes() {
+        return forestNodes + childTrees;
+    }
+
+    // Called for each entry the parser processes, with the size the sigma
+    // set it's filling has now
+    public void checkChartEntries(int currentSigmaSetSize) {
+        chartEntries = filledChartEntries + currentSigmaSetSize;
+        if(chartEntries > maxChartEntries) {
+            throw new ParseAbortedException(ParseOutcome.CHART_LIMIT_REACHED,
+                    "The sigma sets have more than " + maxChartEntries + " entries");
+        }
+        step();
+    }
+
+    // Called once a sigma set is done
+    public void sigmaSetFilled(int size) {
+        filledChartEntries += size;
+        checkChartEntries(0);
+    }
+
+    // Called each time the tree builder starts working left from an entry,
+    // with the number of nodes it has made so far. Following every path
+    // through an ambiguous chart takes many more of these than there are
+    // nodes, so each one is a step towards looking at the clock
+    public void checkForestNodes(int nodeCount) {
+        forestNodes = nodeCount;
+        checkForestSize();
+        step();
+    }
+
+    // Called each time the tree builder adds a child tree to a node
+    public void childTreeAdded() {
+        childTrees++;
+        checkForestSize();
+        step();
+    }
+
+    // Checks the clock and the cancellation token right away
+    public void checkTime() {
+        if(cancellationToken != null && cancellationToken.isCancelled()) {
+            throw new ParseAbortedException(ParseOutcome.CANCELLED, "The parse was cancelled");
+        }
+        if(hasDeadline && System.nanoTime() - deadline > 0) {
+            throw new ParseAbortedException(ParseOutcome.DEADLINE_PASSED, "The parse ran past its deadline");
+        }
+    }
+
+    private void checkForestSize() {
+        if((long) forestNodes + childTrees > maxForestNodes) {
+            throw new ParseAbortedException(ParseOutcome.FOREST_LIMIT_REACHED,
+                    "The parse forest has more than " + maxForestNodes + " nodes");
+        }
+    }
+
+    private void step() {
+        if(++steps == CHECK_INTERVAL) {
+            steps = 0;
+            checkTime();
+        }
+    }
+}
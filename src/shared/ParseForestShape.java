@@ -0,0 +1,296 @@
+package shared;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+public class ParseForestShape {
+
+    // A forest shape is a parse forest with the tokens taken out. The
+    // structure of a forest only depends on the types of the tokens that
+    // were parsed, so a shape captured from one parse can be turned back
+    // into a real forest for any other token list with the same types,
+    // just by putting the new tokens in at the leaves.
+    // The shape is stored as a flat array of ints, with the nodes in
+    // post-order (so every node comes after all of its children, and the
+    // root is the last node). Each node is encoded as either
+    //     LEAF_MARKER, tokenIndex
+    // or
+    //     nonterminalIndex, childTreeCount,
+    //         childCount, childNodeId, childNodeId, ...
+    //         childCount, childNodeId, childNodeId, ...
+    // where node ids are the positions of the nodes in the post-order.
+    private static final int LEAF_MARKER = -1;
+    // read doesn't trust the lengths it's given to allocate arrays up
+    // front, since a damaged length could ask for gigabytes. Its arrays
+    // start at most this big and grow as the values actually show up
+    private static final int INITIAL_READ_CAPACITY = 1024;
+
+    private Nonterminal[] nonterminals;
+    private int[] code;
+    private int nodeCount;
+    // The number of tokens the shape has leaves for
+    private int tokenCount;
+
+    private ParseForestShape(Nonterminal[] n, int[] c, int count, int tokens) {
+        nonterminals = n;
+        code = c;
+        nodeCount = count;
+        tokenCount = tokens;
+    }
+
+    public static ParseForestShape capture(ParseTreeNode root) {
+        ShapeWriter writer = new ShapeWriter();
+        writer.captureNode(root, 0);
+        Nonterminal[] nonterminals = writer.nonterminals.toArray(new Nonterminal[writer.nonterminals.size()]);
+        int[] code = new int[writer.codeLength];
+        System.arraycopy(writer.code, 0, code, 0, writer.codeLength);
+        return new ParseForestShape(nonterminals, code, writer.nodeCount, writer.tokenCount);
+    }
+
+    public ParseTreeNode instantiate(List<Token> tokens) {
+        if(tokens.size() < tokenCount) {
+            throw new IllegalArgumentException("The shape has leaves for " + tokenCount + " tokens, but there are only " + tokens.size());
+        }
+        ParseTreeNode[] nodes = new ParseTreeNode[nodeCount];
+        int position = 0;
+        for(int nodeId = 0; nodeId < nodeCount; nodeId++) {
+            int header = code[position++];
+            if(header == LEAF_MARKER) {
+                nodes[nodeId] = new ParseTreeLeaf(tokens.get(code[position++]));
+                continue;
+            }
+            // Every child has a smaller id than its parent, so all the
+            // children are finished by the time we get here. That matters,
+            // because a ParseTreeParent's hash code depends on its children
+            ParseTreeParent parent = new ParseTreeParent(nonterminals[header]);
+            int childTreeCount = code[position++];
+            for(int childTreeIndex = 0; childTreeIndex < childTreeCount; childTreeIndex++) {
+                int childCount = code[position++];
+                ArrayList<ParseTreeNode> childTree = new ArrayList<>(childCount);
+                for(int childIndex = 0; childIndex < childCount; childIndex++) {
+                    childTree.add(nodes[code[position++]]);
+                }
+                parent.addChildTree(childTree);
+            }
+            nodes[nodeId] = parent;
+        }
+        return nodes[nodeCount - 1];
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    // The number of ints it takes to store this shape. This is a decent
+    // stand in for how much memory the shape uses
+    public int getCodeLength() {
+        return code.length;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(nonterminals.length);
+        for(Nonterminal nonterminal : nonterminals) {
+            out.writeUTF(nonterminal.getName());
+        }
+        out.writeInt(nodeCount);
+        out.writeInt(code.length);
+        for(int value : code) {
+            out.writeInt(value);
+        }
+    }
+
+    // Nonterminals are compared by name, so the nonterminals we create
+    // here are interchangeable with the grammar's own instances. Anything
+    // that isn't a shape write could have written, like a child that
+    // doesn't come before its parent, throws an IOException
+    public static ParseForestShape read(DataInput in) throws IOException {
+        int nonterminalCount = readCount(in);
+        ArrayList<Nonterminal> nonterminals = new ArrayList<>(Math.min(nonterminalCount, INITIAL_READ_CAPACITY));
+        for(int i = 0; i < nonterminalCount; i++) {
+            nonterminals.add(new Nonterminal(in.readUTF()));
+        }
+        int nodeCount = readCount(in);
+        int codeLength = readCount(in);
+        int[] code = new int[Math.min(codeLength, INITIAL_READ_CAPACITY)];
+        for(int i = 0; i < codeLength; i++) {
+            if(i == code.length) {
+                int[] newCode = new int[(int) Math.min(2L * code.length, codeLength)];
+                System.arraycopy(code, 0, newCode, 0, code.length);
+                code = newCode;
+            }
+            code[i] = in.readInt();
+        }
+        int tokenCount = checkCode(code, nodeCount, nonterminalCount);
+        return new ParseForestShape(nonterminals.toArray(new Nonterminal[nonterminalCount]), code, nodeCount, tokenCount);
+    }
+
+    private static int readCount(DataInput in) throws IOException {
+        int count = in.readInt();
+        if(count < 0) {
+            throw new IOException("Negative count " + count + " in parse forest shape");
+        }
+        return count;
+    }
+
+    // Walks the code the way instantiate does, making sure every value is
+    // in range, and returns the number of tokens the leaves need
+    private static int checkCode(int[] code, int nodeCount, int nonterminalCount) throws IOException {
+        if(nodeCount == 0) {
+            throw new IOException("Parse forest shape has no root");
+        }
+        int tokenCount = 0;
+        int position = 0;
+        for(int nodeId = 0; nodeId < nodeCount; nodeId++) {
+            int header = codeAt(code, position++);
+            if(header == LEAF_MARKER) {
+                int tokenIndex = codeAt(code, position++);
+                if(tokenIndex < 0) {
+                    throw new IOException("Leaf " + nodeId + " has token index " + tokenIndex);
+                }
+                tokenCount = Math.max(tokenCount, tokenIndex + 1);
+                continue;
+            }
+            if(header < 0 || header >= nonterminalCount) {
+                throw new IOException("Node " + nodeId + " has nonterminal index " + header);
+            }
+            int childTreeCount = codeAt(code, position++);
+            if(childTreeCount < 0) {
+                throw new IOException("Node " + nodeId + " has " + childTreeCount + " child trees");
+            }
+            for(int childTreeIndex = 0; childTreeIndex < childTreeCount; childTreeIndex++) {
+                int childCount = codeAt(code, position++);
+                if(childCount < 0) {
+                    throw new IOException("Node " + nodeId + " has a child tree with " + childCount + " children");
+                }
+                for(int childIndex = 0; childIndex < childCount; childIndex++) {
+                    int childId = codeAt(code, position++);
+                    if(childId < 0 || childId >= nodeId) {
+                        throw new IOException("Node " + nodeId + " has child " + childId);
+                    }
+                }
+            }
+        }
+        if(position != code.length) {
+            throw new IOException("Parse forest shape has " + (code.length - position) + " values left over");
+        }
+        return tokenCount;
+    }
+
+    private static int codeAt(int[] code, int position) throws IOException {
+        if(position >= code.length) {
+            throw new IOException("Parse forest shape ends early");
+        }
+        return code[position];
+    }
+
+    private static class ShapeWriter {
+
+        public int[] code;
+        public int codeLength;
+        public int nodeCount;
+        public int tokenCount;
+        public ArrayList<Nonterminal> nonterminals;
+        private HashMap<Nonterminal, Integer> nonterminalIndices;
+        // Parse forests share subtrees, so we identify nodes by identity
+        // (not equals, which would walk the whole subtree)
+        private IdentityHashMap<ParseTreeNode, Integer> nodeIds;
+        private IdentityHashMap<ParseTreeNode, Integer> nodeLengths;
+
+        public ShapeWriter() {
+            code = new int[64];
+            codeLength = 0;
+            nodeCount = 0;
+            tokenCount = 0;
+            nonterminals = new ArrayList<>();
+            nonterminalIndices = new HashMap<>();
+            nodeIds = new IdentityHashMap<>();
+            nodeLengths = new IdentityHashMap<>();
+        }
+
+        // start is the index of the first token covered by node. A shared
+        // node always covers the same tokens, no matter which parent we
+        // reach it through, so we only need to look at it once
+        public int captureNode(ParseTreeNode node, int start) {
+            Integer existingId = nodeIds.get(node);
+            if(existingId != null) {
+                return existingId;
+            }
+            if(node instanceof ParseTreeLeaf) {
+                append(LEAF_MARKER);
+                append(start);
+                tokenCount = Math.max(tokenCount, start + 1);
+            } else {
+                ParseTreeParent parent = (ParseTreeParent) node;
+                Set<List<ParseTreeNode>> childTrees = parent.getChildTrees();
+                ArrayList<int[]> childTreeIds = new ArrayList<>(childTrees.size());
+                for(List<ParseTreeNode> childTree : childTrees) {
+                    int[] childIds = new int[childTree.size()];
+                    int childStart = start;
+                    for(int i = 0; i < childTree.size(); i++) {
+                        ParseTreeNode child = childTree.get(i);
+                        childIds[i] = captureNode(child, childStart);
+                        childStart += lengthOf(child);
+                    }
+                    childTreeIds.add(childIds);
+                }
+                append(indexOf(parent.getNonterminal()));
+                append(childTreeIds.size());
+                for(int[] childIds : childTreeIds) {
+                    append(childIds.length);
+                    for(int childId : childIds) {
+                        append(childId);
+                    }
+                }
+            }
+            int id = nodeCount++;
+            nodeIds.put(node, id);
+            return id;
+        }
+
+        // The number of tokens covered by node. Every child tree of a
+        // parent covers the same tokens, so we only need to look at one
+        private int lengthOf(ParseTreeNode node) {
+            if(node instanceof ParseTreeLeaf) {
+                return 1;
+            }
+            Integer existingLength = nodeLengths.get(node);
+            if(existingLength != null) {
+                return existingLength;
+            }
+            int length = 0;
+            Set<List<ParseTreeNode>> childTrees = ((ParseTreeParent) node).getChildTrees();
+            if(! childTrees.isEmpty()) {
+                for(ParseTreeNode child : childTrees.iterator().next()) {
+                    length += lengthOf(child);
+                }
+            }
+            nodeLengths.put(node, length);
+            return length;
+        }
+
+        private int indexOf(Nonterminal nonterminal) {
+            Integer index = nonterminalIndices.get(nonterminal);
+            if(index == null) {
+                index = nonterminals.size();
+                nonterminals.add(nonterminal);
+                nonterminalIndices.put(nonterminal, index);
+            }
+            return index;
+        }
+
+        private void append(int value) {
+            if(codeLength == code.length) {
+                int[] newCode = new int[code.length * 2];
+                System.arraycopy(code, 0, newCode, 0, codeLength);
+                code = newCode;
+            }
+            code[codeLength++] = value;
+        }
+    }
+}
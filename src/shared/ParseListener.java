@@ -0,0 +1,47 @@
+package shared;
+
+public interface ParseListener {
+
+    // Hears what a chart parser does while it parses. Positions are sigma
+    // set indices, so position j is the sigma set right before the jth
+    // token. A parser without a listener doesn't make any of these calls,
+    // or even work out their arguments, so installing none costs nothing
+    // but a null check per step
+
+    public void parseStarted(int tokenCount);
+
+    // A nonterminal was called for the first time at this position
+    public void predicted(int position, Nonterminal nonterminal);
+
+    // entryCount entries were waiting for the token at tokenIndex
+    public void scanned(int tokenIndex, Token token, int entryCount);
+
+    // The nonterminal was found to match the tokens from start up to the
+    // position
+    public void completed(int position, Nonterminal nonterminal, int start);
+
+    // The sigma set at this position is done, with size entries
+    public void sigmaSetFilled(int position, int size);
+
+    // An entry that was already in the sigma set at this position was
+    // reached another way, so it got another preceding entry. The
+    // nonterminal is the one whose match made the new way, and the rule is
+    // the one of that match, so it's where the ambiguity comes from. For a
+    // terminal that a rule with EBNF operators can match two ways, it's
+    // that rule. Either is null if the parser can't tell cheaply
+    public void precedingEntryAdded(int position, Nonterminal nonterminal, GrammarRule rule);
+
+    // Building the parse tree found the node for the nonterminal over the
+    // tokens from start to end (inclusive) already made. For leaves the
+    // nonterminal is null and start and end are both the token's index
+    public void nodeReused(int start, int end, Nonterminal nonterminal);
+
+    // The tree builder started working left from an entry to add child
+    // trees to a node of the nonterminal. This happens once for every node
+    // that's built, and once more for every extra way an ambiguity gives
+    // it to go. The rule is the one the entry is in, or null if the parser
+    // can't tell cheaply
+    public void treeBuildRecursed(Nonterminal nonterminal, GrammarRule rule);
+
+    public void parseFinished(int tokenCount, boolean accepted);
+}
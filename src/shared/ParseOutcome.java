@@ -0,0 +1,131 @@
+package shared;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public class ParseOutcome {
+
+    // What became of a parse that was given a budget: the parse tree if
+    // the tokens were accepted, or why there isn't one, and how far the
+    // parse got. A rejected parse also says what it expected where it got
+    // stuck
+
+    public static final int ACCEPTED = 0;
+    public static final int REJECTED = 1;
+    // The rest mean the parse ran out of its budget before it could tell
+    public static final int CHART_LIMIT_REACHED = 2;
+    public static final int FOREST_LIMIT_REACHED = 3;
+    public static final int DEADLINE_PASSED = 4;
+    public static final int CANCELLED = 5;
+    // The tokens weren't in the language, but an error-recovering parse
+    // repaired them and built a tree with error leaves anyway
+    public static final int RECOVERED = 6;
+
+    private int status;
+    private ParseTreeNode tree;
+    private String message;
+    // The index of the sigma set the parse was filling when it stopped, or
+    // the last one if it didn't stop early. For a rejected parse that's the
+    // number of tokens it got through, so the token at this index is the
+    // first one that couldn't be scanned, or there's no such token if the
+    // tokens just ended too early
+    private int position;
+    // The symbols that could have come at the position. Empty unless the
+    // parse was rejected
+    private Set<Symbol> expectedSymbols;
+    // Empty unless the parse recovered from errors
+    private List<SyntaxError> errors;
+    private long chartEntries;
+    private int forestNodes;
+
+    public ParseOutcome(int s, ParseTreeNode t, String m, int p, Set<Symbol> e, long c, int f) {
+        status = s;
+        tree = t;
+        message = m;
+        position = p;
+        expectedSymbols = e;
+        chartEntries = c;
+        forestNodes = f;
+        errors = Collections.emptyList();
+    }
+
+    // Budget can be null
+    public static ParseOutcome accepted(ParseTreeNode tree, int tokenCount, ParseBudget budget) {
+        return new ParseOutcome(ACCEPTED, tree, "Accepted", tokenCount, Collections.<Symbol>emptySet(),
+                budget == null ? -1 : budget.getChartEntries(), budget == null ? -1 : budget.getForestNodes());
+    }
+
+    public static ParseOutcome rejected(List<Token> tokens, int position, Set<Symbol> expectedSymbols, ParseBudget budget) {
+        String message = position < tokens.size() ?
+                "Unexpected " + tokens.get(position) + ", expected one of " + expectedSymbols :
+                "Unexpected end of input, expected one of " + expectedSymbols;
+        return new ParseOutcome(REJECTED, null, message, position, expectedSymbols,
+                budget == null ? -1 : budget.getChartEntries(), -1);
+    }
+
+    public static ParseOutcome recovered(ParseTreeNode tree, int tokenCount, List<SyntaxError> errors, ParseBudget budget) {
+        ParseOutcome outcome = new ParseOutcome(RECOVERED, tree,
+                "Recovered from " + errors.size() + (errors.size() == 1 ? " syntax error" : " syntax errors"),
+                tokenCount, Collections.<Symbol>emptySet(),
+                budget == null ? -1 : budget.getChartEntries(), budget == null ? -1 : budget.getForestNodes());
+        outcome.errors = errors;
+        return outcome;
+    }
+
+    public static ParseOutcome aborted(ParseAbortedException e, int position, ParseBudget budget) {
+        return new ParseOutcome(e.getStatus(), null, e.getMessage(), position, Collections.<Symbol>emptySet(),
+                budget.getChartEntries(), budget.getForestNodes());
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public boolean isAccepted() {
+        return status == ACCEPTED;
+    }
+
+    // True if the parse ran out of budget, so it's not known whether the
+    // tokens are in the language
+    public boolean isAborted() {
+        return status >= CHART_LIMIT_REACHED && status <= CANCELLED;
+    }
+
+    // Null unless the tokens were accepted, or the parse recovered
+    public ParseTreeNode getTree() {
+        return tree;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public Set<Symbol> getExpectedSymbols() {
+        return expectedSymbols;
+    }
+
+    public List<SyntaxError> getErrors() {
+        return errors;
+    }
+
+    // -1 if the parse had no budget to count them
+    public long getChartEntries() {
+        return chartEntries;
+    }
+
+    // -1 if the parse had no budget to count them, or never built a forest
+    public int getForestNodes() {
+        return forestNodes;
+    }
+
+    @Override
+    public String toString() {
+        return message + " at sigma set " + position + " (" + chartEntries + " chart entries, " +
+                forestNodes + " forest nodes)";
+    }
+}
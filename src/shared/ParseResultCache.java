@@ -0,0 +1,251 @@
+package shared;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ParseResultCache implements Parser {
+
+    // The cache is split into stripes, each with its own lock and its own
+    // share of the memory budget, so that threads parsing different inputs
+    // rarely wait on each other. This must be a power of two
+    private static final int STRIPE_COUNT = 16;
+    // Rough per-entry cost of the key, the map entry and the shape object
+    // headers, on top of the arrays we count exactly
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private Parser parser;
+    // Held while the parser is in use. Parsers keep state between parses,
+    // so only one thread can be parsing at a time, while the others can
+    // still hit the cache
+    private Object parserLock;
+    private Grammar grammar;
+    // The grammar's modification count when the cached results were parsed
+    private int cacheModificationCount;
+    private long maxBytes;
+    private Stripe[] stripes;
+    private AtomicLong hitCount;
+    private AtomicLong missCount;
+    private AtomicLong evictionCount;
+
+    public ParseResultCache(Parser p, Grammar g, long maximumBytes) {
+        parser = p;
+        parserLock = new Object();
+        grammar = g;
+        cacheModificationCount = grammar.getModificationCount();
+        maxBytes = maximumBytes;
+        stripes = new Stripe[STRIPE_COUNT];
+        for(int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe(maxBytes / STRIPE_COUNT);
+        }
+        hitCount = new AtomicLong();
+        missCount = new AtomicLong();
+        evictionCount = new AtomicLong();
+    }
+
+    @Override
+    public synchronized void setGrammar(Grammar g) {
+        synchronized(parserLock) {
+            parser.setGrammar(g);
+        }
+        grammar = g;
+        cacheModificationCount = grammar.getModificationCount();
+        // Everything we have cached was parsed with the old grammar
+        clear();
+    }
+
+    @Override
+    public ParseTreeNode parse(List<Token> tokens) {
+        int modificationCount = checkGrammar();
+        TokenTypeSequence key = new TokenTypeSequence(tokens);
+        Stripe stripe = stripeFor(key);
+        CachedResult cached;
+        synchronized(stripe) {
+            cached = stripe.get(key);
+        }
+        if(cached != null) {
+            hitCount.incrementAndGet();
+            if(cached.shape == null) {
+                // The cached result was a rejection
+                return null;
+            }
+            return cached.shape.instantiate(tokens);
+        }
+
+        missCount.incrementAndGet();
+        // Parse outside of the stripe's lock. If two threads miss on the
+        // same key at once they'll both parse it, one after the other,
+        // which is wasteful but harmless
+        ParseTreeNode result;
+        synchronized(parserLock) {
+            result = parser.parse(tokens);
+        }
+        ParseForestShape shape = result == null ? null : ParseForestShape.capture(result);
+        CachedResult newCached = new CachedResult(shape, weigh(key, shape));
+        synchronized(stripe) {
+            // Don't keep a result if the grammar changed while we were
+            // parsing, since the cache may already have been cleared for it
+            if(modificationCount == grammar.getModificationCount()) {
+                evictionCount.addAndGet(stripe.add(key, newCached));
+            }
+        }
+        return result;
+    }
+
+    public void clear() {
+        for(Stripe stripe : stripes) {
+            synchronized(stripe) {
+                stripe.clear();
+                stripe.currentBytes = 0;
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getMaximumBytes() {
+        return maxBytes;
+    }
+
+    public long getCurrentBytes() {
+        long currentBytes = 0;
+        for(Stripe stripe : stripes) {
+            synchronized(stripe) {
+                currentBytes += stripe.currentBytes;
+            }
+        }
+        return currentBytes;
+    }
+
+    public int size() {
+        int size = 0;
+        for(Stripe stripe : stripes) {
+            synchronized(stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    // Clears the cache if rules were added or removed since the results in
+    // it were parsed. Returns the modification count they're for now
+    private synchronized int checkGrammar() {
+        int modificationCount = grammar.getModificationCount();
+        if(cacheModificationCount != modificationCount) {
+            clear();
+            cacheModificationCount = modificationCount;
+        }
+        return modificationCount;
+    }
+
+    private Stripe stripeFor(TokenTypeSequence key) {
+        // Mix the high bits in, since the low bits of the hash pick the
+        // stripe and the low bits of the hash map bucket alike
+        int hash = key.hash;
+        hash ^= (hash >>> 16);
+        return stripes[hash & (STRIPE_COUNT - 1)];
+    }
+
+    private static long weigh(TokenTypeSequence key, ParseForestShape shape) {
+        long bytes = ENTRY_OVERHEAD_BYTES + 8L * key.types.length;
+        if(shape != null) {
+            bytes += 4L * shape.getCodeLength();
+        }
+        return bytes;
+    }
+
+    private static class CachedResult {
+
+        // null if the input was rejected
+        public ParseForestShape shape;
+        public long bytes;
+
+        public CachedResult(ParseForestShape s, long b) {
+            shape = s;
+            bytes = b;
+        }
+    }
+
+    private static class Stripe extends LinkedHashMap<TokenTypeSequence, CachedResult> {
+
+        private static final long serialVersionUID = 1L;
+
+        public long maxBytes;
+        public long currentBytes;
+
+        public Stripe(long max) {
+            // Access order, so that iteration starts at the least recently
+            // used entry
+            super(16, 0.75f, true);
+            maxBytes = max;
+            currentBytes = 0;
+        }
+
+        // Adds the result, and returns how many entries had to be evicted
+        // to make room for it
+        public long add(TokenTypeSequence key, CachedResult result) {
+            if(result.bytes > maxBytes) {
+                // This would push everything else out and still not fit
+                return 0;
+            }
+            CachedResult previous = put(key, result);
+            currentBytes += result.bytes;
+            if(previous != null) {
+                currentBytes -= previous.bytes;
+            }
+            long evicted = 0;
+            Iterator<Map.Entry<TokenTypeSequence, CachedResult>> leastRecentlyUsed = entrySet().iterator();
+            while(currentBytes > maxBytes) {
+                Map.Entry<TokenTypeSequence, CachedResult> eldest = leastRecentlyUsed.next();
+                currentBytes -= eldest.getValue().bytes;
+                leastRecentlyUsed.remove();
+                evicted++;
+            }
+            return evicted;
+        }
+    }
+
+    // The key for a parse is just the types of its tokens, in order. The
+    // hash is computed once up front, since every lookup needs it
+    private static class TokenTypeSequence {
+
+        public Symbol[] types;
+        public int hash;
+
+        public TokenTypeSequence(List<Token> tokens) {
+            types = new Symbol[tokens.size()];
+            for(int i = 0; i < types.length; i++) {
+                types[i] = tokens.get(i).getType();
+            }
+            hash = Arrays.hashCode(types);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(! (other instanceof TokenTypeSequence)) {
+                return false;
+            }
+            TokenTypeSequence otherSequence = (TokenTypeSequence) other;
+            return otherSequence.hash == hash &&
+                    Arrays.equals(otherSequence.types, types);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package shared;
+
+import java.util.Objects;
+
+public class ParseTreeErrorLeaf extends ParseTreeLeaf {
+
+    // A leaf an error-recovering parse put in to get past a syntax error.
+    // A missing leaf stands for a token that should have been there but
+    // wasn't, and has an empty token of the symbol that was expected. A
+    // skipped leaf is a token that didn't fit anywhere, left in the tree
+    // where the parse was when it skipped it
+
+    public static final int MISSING = 0;
+    public static final int SKIPPED = 1;
+
+    private int kind;
+
+    public ParseTreeErrorLeaf(Token t, int k) {
+        super(t);
+        kind = k;
+    }
+
+    public static ParseTreeErrorLeaf missing(Symbol symbol) {
+        return new ParseTreeErrorLeaf(new Token("", symbol), MISSING);
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    public boolean isMissing() {
+        return kind == MISSING;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(! (other instanceof ParseTreeErrorLeaf)) {
+            return false;
+        }
+        ParseTreeErrorLeaf otherLeaf = (ParseTreeErrorLeaf) other;
+        return otherLeaf.kind == kind &&
+                otherLeaf.getToken().equals(getToken());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getToken(), kind);
+    }
+
+    @Override
+    public String toString() {
+        return (kind == MISSING ? "missing " + getSymbol() : "skipped " + getToken());
+    }
+}
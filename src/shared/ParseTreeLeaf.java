@@ -20,7 +20,8 @@ public class ParseTreeLeaf implements ParseTreeNode {
 
     @Override
     public boolean equals(Object other) {
-        if(! (other instanceof ParseTreeLeaf)) {
+        // An error leaf is never the same as a real one
+        if(other == null || other.getClass() != getClass()) {
             return false;
         }
         ParseTreeLeaf otherLeaf = (ParseTreeLeaf) other;
@@ -6,9 +6,17 @@ import java.util.Objects;
 public class ParseTreeNodeCache {
 
     private HashMap<ParseTreeNodeKey, ParseTreeNode> cache;
+    // Hears about every node that's taken back out of the cache. Can be
+    // null
+    private ParseListener listener;
 
     public ParseTreeNodeCache() {
+        this(null);
+    }
+
+    public ParseTreeNodeCache(ParseListener l) {
         cache = new HashMap<>();
+        listener = l;
     }
 
     // For all methods dealing with parents (containsParent, addParent,
@@ -34,13 +42,39 @@ public class ParseTreeNodeCache {
     }
 
     public ParseTreeParent getParent(int start, int end, Nonterminal nonterminal) {
+        if(listener != null) {
+            listener.nodeReused(start, end, nonterminal);
+        }
         return (ParseTreeParent) cache.get(new ParseTreeNodeKey(start, end, nonterminal));
     }
 
     public ParseTreeLeaf getLeaf(int index) {
+        if(listener != null) {
+            listener.nodeReused(index, index, null);
+        }
         return (ParseTreeLeaf) cache.get(new ParseTreeNodeKey(index, -1, null));
     }
 
+    public int size() {
+        return cache.size();
+    }
+
+    // Copies every node from other that only covers tokens at or after
+    // firstIndex, moving it over by offset tokens. Subtrees don't depend on
+    // anything outside of the tokens they cover, so this lets a parse of an
+    // edited token list reuse the subtrees after the edit
+    public void addShifted(ParseTreeNodeCache other, int firstIndex, int offset) {
+        for(ParseTreeNodeKey key : other.cache.keySet()) {
+            if(key.startIndex < firstIndex) {
+                continue;
+            }
+            // Leaves have an end index of -1 that doesn't move
+            int shiftedEndIndex = key.element == null ? key.endIndex : key.endIndex + offset;
+            ParseTreeNodeKey shiftedKey = new ParseTreeNodeKey(key.startIndex + offset, shiftedEndIndex, key.element);
+            cache.put(shiftedKey, other.cache.get(key));
+        }
+    }
+
     private class ParseTreeNodeKey {
 
         public int startIndex;
@@ -9,6 +9,13 @@ public class ParseTreeParent implements ParseTreeNode {
 
     private Nonterminal nonterminal;
     private HashSet<List<ParseTreeNode>> childTrees;
+    // Hashing a node hashes its child trees, which hashes their nodes, and
+    // so on down. An ambiguous forest shares nodes between its trees, so
+    // without keeping the hash, the same nodes get hashed over and over,
+    // exponentially many times. 0 until it's worked out, and reset when a
+    // child tree is added. The parsers fill a node before anything above it
+    // hashes it, so the nodes above don't hold on to a stale hash
+    private int hash;
 
     public ParseTreeParent(Nonterminal n) {
         nonterminal = n;
@@ -21,6 +28,7 @@ public class ParseTreeParent implements ParseTreeNode {
 
     public void addChildTree(List<ParseTreeNode> childTree) {
         childTrees.add(childTree);
+        hash = 0;
     }
 
     public Set<List<ParseTreeNode>> getChildTrees() {
@@ -29,6 +37,9 @@ public class ParseTreeParent implements ParseTreeNode {
 
     @Override
     public boolean equals(Object other) {
+        if(other == this) {
+            return true;
+        }
         if(! (other instanceof ParseTreeParent)) {
             return false;
         }
@@ -39,7 +50,10 @@ public class ParseTreeParent implements ParseTreeNode {
 
     @Override
     public int hashCode() {
-        return Objects.hash(nonterminal, childTrees);
+        if(hash == 0) {
+            hash = Objects.hash(nonterminal, childTrees);
+        }
+        return hash;
     }
 
     public String toString() {
@@ -1,71 +1,67 @@
 package shared;
 
+import adaptiveparser.AdaptiveParser;
+import cykparser.CYKParser;
 import earleyparser.EarleyParser;
 import gfgparser.GFGParser;
+import gfgparser.GrammarImage;
+import gllparser.GLLParser;
+import glrparser.GLRParser;
+import lalrparser.LALRParser;
+import lr0parser.LR0Parser;
+import shared.jfr.LexingEvent;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 public class ParserRunner {
 
     public static final String GRAMMAR_FILE_NAME = "grammar.txt";
+    // Made with "GrammarImage grammar.txt grammar.img"
+    public static final String GRAMMAR_IMAGE_FILE_NAME = "grammar.img";
 
     public static void main(String[] args) throws IOException {
 
-        Scanner grammarFile = new Scanner(new File(GRAMMAR_FILE_NAME));
-
-        // first the lexing section
-        String line = grammarFile.nextLine();
-        assert(line.equals("LEX"));
-
-        // Map the names of symbols to the symbol instances
-        ArrayList<Symbol> symbols = new ArrayList<>();
-        ArrayList<String> symbolNames = new ArrayList<>();
-        // Map the names of terminals to the terminal instances
-        HashMap<String, Terminal> terminals = new HashMap<>();
-        line = grammarFile.nextLine();
-        while(! line.equals("")) {
-            // The format of each line should be "name = pattern"
-            String name = line.substring(0, line.indexOf(" "));
-            String pattern = line.substring(line.indexOf(" ") + 3);
-            assert(! symbolNames.contains(name));
-            Symbol newSymbol = new Symbol(name, pattern);
-            symbols.add(newSymbol);
-            symbolNames.add(name);
-            terminals.put(name, new Terminal(newSymbol));
-            line = grammarFile.nextLine();
-        }
-
-        line = grammarFile.nextLine();
-        assert(line.equals("GRAMMAR"));
-
-        // Map the names of nonterminals to the nonterminal instances
-        HashMap<String, Nonterminal> nonterminals = new HashMap<>();
-        // The first rule is the start rule
-        GrammarRule startRule = parseGrammarRule(grammarFile.nextLine(), terminals, nonterminals);
-        Grammar grammar = new Grammar(startRule);
-        while(grammarFile.hasNextLine()) {
-            grammar.addRule(parseGrammarRule(grammarFile.nextLine(), terminals, nonterminals));
+        // Use the grammar image if there's an up to date one, since it's
+        // ready to go without building anything
+        File grammarFile = new File(GRAMMAR_FILE_NAME);
+        GrammarImage image = GrammarImage.loadIfCurrent(new File(GRAMMAR_IMAGE_FILE_NAME), grammarFile);
+        Grammar grammar;
+        Lexer lexer;
+        Parser gfgParser;
+        if(image != null) {
+            grammar = image.getGrammar();
+            lexer = image.createLexer();
+            gfgParser = image.getParser();
+        } else {
+            GrammarFile source = GrammarFile.read(grammarFile);
+            grammar = source.getGrammar();
+            lexer = source.createLexer();
+            gfgParser = new GFGParser(grammar);
         }
 
-        // Compile the lexer patterns into a regex matcher
-        StringBuffer combinedRegexBuffer = new StringBuffer();
-        for(int i = 0; i < symbols.size(); i++) {
-            Symbol symbol = symbols.get(i);
-            String symbolName = symbolNames.get(i);
-            combinedRegexBuffer.append(String.format("|\\s*(?<%s>%s)", symbolName, symbol.getPattern()));
+        // Every other parser gets checked against the Earley parser. The
+        // LR(0) parser can't handle EBNF operators
+        EarleyParser earleyParser = new EarleyParser(grammar);
+        // Only used to list every syntax error in lines that aren't in the
+        // language
+        EarleyParser recoveringParser = new EarleyParser(grammar);
+        recoveringParser.setRecoveringFromErrors(true);
+        ArrayList<Parser> otherParsers = new ArrayList<>();
+        otherParsers.add(gfgParser);
+        otherParsers.add(new LALRParser(grammar));
+        otherParsers.add(new GLRParser(grammar));
+        otherParsers.add(new GLLParser(grammar));
+        otherParsers.add(new CYKParser(grammar));
+        AdaptiveParser adaptiveParser = new AdaptiveParser(grammar);
+        otherParsers.add(adaptiveParser);
+        if(! grammar.isExtended()) {
+            otherParsers.add(new LR0Parser(grammar));
         }
-        Pattern lexerPattern = Pattern.compile(combinedRegexBuffer.substring(1));
-
-        Parser earleyParser = new EarleyParser(grammar);
-        Parser gfgParser = new GFGParser(grammar);
 
         Scanner input = new Scanner(System.in);
-        InputLoop:
         while(true) {
             System.out.println("Enter a line of text to parse:");
 
@@ -75,35 +71,29 @@ public class ParserRunner {
             }
 
             // First tokenize the input line
-            ArrayList<Token> tokens = new ArrayList<>();
-            Matcher inputMatcher = lexerPattern.matcher(inputLine);
-            int lastIndexMatched = 0;
-            while(inputMatcher.find()) {
-                if(inputMatcher.start() != lastIndexMatched) {
-                    System.out.println("That line failed to be tokenized");
-                    continue InputLoop;
-                }
-                for(int i = 0; i < symbols.size(); i++) {
-                    String symbolName = symbolNames.get(i);
-                    if(inputMatcher.group(symbolName) != null) {
-                        Symbol symbol = symbols.get(i);
-                        Token matchedToken = new Token(inputMatcher.group(symbolName), symbol);
-                        tokens.add(matchedToken);
-                        break;
-                    }
-                }
-                lastIndexMatched = inputMatcher.end();
+            LexingEvent lexingEvent = new LexingEvent();
+            lexingEvent.begin();
+            ArrayList<Token> tokens = lexer.tokenize(inputLine);
+            lexingEvent.end();
+            if(lexingEvent.shouldCommit()) {
+                lexingEvent.inputLength = inputLine.length();
+                lexingEvent.tokenCount = tokens == null ? -1 : tokens.size();
+                lexingEvent.commit();
             }
-            if(lastIndexMatched != inputLine.length()) {
+            if(tokens == null) {
+                System.out.println("That line failed to be tokenized");
                 continue;
             }
 
-            ParseTreeNode earleyResult = earleyParser.parse(tokens);
-            ParseTreeNode gfgResult = gfgParser.parse(tokens);
-            if( (earleyResult == null && gfgResult == null) ||
-                    earleyResult.equals(gfgResult)) {
-                System.out.println("The parsers returned the same trees");
-            } else {
+            ParseOutcome earleyOutcome = earleyParser.parse(tokens, null);
+            ParseTreeNode earleyResult = earleyOutcome.getTree();
+            boolean allSame = true;
+            for(Parser otherParser : otherParsers) {
+                ParseTreeNode otherResult = otherParser.parse(tokens);
+                if(earleyResult == null ? otherResult == null : earleyResult.equals(otherResult)) {
+                    continue;
+                }
+                allSame = false;
                 System.out.println("ERROR: The parsers returned different trees");
                 System.out.println("Earley tree:");
                 if(earleyResult == null) {
@@ -112,17 +102,24 @@ public class ParserRunner {
                     printParseTree(earleyResult);
                 }
                 System.out.println();
-                System.out.println("GFG tree:");
-                if(gfgResult == null) {
-                    System.out.println(gfgResult);
+                System.out.println(otherParser.getClass().getSimpleName() + " tree:");
+                if(otherResult == null) {
+                    System.out.println(otherResult);
                 } else {
-                    printParseTree(gfgResult);
+                    printParseTree(otherResult);
                 }
+            }
+            if(! allSame) {
                 continue;
             }
+            System.out.println("The parsers returned the same trees");
+            System.out.println("The adaptive parser used " + adaptiveParser.getLastEngineName());
 
             if(earleyResult == null) {
-                System.out.println("That line is not in the language");
+                System.out.println("That line is not in the language: " + earleyOutcome.getMessage());
+                for(SyntaxError error : recoveringParser.parse(tokens, null).getErrors()) {
+                    System.out.println("    " + error);
+                }
             } else {
                 System.out.println("Done");
                 // printAllParseTrees(earleyResult);
@@ -130,37 +127,6 @@ public class ParserRunner {
         }
     }
 
-    public static GrammarRule parseGrammarRule(String grammarRuleLine, HashMap<String, Terminal> terminals, HashMap<String, Nonterminal> nonterminals) {
-        // The format of each line should be "Nonterminal = GrammarElement GrammarElement GrammarElement"
-        String[] pieces = grammarRuleLine.split(" ");
-        String nonterminalName = pieces[0];
-        Nonterminal lhsNonterminal;
-        if(nonterminals.containsKey(nonterminalName)) {
-            lhsNonterminal = nonterminals.get(nonterminalName);
-        } else {
-            lhsNonterminal = new Nonterminal(nonterminalName);
-            nonterminals.put(nonterminalName, lhsNonterminal);
-        }
-        ArrayList<GrammarElement> ruleRightHandSide = new ArrayList<>();
-        // pieces[1] will be the '='
-        for(int rhsIndex = 2; rhsIndex < pieces.length; rhsIndex++) {
-            String grammarElementName = pieces[rhsIndex];
-            if(terminals.containsKey(grammarElementName)) {
-                ruleRightHandSide.add(terminals.get(grammarElementName));
-            } else {
-                Nonterminal rhsNonterminal;
-                if(nonterminals.containsKey(grammarElementName)) {
-                    rhsNonterminal = nonterminals.get(grammarElementName);
-                } else {
-                    rhsNonterminal = new Nonterminal(grammarElementName);
-                    nonterminals.put(grammarElementName, rhsNonterminal);
-                }
-                ruleRightHandSide.add(rhsNonterminal);
-            }
-        }
-        return new GrammarRule(lhsNonterminal, ruleRightHandSide);
-    }
-
     public static void printParseTree(ParseTreeNode root) {
         printParseTreeHelper("", root);
     }
@@ -0,0 +1,485 @@
+package shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+public class PersistentParseCache implements Parser, Closeable {
+
+    // The cache file is an append-only log. It starts with a header
+    //     MAGIC, VERSION, grammar fingerprint
+    // and is followed by records
+    //     record length, content hash, CRC, result flag, serialized shape
+    // where the record length counts everything after itself, the CRC
+    // covers the result flag and the serialized shape, and the serialized
+    // shape is only there if the result flag is ACCEPTED.
+    // The index from content hash to record offset is kept in memory, and
+    // rebuilt by skipping from record to record when the file is opened.
+    // A record is only checked against its CRC when it's looked up, and a
+    // damaged one is dropped and parsed again, like any other miss
+    private static final int MAGIC = 0x50415253;
+    private static final int VERSION = 2;
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_LENGTH = 8 + HASH_LENGTH;
+    private static final int RECORD_HEADER_LENGTH = 4 + HASH_LENGTH + 4 + 1;
+    private static final byte REJECTED = 0;
+    private static final byte ACCEPTED = 1;
+    // What open finds at the start of the file
+    private static final int CURRENT_HEADER = 0;
+    // An empty file, a header that was cut off, or a cache from another
+    // version or grammar. None of it is usable, so it's started over
+    private static final int STALE_HEADER = 1;
+    // Something that isn't a parse cache at all, which is left alone
+    private static final int FOREIGN_HEADER = 2;
+    // When the file goes over its maximum size, compaction evicts the least
+    // recently used records until it's down to this fraction of the maximum,
+    // so that we aren't compacting again after every single append
+    private static final double COMPACTION_TARGET = 0.75;
+
+    private Parser parser;
+    // Misses are parsed one at a time under this, since the parser isn't
+    // expected to be thread-safe. Lookups and stores don't wait on it
+    private Object parserLock;
+    private File file;
+    private long maxBytes;
+    private Grammar grammar;
+    private byte[] grammarFingerprint;
+    // The grammar's modification count when the fingerprint was taken
+    private int fingerprintModificationCount;
+
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private MappedByteBuffer mappedFile;
+    private long fileLength;
+    private HashMap<ByteBuffer, IndexEntry> index;
+    // Incremented on every lookup, to order records by recency
+    private long clock;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long compactionCount;
+
+    public PersistentParseCache(Parser p, Grammar g, File f, long maximumBytes) throws IOException {
+        parser = p;
+        parserLock = new Object();
+        file = f;
+        maxBytes = maximumBytes;
+        grammar = g;
+        grammarFingerprint = fingerprint(grammar);
+        fingerprintModificationCount = grammar.getModificationCount();
+        index = new HashMap<>();
+        open();
+    }
+
+    @Override
+    public synchronized void setGrammar(Grammar g) {
+        synchronized(parserLock) {
+            parser.setGrammar(g);
+        }
+        grammar = g;
+        try {
+            updateFingerprint();
+        } catch(IOException e) {
+            throw new RuntimeException("Could not reset parse cache " + file, e);
+        }
+    }
+
+    @Override
+    public ParseTreeNode parse(List<Token> tokens) {
+        ByteBuffer key = ByteBuffer.wrap(contentHash(tokens));
+        int modificationCount;
+        byte[] record;
+        try {
+            modificationCount = checkGrammar();
+            record = lookup(key);
+        } catch(IOException e) {
+            throw new RuntimeException("Could not read parse cache " + file, e);
+        }
+        if(record != null) {
+            if(record[0] == REJECTED) {
+                return null;
+            }
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, 1, record.length - 1));
+                return ParseForestShape.read(in).instantiate(tokens);
+            } catch(IOException | IllegalArgumentException e) {
+                // The record passed its CRC, but still isn't a shape for
+                // these tokens
+                discard(key);
+            }
+        }
+
+        // Parse outside of the cache's lock, so that other threads can keep
+        // hitting the cache in the meantime
+        ParseTreeNode result;
+        synchronized(parserLock) {
+            result = parser.parse(tokens);
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            if(result == null) {
+                out.writeByte(REJECTED);
+            } else {
+                out.writeByte(ACCEPTED);
+                ParseForestShape.capture(result).write(out);
+            }
+            out.flush();
+            store(key, bytes.toByteArray(), modificationCount);
+        } catch(IOException e) {
+            throw new RuntimeException("Could not write parse cache " + file, e);
+        }
+        return result;
+    }
+
+    // Rewrites the file with only the live records in it. If that's still
+    // more than targetBytes, the least recently used records are dropped
+    // until it fits
+    public synchronized void compact(long targetBytes) throws IOException {
+        ArrayList<IndexEntry> entries = new ArrayList<>(index.values());
+        Collections.sort(entries, new Comparator<IndexEntry>() {
+            @Override
+            public int compare(IndexEntry first, IndexEntry second) {
+                // Most recently used first
+                return Long.compare(second.lastUsed, first.lastUsed);
+            }
+        });
+        long keptBytes = HEADER_LENGTH;
+        int keptCount = 0;
+        while(keptCount < entries.size() && keptBytes + entries.get(keptCount).recordLength <= targetBytes) {
+            keptBytes += entries.get(keptCount).recordLength;
+            keptCount++;
+        }
+        List<IndexEntry> keptEntries = entries.subList(0, keptCount);
+        // Write them back oldest first, so that file order still roughly
+        // matches recency the next time the file is opened
+        Collections.reverse(keptEntries);
+
+        File compactedFile = new File(file.getPath() + ".compact");
+        RandomAccessFile compacted = new RandomAccessFile(compactedFile, "rw");
+        try {
+            compacted.setLength(0);
+            writeHeader(compacted);
+            for(IndexEntry entry : keptEntries) {
+                byte[] record = new byte[entry.recordLength];
+                readFully(entry.offset, record);
+                compacted.write(record);
+            }
+        } finally {
+            compacted.close();
+        }
+        evictionCount += entries.size() - keptCount;
+        compactionCount++;
+
+        closeFile();
+        Files.move(compactedFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+
+    public synchronized void compact() throws IOException {
+        compact(maxBytes);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeFile();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized long getCompactionCount() {
+        return compactionCount;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized long getFileLength() {
+        return fileLength;
+    }
+
+    // Rules may have been added or removed since the fingerprint was taken.
+    // Returns the modification count the records in the file are for now
+    private synchronized int checkGrammar() throws IOException {
+        if(fingerprintModificationCount != grammar.getModificationCount()) {
+            updateFingerprint();
+        }
+        return fingerprintModificationCount;
+    }
+
+    // Starts the file over if the grammar's rules aren't the ones its
+    // records were parsed with. Adding a rule and removing it again leaves
+    // the records as good as they were
+    private void updateFingerprint() throws IOException {
+        fingerprintModificationCount = grammar.getModificationCount();
+        byte[] newFingerprint = fingerprint(grammar);
+        if(! Arrays.equals(newFingerprint, grammarFingerprint)) {
+            grammarFingerprint = newFingerprint;
+            reset();
+        }
+    }
+
+    // Returns the result flag and the serialized shape, or null on a miss.
+    // A record that doesn't match its CRC is dropped and counts as a miss
+    private synchronized byte[] lookup(ByteBuffer key) throws IOException {
+        IndexEntry entry = index.get(key);
+        if(entry != null) {
+            // Skip the length and the content hash
+            int skipped = 4 + HASH_LENGTH;
+            byte[] record = new byte[entry.recordLength - skipped];
+            readFully(entry.offset + skipped, record);
+            int storedCRC = ByteBuffer.wrap(record).getInt();
+            byte[] result = Arrays.copyOfRange(record, 4, record.length);
+            if(storedCRC == crc(result)) {
+                hitCount++;
+                entry.lastUsed = ++clock;
+                return result;
+            }
+            index.remove(key);
+        }
+        missCount++;
+        return null;
+    }
+
+    // Takes back a hit on a record that turned out to be unusable, so that
+    // it's parsed and stored again
+    private synchronized void discard(ByteBuffer key) {
+        if(index.remove(key) != null) {
+            hitCount--;
+            missCount++;
+        }
+    }
+
+    // modificationCount is what checkGrammar returned before the parse
+    private synchronized void store(ByteBuffer key, byte[] result, int modificationCount) throws IOException {
+        if(modificationCount != fingerprintModificationCount) {
+            // The file was started over for new rules while we were parsing
+            return;
+        }
+        if(index.containsKey(key)) {
+            // Another thread beat us to it
+            return;
+        }
+        int recordLength = 4 + HASH_LENGTH + 4 + result.length;
+        ByteBuffer record = ByteBuffer.allocate(recordLength);
+        record.putInt(recordLength - 4);
+        record.put(key.array());
+        record.putInt(crc(result));
+        record.put(result);
+        record.flip();
+        long offset = fileLength;
+        while(record.hasRemaining()) {
+            channel.write(record, offset + record.position());
+        }
+        fileLength += recordLength;
+        index.put(key, new IndexEntry(offset, recordLength, ++clock));
+
+        if(fileLength > maxBytes) {
+            compact((long) (maxBytes * COMPACTION_TARGET));
+        }
+    }
+
+    private void open() throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        fileLength = channel.size();
+        index.clear();
+        int header = checkHeader();
+        if(header == FOREIGN_HEADER) {
+            closeFile();
+            throw new IOException(file + " is not a parse cache");
+        }
+        if(header == STALE_HEADER) {
+            reset();
+            return;
+        }
+        remap();
+        long offset = HEADER_LENGTH;
+        while(offset + RECORD_HEADER_LENGTH <= fileLength) {
+            int recordLength = mappedFile.getInt((int) offset) + 4;
+            if(recordLength < RECORD_HEADER_LENGTH || offset + recordLength > fileLength) {
+                break;
+            }
+            byte[] hash = new byte[HASH_LENGTH];
+            for(int i = 0; i < HASH_LENGTH; i++) {
+                hash[i] = mappedFile.get((int) offset + 4 + i);
+            }
+            // Records are appended in the order they were first parsed, so
+            // the file order is the best guess at recency we have
+            index.put(ByteBuffer.wrap(hash), new IndexEntry(offset, recordLength, ++clock));
+            offset += recordLength;
+        }
+        if(offset != fileLength) {
+            // The last record was only partly written, probably because the
+            // process died in the middle of an append. Cut it off
+            channel.truncate(offset);
+            fileLength = offset;
+            remap();
+        }
+    }
+
+    private int checkHeader() throws IOException {
+        if(fileLength == 0) {
+            return STALE_HEADER;
+        }
+        if(fileLength < 4) {
+            return FOREIGN_HEADER;
+        }
+        ByteBuffer header = ByteBuffer.allocate((int) Math.min(fileLength, HEADER_LENGTH));
+        while(header.hasRemaining()) {
+            if(channel.read(header, header.position()) < 0) {
+                break;
+            }
+        }
+        header.flip();
+        if(header.getInt() != MAGIC) {
+            return FOREIGN_HEADER;
+        }
+        if(header.remaining() < HEADER_LENGTH - 4 || header.getInt() != VERSION) {
+            return STALE_HEADER;
+        }
+        byte[] fileFingerprint = new byte[HASH_LENGTH];
+        header.get(fileFingerprint);
+        return Arrays.equals(fileFingerprint, grammarFingerprint) ? CURRENT_HEADER : STALE_HEADER;
+    }
+
+    private void reset() throws IOException {
+        index.clear();
+        channel.truncate(0);
+        randomAccessFile.seek(0);
+        writeHeader(randomAccessFile);
+        fileLength = HEADER_LENGTH;
+        remap();
+    }
+
+    private void writeHeader(RandomAccessFile out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(grammarFingerprint);
+    }
+
+    private void readFully(long offset, byte[] destination) throws IOException {
+        if(offset + destination.length > mappedFile.capacity()) {
+            // The record was appended after we last mapped the file
+            remap();
+        }
+        for(int i = 0; i < destination.length; i++) {
+            destination[i] = mappedFile.get((int) offset + i);
+        }
+    }
+
+    private void remap() throws IOException {
+        if(fileLength > Integer.MAX_VALUE) {
+            throw new IOException("Parse cache " + file + " is too big to map");
+        }
+        mappedFile = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+    }
+
+    private void closeFile() throws IOException {
+        mappedFile = null;
+        channel.close();
+        randomAccessFile.close();
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] contentHash(List<Token> tokens) {
+        MessageDigest digest = sha256();
+        for(Token token : tokens) {
+            digest.update(token.getType().getName().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(token.getText().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return digest.digest();
+    }
+
+    // The results in the cache are only good for the grammar they were
+    // parsed with, so the file is stamped with a hash of the grammar. Rules
+    // are hashed in sorted order, since rule order doesn't change results
+    private static byte[] fingerprint(Grammar grammar) {
+        ArrayList<String> ruleStrings = new ArrayList<>();
+        for(Nonterminal nonterminal : grammar.getNonterminals()) {
+            for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+                StringBuilder ruleString = new StringBuilder(rule.getLeftHandSide().getName());
+                ruleString.append(" =");
+                for(GrammarElement element : rule.getRightHandSide()) {
+                    ruleString.append(' ');
+                    if(element instanceof Terminal) {
+                        Symbol symbol = ((Terminal) element).getSymbol();
+                        ruleString.append(symbol.getName()).append('/').append(symbol.getPattern());
+                    } else {
+                        ruleString.append(element);
+                    }
+                }
+                ruleStrings.add(ruleString.toString());
+            }
+        }
+        Collections.sort(ruleStrings);
+        MessageDigest digest = sha256();
+        digest.update(grammar.getStartRule().getLeftHandSide().getName().getBytes(StandardCharsets.UTF_8));
+        for(String ruleString : ruleStrings) {
+            digest.update((byte) '\n');
+            digest.update(ruleString.getBytes(StandardCharsets.UTF_8));
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class IndexEntry {
+
+        public long offset;
+        public int recordLength;
+        public long lastUsed;
+
+        public IndexEntry(long o, int length, long used) {
+            offset = o;
+            recordLength = length;
+            lastUsed = used;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package shared;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ReparseState<S> {
+
+    // What a chart parser remembers from its last reparse: the tokens, the
+    // sigma sets it built for them and the nodes of the parse tree. S is
+    // the parser's sigma set type, where sigma set j is the one right
+    // before the jth token. Only the step that resumes the chart is left
+    // to the parser
+
+    private List<Token> tokens;
+    private ArrayList<S> sigmaSets;
+    private ParseTreeNodeCache nodes;
+
+    // Forgets the last parse, e.g. because it might have gone differently
+    // with new rules
+    public void clear() {
+        tokens = null;
+        sigmaSets = null;
+        nodes = null;
+    }
+
+    // Drops the sigma sets the edit made stale, and returns the index of
+    // the sigma set the parser has to carry on from. The sigma sets up to
+    // and including it are in getSigmaSets(). With nothing to reuse, the
+    // sigma sets are empty and the parser starts from scratch
+    public int resume(List<Token> newTokens) {
+        if(tokens == null) {
+            sigmaSets = new ArrayList<>();
+            return 0;
+        }
+        // Sigma set j only depends on the tokens before index j, so every
+        // sigma set up to and including the first edited token's is still
+        // good
+        int prefixLength = 0;
+        while(prefixLength < newTokens.size() && prefixLength < tokens.size() &&
+                newTokens.get(prefixLength).equals(tokens.get(prefixLength))) {
+            prefixLength++;
+        }
+        while(sigmaSets.size() > prefixLength + 1) {
+            sigmaSets.remove(sigmaSets.size() - 1);
+        }
+        // The last parse may have stopped before the edit
+        return Math.min(prefixLength, sigmaSets.size() - 1);
+    }
+
+    public ArrayList<S> getSigmaSets() {
+        return sigmaSets;
+    }
+
+    // A cache for the new parse tree that already holds every node from
+    // the last one that's completely after the edit. Those subtrees are
+    // the same as last time, just covering different token indices
+    public ParseTreeNodeCache createNodeCache(List<Token> newTokens, ParseListener listener) {
+        ParseTreeNodeCache newNodes = new ParseTreeNodeCache(listener);
+        if(nodes != null) {
+            int suffixLength = commonSuffixLength(tokens, newTokens);
+            newNodes.addShifted(nodes, tokens.size() - suffixLength, newTokens.size() - tokens.size());
+        }
+        return newNodes;
+    }
+
+    // Remembers the parse that was just finished. newNodes is null if
+    // the tokens were rejected
+    public void finish(List<Token> newTokens, ParseTreeNodeCache newNodes) {
+        tokens = new ArrayList<>(newTokens);
+        nodes = newNodes;
+    }
+
+    private static int commonSuffixLength(List<Token> first, List<Token> second) {
+        int maxLength = Math.min(first.size(), second.size());
+        int suffixLength = 0;
+        while(suffixLength < maxLength &&
+                first.get(first.size() - 1 - suffixLength).equals(second.get(second.size() - 1 - suffixLength))) {
+            suffixLength++;
+        }
+        return suffixLength;
+    }
+}
@@ -0,0 +1,226 @@
+package shared;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+public class RuleAutomaton {
+
+    // The right hand side of a rule, as an automaton over terminals and
+    // nonterminals. With EBNF operators a rule can match more than one
+    // sequence of elements, and the parsers need to know where they can go
+    // from each point in the rule.
+    // State 0 is the start of the rule. Every other state is one of the
+    // terminals or nonterminals written in the rule (counting the ones in
+    // groups, in the order they're written), and means "just after that
+    // element". So every way into a state moves over the same element,
+    // which lets the parsers work backwards through a rule without having
+    // to guess what came before.
+    // For a rule without EBNF operators, state k is just the cursor index
+    // k: the automaton is a chain, and the last state is the only final one.
+
+    // stateElements.get(k) is the element moved over to get to state k. It's
+    // null for state 0
+    private ArrayList<GrammarElement> stateElements;
+    private ArrayList<TreeSet<Integer>> nextStates;
+    private int[][] nextStateArrays;
+    private int[][] previousStateArrays;
+    private boolean[] finalStates;
+    private boolean nullable;
+
+    public RuleAutomaton(List<GrammarElement> rightHandSide) {
+        stateElements = new ArrayList<>();
+        nextStates = new ArrayList<>();
+        stateElements.add(null);
+        nextStates.add(new TreeSet<Integer>());
+
+        Fragment rule = buildSequence(rightHandSide);
+        nextStates.get(0).addAll(rule.first);
+        nullable = rule.nullable;
+        finalStates = new boolean[stateElements.size()];
+        for(int state : rule.last) {
+            finalStates[state] = true;
+        }
+        finalStates[0] = nullable;
+
+        int stateCount = stateElements.size();
+        nextStateArrays = new int[stateCount][];
+        ArrayList<ArrayList<Integer>> previousStates = new ArrayList<>();
+        for(int state = 0; state < stateCount; state++) {
+            previousStates.add(new ArrayList<Integer>());
+        }
+        for(int state = 0; state < stateCount; state++) {
+            nextStateArrays[state] = toArray(nextStates.get(state));
+            for(int nextState : nextStateArrays[state]) {
+                previousStates.get(nextState).add(state);
+            }
+        }
+        previousStateArrays = new int[stateCount][];
+        for(int state = 0; state < stateCount; state++) {
+            previousStateArrays[state] = toArray(previousStates.get(state));
+        }
+    }
+
+    public int getStateCount() {
+        return stateElements.size();
+    }
+
+    public GrammarElement getElement(int state) {
+        return stateElements.get(state);
+    }
+
+    public int[] getNextStates(int state) {
+        return nextStateArrays[state];
+    }
+
+    public int[] getPreviousStates(int state) {
+        return previousStateArrays[state];
+    }
+
+    public boolean isFinal(int state) {
+        return finalStates[state];
+    }
+
+    // Whether the rule can match no elements at all
+    public boolean isNullable() {
+        return nullable;
+    }
+
+    // Whether the rule can match exactly this sequence of elements
+    public boolean matches(List<? extends GrammarElement> elements) {
+        boolean[] currentStates = new boolean[getStateCount()];
+        currentStates[0] = true;
+        for(GrammarElement element : elements) {
+            boolean[] reachedStates = new boolean[getStateCount()];
+            boolean anyState = false;
+            for(int state = 0; state < currentStates.length; state++) {
+                if(! currentStates[state]) {
+                    continue;
+                }
+                for(int nextState : nextStateArrays[state]) {
+                    if(stateElements.get(nextState).equals(element)) {
+                        reachedStates[nextState] = true;
+                        anyState = true;
+                    }
+                }
+            }
+            if(! anyState) {
+                return false;
+            }
+            currentStates = reachedStates;
+        }
+        for(int state = 0; state < currentStates.length; state++) {
+            if(currentStates[state] && finalStates[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The shortest sequence of elements the rule matches, found with a
+    // breadth first search from the start state
+    public List<GrammarElement> getShortestMatch() {
+        int[] previousOnPath = new int[getStateCount()];
+        Arrays.fill(previousOnPath, -1);
+        ArrayDeque<Integer> toVisit = new ArrayDeque<>();
+        toVisit.add(0);
+        previousOnPath[0] = 0;
+        while(! toVisit.isEmpty()) {
+            int state = toVisit.remove();
+            if(finalStates[state]) {
+                ArrayList<GrammarElement> match = new ArrayList<>();
+                while(state != 0) {
+                    match.add(stateElements.get(state));
+                    state = previousOnPath[state];
+                }
+                Collections.reverse(match);
+                return match;
+            }
+            for(int nextState : nextStateArrays[state]) {
+                if(previousOnPath[nextState] == -1) {
+                    previousOnPath[nextState] = state;
+                    toVisit.add(nextState);
+                }
+            }
+        }
+        // Every state can reach a final one, so this can't happen
+        return null;
+    }
+
+    // The part of the automaton for a piece of the rule: whether the piece
+    // can be skipped, the states it can begin with, and the states it can
+    // end with. Edges inside the piece are added to nextStates as it's built
+    private static class Fragment {
+
+        public boolean nullable;
+        public TreeSet<Integer> first;
+        public TreeSet<Integer> last;
+
+        public Fragment(boolean n) {
+            nullable = n;
+            first = new TreeSet<>();
+            last = new TreeSet<>();
+        }
+    }
+
+    private Fragment buildSequence(List<GrammarElement> elements) {
+        // An empty sequence can be skipped, and joins nothing to nothing
+        Fragment sequence = new Fragment(true);
+        for(GrammarElement element : elements) {
+            Fragment next = buildElement(element);
+            // Everything the sequence so far can end with goes on to
+            // everything the next element can begin with
+            for(int state : sequence.last) {
+                nextStates.get(state).addAll(next.first);
+            }
+            if(sequence.nullable) {
+                sequence.first.addAll(next.first);
+            }
+            if(next.nullable) {
+                sequence.last.addAll(next.last);
+            } else {
+                sequence.last = next.last;
+            }
+            sequence.nullable = sequence.nullable && next.nullable;
+        }
+        return sequence;
+    }
+
+    private Fragment buildElement(GrammarElement element) {
+        if(! (element instanceof EbnfGroup)) {
+            int state = stateElements.size();
+            stateElements.add(element);
+            nextStates.add(new TreeSet<Integer>());
+            Fragment fragment = new Fragment(false);
+            fragment.first.add(state);
+            fragment.last.add(state);
+            return fragment;
+        }
+        EbnfGroup group = (EbnfGroup) element;
+        Fragment fragment = buildSequence(group.getElements());
+        if(group.getOperator() != EbnfGroup.OPTIONAL) {
+            // Repeating means the end of the group can go back to its
+            // beginning
+            for(int state : fragment.last) {
+                nextStates.get(state).addAll(fragment.first);
+            }
+        }
+        if(group.getOperator() != EbnfGroup.ONE_OR_MORE) {
+            fragment.nullable = true;
+        }
+        return fragment;
+    }
+
+    private static int[] toArray(Collection<Integer> states) {
+        int[] array = new int[states.size()];
+        int i = 0;
+        for(int state : states) {
+            array[i++] = state;
+        }
+        return array;
+    }
+}
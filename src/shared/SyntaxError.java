@@ -0,0 +1,67 @@
+package shared;
+
+import java.util.Set;
+
+public class SyntaxError {
+
+    // One place an error-recovering parse had to repair the tokens: either
+    // some tokens were missing in front of a token, or some tokens in a row
+    // didn't fit and were skipped. Token indices are into the tokens the
+    // parse was given, so missing tokens at the end of the input are at
+    // the index one past the last token
+
+    public static final int MISSING_TOKENS = 0;
+    public static final int UNEXPECTED_TOKENS = 1;
+
+    private int kind;
+    private int tokenIndex;
+    // How many tokens were made up or skipped
+    private int tokenCount;
+    // The first skipped token, or null for missing tokens
+    private Token token;
+    // What the parse expected at the token index
+    private Set<Symbol> expectedSymbols;
+
+    public SyntaxError(int k, int i, Token t, Set<Symbol> e) {
+        kind = k;
+        tokenIndex = i;
+        tokenCount = 1;
+        token = t;
+        expectedSymbols = e;
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    public int getTokenIndex() {
+        return tokenIndex;
+    }
+
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    public Token getToken() {
+        return token;
+    }
+
+    public Set<Symbol> getExpectedSymbols() {
+        return expectedSymbols;
+    }
+
+    // Only called while the repairs are being made
+    void addToken() {
+        tokenCount++;
+    }
+
+    @Override
+    public String toString() {
+        if(kind == MISSING_TOKENS) {
+            return "Missing " + (tokenCount == 1 ? "a token" : tokenCount + " tokens") +
+                    " at token " + tokenIndex + ", expected one of " + expectedSymbols;
+        }
+        return "Unexpected " + token + (tokenCount == 1 ? "" : " and " + (tokenCount - 1) + " more tokens") +
+                " at token " + tokenIndex + ", expected one of " + expectedSymbols;
+    }
+}
@@ -0,0 +1,76 @@
+package shared;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+public class TokenRepairs {
+
+    // The tokens an error-recovering parse actually went through, and the
+    // syntax errors it repaired on the way. Besides the tokens it scanned,
+    // the list has the tokens it skipped and a place for every token it
+    // made up, so that sigma set j is still the one right before the jth
+    // token of the list
+
+    public static final int SCANNED = 0;
+    public static final int MISSING = 1;
+    public static final int SKIPPED = 2;
+    // The most tokens a parse will make up at the end of the input to
+    // finish the start rule before it gives up
+    public static final int MAX_MISSING_AT_END = 64;
+
+    // Null where a token was made up, since any of the expected symbols
+    // could have been it
+    private ArrayList<Token> tokens;
+    private ArrayList<Integer> kinds;
+    private ArrayList<SyntaxError> errors;
+
+    public TokenRepairs() {
+        tokens = new ArrayList<>();
+        kinds = new ArrayList<>();
+        errors = new ArrayList<>();
+    }
+
+    public void addScanned(Token token) {
+        tokens.add(token);
+        kinds.add(SCANNED);
+    }
+
+    // Missing tokens in a row count as one error
+    public void addMissing(int tokenIndex, Set<Symbol> expectedSymbols) {
+        tokens.add(null);
+        kinds.add(MISSING);
+        SyntaxError lastError = errors.isEmpty() ? null : errors.get(errors.size() - 1);
+        if(lastError != null && lastError.getKind() == SyntaxError.MISSING_TOKENS &&
+                lastError.getTokenIndex() == tokenIndex) {
+            lastError.addToken();
+        } else {
+            errors.add(new SyntaxError(SyntaxError.MISSING_TOKENS, tokenIndex, null, expectedSymbols));
+        }
+    }
+
+    // So do skipped tokens
+    public void addSkipped(int tokenIndex, Token token, Set<Symbol> expectedSymbols) {
+        tokens.add(token);
+        kinds.add(SKIPPED);
+        SyntaxError lastError = errors.isEmpty() ? null : errors.get(errors.size() - 1);
+        if(lastError != null && lastError.getKind() == SyntaxError.UNEXPECTED_TOKENS &&
+                lastError.getTokenIndex() + lastError.getTokenCount() == tokenIndex) {
+            lastError.addToken();
+        } else {
+            errors.add(new SyntaxError(SyntaxError.UNEXPECTED_TOKENS, tokenIndex, token, expectedSymbols));
+        }
+    }
+
+    public List<Token> getTokens() {
+        return tokens;
+    }
+
+    public int getKind(int index) {
+        return kinds.get(index);
+    }
+
+    public List<SyntaxError> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,270 @@
+package shared.analysis;
+
+import shared.*;
+
+import java.util.*;
+
+public class GrammarAnalysis {
+
+    // Facts about a grammar that don't depend on any input: how its
+    // nonterminals refer to each other, which of them are in cycles or are
+    // left or right recursive, which of them can be empty or can produce a
+    // finite string of terminals at all, and their FIRST and FOLLOW sets.
+    // Rules with EBNF operators refer to every element written in them.
+    // Working all this out means going over the whole grammar several
+    // times, so GrammarAnalysis.of keeps the analysis of each grammar
+    // around until the grammar changes, and everything that needs these
+    // facts can share it
+
+    private static WeakHashMap<Grammar, GrammarAnalysis> analyses = new WeakHashMap<>();
+
+    // Which version of the grammar this is the analysis of
+    private int grammarModificationCount;
+    private HashSet<Terminal> terminals;
+    // For each nonterminal, the nonterminals its rules refer to
+    private HashMap<Nonterminal, HashSet<Nonterminal>> graphEdges;
+    private StronglyConnectedComponents components;
+    // Nonterminals that are in a cycle themselves, or can reach one
+    private HashSet<Nonterminal> canReachCyclic;
+    private HashSet<Nonterminal> reachableNonterminals;
+    private HashSet<Nonterminal> leftRecursiveNonterminals;
+    private HashSet<Nonterminal> rightRecursiveNonterminals;
+    private LookaheadSets lookaheadSets;
+    private YieldAnalysis yieldAnalysis;
+
+    // The analysis of the grammar as it is now. The analyses don't hold on
+    // to their grammars, so a grammar nothing else uses anymore can still
+    // be garbage collected
+    public static synchronized GrammarAnalysis of(Grammar grammar) {
+        GrammarAnalysis analysis = analyses.get(grammar);
+        if(analysis == null || analysis.grammarModificationCount != grammar.getModificationCount()) {
+            analysis = new GrammarAnalysis(grammar);
+            analyses.put(grammar, analysis);
+        }
+        return analysis;
+    }
+
+    public GrammarAnalysis(Grammar grammar) {
+        grammarModificationCount = grammar.getModificationCount();
+
+        // Now go ahead and make sets for the terminals and nonterminals
+        HashSet<Nonterminal> nonterminals = new HashSet<>(grammar.getNonterminals());
+        terminals = new HashSet<>();
+        for(Nonterminal nonterminal : nonterminals) {
+            for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+                for(GrammarElement element : getElements(rule)) {
+                    if(element instanceof Terminal) {
+                        terminals.add((Terminal) element);
+                    }
+                }
+            }
+        }
+
+        // Generate the graph of the grammar
+        graphEdges = new HashMap<>();
+        for(Nonterminal nonterminal: nonterminals) {
+            HashSet<Nonterminal> connectedNonterminals = new HashSet<>();
+            for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+                for(GrammarElement element : getElements(rule)) {
+                    if(element instanceof Nonterminal) {
+                        connectedNonterminals.add((Nonterminal) element);
+                    }
+                }
+            }
+            graphEdges.put(nonterminal, connectedNonterminals);
+        }
+
+        components = new StronglyConnectedComponents(graphEdges);
+
+        // Now we need to find all nodes that either are in a cycle
+        // themselves, or can reach a cyclic node. The easiest way to
+        // do this is to reverse every edge in the graph, and then
+        // do a DFS starting from every cyclic node
+        HashMap<Nonterminal, HashSet<Nonterminal>> reversedGraphEdges =
+                new HashMap<>();
+        // first fill it with empty sets
+        for(Nonterminal nonterminal: nonterminals) {
+            reversedGraphEdges.put(nonterminal, new HashSet<Nonterminal>());
+        }
+        // Now populate the sets
+        for(Nonterminal edgeStart : graphEdges.keySet()) {
+            for(Nonterminal edgeEnd : graphEdges.get(edgeStart)) {
+                HashSet<Nonterminal> edgeStarts = reversedGraphEdges.get(edgeEnd);
+                // A nonterminal with no rules doesn't have a set yet
+                if(edgeStarts == null) {
+                    edgeStarts = new HashSet<>();
+                    reversedGraphEdges.put(edgeEnd, edgeStarts);
+                }
+                edgeStarts.add(edgeStart);
+            }
+        }
+
+        // Now run DFS on the reversed edges, starting from all cyclic
+        // nodes
+        canReachCyclic = new HashSet<>();
+        for(Nonterminal nonterminal : components.getCyclicNonterminals()) {
+            depthFirstSearch(nonterminal, reversedGraphEdges, canReachCyclic);
+        }
+
+        // And on the edges themselves, starting from the start nonterminal
+        reachableNonterminals = new HashSet<>();
+        depthFirstSearch(grammar.getStartRule().getLeftHandSide(), graphEdges, reachableNonterminals);
+
+        lookaheadSets = new LookaheadSets(grammar);
+        yieldAnalysis = new YieldAnalysis(grammar, terminals);
+
+        // A nonterminal is left recursive if it can derive something that
+        // starts with itself, so it's in a cycle of the graph that only has
+        // the edges to nonterminals that can start a match of a rule. The
+        // same goes for right recursion and the ends of rules
+        HashMap<Nonterminal, HashSet<Nonterminal>> leftCornerEdges = new HashMap<>();
+        HashMap<Nonterminal, HashSet<Nonterminal>> rightCornerEdges = new HashMap<>();
+        for(Nonterminal nonterminal : nonterminals) {
+            HashSet<Nonterminal> leftCorners = new HashSet<>();
+            HashSet<Nonterminal> rightCorners = new HashSet<>();
+            for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+                addCorners(rule, leftCorners, rightCorners);
+            }
+            leftCornerEdges.put(nonterminal, leftCorners);
+            rightCornerEdges.put(nonterminal, rightCorners);
+        }
+        leftRecursiveNonterminals = new HashSet<>(
+                new StronglyConnectedComponents(leftCornerEdges).getCyclicNonterminals());
+        rightRecursiveNonterminals = new HashSet<>(
+                new StronglyConnectedComponents(rightCornerEdges).getCyclicNonterminals());
+    }
+
+    public Set<Terminal> getTerminals() {
+        return terminals;
+    }
+
+    public Set<Nonterminal> getConnectedNonterminals(Nonterminal nonterminal) {
+        return graphEdges.get(nonterminal);
+    }
+
+    public Set<HashSet<Nonterminal>> getStronglyConnectedComponents() {
+        return components.getComponents();
+    }
+
+    public Set<Nonterminal> getCyclicNonterminals() {
+        return components.getCyclicNonterminals();
+    }
+
+    public boolean canReachCycle(Nonterminal nonterminal) {
+        return canReachCyclic.contains(nonterminal);
+    }
+
+    public boolean isReachable(Nonterminal nonterminal) {
+        return reachableNonterminals.contains(nonterminal);
+    }
+
+    public boolean isLeftRecursive(Nonterminal nonterminal) {
+        return leftRecursiveNonterminals.contains(nonterminal);
+    }
+
+    public boolean isRightRecursive(Nonterminal nonterminal) {
+        return rightRecursiveNonterminals.contains(nonterminal);
+    }
+
+    public Set<Nonterminal> getLeftRecursiveNonterminals() {
+        return leftRecursiveNonterminals;
+    }
+
+    public Set<Nonterminal> getRightRecursiveNonterminals() {
+        return rightRecursiveNonterminals;
+    }
+
+    public boolean isNullable(Nonterminal nonterminal) {
+        return lookaheadSets.isNullable(nonterminal);
+    }
+
+    public Set<Terminal> getFirstSet(Nonterminal nonterminal) {
+        return lookaheadSets.getFirstSet(nonterminal);
+    }
+
+    public Set<Terminal> getFollowSet(Nonterminal nonterminal) {
+        return lookaheadSets.getFollowSet(nonterminal);
+    }
+
+    public boolean isFollowedByEndOfInput(Nonterminal nonterminal) {
+        return lookaheadSets.isFollowedByEndOfInput(nonterminal);
+    }
+
+    public LookaheadSets getLookaheadSets() {
+        return lookaheadSets;
+    }
+
+    public boolean isProductive(Nonterminal nonterminal) {
+        return yieldAnalysis.isProductive(nonterminal);
+    }
+
+    public List<Terminal> getFinishingString(Nonterminal nonterminal) {
+        return yieldAnalysis.getFinishingString(nonterminal);
+    }
+
+    public int getMinimalYieldLength(Nonterminal nonterminal) {
+        return yieldAnalysis.getMinimalYieldLength(nonterminal);
+    }
+
+    // Every terminal and nonterminal written in the rule, in order
+    public static List<GrammarElement> getElements(GrammarRule rule) {
+        if(! rule.isExtended()) {
+            return rule.getRightHandSide();
+        }
+        RuleAutomaton automaton = rule.getAutomaton();
+        ArrayList<GrammarElement> elements = new ArrayList<>();
+        for(int state = 1; state < automaton.getStateCount(); state++) {
+            elements.add(automaton.getElement(state));
+        }
+        return elements;
+    }
+
+    // Adds the nonterminals that can start a match of the rule to
+    // leftCorners, and the ones that can end one to rightCorners
+    private void addCorners(GrammarRule rule, Set<Nonterminal> leftCorners, Set<Nonterminal> rightCorners) {
+        RuleAutomaton automaton = rule.getAutomaton();
+        // The states right after the start, skipping over nullable
+        // nonterminals
+        boolean[] fromStart = new boolean[automaton.getStateCount()];
+        ArrayDeque<Integer> toVisit = new ArrayDeque<>();
+        toVisit.add(0);
+        while(! toVisit.isEmpty()) {
+            for(int nextState : automaton.getNextStates(toVisit.remove())) {
+                if(fromStart[nextState]) {
+                    continue;
+                }
+                fromStart[nextState] = true;
+                GrammarElement element = automaton.getElement(nextState);
+                if(element instanceof Nonterminal) {
+                    leftCorners.add((Nonterminal) element);
+                    if(lookaheadSets.isNullable((Nonterminal) element)) {
+                        toVisit.add(nextState);
+                    }
+                }
+            }
+        }
+        for(int state = 1; state < automaton.getStateCount(); state++) {
+            GrammarElement element = automaton.getElement(state);
+            if(element instanceof Nonterminal && lookaheadSets.canFinishFrom(rule, state)) {
+                rightCorners.add((Nonterminal) element);
+            }
+        }
+    }
+
+    private static void depthFirstSearch(Nonterminal nonterminal,
+                                         HashMap<Nonterminal, HashSet<Nonterminal>> edges,
+                                         HashSet<Nonterminal> result) {
+        if(result.contains(nonterminal)) {
+            return;
+        }
+        result.add(nonterminal);
+        HashSet<Nonterminal> edgeEnds = edges.get(nonterminal);
+        if(edgeEnds == null) {
+            // A nonterminal with no rules
+            return;
+        }
+        for(Nonterminal edgeEnd : edgeEnds) {
+            depthFirstSearch(edgeEnd, edges, result);
+        }
+    }
+}
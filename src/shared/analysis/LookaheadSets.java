@@ -0,0 +1,173 @@
+package shared.analysis;
+
+import shared.*;
+
+import java.util.*;
+
+public class LookaheadSets {
+
+    // Which nonterminals can match no tokens at all, and the FIRST and
+    // FOLLOW sets of every nonterminal: the terminals that can begin a
+    // match of it, and the terminals that can come right after one. Since
+    // rules with EBNF operators can match more than one sequence of
+    // elements, all of these are found by walking the rule automata instead
+    // of the right hand sides.
+    // Nothing in the grammar files can be empty right now, but nothing here
+    // counts on that, so the sets stay right if that ever changes
+
+    private HashSet<Nonterminal> nullableNonterminals;
+    private HashMap<Nonterminal, HashSet<Terminal>> firstSets;
+    private HashMap<Nonterminal, HashSet<Terminal>> followSets;
+    // Nonterminals a match of which can be the last thing in the input
+    private HashSet<Nonterminal> followedByEndOfInput;
+
+    public LookaheadSets(Grammar grammar) {
+        Set<Nonterminal> nonterminals = grammar.getNonterminals();
+        nullableNonterminals = new HashSet<>();
+        firstSets = new HashMap<>();
+        followSets = new HashMap<>();
+        followedByEndOfInput = new HashSet<>();
+        for(Nonterminal nonterminal : nonterminals) {
+            firstSets.put(nonterminal, new HashSet<Terminal>());
+            followSets.put(nonterminal, new HashSet<Terminal>());
+        }
+
+        // Each of these is a fixpoint: keep going over every rule until
+        // nothing new is learned
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(Nonterminal nonterminal : nonterminals) {
+                if(nullableNonterminals.contains(nonterminal)) {
+                    continue;
+                }
+                for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+                    if(canFinishFrom(rule, 0)) {
+                        nullableNonterminals.add(nonterminal);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        changed = true;
+        while(changed) {
+            changed = false;
+            for(Nonterminal nonterminal : nonterminals) {
+                HashSet<Terminal> firstSet = firstSets.get(nonterminal);
+                for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+                    changed |= firstSet.addAll(getFirstAfter(rule, 0));
+                }
+            }
+        }
+
+        followedByEndOfInput.add(grammar.getStartRule().getLeftHandSide());
+        changed = true;
+        while(changed) {
+            changed = false;
+            for(Nonterminal nonterminal : nonterminals) {
+                for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+                    RuleAutomaton automaton = rule.getAutomaton();
+                    for(int state = 1; state < automaton.getStateCount(); state++) {
+                        GrammarElement element = automaton.getElement(state);
+                        if(! (element instanceof Nonterminal)) {
+                            continue;
+                        }
+                        HashSet<Terminal> followSet = followSets.get(element);
+                        if(followSet == null) {
+                            // A nonterminal with no rules
+                            continue;
+                        }
+                        changed |= followSet.addAll(getFirstAfter(rule, state));
+                        if(canFinishFrom(rule, state)) {
+                            // Whatever comes after the left hand side can
+                            // come after this element too
+                            changed |= followSet.addAll(followSets.get(nonterminal));
+                            if(followedByEndOfInput.contains(nonterminal)) {
+                                changed |= followedByEndOfInput.add((Nonterminal) element);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public boolean isNullable(Nonterminal nonterminal) {
+        return nullableNonterminals.contains(nonterminal);
+    }
+
+    public Set<Nonterminal> getNullableNonterminals() {
+        return nullableNonterminals;
+    }
+
+    public Set<Terminal> getFirstSet(Nonterminal nonterminal) {
+        return firstSets.get(nonterminal);
+    }
+
+    public Set<Terminal> getFollowSet(Nonterminal nonterminal) {
+        return followSets.get(nonterminal);
+    }
+
+    public boolean isFollowedByEndOfInput(Nonterminal nonterminal) {
+        return followedByEndOfInput.contains(nonterminal);
+    }
+
+    // The terminals that can come next in the rule, once it's gotten to this
+    // state. This doesn't include what can come after the rule when the rest
+    // of it is nullable; canFinishFrom says whether that's possible
+    public Set<Terminal> getFirstAfter(GrammarRule rule, int state) {
+        RuleAutomaton automaton = rule.getAutomaton();
+        HashSet<Terminal> first = new HashSet<>();
+        for(int nextState : getStatesSkippingNullable(automaton, state)) {
+            GrammarElement element = automaton.getElement(nextState);
+            if(element instanceof Terminal) {
+                first.add((Terminal) element);
+            } else if(firstSets.containsKey(element)) {
+                first.addAll(firstSets.get(element));
+            }
+        }
+        return first;
+    }
+
+    // Whether the rest of the rule can match no tokens, once it's gotten to
+    // this state
+    public boolean canFinishFrom(GrammarRule rule, int state) {
+        RuleAutomaton automaton = rule.getAutomaton();
+        if(automaton.isFinal(state)) {
+            return true;
+        }
+        for(int nextState : getStatesSkippingNullable(automaton, state)) {
+            if(automaton.isFinal(nextState) &&
+                    nullableNonterminals.contains(automaton.getElement(nextState))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Every state that can be the next one to move over something that isn't
+    // empty, starting from this state: the ones right after it, and the ones
+    // after those if they're for nullable nonterminals, and so on
+    private List<Integer> getStatesSkippingNullable(RuleAutomaton automaton, int state) {
+        ArrayList<Integer> states = new ArrayList<>();
+        boolean[] seen = new boolean[automaton.getStateCount()];
+        ArrayDeque<Integer> toVisit = new ArrayDeque<>();
+        toVisit.add(state);
+        while(! toVisit.isEmpty()) {
+            int visiting = toVisit.remove();
+            for(int nextState : automaton.getNextStates(visiting)) {
+                if(seen[nextState]) {
+                    continue;
+                }
+                seen[nextState] = true;
+                states.add(nextState);
+                if(nullableNonterminals.contains(automaton.getElement(nextState))) {
+                    toVisit.add(nextState);
+                }
+            }
+        }
+        return states;
+    }
+}
@@ -0,0 +1,152 @@
+package shared.analysis;
+
+import shared.Nonterminal;
+
+import java.util.*;
+
+public class StronglyConnectedComponents {
+
+    // Tarjan's algorithm, over a graph of nonterminals. The grammar
+    // analysis runs it on the graph of which nonterminals each one's rules
+    // refer to, and on the graphs for left and right recursion, and the
+    // grammar optimizer runs it on the graph of unit rules
+
+    private HashSet<HashSet<Nonterminal>> components;
+    private HashMap<Nonterminal, HashSet<Nonterminal>> componentOf;
+    private HashSet<Nonterminal> cyclicNonterminals;
+
+    // Nonterminals that only show up as edge ends get components too
+    public StronglyConnectedComponents(Map<Nonterminal, ? extends Set<Nonterminal>> edges) {
+        HashMap<Nonterminal, TarjanNode> nonterminalsToNodes = new HashMap<>();
+        for(Nonterminal nonterminal : edges.keySet()) {
+            nonterminalsToNodes.put(nonterminal, new TarjanNode(nonterminal));
+        }
+        MutableInt index = new MutableInt();
+        Deque<TarjanNode> stack = new ArrayDeque<>();
+        components = new HashSet<>();
+        for(Nonterminal nonterminal : edges.keySet()) {
+            TarjanNode node = nonterminalsToNodes.get(nonterminal);
+            if(node.index == -1) {
+                strongConnect(node, edges, nonterminalsToNodes, index, stack, components);
+            }
+        }
+
+        componentOf = new HashMap<>();
+        cyclicNonterminals = new HashSet<>();
+        for(HashSet<Nonterminal> sCC : components) {
+            for(Nonterminal nonterminal : sCC) {
+                componentOf.put(nonterminal, sCC);
+            }
+            // This strongly connected component is cyclic if either:
+            // 1) It has a size greater than 1 OR
+            // 2) It has a size of 1 AND the one node in it has an edge
+            //    to itself
+            boolean cyclicComponent = sCC.size() > 1;
+            if(! cyclicComponent) {
+                Nonterminal singleNonterminal = sCC.iterator().next();
+                Set<Nonterminal> singleEdges = edges.get(singleNonterminal);
+                cyclicComponent = singleEdges != null && singleEdges.contains(singleNonterminal);
+            }
+            if(cyclicComponent) {
+                cyclicNonterminals.addAll(sCC);
+            }
+        }
+    }
+
+    public Set<HashSet<Nonterminal>> getComponents() {
+        return components;
+    }
+
+    public Set<Nonterminal> getComponentOf(Nonterminal nonterminal) {
+        return componentOf.get(nonterminal);
+    }
+
+    // The nonterminals that can reach themselves
+    public Set<Nonterminal> getCyclicNonterminals() {
+        return cyclicNonterminals;
+    }
+
+    private static void strongConnect(TarjanNode node,
+                                      Map<Nonterminal, ? extends Set<Nonterminal>> edges,
+                                      HashMap<Nonterminal, TarjanNode> nonterminalsToNodes,
+                                      MutableInt index,
+                                      Deque<TarjanNode> stack,
+                                      HashSet<HashSet<Nonterminal>> sCCs) {
+        node.index = index.value;
+        node.lowLink = index.value;
+        index.value++;
+        stack.push(node);
+        node.onStack = true;
+
+        Set<Nonterminal> nodeEdges = edges.get(node.nonterminal);
+        if(nodeEdges != null) {
+            for(Nonterminal connectedNonterminal : nodeEdges) {
+                TarjanNode connectedNode = nonterminalsToNodes.get(connectedNonterminal);
+                if(connectedNode == null) {
+                    connectedNode = new TarjanNode(connectedNonterminal);
+                    nonterminalsToNodes.put(connectedNonterminal, connectedNode);
+                }
+                if (connectedNode.index == -1) {
+                    strongConnect(connectedNode, edges, nonterminalsToNodes, index, stack, sCCs);
+                    node.lowLink = Math.min(node.lowLink, connectedNode.lowLink);
+                } else if(connectedNode.onStack) {
+                    node.lowLink = Math.min(node.lowLink, connectedNode.index);
+                }
+            }
+        }
+
+        if(node.lowLink == node.index) {
+            HashSet<Nonterminal> sCC = new HashSet<>();
+            while(node.onStack) {
+                TarjanNode poppedNode = stack.pop();
+                poppedNode.onStack = false;
+                sCC.add(poppedNode.nonterminal);
+            }
+            sCCs.add(sCC);
+        }
+    }
+
+    private static class TarjanNode {
+
+        public int index;
+        public int lowLink;
+        public boolean onStack;
+        public Nonterminal nonterminal;
+
+        public TarjanNode(Nonterminal n) {
+            index = -1;
+            lowLink = -1;
+            onStack = false;
+            nonterminal = n;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(! (other instanceof TarjanNode)) {
+                return false;
+            }
+            TarjanNode otherNode = (TarjanNode) other;
+            return otherNode.nonterminal.equals(nonterminal);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(nonterminal);
+        }
+
+        @Override
+        public String toString() {
+            return "Node[" + nonterminal + ", " + index + ", " + lowLink +
+                    ", " + onStack + "]";
+        }
+    }
+
+    private static class MutableInt {
+
+        public int value;
+
+        public MutableInt() {
+            value = 0;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package shared.analysis;
+
+import shared.*;
+
+import java.util.*;
+
+public class WordSource {
+
+    // Makes up random words in a grammar's language, for benchmarks and
+    // for anything that has to try parsers out before it sees real input.
+    // EBNF operators aren't expanded, so the grammar has to be plain BNF
+
+    private Grammar grammar;
+    private Random random;
+    // For each nonterminal, the rules that keep us in a cycle or moving
+    // towards one, so that applying them keeps the word growing
+    private HashMap<Nonterminal, List<GrammarRule>> growingRules;
+    // For each nonterminal, a finite string of terminals it produces
+    private HashMap<Nonterminal, List<Terminal>> finishingStrings;
+
+    public WordSource(Grammar g) {
+        grammar = g;
+        random = new Random();
+        GrammarAnalysis analysis = GrammarAnalysis.of(grammar);
+
+        // Now go through the nonterminals, and find all rules that
+        // will not progress completely toward a terminal
+        growingRules = new HashMap<>();
+        for(Nonterminal nonterminal: grammar.getNonterminals()) {
+            List<GrammarRule> rules = grammar.getRulesWithLeftHandSide(nonterminal);
+            List<GrammarRule> goodRules = new ArrayList<>();
+            for(GrammarRule possibleRule : rules) {
+                for(GrammarElement element : possibleRule.getRightHandSide()) {
+                    if(element instanceof Terminal) {
+                        continue;
+                    }
+                    Nonterminal currentNonterminal = (Nonterminal) element;
+                    if(analysis.canReachCycle(currentNonterminal)) {
+                        goodRules.add(possibleRule);
+                        break;
+                    }
+                }
+            }
+            if(! goodRules.isEmpty()) {
+                growingRules.put(nonterminal, goodRules);
+            } else {
+                // There were no rules that kept us in a cycle or moving
+                // towards a cycle. In other words, for every rule, the
+                // right hand side evaluates to a finite length string
+                // of terminals. So we'll just use all the rules, since
+                // they're all equally bad.
+                growingRules.put(nonterminal, rules);
+            }
+        }
+
+        // Once we have expanded our working string to the desired
+        // length, we will use the finishing strings to finish making it
+        // entirely terminals
+        finishingStrings = new HashMap<>();
+        for(Nonterminal nonterminal : grammar.getNonterminals()) {
+            if(analysis.isProductive(nonterminal)) {
+                finishingStrings.put(nonterminal, analysis.getFinishingString(nonterminal));
+            }
+        }
+    }
+
+    // Generates a random word in the language with at least
+    // targetNumTerminals terminals (it will usually overshoot a little)
+    public List<Terminal> generate(int targetNumTerminals) {
+        // We start with a list of a single node, the start nonterminal
+        // (and the head node)
+        int numTerminals = 0;
+        LinkedListNode head = new LinkedListNode(null);
+        LinkedListNode firstNode =
+                new LinkedListNode(grammar.getStartRule().getLeftHandSide());
+        head.setNext(firstNode);
+        firstNode.setPrevious(head);
+        RandomRemovalSet<LinkedListNode> nonterminalsInList =
+                new RandomRemovalSet<>();
+        nonterminalsInList.add(firstNode);
+
+        while(numTerminals < targetNumTerminals) {
+            LinkedListNode removedNode = nonterminalsInList.removeRandom();
+            Nonterminal removedNonterminal = (Nonterminal) removedNode.getElement();
+            List<GrammarRule> replacements = growingRules.get(removedNonterminal);
+            // randomly pick a growing rule
+            GrammarRule replacement = replacements.get(random.nextInt(replacements.size()));
+            // remove the old node from the list, keeping track of its
+            // previous and next nodes
+            LinkedListNode previousNode = removedNode.getPrevious();
+            removedNode.setPrevious(null);
+            previousNode.setNext(null);
+            LinkedListNode nextNode = removedNode.getNext();
+            removedNode.setNext(null);
+            // watch out, nextNode can be null
+            if(nextNode != null) {
+                nextNode.setPrevious(null);
+            }
+            // add the replacements into the list
+            LinkedListNode prev = previousNode;
+            for(GrammarElement newElement : replacement.getRightHandSide()) {
+                LinkedListNode newNode = new LinkedListNode(newElement);
+                prev.setNext(newNode);
+                newNode.setPrevious(prev);
+                if(newElement instanceof Terminal) {
+                    numTerminals++;
+                } else {
+                    nonterminalsInList.add(newNode);
+                }
+                prev = newNode;
+            }
+            prev.setNext(nextNode);
+            if(nextNode != null) {
+                nextNode.setPrevious(prev);
+            }
+        }
+
+        // Now the list has the desired amount of terminals in it. All
+        // we have to do now is replace all the remaining nonterminals
+        // with finishing strings
+        List<Terminal> word = new ArrayList<>();
+        LinkedListNode currentNode = head.getNext();
+        while(currentNode != null) {
+            GrammarElement currentElement = currentNode.getElement();
+            if(currentElement instanceof Terminal) {
+                word.add((Terminal) currentElement);
+            } else {
+                Nonterminal currentNonterminal = (Nonterminal) currentElement;
+                word.addAll(finishingStrings.get(currentNonterminal));
+            }
+            currentNode = currentNode.getNext();
+        }
+        return word;
+    }
+
+    // Generates a word as tokens, with the pattern of each terminal as the
+    // text of its token, which in the test grammars is the literal text
+    public List<Token> generateTokens(int targetNumTerminals) {
+        List<Terminal> word = generate(targetNumTerminals);
+        ArrayList<Token> tokens = new ArrayList<>(word.size());
+        for(Terminal terminal : word) {
+            Symbol symbol = terminal.getSymbol();
+            tokens.add(new Token(symbol.getPattern(), symbol));
+        }
+        return tokens;
+    }
+
+    private static class LinkedListNode {
+
+        private LinkedListNode previous;
+        private LinkedListNode next;
+        private GrammarElement element;
+
+        public LinkedListNode(GrammarElement gE) {
+            element = gE;
+        }
+
+        public LinkedListNode getPrevious() {
+            return previous;
+        }
+
+        public LinkedListNode getNext() {
+            return next;
+        }
+
+        public void setPrevious(LinkedListNode p) {
+            previous = p;
+        }
+
+        public void setNext(LinkedListNode n) {
+            next = n;
+        }
+
+        public GrammarElement getElement() {
+            return element;
+        }
+
+        // intentionally leaving equals and hashCode blank, I want
+        // them to be based on identity
+
+        @Override
+        public String toString() {
+            return element.toString();
+        }
+    }
+
+    private static class RandomRemovalSet<E> {
+
+        private HashMap<E, Integer> map;
+        private ArrayList<E> list;
+        private Random random;
+
+        public RandomRemovalSet() {
+            map = new HashMap<>();
+            list = new ArrayList<>();
+            random = new Random();
+        }
+
+        public void add(E element) {
+            if(map.containsKey(element)) {
+                return;
+            }
+            map.put(element, list.size());
+            list.add(element);
+        }
+
+        public E removeRandom() {
+            int randIndex = random.nextInt(list.size());
+            E removedElement = list.get(randIndex);
+            list.set(randIndex, list.get(list.size() - 1));
+            list.remove(list.size() - 1);
+            map.remove(removedElement);
+            return removedElement;
+        }
+
+        public boolean isEmpty() {
+            return map.isEmpty();
+        }
+
+        public int size() {
+            return map.size();
+        }
+    }
+}
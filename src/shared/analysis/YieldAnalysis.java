@@ -0,0 +1,211 @@
+package shared.analysis;
+
+import shared.*;
+
+import java.util.*;
+
+public class YieldAnalysis {
+
+    // What the nonterminals of a grammar can produce: which of them can
+    // produce a finite string of terminals at all, one such string for each
+    // of those, and the length of the shortest string each can produce
+
+    public static final int UNPRODUCTIVE = Integer.MAX_VALUE;
+
+    // For each productive nonterminal, a finite string of terminals it
+    // produces. A nonterminal that can't produce one isn't in here
+    private HashMap<Nonterminal, List<Terminal>> finishingStrings;
+    private HashMap<Nonterminal, Integer> minimalYieldLengths;
+
+    public YieldAnalysis(Grammar grammar, Set<Terminal> terminals) {
+        computeFinishingStrings(grammar, terminals);
+        computeMinimalYieldLengths(grammar);
+    }
+
+    public boolean isProductive(Nonterminal nonterminal) {
+        return finishingStrings.containsKey(nonterminal);
+    }
+
+    public List<Terminal> getFinishingString(Nonterminal nonterminal) {
+        return finishingStrings.get(nonterminal);
+    }
+
+    // The fewest tokens a match of the nonterminal can have, or
+    // UNPRODUCTIVE if it can't match any string of tokens
+    public int getMinimalYieldLength(Nonterminal nonterminal) {
+        Integer length = minimalYieldLengths.get(nonterminal);
+        if(length == null) {
+            return UNPRODUCTIVE;
+        }
+        return length;
+    }
+
+    private void computeMinimalYieldLengths(Grammar grammar) {
+        // Every nonterminal starts out unproductive, and then each rule gets
+        // the length of the shortest path through its automaton, with the
+        // lengths we know so far for the nonterminals on the way. The
+        // lengths only go down, so this stops once a pass doesn't change any
+        minimalYieldLengths = new HashMap<>();
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(Nonterminal nonterminal : grammar.getNonterminals()) {
+                int shortest = getMinimalYieldLength(nonterminal);
+                for(GrammarRule rule : grammar.getRulesWithLeftHandSide(nonterminal)) {
+                    shortest = Math.min(shortest, getShortestPathLength(rule.getAutomaton()));
+                }
+                if(shortest < getMinimalYieldLength(nonterminal)) {
+                    minimalYieldLengths.put(nonterminal, shortest);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // Dijkstra's algorithm over the states of the automaton, where moving
+    // to a state costs the length of the element it moves over
+    private int getShortestPathLength(RuleAutomaton automaton) {
+        int[] distances = new int[automaton.getStateCount()];
+        boolean[] done = new boolean[automaton.getStateCount()];
+        Arrays.fill(distances, UNPRODUCTIVE);
+        distances[0] = 0;
+        while(true) {
+            int closest = -1;
+            for(int state = 0; state < distances.length; state++) {
+                if(! done[state] && distances[state] != UNPRODUCTIVE &&
+                        (closest == -1 || distances[state] < distances[closest])) {
+                    closest = state;
+                }
+            }
+            if(closest == -1) {
+                return UNPRODUCTIVE;
+            }
+            if(automaton.isFinal(closest)) {
+                return distances[closest];
+            }
+            done[closest] = true;
+            for(int nextState : automaton.getNextStates(closest)) {
+                GrammarElement element = automaton.getElement(nextState);
+                int elementLength = 1;
+                if(element instanceof Nonterminal) {
+                    elementLength = getMinimalYieldLength((Nonterminal) element);
+                }
+                if(elementLength == UNPRODUCTIVE) {
+                    continue;
+                }
+                distances[nextState] = Math.min(distances[nextState], distances[closest] + elementLength);
+            }
+        }
+    }
+
+    private void computeFinishingStrings(Grammar grammar, Set<Terminal> terminals) {
+        // Now we want to go through the nonterminals and, for each
+        // one, come up with a finite length string that it produces.
+        // We will reverse the edges in the graph, this time including
+        // the terminals. Then we will do a topological sort on the graph.
+        // A rule with EBNF operators starts out as the shortest sequence
+        // of elements it matches. Without alternation, every element in
+        // that sequence is in every sequence the rule matches, so if it
+        // can't be finished, no other sequence could be either
+
+        Set<Nonterminal> nonterminals = grammar.getNonterminals();
+        finishingStrings = new HashMap<>();
+        HashMap<Nonterminal, List<List<GrammarElement>>> workingFinishingStrings
+                 = new HashMap<>();
+        HashMap<GrammarElement, HashSet<Nonterminal>> allReverseEdges = new HashMap<>();
+        // Go ahead and put empty lists all in the maps
+        for(Nonterminal nonterminal : nonterminals) {
+            allReverseEdges.put(nonterminal, new HashSet<Nonterminal>());
+            workingFinishingStrings.put(nonterminal, new ArrayList<List<GrammarElement>>());
+        }
+        for(Terminal terminal : terminals) {
+            allReverseEdges.put(terminal, new HashSet<Nonterminal>());
+        }
+        // Now populate the allReverseEdges and workingFinishingStrings maps
+        for(Nonterminal nonterminal : nonterminals) {
+            List<GrammarRule> rules = grammar.getRulesWithLeftHandSide(nonterminal);
+            for(GrammarRule rule : rules) {
+                List<GrammarElement> ruleList = new ArrayList<>();
+                ruleList.addAll(rule.getAutomaton().getShortestMatch());
+                // First, add to the reverse edges map
+                for(GrammarElement element : ruleList) {
+                    if(allReverseEdges.containsKey(element)) {
+                        allReverseEdges.get(element).add(nonterminal);
+                    }
+                }
+                // Now, get the workingFinishStrings map going
+                workingFinishingStrings.get(nonterminal).add(ruleList);
+            }
+        }
+
+        // Now we do the topological sort
+        Queue<GrammarElement> finishedElements = new ArrayDeque<>();
+        finishedElements.addAll(terminals);
+        while(! finishedElements.isEmpty()) {
+            GrammarElement processing = finishedElements.remove();
+            List<Terminal> terminalsOfProcessing;
+            if(processing instanceof Terminal) {
+                // just do this for convenience
+                terminalsOfProcessing = new ArrayList<>();
+                terminalsOfProcessing.add((Terminal) processing);
+            } else {
+                terminalsOfProcessing = finishingStrings.get(processing);
+            }
+
+            HashSet<Nonterminal> nonterminalsWithThisElement = allReverseEdges.get(processing);
+            for(Nonterminal nonterminalToEdit : nonterminalsWithThisElement) {
+                // If this nonterminal has already been finished, we
+                // don't need to consider it at all. How could that
+                // happen, if nonterminalToEdit is used in it somewhere
+                // and we're just now about to start substituting
+                // nonterminalToEdit into it? Well maybe one of its
+                // rules uses nonterminalToEdit, but another rule
+                // doesn't, and that other rule has already been finished.
+                if(finishingStrings.containsKey(nonterminalToEdit)) {
+                    continue;
+                }
+                // Look through all the rules that we're working with for
+                // this nonterminal
+                List<List<GrammarElement>> workingRules = workingFinishingStrings.get(nonterminalToEdit);
+                for(List<GrammarElement> workingRule : workingRules) {
+                    // Replace all instances of processing with their
+                    // terminals
+                    for(int i = 0; i < workingRule.size(); i++) {
+                        if(workingRule.get(i).equals(processing)) {
+                            // replace it with terminalsOfProcessing
+                            workingRule.remove(i);
+                            workingRule.addAll(i, terminalsOfProcessing);
+                            // we can go ahead and increment i some
+                            // must be careful not to forget that the for
+                            // loop will increment i once more too
+                            i += terminalsOfProcessing.size() - 1;
+                        }
+                    }
+                    // Check if the list is all terminals now. If it it,
+                    // it's done, and so we've got a finishing string
+                    // for this nonterminal, so we're done
+                    boolean allTerminals = true;
+                    for(GrammarElement element : workingRule) {
+                        if(element instanceof Nonterminal) {
+                            allTerminals = false;
+                            break;
+                        }
+                    }
+                    if(allTerminals) {
+                        // Java is dumb and is making me make an entirely
+                        // new list, it says I can't cast workingRule to
+                        // a List<Terminal>
+                        List<Terminal> finishedRule = new ArrayList<>();
+                        for(GrammarElement element : workingRule) {
+                            finishedRule.add((Terminal) element);
+                        }
+                        finishingStrings.put(nonterminalToEdit, finishedRule);
+                        finishedElements.add(nonterminalToEdit);
+                        // And we're done with this nonterminal
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}
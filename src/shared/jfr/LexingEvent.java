@@ -0,0 +1,21 @@
+package shared.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("parser.Lexing")
+@Label("Lexing")
+@Category("Parser")
+@Description("Splitting a line of input into tokens")
+public class LexingEvent extends Event {
+
+    @Label("Input Length")
+    public int inputLength;
+
+    // -1 if the line couldn't be tokenized
+    @Label("Token Count")
+    public int tokenCount;
+}
@@ -0,0 +1,34 @@
+package shared.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("parser.Recognition")
+@Label("Recognition")
+@Category("Parser")
+@Description("Filling the sigma sets for a list of tokens")
+public class RecognitionEvent extends Event {
+
+    @Label("Engine")
+    public String engine;
+
+    @Label("Token Count")
+    public int tokenCount;
+
+    @Label("Chart Entries")
+    @Description("Entries in all of the sigma sets together")
+    public long chartEntries;
+
+    @Label("Peak Sigma Set Size")
+    public int peakSigmaSetSize;
+
+    @Label("Ambiguity Count")
+    @Description("Preceding entries beyond the first, over every entry of the chart")
+    public long ambiguityCount;
+
+    @Label("Accepted")
+    public boolean accepted;
+}
@@ -0,0 +1,24 @@
+package shared.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("parser.TreeBuilding")
+@Label("Tree Building")
+@Category("Parser")
+@Description("Building the parse forest from filled sigma sets")
+public class TreeBuildingEvent extends Event {
+
+    @Label("Engine")
+    public String engine;
+
+    @Label("Token Count")
+    public int tokenCount;
+
+    @Label("Forest Nodes")
+    @Description("Parse tree nodes made or reused, counting each leaf and each nonterminal over a span once")
+    public int forestNodes;
+}
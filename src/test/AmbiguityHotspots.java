@@ -0,0 +1,68 @@
+package test;
+
+import earleyparser.EarleyParser;
+import shared.*;
+import shared.analysis.WordSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AmbiguityHotspots {
+
+    public static final String DEFAULT_GRAMMAR_FILE_NAME = "grammar.txt";
+    // Without a corpus, this many generated words of each length are
+    // parsed. The forests of the bundled grammars grow very quickly with
+    // the length of the word, so these are kept fairly short
+    public static final int[] GENERATED_WORD_LENGTHS = {5, 10, 20};
+    public static final int WORDS_PER_LENGTH = 20;
+    public static final int REPORT_LIMIT = 15;
+
+    // Parses a corpus with the Earley parser, which knows the rule of every
+    // entry, and prints which nonterminals and rules of the grammar the
+    // ambiguity costs the most on. Each line of the corpus file is one
+    // input, lexed with the grammar's LEX section. Lines that can't be
+    // tokenized are skipped. Without a corpus file, random words from the
+    // grammar are parsed instead
+    // Usage: AmbiguityHotspots [grammarFile [corpusFile]]
+    public static void main(String[] args) throws IOException {
+        String grammarFileName = args.length > 0 ? args[0] : DEFAULT_GRAMMAR_FILE_NAME;
+        GrammarFile grammarFile = GrammarFile.read(new File(grammarFileName));
+        Grammar grammar = grammarFile.getGrammar();
+
+        ArrayList<List<Token>> corpus = new ArrayList<>();
+        if(args.length > 1) {
+            Lexer lexer = grammarFile.createLexer();
+            int skipped = 0;
+            for(String line : Files.readAllLines(new File(args[1]).toPath(), StandardCharsets.UTF_8)) {
+                List<Token> tokens = lexer.tokenize(line);
+                if(tokens == null) {
+                    skipped++;
+                } else {
+                    corpus.add(tokens);
+                }
+            }
+            if(skipped > 0) {
+                System.out.println(skipped + " lines couldn't be tokenized");
+            }
+        } else {
+            WordSource generator = new WordSource(grammar);
+            for(int wordLength : GENERATED_WORD_LENGTHS) {
+                for(int i = 0; i < WORDS_PER_LENGTH; i++) {
+                    corpus.add(generator.generateTokens(wordLength));
+                }
+            }
+        }
+
+        EarleyParser parser = new EarleyParser(grammar);
+        AmbiguityProfiler profiler = new AmbiguityProfiler(grammar);
+        parser.setParseListener(profiler);
+        for(List<Token> tokens : corpus) {
+            profiler.addForest(parser.parse(tokens));
+        }
+        profiler.printReport(System.out, REPORT_LIMIT);
+    }
+}
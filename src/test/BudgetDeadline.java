@@ -0,0 +1,80 @@
+package test;
+
+import earleyparser.EarleyParser;
+import gfgparser.GFGParser;
+import shared.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class BudgetDeadline {
+
+    public static final String DEFAULT_GRAMMAR_FILE_NAME = "grammar.txt";
+    // Every way of grouping a sum is a parse, so the number of trees grows
+    // exponentially with the number of terms
+    public static final int[] TERM_COUNTS = {8, 16, 32, 64, 96, 128};
+    public static final long MAX_CHART_ENTRIES = 100000;
+    public static final long MAX_FOREST_NODES = 2000;
+    public static final long TIMEOUT_NANOS = 100 * 1000 * 1000L;
+    // How long past its deadline a parse can take before it's reported as
+    // late. The budget only looks at the clock every so often, and a
+    // garbage collection pause can come in between
+    public static final long ALLOWED_LATENESS_NANOS = TIMEOUT_NANOS / 2;
+
+    // Parses sums that get more and more ambiguous with a chart limit, a
+    // forest limit and a deadline, and prints how each parse ended and how
+    // long it took. Whichever runs out first, the parse should be back by
+    // about the deadline, however many trees there are
+    // Usage: BudgetDeadline [grammarFile]
+    public static void main(String[] args) throws IOException {
+        String grammarFileName = args.length > 0 ? args[0] : DEFAULT_GRAMMAR_FILE_NAME;
+        GrammarFile grammarFile = GrammarFile.read(new File(grammarFileName));
+        Grammar grammar = grammarFile.getGrammar();
+        Lexer lexer = grammarFile.createLexer();
+        EarleyParser earleyParser = new EarleyParser(grammar);
+        GFGParser gfgParser = new GFGParser(grammar);
+
+        // Warm up the JIT, so the first timings aren't all compiling
+        List<Token> warmupTokens = lexer.tokenize(sum(TERM_COUNTS[0]));
+        for(int i = 0; i < 20; i++) {
+            earleyParser.parse(warmupTokens, null);
+            gfgParser.parse(warmupTokens, null);
+        }
+
+        int lateParses = 0;
+        for(int termCount : TERM_COUNTS) {
+            List<Token> tokens = lexer.tokenize(sum(termCount));
+            System.out.println(termCount + " terms, " + tokens.size() + " tokens:");
+            lateParses += report("EarleyParser", earleyParser, tokens);
+            lateParses += report("GFGParser", gfgParser, tokens);
+        }
+        System.out.println(lateParses == 0 ? "Every parse kept to its budget" : lateParses + " parses ran late");
+    }
+
+    // Returns 1 if the parse ran late
+    private static int report(String name, Parser parser, List<Token> tokens) {
+        ParseBudget budget = new ParseBudget(MAX_CHART_ENTRIES, MAX_FOREST_NODES, TIMEOUT_NANOS, null);
+        long startTime = System.nanoTime();
+        ParseOutcome outcome = parse(parser, tokens, budget);
+        long elapsed = System.nanoTime() - startTime;
+        boolean late = elapsed > TIMEOUT_NANOS + ALLOWED_LATENESS_NANOS;
+        System.out.println(String.format("    %-13s %8.1fms  %s%s", name, elapsed / 1e6, outcome, late ? "  LATE" : ""));
+        return late ? 1 : 0;
+    }
+
+    private static ParseOutcome parse(Parser parser, List<Token> tokens, ParseBudget budget) {
+        if(parser instanceof EarleyParser) {
+            return ((EarleyParser) parser).parse(tokens, budget);
+        }
+        return ((GFGParser) parser).parse(tokens, budget);
+    }
+
+    private static String sum(int termCount) {
+        StringBuilder source = new StringBuilder("int f() { return 1");
+        for(int i = 1; i < termCount; i++) {
+            source.append(" + 1");
+        }
+        return source.append("; }").toString();
+    }
+}
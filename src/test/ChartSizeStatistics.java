@@ -0,0 +1,116 @@
+package test;
+
+import gfgparser.GFGParser;
+import shared.*;
+import shared.analysis.WordSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChartSizeStatistics {
+
+    public static final String[] GRAMMAR_FILE_NAMES = {
+            "grammar.txt",
+            "addition_grammar.txt"
+    };
+    public static final int[] DEFAULT_WORD_LENGTHS = {25, 50, 100, 200};
+    public static final int WORDS_PER_LENGTH = 20;
+    // How many times the words are recognized before we start timing, so
+    // that the JIT has a chance to warm up
+    public static final int WARMUP_ROUNDS = 5;
+    public static final int TIMED_ROUNDS = 10;
+
+    // Compares the number of sigma set entries the GFG parser stores, and
+    // how long it takes to recognize random words from the grammars, for
+    // each way of building the GFG, and for the optimized grammar
+    // Usage: ChartSizeStatistics [wordLength ...]
+    public static void main(String[] args) throws IOException {
+        int[] wordLengths = DEFAULT_WORD_LENGTHS;
+        if(args.length > 0) {
+            wordLengths = new int[args.length];
+            for(int i = 0; i < args.length; i++) {
+                wordLengths[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for(String grammarFileName : GRAMMAR_FILE_NAMES) {
+            Grammar grammar = WordGenerator.readGrammar(grammarFileName);
+            WordSource generator = new WordSource(grammar);
+            String[] configurationNames = {
+                    "rule chains",
+                    "rule chains + closures",
+                    "prefix trie + closures",
+                    "optimized grammar too"
+            };
+            // The optimized grammar uses the same terminals, so it can
+            // recognize the same words
+            Grammar optimizedGrammar = new GrammarOptimizer(grammar).getOptimizedGrammar();
+            GFGParser[] parsers = {
+                    new GFGParser(grammar, false, false),
+                    new GFGParser(grammar, true, false),
+                    new GFGParser(grammar, true, true),
+                    new GFGParser(optimizedGrammar, true, true)
+            };
+
+            System.out.println(grammarFileName + ": average entries per sigma set, and time to recognize a word");
+            for(int wordLength : wordLengths) {
+                ArrayList<List<Token>> words = new ArrayList<>();
+                long sigmaSetCount = 0;
+                for(int i = 0; i < WORDS_PER_LENGTH; i++) {
+                    List<Token> tokens = toTokens(generator.generate(wordLength));
+                    words.add(tokens);
+                    // There's one more sigma set than there are tokens
+                    sigmaSetCount += tokens.size() + 1;
+                }
+
+                System.out.println("    length " + wordLength + ":");
+                double baselineEntries = 0;
+                double baselineMicros = 0;
+                for(int i = 0; i < parsers.length; i++) {
+                    long entries = 0;
+                    for(List<Token> word : words) {
+                        entries += parsers[i].getChartSize(word);
+                    }
+                    double entriesPerSigmaSet = (double) entries / sigmaSetCount;
+                    double microsPerWord = timeRecognizing(parsers[i], words);
+                    if(i == 0) {
+                        baselineEntries = entriesPerSigmaSet;
+                        baselineMicros = microsPerWord;
+                    }
+                    System.out.println(String.format("        %-24s %7.1f entries (%3.0f%% fewer) %9.1fus (%3.0f%% faster)",
+                            configurationNames[i],
+                            entriesPerSigmaSet, 100 * (1 - entriesPerSigmaSet / baselineEntries),
+                            microsPerWord, 100 * (1 - microsPerWord / baselineMicros)));
+                }
+            }
+        }
+    }
+
+    private static double timeRecognizing(GFGParser parser, List<List<Token>> words) {
+        for(int round = 0; round < WARMUP_ROUNDS; round++) {
+            for(List<Token> word : words) {
+                parser.getChartSize(word);
+            }
+        }
+        long startTime = System.nanoTime();
+        for(int round = 0; round < TIMED_ROUNDS; round++) {
+            for(List<Token> word : words) {
+                parser.getChartSize(word);
+            }
+        }
+        long elapsed = System.nanoTime() - startTime;
+        return elapsed / 1000.0 / (TIMED_ROUNDS * words.size());
+    }
+
+    // Only the types of the tokens matter to the recognizer, so the text
+    // is just the pattern
+    private static List<Token> toTokens(List<Terminal> word) {
+        ArrayList<Token> tokens = new ArrayList<>(word.size());
+        for(Terminal terminal : word) {
+            Symbol symbol = terminal.getSymbol();
+            tokens.add(new Token(symbol.getPattern(), symbol));
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,114 @@
+package test;
+
+import bitparser.BitParallelParser;
+import cykparser.CYKParser;
+import earleyparser.EarleyParser;
+import gfgparser.GFGParser;
+import gllparser.GLLParser;
+import glrparser.GLRParser;
+import lalrparser.LALRParser;
+import lr0parser.LR0Parser;
+import shared.*;
+import shared.analysis.WordSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParserBenchmark {
+
+    // Every bundled grammar except ebnf_grammar.txt, since the word
+    // generator can't expand EBNF operators
+    public static final String[] GRAMMAR_FILE_NAMES = {
+            "test_grammar.txt",
+            "addition_test_grammar.txt",
+            "programming_language_test_grammar.txt",
+            "addition_grammar.txt",
+            "programming_language_grammar.txt",
+            "grammar.txt"
+    };
+    // The forests of the test grammars grow very quickly with the length of
+    // the word, so these are kept fairly short
+    public static final int[] DEFAULT_WORD_LENGTHS = {5, 10, 20};
+    public static final int WORDS_PER_LENGTH = 20;
+    // How many times each word is parsed before we start timing, so that
+    // the JIT has a chance to warm up
+    public static final int WARMUP_ROUNDS = 3;
+    public static final int TIMED_ROUNDS = 5;
+
+    // Usage: ParserBenchmark [wordLength ...]
+    public static void main(String[] args) throws IOException {
+        int[] wordLengths = DEFAULT_WORD_LENGTHS;
+        if(args.length > 0) {
+            wordLengths = new int[args.length];
+            for(int i = 0; i < args.length; i++) {
+                wordLengths[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for(String grammarFileName : GRAMMAR_FILE_NAMES) {
+            Grammar grammar = WordGenerator.readGrammar(grammarFileName);
+            WordSource generator = new WordSource(grammar);
+
+            BitParallelParser bitParser = new BitParallelParser(grammar);
+            Parser[] parsers = {
+                    new EarleyParser(grammar),
+                    new GFGParser(grammar),
+                    bitParser,
+                    new LR0Parser(grammar),
+                    new LALRParser(grammar),
+                    new GLRParser(grammar),
+                    new GLLParser(grammar),
+                    new CYKParser(grammar),
+                    new CYKParser(grammar, true)
+            };
+
+            System.out.println(grammarFileName + (bitParser.isUsingFallback() ? " (bit parallel parser fell back)" : ""));
+            for(int wordLength : wordLengths) {
+                ArrayList<List<Token>> words = new ArrayList<>();
+                for(int i = 0; i < WORDS_PER_LENGTH; i++) {
+                    words.add(generator.generateTokens(wordLength));
+                }
+
+                // Make sure all of the parsers agree before we time them
+                for(List<Token> word : words) {
+                    ParseTreeNode expected = parsers[0].parse(word);
+                    for(int i = 1; i < parsers.length; i++) {
+                        ParseTreeNode actual = parsers[i].parse(word);
+                        if(expected == null ? actual != null : ! expected.equals(actual)) {
+                            System.out.println("    " + nameOf(parsers[i]) + " disagrees with " + nameOf(parsers[0]));
+                        }
+                    }
+                }
+
+                System.out.print("    length " + wordLength + ":");
+                for(Parser parser : parsers) {
+                    for(int round = 0; round < WARMUP_ROUNDS; round++) {
+                        parseAll(parser, words);
+                    }
+                    long startTime = System.nanoTime();
+                    for(int round = 0; round < TIMED_ROUNDS; round++) {
+                        parseAll(parser, words);
+                    }
+                    long elapsed = System.nanoTime() - startTime;
+                    double microsPerWord = elapsed / 1000.0 / (TIMED_ROUNDS * words.size());
+                    System.out.print(String.format("  %s %.1fus", nameOf(parser), microsPerWord));
+                }
+                System.out.println();
+            }
+        }
+    }
+
+    private static void parseAll(Parser parser, List<List<Token>> words) {
+        for(List<Token> word : words) {
+            parser.parse(word);
+        }
+    }
+
+    private static String nameOf(Parser parser) {
+        if(parser instanceof CYKParser && ((CYKParser) parser).isParallel()) {
+            return "ParallelCYKParser";
+        }
+        return parser.getClass().getSimpleName();
+    }
+}